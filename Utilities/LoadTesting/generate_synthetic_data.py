@@ -0,0 +1,107 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+
+"""
+Generates synthetic patients, visits and forms on a running CARDS instance, for load testing and capacity planning.
+
+The actual generation happens on the server, in the /Forms.generate endpoint; this script splits the requested volume
+into chunks of patients and sends several chunks in parallel, reporting the progress and the creation throughput.
+The endpoint is disabled by default, see the README for how to enable it on a test instance.
+
+Example, 1M forms across 100k patients, each with 5 visits and 2 forms per visit:
+
+  python3 generate_synthetic_data.py --patients 100000 --visits 5 \\
+    --patient_type /SubjectTypes/Patient --visit_type /SubjectTypes/Patient/Visit \\
+    --questionnaire /Questionnaires/Visit\\ information --questionnaire /Questionnaires/ED
+"""
+
+import os
+import sys
+import time
+import argparse
+import requests
+from concurrent.futures import ThreadPoolExecutor, as_completed
+
+CARDS_URL = "http://localhost:8080"
+if "CARDS_URL" in os.environ:
+  CARDS_URL = os.environ["CARDS_URL"].rstrip('/')
+
+ADMIN_PASSWORD = "admin"
+if "ADMIN_PASSWORD" in os.environ:
+  ADMIN_PASSWORD = os.environ["ADMIN_PASSWORD"]
+
+argparser = argparse.ArgumentParser(description="Generate synthetic clinical data on a CARDS instance")
+argparser.add_argument('--questionnaire', help='Path of a questionnaire to fill in for each visit, may be repeated', action='append', required=True)
+argparser.add_argument('--patients', help='How many patients to create', type=int, required=True)
+argparser.add_argument('--patient_type', help='Path of the subject type of the generated patients', required=True)
+argparser.add_argument('--visit_type', help='Path of the subject type of the generated visits, a child of the patient type; needed unless --visits is 0')
+argparser.add_argument('--visits', help='How many visits to create for each patient, 0 to attach forms directly to patients', type=int, default=1)
+argparser.add_argument('--offset', help='Number of the first patient, to add more data to a previous run without identifier clashes', type=int, default=0)
+argparser.add_argument('--prefix', help='Prefix for the generated patient identifiers', default='LT')
+argparser.add_argument('--chunk_size', help='How many patients to create in each request', type=int, default=500)
+argparser.add_argument('--parallel_requests', help='How many requests to send at the same time', type=int, default=2)
+argparser.add_argument('--server_threads', help='How many threads each request uses on the server', type=int, default=4)
+argparser.add_argument('--batch_size', help='How many forms the server creates before each save', type=int, default=200)
+args = argparser.parse_args()
+
+def generate_chunk(offset, patients):
+  data = {
+    'questionnaire': args.questionnaire,
+    'patients': patients,
+    'patientType': args.patient_type,
+    'visits': args.visits,
+    'offset': offset,
+    'prefix': args.prefix,
+    'threads': args.server_threads,
+    'batchSize': args.batch_size
+  }
+  if args.visit_type:
+    data['visitType'] = args.visit_type
+  resp = requests.post(CARDS_URL + "/Forms.generate", data=data, auth=('admin', ADMIN_PASSWORD))
+  if resp.status_code != 200:
+    raise Exception("Chunk starting at {} failed with HTTP {}: {}".format(offset, resp.status_code, resp.text))
+  return resp.json()
+
+chunks = []
+for chunk_start in range(0, args.patients, args.chunk_size):
+  chunks.append((args.offset + chunk_start, min(args.chunk_size, args.patients - chunk_start)))
+
+start_time = time.time()
+created_patients = 0
+created_forms = 0
+failed_chunks = []
+with ThreadPoolExecutor(max_workers=args.parallel_requests) as executor:
+  futures = {executor.submit(generate_chunk, offset, size): offset for (offset, size) in chunks}
+  for future in as_completed(futures):
+    try:
+      result = future.result()
+      created_patients += result['patients']
+      created_forms += result['forms']
+      elapsed = time.time() - start_time
+      print("{}/{} patients, {} forms, {:.1f} forms/s".format(created_patients, args.patients, created_forms, created_forms / elapsed))
+    except Exception as e:
+      failed_chunks.append(futures[future])
+      print("FAIL: {}".format(e))
+
+elapsed = time.time() - start_time
+print("Created {} patients and {} forms in {:.1f}s".format(created_patients, created_forms, elapsed))
+if failed_chunks:
+  print("Failed chunks, rerun them with --offset: {}".format(sorted(failed_chunks)))
+  sys.exit(-1)
@@ -0,0 +1,197 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+
+"""
+Runs a mixed load scenario against a running CARDS instance, and reports latency percentiles for each type of request.
+
+Scenarios, selected randomly according to their weights:
+- pagination: listing a random page of forms, as done by the Data dashboard
+- quick_search: searching for a synthetic patient identifier, as done by the top search bar
+- form_save: changing a numeric answer of a random form, which also recomputes the computed answers on save
+- patient_login: validating a patient portal token, requires a file with one valid token per line
+
+Meant to be used on a local instance populated with generate_synthetic_data.py, for example:
+
+  python3 load_test.py --users 20 --duration 300 --patients 100000 --report_json results.json
+"""
+
+import os
+import sys
+import json
+import math
+import time
+import random
+import argparse
+import threading
+import requests
+
+CARDS_URL = "http://localhost:8080"
+if "CARDS_URL" in os.environ:
+  CARDS_URL = os.environ["CARDS_URL"].rstrip('/')
+
+ADMIN_PASSWORD = "admin"
+if "ADMIN_PASSWORD" in os.environ:
+  ADMIN_PASSWORD = os.environ["ADMIN_PASSWORD"]
+
+argparser = argparse.ArgumentParser(description="Run a load test against a CARDS instance")
+argparser.add_argument('--users', help='How many concurrent simulated users', type=int, default=10)
+argparser.add_argument('--duration', help='How long to run the test, in seconds', type=int, default=60)
+argparser.add_argument('--scenarios', help='Weights of the scenarios to run', default='pagination=4,quick_search=3,form_save=2,patient_login=1')
+argparser.add_argument('--patients', help='How many synthetic patients exist, used for picking search terms', type=int, default=1000)
+argparser.add_argument('--prefix', help='Prefix of the synthetic patient identifiers', default='LT')
+argparser.add_argument('--patient_tokens', help='File with one patient portal token per line, needed for patient_login')
+argparser.add_argument('--report_json', help='Also write the report as JSON to this file')
+args = argparser.parse_args()
+
+ADMIN_AUTH = ('admin', ADMIN_PASSWORD)
+
+def parse_scenarios(spec):
+  result = {}
+  for entry in spec.split(','):
+    name, weight = entry.split('=')
+    result[name.strip()] = float(weight)
+  return result
+
+SCENARIOS = parse_scenarios(args.scenarios)
+
+PATIENT_TOKENS = []
+if args.patient_tokens:
+  with open(args.patient_tokens, 'r') as f_tokens:
+    PATIENT_TOKENS = [line.strip() for line in f_tokens if line.strip()]
+if 'patient_login' in SCENARIOS and not PATIENT_TOKENS:
+  print("No patient tokens provided, skipping the patient_login scenario")
+  del SCENARIOS['patient_login']
+if not SCENARIOS:
+  print("FAIL: No scenarios to run. Exiting.")
+  sys.exit(-1)
+
+# Total number of forms, used for picking random pages
+count_resp = requests.get(CARDS_URL + "/Forms.paginate?offset=0&limit=1&req=0", auth=ADMIN_AUTH)
+if count_resp.status_code != 200:
+  print("FAIL: Could not list forms. Exiting.")
+  sys.exit(-1)
+TOTAL_FORMS = max(1, count_resp.json().get('totalrows', 1))
+
+def pagination(session):
+  offset = random.randrange(0, max(1, TOTAL_FORMS - 10))
+  return session.get(CARDS_URL + "/Forms.paginate?offset={}&limit=10&req=0".format(offset))
+
+def quick_search(session):
+  term = "{}{:07d}".format(args.prefix, random.randrange(0, args.patients))
+  return session.get(CARDS_URL + "/query?quick={}&limit=10".format(term))
+
+def find_numeric_answers(node, result):
+  if isinstance(node, dict):
+    if node.get('jcr:primaryType') in ('cards:LongAnswer', 'cards:DoubleAnswer'):
+      result.append(node)
+    for value in node.values():
+      find_numeric_answers(value, result)
+
+def form_save(session):
+  page = session.get(CARDS_URL + "/Forms.paginate?offset={}&limit=1&req=0".format(random.randrange(0, TOTAL_FORMS)))
+  rows = page.json().get('rows', []) if page.status_code == 200 else []
+  if not rows:
+    return page
+  form = session.get(CARDS_URL + rows[0]['@path'] + ".deep.json")
+  answers = []
+  find_numeric_answers(form.json() if form.status_code == 200 else {}, answers)
+  if not answers:
+    return form
+  answer = random.choice(answers)
+  is_long = answer['jcr:primaryType'] == 'cards:LongAnswer'
+  value = random.randrange(0, 100) if is_long else round(random.uniform(0, 100), 2)
+  return session.post(CARDS_URL + answer['@path'], data={'value': value, 'value@TypeHint': 'Long' if is_long else 'Double'})
+
+def patient_login(session):
+  token = random.choice(PATIENT_TOKENS)
+  return requests.post(CARDS_URL + "/Survey.validateCredentials?auth_token=" + token)
+
+SCENARIO_FUNCTIONS = {
+  'pagination': pagination,
+  'quick_search': quick_search,
+  'form_save': form_save,
+  'patient_login': patient_login
+}
+
+for scenario in SCENARIOS:
+  if scenario not in SCENARIO_FUNCTIONS:
+    print("FAIL: Unknown scenario {}. Exiting.".format(scenario))
+    sys.exit(-1)
+
+results = {scenario: [] for scenario in SCENARIOS}
+errors = {scenario: 0 for scenario in SCENARIOS}
+results_lock = threading.Lock()
+
+def simulate_user(deadline):
+  session = requests.Session()
+  session.auth = ADMIN_AUTH
+  names = list(SCENARIOS.keys())
+  weights = list(SCENARIOS.values())
+  while time.time() < deadline:
+    scenario = random.choices(names, weights=weights)[0]
+    start = time.perf_counter()
+    try:
+      ok = SCENARIO_FUNCTIONS[scenario](session).status_code < 400
+    except requests.RequestException:
+      ok = False
+    latency = (time.perf_counter() - start) * 1000
+    with results_lock:
+      results[scenario].append(latency)
+      if not ok:
+        errors[scenario] += 1
+
+def percentile(sorted_values, p):
+  # Nearest-rank percentile
+  if not sorted_values:
+    return 0
+  return sorted_values[max(0, math.ceil(p / 100 * len(sorted_values)) - 1)]
+
+print("Running {} users for {}s against {}".format(args.users, args.duration, CARDS_URL))
+deadline = time.time() + args.duration
+users = [threading.Thread(target=simulate_user, args=(deadline,)) for i in range(args.users)]
+for user in users:
+  user.start()
+for user in users:
+  user.join()
+
+report = {}
+print("{:<15} {:>8} {:>7} {:>8} {:>9} {:>9} {:>9} {:>9} {:>9} {:>9}".format(
+  "scenario", "requests", "errors", "req/s", "mean ms", "p50 ms", "p90 ms", "p95 ms", "p99 ms", "max ms"))
+for scenario, latencies in results.items():
+  latencies.sort()
+  entry = {
+    'requests': len(latencies),
+    'errors': errors[scenario],
+    'throughput': len(latencies) / args.duration,
+    'mean': sum(latencies) / len(latencies) if latencies else 0,
+    'p50': percentile(latencies, 50),
+    'p90': percentile(latencies, 90),
+    'p95': percentile(latencies, 95),
+    'p99': percentile(latencies, 99),
+    'max': latencies[-1] if latencies else 0
+  }
+  report[scenario] = entry
+  print("{:<15} {:>8} {:>7} {:>8.1f} {:>9.1f} {:>9.1f} {:>9.1f} {:>9.1f} {:>9.1f} {:>9.1f}".format(
+    scenario, entry['requests'], entry['errors'], entry['throughput'], entry['mean'],
+    entry['p50'], entry['p90'], entry['p95'], entry['p99'], entry['max']))
+
+if args.report_json:
+  with open(args.report_json, 'w') as f_report:
+    json.dump({'users': args.users, 'duration': args.duration, 'scenarios': report}, f_report, indent=2)
@@ -33,6 +33,8 @@
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
 import io.uhndata.cards.subjects.api.SubjectUtils;
+import io.uhndata.cards.utils.EditorScope;
+import io.uhndata.cards.utils.ScopedEditor;
 
 /**
  * A {@link EditorProvider} returning {@link PauseResumeFormEditor}.
@@ -42,6 +44,9 @@
 @Component(property = "service.ranking:Integer=10")
 public class PauseResumeFormEditorProvider implements EditorProvider
 {
+    /** Pause and resume forms are detected among the new forms. */
+    private static final EditorScope SCOPE = EditorScope.forPaths("/Forms/*").withNodeTypes("cards:Form");
+
     @Reference(fieldOption = FieldOption.REPLACE, cardinality = ReferenceCardinality.OPTIONAL,
         policyOption = ReferencePolicyOption.GREEDY)
     private ResourceResolverFactory rrf;
@@ -64,8 +69,8 @@ public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder build
     {
         if (this.rrf != null) {
             // Each ComputedEditor maintains a state, so a new instance must be returned each time
-            return new PauseResumeFormEditor(builder, this.rrf, this.rrp,
-                this.questionnaireUtils, this.formUtils, this.subjectUtils, false);
+            return ScopedEditor.wrap(SCOPE, new PauseResumeFormEditor(builder, this.rrf, this.rrp,
+                this.questionnaireUtils, this.formUtils, this.subjectUtils, false));
         }
         return null;
     }
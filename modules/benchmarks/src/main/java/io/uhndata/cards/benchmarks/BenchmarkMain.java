@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and publishes the results as JSON, so that they can be archived and compared between builds.
+ * <p>
+ * The first argument is the file where the results are written, all the other arguments are passed as is to JMH, for
+ * example a regular expression selecting which benchmarks to run, or {@code -f 1 -wi 1 -i 3} for a quicker run.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class BenchmarkMain
+{
+    private BenchmarkMain()
+    {
+        // Only the main method is used
+    }
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args the output file, followed by any JMH command line options
+     * @throws RunnerException if running the benchmarks fails
+     * @throws CommandLineOptionException if the JMH options are not valid
+     */
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException
+    {
+        final String resultFile = args.length > 0 ? args[0] : "jmh-results.json";
+        final String[] jmhArgs = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[0];
+        final Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(jmhArgs))
+            .resultFormat(ResultFormatType.JSON)
+            .result(resultFile)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.script.ScriptEngineManager;
+
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.context.SlingContextImpl;
+
+import io.uhndata.cards.PaginationServlet;
+import io.uhndata.cards.forms.internal.ExpressionUtilsImpl;
+import io.uhndata.cards.forms.internal.FormUtilsImpl;
+import io.uhndata.cards.forms.internal.QuestionnaireStructureProviderImpl;
+import io.uhndata.cards.forms.internal.QuestionnaireUtilsImpl;
+import io.uhndata.cards.forms.internal.serialize.DataProcessor;
+import io.uhndata.cards.forms.internal.serialize.QuestionnaireToCsvProcessor;
+import io.uhndata.cards.permissions.internal.QuestionnaireRestrictionFactory;
+import io.uhndata.cards.permissions.internal.SubjectRestrictionFactory;
+import io.uhndata.cards.resolverProvider.internal.ThreadResourceResolverProviderImpl;
+import io.uhndata.cards.serialize.ResourceToJsonAdapterFactory;
+import io.uhndata.cards.serialize.internal.BareProcessor;
+import io.uhndata.cards.serialize.internal.DeepProcessor;
+import io.uhndata.cards.serialize.internal.DereferenceProcessor;
+import io.uhndata.cards.serialize.internal.IdentificationProcessor;
+import io.uhndata.cards.serialize.internal.PropertiesProcessor;
+import io.uhndata.cards.serialize.internal.SimpleProcessor;
+import io.uhndata.cards.subjects.internal.SubjectUtilsImpl;
+import io.uhndata.cards.vocabularies.internal.OboParser;
+
+/**
+ * An in-memory Oak repository, with the CARDS node types registered, seeded with {@link SyntheticData}, and with a
+ * mock OSGi environment where the services under test can be registered.
+ * <p>
+ * The node types are picked up by sling-mock from the {@code Sling-Nodetypes} headers of the CARDS bundles on the
+ * classpath.
+ * </p>
+ * <p>
+ * The {@code register*} methods play the part of deploying the bundles, and are the only place where the internal
+ * component classes are referenced. Benchmarks must only use the exported service interfaces, obtained with
+ * {@link #getService(Class)}, so that they exercise the services the same way their clients do.
+ * </p>
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({ "checkstyle:ClassDataAbstractionCoupling", "checkstyle:ClassFanOutComplexity" })
+public final class BenchmarkRepository extends SlingContextImpl
+{
+    private BenchmarkRepository()
+    {
+        setResourceResolverType(ResourceResolverType.JCR_OAK);
+    }
+
+    /**
+     * Start a new repository and fill it with synthetic data.
+     *
+     * @param patients the number of top level subjects to create
+     * @param visitsPerPatient the number of visits, and forms, to create for each patient
+     * @return the started repository, must be {@link #close() closed} after use
+     * @throws RepositoryException if seeding the repository fails
+     */
+    public static BenchmarkRepository start(final int patients, final int visitsPerPatient)
+        throws RepositoryException
+    {
+        final BenchmarkRepository result = new BenchmarkRepository();
+        result.setUp();
+        SyntheticData.seed(result.getSession(), patients, visitsPerPatient);
+        return result;
+    }
+
+    /**
+     * Shut down the repository and the mock OSGi environment.
+     */
+    public void close()
+    {
+        tearDown();
+    }
+
+    /**
+     * The administrative session used for seeding the data.
+     *
+     * @return a live session
+     */
+    public Session getSession()
+    {
+        return resourceResolver().adaptTo(Session.class);
+    }
+
+    /**
+     * Register the data model utilities: {@code ThreadResourceResolverProvider}, {@code SubjectUtils},
+     * {@code QuestionnaireUtils} and {@code FormUtils}.
+     */
+    public void registerDataModel()
+    {
+        registerInjectActivateService(new ThreadResourceResolverProviderImpl());
+        registerInjectActivateService(new SubjectUtilsImpl());
+        registerInjectActivateService(new QuestionnaireUtilsImpl());
+        registerInjectActivateService(new FormUtilsImpl());
+    }
+
+    /**
+     * Register the JSON serializer along with the generic processors enabled by the {@code .deep},
+     * {@code .dereference}, {@code .simple} and {@code .bare} selectors, so that resources can be adapted to
+     * {@code JsonObject}. Requires {@link #registerDataModel()}.
+     */
+    public void registerJsonSerialization()
+    {
+        registerInjectActivateService(new PropertiesProcessor());
+        registerInjectActivateService(new IdentificationProcessor());
+        registerInjectActivateService(new DeepProcessor());
+        registerInjectActivateService(new DereferenceProcessor());
+        registerInjectActivateService(new SimpleProcessor());
+        registerInjectActivateService(new BareProcessor());
+        registerInjectActivateService(new ResourceToJsonAdapterFactory());
+    }
+
+    /**
+     * Register the {@code paginate} servlet, as a {@code Servlet}. Requires {@link #registerJsonSerialization()}.
+     */
+    public void registerPagination()
+    {
+        registerInjectActivateService(new PaginationServlet());
+    }
+
+    /**
+     * Register the cached questionnaire structures, as a {@code QuestionnaireStructureProvider}.
+     */
+    public void registerQuestionnaireStructures()
+    {
+        registerInjectActivateService(new QuestionnaireStructureProviderImpl());
+    }
+
+    /**
+     * Register {@code ExpressionUtils}, along with a JavaScript capable script engine manager, needed for evaluating
+     * computed questions.
+     */
+    public void registerExpressions()
+    {
+        registerService(ScriptEngineManager.class, new ScriptEngineManager());
+        registerInjectActivateService(new ExpressionUtilsImpl());
+    }
+
+    /**
+     * Register the CSV export of questionnaires, as a {@code ResourceCSVProcessor}. Requires
+     * {@link #registerJsonSerialization()}.
+     */
+    public void registerCsvExport()
+    {
+        registerInjectActivateService(new DataProcessor());
+        registerInjectActivateService(new QuestionnaireToCsvProcessor());
+    }
+
+    /**
+     * Register the {@code cards:subject} and {@code cards:questionnaire} restriction factories, as
+     * {@code RestrictionFactory} services. Requires {@link #registerDataModel()}.
+     */
+    public void registerRestrictions()
+    {
+        registerInjectActivateService(new SubjectRestrictionFactory());
+        registerInjectActivateService(new QuestionnaireRestrictionFactory());
+    }
+
+    /**
+     * Register the OBO vocabulary parser, as a {@code SourceParser}.
+     */
+    public void registerVocabularyParsers()
+    {
+        registerInjectActivateService(new OboParser());
+    }
+
+    /**
+     * Retrieve the identifier of a node.
+     *
+     * @param path the absolute path of an existing referenceable node
+     * @return the node's UUID
+     * @throws RepositoryException if the node cannot be accessed
+     */
+    public String getIdentifier(final String path) throws RepositoryException
+    {
+        return getSession().getNode(path).getIdentifier();
+    }
+}
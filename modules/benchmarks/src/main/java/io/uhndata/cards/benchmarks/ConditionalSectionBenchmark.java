@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.uhndata.cards.formcompletionstatus.ConditionalSectionUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
+
+/**
+ * Benchmarks for {@link ConditionalSectionUtils#isConditionSatisfied}, which is called for every conditional section
+ * of a form each time it is saved. The form is built in memory, the same way the commit editors see it.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConditionalSectionBenchmark
+{
+    private static final String PRIMARY_TYPE = "jcr:primaryType";
+
+    private BenchmarkRepository repository;
+
+    private Session session;
+
+    private QuestionnaireStructureProvider structureProvider;
+
+    private NodeBuilder form;
+
+    private NodeBuilder answerSection;
+
+    /**
+     * Start and seed the repository, and build a form with an answer that satisfies the section's condition.
+     *
+     * @throws RepositoryException if seeding the repository fails
+     */
+    @Setup
+    public void setup() throws RepositoryException
+    {
+        this.repository = BenchmarkRepository.start(1, 1);
+        this.repository.registerQuestionnaireStructures();
+        this.structureProvider = this.repository.getService(QuestionnaireStructureProvider.class);
+        this.session = this.repository.getSession();
+
+        this.form = EmptyNodeState.EMPTY_NODE.builder();
+        this.form.setProperty(PRIMARY_TYPE, "cards:Form", Type.NAME);
+        this.form.setProperty("questionnaire",
+            this.repository.getIdentifier(SyntheticData.QUESTIONNAIRE_PATH), Type.REFERENCE);
+        for (int i = 0; i < SyntheticData.QUESTIONS; ++i) {
+            final NodeBuilder answer = this.form.child("q" + i);
+            answer.setProperty(PRIMARY_TYPE, "cards:TextAnswer", Type.NAME);
+            answer.setProperty("question",
+                this.repository.getIdentifier(SyntheticData.QUESTIONNAIRE_PATH + "/q" + i), Type.REFERENCE);
+            answer.setProperty("value", i == 0 ? "v1" : "v0");
+        }
+        this.answerSection = this.form.child("followup");
+        this.answerSection.setProperty(PRIMARY_TYPE, "cards:AnswerSection", Type.NAME);
+        this.answerSection.setProperty("section",
+            this.repository.getIdentifier(SyntheticData.CONDITIONAL_SECTION_PATH), Type.REFERENCE);
+    }
+
+    /**
+     * Stop the repository.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.repository.close();
+    }
+
+    /**
+     * Evaluate the condition, compiling it from the questionnaire nodes on each call.
+     *
+     * @return {@code true}
+     * @throws RepositoryException if accessing the condition fails
+     */
+    @Benchmark
+    public boolean uncompiled() throws RepositoryException
+    {
+        return ConditionalSectionUtils.isConditionSatisfied(this.session, this.answerSection, this.form);
+    }
+
+    /**
+     * Evaluate the condition using the compiled conditions cached for the questionnaire structure.
+     *
+     * @return {@code true}
+     * @throws RepositoryException if accessing the condition fails
+     */
+    @Benchmark
+    public boolean cached() throws RepositoryException
+    {
+        return ConditionalSectionUtils.isConditionSatisfied(this.session, this.structureProvider, this.answerSection,
+            this.form);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.oak.api.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.uhndata.cards.forms.api.ExpressionUtils;
+
+/**
+ * Benchmarks for {@link ExpressionUtils}, evaluating the expression of a computed question.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpressionEvaluationBenchmark
+{
+    private BenchmarkRepository repository;
+
+    private ExpressionUtils expressionUtils;
+
+    private Node question;
+
+    private Map<String, Object> values;
+
+    /**
+     * Start and seed the repository.
+     *
+     * @throws RepositoryException if seeding the repository fails
+     */
+    @Setup
+    public void setup() throws RepositoryException
+    {
+        this.repository = BenchmarkRepository.start(1, 1);
+        this.repository.registerExpressions();
+        this.expressionUtils = this.repository.getService(ExpressionUtils.class);
+        this.question = this.repository.getSession().getNode(SyntheticData.COMPUTED_QUESTION_PATH);
+        this.values = new HashMap<>();
+        this.values.put("height", 1.75);
+        this.values.put("weight", 70.0);
+    }
+
+    /**
+     * Stop the repository.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.repository.close();
+    }
+
+    /**
+     * Evaluate the expression, as done for each computed question every time a form is saved.
+     *
+     * @return the computed value
+     */
+    @Benchmark
+    public Object evaluate()
+    {
+        return this.expressionUtils.evaluate(this.question, this.values, Type.DOUBLE);
+    }
+
+    /**
+     * Only extract the names of the questions used in the expression.
+     *
+     * @return the referenced question names
+     */
+    @Benchmark
+    public Object getDependencies()
+    {
+        return this.expressionUtils.getDependencies(this.question);
+    }
+}
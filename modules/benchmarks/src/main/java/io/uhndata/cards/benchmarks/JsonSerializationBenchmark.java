@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.json.JsonObject;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@code ResourceToJsonAdapterFactory}, serializing forms and questionnaires with the selectors most
+ * used by the frontend.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark
+{
+    /** The number of patients, each with 5 visits and forms. */
+    @Param({ "10" })
+    private int patients;
+
+    private BenchmarkRepository repository;
+
+    private ResourceResolver resolver;
+
+    private String formPath;
+
+    /**
+     * Start and seed the repository.
+     *
+     * @throws RepositoryException if seeding the repository fails
+     */
+    @Setup
+    public void setup() throws RepositoryException
+    {
+        this.repository = BenchmarkRepository.start(this.patients, 5);
+        this.repository.registerDataModel();
+        this.repository.registerJsonSerialization();
+        this.resolver = this.repository.resourceResolver();
+        this.formPath = SyntheticData.getFormPath(0, 0);
+    }
+
+    /**
+     * Stop the repository.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.repository.close();
+    }
+
+    /**
+     * Serialize a form with all its answers, as done when viewing a form.
+     *
+     * @return the serialized form
+     */
+    @Benchmark
+    public JsonObject deepForm()
+    {
+        return this.resolver.resolve(this.formPath + ".deep.json").adaptTo(JsonObject.class);
+    }
+
+    /**
+     * Serialize a form with all its answers, also inlining the referenced questions, questionnaire and subject.
+     *
+     * @return the serialized form
+     */
+    @Benchmark
+    public JsonObject deepDereferencedForm()
+    {
+        return this.resolver.resolve(this.formPath + ".deep.dereference.json").adaptTo(JsonObject.class);
+    }
+
+    /**
+     * Serialize the whole questionnaire definition.
+     *
+     * @return the serialized questionnaire
+     */
+    @Benchmark
+    public JsonObject deepQuestionnaire()
+    {
+        return this.resolver.resolve(SyntheticData.QUESTIONNAIRE_PATH + ".deep.json").adaptTo(JsonObject.class);
+    }
+}
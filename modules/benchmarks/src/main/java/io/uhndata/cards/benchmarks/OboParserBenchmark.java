@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.uhndata.cards.vocabularies.spi.SourceParser;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescription;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescriptionBuilder;
+import io.uhndata.cards.vocabularies.spi.VocabularyIndexException;
+
+/**
+ * Benchmarks for the OBO {@link SourceParser}, parsing a synthetic ontology where each term has a few synonyms, a
+ * definition, and one or two parents. The parser is picked the same way the vocabulary indexer picks it, among the
+ * registered parsers, by the declared source format.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OboParserBenchmark
+{
+    private static final String FORMAT = "OBO";
+
+    /** The number of terms in the ontology. */
+    @Param({ "10000" })
+    private int terms;
+
+    private BenchmarkRepository repository;
+
+    private SourceParser parser;
+
+    private File source;
+
+    private VocabularyDescription description;
+
+    /**
+     * Generate the ontology, and look up the parser.
+     *
+     * @throws IOException if writing the temporary file fails
+     * @throws RepositoryException if starting the repository fails
+     */
+    @Setup
+    public void setup() throws IOException, RepositoryException
+    {
+        this.repository = BenchmarkRepository.start(0, 0);
+        this.repository.registerVocabularyParsers();
+        this.parser = Arrays.stream(this.repository.getServices(SourceParser.class, null))
+            .filter(candidate -> candidate.canParse(FORMAT))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No parser registered for " + FORMAT));
+        this.source = File.createTempFile("benchmark", ".obo");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(this.source.toPath(), StandardCharsets.UTF_8))) {
+            out.println("format-version: 1.2");
+            out.println("ontology: bench");
+            out.println();
+            for (int i = 0; i < this.terms; ++i) {
+                out.println("[Term]");
+                out.println("id: BENCH:" + i);
+                out.println("name: Term number " + i);
+                out.println("def: \"The definition of term " + i + ", with \\\"quotes\\\".\" [BENCH:generated]");
+                out.println("synonym: \"Synonym " + i + "\" EXACT []");
+                out.println("synonym: \"Other synonym " + i + "\" RELATED []");
+                if (i > 0) {
+                    out.println("is_a: BENCH:" + ((i - 1) / 2) + " ! Term number " + ((i - 1) / 2));
+                }
+                if (i > 2 && i % 5 == 0) {
+                    out.println("is_a: BENCH:" + (i / 3) + " ! Term number " + (i / 3));
+                }
+                out.println();
+            }
+            out.println("[Typedef]");
+            out.println("id: part_of");
+        }
+        this.description = new VocabularyDescriptionBuilder().withIdentifier("BENCH").withSourceFormat(FORMAT).build();
+    }
+
+    /**
+     * Delete the ontology, and shut down the repository.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.source.delete();
+        this.repository.close();
+    }
+
+    /**
+     * Parse the whole ontology, including computing the ancestors of every term.
+     *
+     * @param blackhole consumes the parsed terms
+     * @throws IOException if reading the source fails
+     * @throws VocabularyIndexException if parsing fails
+     */
+    @Benchmark
+    public void parse(final Blackhole blackhole) throws IOException, VocabularyIndexException
+    {
+        this.parser.parse(this.source, this.description, blackhole::consume);
+    }
+}
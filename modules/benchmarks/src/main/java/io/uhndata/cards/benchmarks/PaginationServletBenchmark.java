@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the {@code paginate} servlet: serving a whole page of a filtered listing of forms, which includes
+ * building and running the query, and serializing each form in the page. The servlet is called through its
+ * {@link Servlet} service, the same way Sling dispatches requests to it.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaginationServletBenchmark
+{
+    /** The number of patients, each with 5 visits and forms. */
+    @Param({ "20", "200" })
+    private int patients;
+
+    private BenchmarkRepository repository;
+
+    private Servlet servlet;
+
+    private Map<String, Object> parameters;
+
+    /**
+     * Start and seed the repository, and prepare the filters used in the requests.
+     *
+     * @throws RepositoryException if seeding the repository fails
+     */
+    @Setup
+    public void setup() throws RepositoryException
+    {
+        this.repository = BenchmarkRepository.start(this.patients, 5);
+        this.repository.registerDataModel();
+        this.repository.registerJsonSerialization();
+        this.repository.registerPagination();
+        this.servlet = this.repository.getService(Servlet.class);
+
+        // Forms where the answer to the second question, a number between 0 and 99, is lower than 50
+        this.parameters = new HashMap<>();
+        this.parameters.put("filternames",
+            new String[] { this.repository.getIdentifier(SyntheticData.QUESTIONNAIRE_PATH + "/q1") });
+        this.parameters.put("filtervalues", new String[] { "50" });
+        this.parameters.put("filtertypes", new String[] { "long" });
+        this.parameters.put("filtercomparators", new String[] { "<" });
+        this.parameters.put("limit", "10");
+    }
+
+    /**
+     * Stop the repository.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.repository.close();
+    }
+
+    /**
+     * Serve a full request: build the query, run it, and write the first page of serialized forms.
+     *
+     * @return the response body
+     * @throws IOException if writing the response fails
+     * @throws ServletException if the servlet fails
+     */
+    @Benchmark
+    public String doGet() throws IOException, ServletException
+    {
+        final MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        this.servlet.service(createRequest(), response);
+        return response.getOutputAsString();
+    }
+
+    private MockSlingHttpServletRequest createRequest()
+    {
+        final MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(
+            this.repository.resourceResolver(), this.repository.bundleContext());
+        request.setResource(this.repository.resourceResolver().getResource("/Forms"));
+        request.setParameterMap(this.parameters);
+        return request;
+    }
+}
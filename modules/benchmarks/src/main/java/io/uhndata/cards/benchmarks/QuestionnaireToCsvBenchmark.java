@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.sling.api.resource.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.uhndata.cards.serialize.spi.ResourceCSVProcessor;
+
+/**
+ * Benchmarks for the {@link ResourceCSVProcessor} of questionnaires, exporting all the forms of a questionnaire as CSV.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class QuestionnaireToCsvBenchmark
+{
+    /** The number of patients, each with 5 visits and forms. */
+    @Param({ "20", "200" })
+    private int patients;
+
+    private BenchmarkRepository repository;
+
+    private ResourceCSVProcessor processor;
+
+    private Resource questionnaire;
+
+    /**
+     * Start and seed the repository.
+     *
+     * @throws RepositoryException if seeding the repository fails
+     */
+    @Setup
+    public void setup() throws RepositoryException
+    {
+        this.repository = BenchmarkRepository.start(this.patients, 5);
+        this.repository.registerDataModel();
+        this.repository.registerJsonSerialization();
+        this.repository.registerCsvExport();
+        this.processor = this.repository.getService(ResourceCSVProcessor.class);
+        this.questionnaire =
+            this.repository.resourceResolver().resolve(SyntheticData.QUESTIONNAIRE_PATH + ".data.csv");
+    }
+
+    /**
+     * Stop the repository.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.repository.close();
+    }
+
+    /**
+     * Export all the forms.
+     *
+     * @return the CSV
+     */
+    @Benchmark
+    public String export()
+    {
+        return this.processor.serialize(this.questionnaire);
+    }
+}
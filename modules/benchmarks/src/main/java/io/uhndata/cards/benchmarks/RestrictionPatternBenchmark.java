@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.uhndata.cards.permissions.spi.RestrictionFactory;
+import io.uhndata.cards.permissions.spi.RestrictionLookupCache;
+import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
+
+/**
+ * Benchmarks for the restriction patterns used by the permission schemes, which are checked for every node read by
+ * a restricted user. The checked items are an answer and its form, linked to a visit whose parent is the restricted
+ * patient. The patterns are created by the registered {@link RestrictionFactory restriction factories}, the same way
+ * Oak creates them when evaluating an access control entry.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestrictionPatternBenchmark
+{
+    private BenchmarkRepository repository;
+
+    private RestrictionPattern subjectPattern;
+
+    private RestrictionPattern questionnairePattern;
+
+    private Tree form;
+
+    private Tree answer;
+
+    /**
+     * Start and seed the repository, and build the checked trees.
+     *
+     * @throws RepositoryException if seeding the repository fails
+     */
+    @Setup
+    public void setup() throws RepositoryException
+    {
+        this.repository = BenchmarkRepository.start(1, 3);
+        this.repository.registerDataModel();
+        this.repository.registerRestrictions();
+        final ThreadResourceResolverProvider rrp = this.repository.getService(ThreadResourceResolverProvider.class);
+        rrp.push(this.repository.resourceResolver());
+        try {
+            this.subjectPattern = createPattern("cards:subject", PropertyStates.createProperty("cards:subject",
+                this.repository.getIdentifier(SyntheticData.getPatientPath(0))));
+            this.questionnairePattern = createPattern("cards:questionnaire", PropertyStates.createProperty(
+                "cards:questionnaire", Collections.singletonList(SyntheticData.QUESTIONNAIRE_PATH), Type.STRINGS));
+        } finally {
+            rrp.pop();
+        }
+
+        final NodeBuilder root = EmptyNodeState.EMPTY_NODE.builder();
+        final NodeBuilder formBuilder = root.child("Forms").child("f0_2");
+        formBuilder.setProperty("jcr:primaryType", "cards:Form", Type.NAME);
+        formBuilder.setProperty("sling:resourceType", "cards/Form");
+        formBuilder.setProperty("questionnaire",
+            this.repository.getIdentifier(SyntheticData.QUESTIONNAIRE_PATH), Type.REFERENCE);
+        formBuilder.setProperty("subject", this.repository.getIdentifier(SyntheticData.getVisitPath(0, 2)),
+            Type.REFERENCE);
+        formBuilder.child("q1").setProperty("jcr:primaryType", "cards:LongAnswer", Type.NAME);
+
+        this.form =
+            new TreeProviderService().createReadOnlyTree(root.getNodeState()).getChild("Forms").getChild("f0_2");
+        this.answer = this.form.getChild("q1");
+    }
+
+    private RestrictionPattern createPattern(final String name, final PropertyState value)
+    {
+        return Arrays.stream(this.repository.getServices(RestrictionFactory.class, null))
+            .filter(factory -> name.equals(factory.getName()))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No restriction factory registered for " + name))
+            .forValue(value);
+    }
+
+    /**
+     * Stop the repository.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.repository.close();
+    }
+
+    /**
+     * Check the subject restriction on an answer, with the owning form and the subject ancestors already cached.
+     *
+     * @return {@code true}
+     */
+    @Benchmark
+    public boolean subjectRestrictionCached()
+    {
+        return this.subjectPattern.matches(this.answer, null);
+    }
+
+    /**
+     * Check the subject restriction on an answer right after a change to the repository invalidated the lookups.
+     *
+     * @return {@code true}
+     */
+    @Benchmark
+    public boolean subjectRestrictionInvalidated()
+    {
+        RestrictionLookupCache.invalidateAll();
+        return this.subjectPattern.matches(this.answer, null);
+    }
+
+    /**
+     * Check the questionnaire restriction on a form.
+     *
+     * @return {@code true}
+     */
+    @Benchmark
+    public boolean questionnaireRestriction()
+    {
+        return this.questionnairePattern.matches(this.form, null);
+    }
+}
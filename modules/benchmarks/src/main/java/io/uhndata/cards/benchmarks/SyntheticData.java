@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.Random;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Generates a deterministic synthetic dataset for the benchmarks: a questionnaire with plain, computed and conditional
+ * questions, a Patient/Visit subject hierarchy, and one filled-in form for each visit.
+ *
+ * @version $Id$
+ */
+public final class SyntheticData
+{
+    /** The path of the generated questionnaire. */
+    public static final String QUESTIONNAIRE_PATH = "/Questionnaires/Benchmark";
+
+    /** The path of the conditional section inside the questionnaire. */
+    public static final String CONDITIONAL_SECTION_PATH = QUESTIONNAIRE_PATH + "/followup";
+
+    /** The path of the computed question inside the questionnaire. */
+    public static final String COMPUTED_QUESTION_PATH = QUESTIONNAIRE_PATH + "/bmi";
+
+    /** The number of plain questions in the questionnaire, named {@code q0}, {@code q1}, and so on. */
+    public static final int QUESTIONS = 30;
+
+    /** The number of questions in the conditional section, named {@code f0}, {@code f1}, and so on. */
+    public static final int SECTION_QUESTIONS = 5;
+
+    /** The number of answer options of the multiple choice questions. */
+    public static final int OPTIONS = 4;
+
+    private static final String PRIMARY_TYPE_TEXT_ANSWER = "cards:TextAnswer";
+
+    private static final String QUESTION = "question";
+
+    private static final String VALUE = "value";
+
+    private static final String DATA_TYPE = "dataType";
+
+    private static final String TEXT = "text";
+
+    private final Session session;
+
+    /** Fixed seed, so that all runs work on the same data. */
+    private final Random random = new Random(42);
+
+    private Node questionnaire;
+
+    private SyntheticData(final Session session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * Fill the repository with synthetic data.
+     *
+     * @param session a session with write access to the whole repository
+     * @param patients the number of top level subjects to create
+     * @param visitsPerPatient the number of child subjects to create for each patient; each visit gets one form
+     * @throws RepositoryException if creating the data fails
+     */
+    public static void seed(final Session session, final int patients, final int visitsPerPatient)
+        throws RepositoryException
+    {
+        new SyntheticData(session).generate(patients, visitsPerPatient);
+    }
+
+    /**
+     * The name of the form created for a visit.
+     *
+     * @param patient the index of the patient
+     * @param visit the index of the visit
+     * @return the form path
+     */
+    public static String getFormPath(final int patient, final int visit)
+    {
+        return "/Forms/f" + patient + "_" + visit;
+    }
+
+    /**
+     * The path of a visit subject.
+     *
+     * @param patient the index of the patient
+     * @param visit the index of the visit
+     * @return the subject path
+     */
+    public static String getVisitPath(final int patient, final int visit)
+    {
+        return getPatientPath(patient) + "/v" + visit;
+    }
+
+    /**
+     * The path of a patient subject.
+     *
+     * @param patient the index of the patient
+     * @return the subject path
+     */
+    public static String getPatientPath(final int patient)
+    {
+        return "/Subjects/p" + patient;
+    }
+
+    private void generate(final int patients, final int visitsPerPatient) throws RepositoryException
+    {
+        final Node root = this.session.getRootNode();
+        final Node subjectTypes = root.addNode("SubjectTypes", "cards:SubjectTypesHomepage");
+        final Node patientType = subjectTypes.addNode("Patient", "cards:SubjectType");
+        patientType.setProperty("label", "Patient");
+        final Node visitType = patientType.addNode("Visit", "cards:SubjectType");
+        visitType.setProperty("label", "Visit");
+
+        generateQuestionnaire(root.addNode("Questionnaires", "cards:QuestionnairesHomepage"));
+
+        final Node subjects = root.addNode("Subjects", "cards:SubjectsHomepage");
+        final Node forms = root.addNode("Forms", "cards:FormsHomepage");
+        for (int p = 0; p < patients; ++p) {
+            final Node patient = subjects.addNode("p" + p, "cards:Subject");
+            patient.setProperty("type", patientType);
+            patient.setProperty("identifier", String.format("P%06d", p));
+            for (int v = 0; v < visitsPerPatient; ++v) {
+                final Node visit = patient.addNode("v" + v, "cards:Subject");
+                visit.setProperty("type", visitType);
+                visit.setProperty("identifier", "V" + v);
+                visit.setProperty("parents", patient);
+                generateForm(forms.addNode("f" + p + "_" + v, "cards:Form"), visit);
+            }
+            // Keep the transient space small
+            this.session.save();
+        }
+        this.session.save();
+    }
+
+    private void generateQuestionnaire(final Node questionnaires) throws RepositoryException
+    {
+        this.questionnaire = questionnaires.addNode("Benchmark", "cards:Questionnaire");
+        this.questionnaire.setProperty("title", "Benchmark");
+        for (int i = 0; i < QUESTIONS; ++i) {
+            final Node question = this.questionnaire.addNode("q" + i, "cards:Question");
+            question.setProperty(TEXT, "Question " + i);
+            if (i % 3 == 0) {
+                // Multiple choice question
+                question.setProperty(DATA_TYPE, TEXT);
+                for (int o = 0; o < OPTIONS; ++o) {
+                    final Node option = question.addNode("o" + o, "cards:AnswerOption");
+                    option.setProperty("label", "Option " + o);
+                    option.setProperty(VALUE, "v" + o);
+                }
+            } else if (i % 3 == 1) {
+                question.setProperty(DATA_TYPE, "long");
+            } else {
+                question.setProperty(DATA_TYPE, TEXT);
+            }
+        }
+
+        addQuestion(this.questionnaire, "height", "double");
+        addQuestion(this.questionnaire, "weight", "double");
+        final Node bmi = addQuestion(this.questionnaire, "bmi", "computed");
+        bmi.setProperty("expression", "return @{weight} / (@{height} * @{height});");
+
+        // A section only displayed when the answer to q0 is v1
+        final Node section = this.questionnaire.addNode("followup", "cards:Section");
+        section.setProperty("label", "Follow-up");
+        final Node condition = section.addNode("condition", "cards:Conditional");
+        condition.setProperty("comparator", "=");
+        final Node operandA = condition.addNode("operandA", "cards:ConditionalValue");
+        operandA.setProperty(VALUE, new String[] { "q0" });
+        operandA.setProperty("isReference", true);
+        final Node operandB = condition.getNode("operandB");
+        operandB.setProperty(VALUE, new String[] { "v1" });
+        for (int i = 0; i < SECTION_QUESTIONS; ++i) {
+            addQuestion(section, "f" + i, TEXT);
+        }
+    }
+
+    private Node addQuestion(final Node parent, final String name, final String dataType) throws RepositoryException
+    {
+        final Node question = parent.addNode(name, "cards:Question");
+        question.setProperty(TEXT, name);
+        question.setProperty(DATA_TYPE, dataType);
+        return question;
+    }
+
+    private void generateForm(final Node form, final Node subject) throws RepositoryException
+    {
+        form.setProperty("questionnaire", this.questionnaire);
+        form.setProperty("subject", subject);
+        for (int i = 0; i < QUESTIONS; ++i) {
+            final Node question = this.questionnaire.getNode("q" + i);
+            if (i % 3 == 0) {
+                addAnswer(form, question, PRIMARY_TYPE_TEXT_ANSWER).setProperty(VALUE,
+                    "v" + this.random.nextInt(OPTIONS));
+            } else if (i % 3 == 1) {
+                addAnswer(form, question, "cards:LongAnswer").setProperty(VALUE, this.random.nextInt(100));
+            } else {
+                addAnswer(form, question, PRIMARY_TYPE_TEXT_ANSWER).setProperty(VALUE,
+                    "Free text answer " + this.random.nextInt(1000));
+            }
+        }
+        final double height = 1.5 + this.random.nextDouble() * 0.5;
+        final double weight = 50 + this.random.nextDouble() * 50;
+        addAnswer(form, this.questionnaire.getNode("height"), "cards:DoubleAnswer").setProperty(VALUE, height);
+        addAnswer(form, this.questionnaire.getNode("weight"), "cards:DoubleAnswer").setProperty(VALUE, weight);
+        addAnswer(form, this.questionnaire.getNode("bmi"), "cards:ComputedAnswer").setProperty(VALUE,
+            String.valueOf(weight / (height * height)));
+
+        final Node section = this.questionnaire.getNode("followup");
+        final Node answerSection = form.addNode("followup", "cards:AnswerSection");
+        answerSection.setProperty("section", section);
+        for (int i = 0; i < SECTION_QUESTIONS; ++i) {
+            addAnswer(answerSection, section.getNode("f" + i), PRIMARY_TYPE_TEXT_ANSWER).setProperty(VALUE,
+                "Follow-up " + this.random.nextInt(1000));
+        }
+    }
+
+    private Node addAnswer(final Node parent, final Node question, final String type) throws RepositoryException
+    {
+        final Node answer = parent.addNode(question.getName(), type);
+        answer.setProperty(QUESTION, question);
+        return answer;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.benchmarks;
+
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs each benchmark once, over a tiny repository, to check that they still work. This doesn't measure anything,
+ * the actual measurements are done with the {@code benchmarks} profile.
+ *
+ * @version $Id$
+ */
+public class BenchmarksTest
+{
+    @Test
+    public void allBenchmarksRun() throws RunnerException
+    {
+        final Options options = new OptionsBuilder()
+            .include(BenchmarksTest.class.getPackageName() + ".*Benchmark")
+            .forks(0)
+            .warmupIterations(0)
+            .measurementIterations(1)
+            .measurementTime(TimeValue.milliseconds(1))
+            .param("patients", "2")
+            .param("terms", "20")
+            .shouldFailOnError(true)
+            .build();
+        final Collection<RunResult> results = new Runner(options).run();
+        Assert.assertFalse(results.isEmpty());
+    }
+}
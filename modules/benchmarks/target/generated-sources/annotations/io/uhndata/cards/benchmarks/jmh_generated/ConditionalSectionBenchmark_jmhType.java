@@ -0,0 +1,4 @@
+package io.uhndata.cards.benchmarks.jmh_generated;
+public class ConditionalSectionBenchmark_jmhType extends ConditionalSectionBenchmark_jmhType_B3 {
+}
+
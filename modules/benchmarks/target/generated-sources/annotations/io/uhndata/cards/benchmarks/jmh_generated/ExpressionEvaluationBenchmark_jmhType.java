@@ -0,0 +1,4 @@
+package io.uhndata.cards.benchmarks.jmh_generated;
+public class ExpressionEvaluationBenchmark_jmhType extends ExpressionEvaluationBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.uhndata.cards.benchmarks.jmh_generated;
+public class JsonSerializationBenchmark_jmhType extends JsonSerializationBenchmark_jmhType_B3 {
+}
+
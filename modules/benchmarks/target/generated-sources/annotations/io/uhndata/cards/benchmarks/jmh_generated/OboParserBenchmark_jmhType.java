@@ -0,0 +1,4 @@
+package io.uhndata.cards.benchmarks.jmh_generated;
+public class OboParserBenchmark_jmhType extends OboParserBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.uhndata.cards.benchmarks.jmh_generated;
+public class PaginationServletBenchmark_jmhType extends PaginationServletBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.uhndata.cards.benchmarks.jmh_generated;
+public class QuestionnaireToCsvBenchmark_jmhType extends QuestionnaireToCsvBenchmark_jmhType_B3 {
+}
+
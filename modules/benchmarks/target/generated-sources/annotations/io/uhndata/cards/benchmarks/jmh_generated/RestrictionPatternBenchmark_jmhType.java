@@ -0,0 +1,4 @@
+package io.uhndata.cards.benchmarks.jmh_generated;
+public class RestrictionPatternBenchmark_jmhType extends RestrictionPatternBenchmark_jmhType_B3 {
+}
+
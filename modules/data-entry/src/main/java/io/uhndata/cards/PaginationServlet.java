@@ -54,9 +54,15 @@
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.FieldOption;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
+
 /**
  * A servlet that lists resources of a specific type, depending on which "homepage" resource the request is targeting.
  * <p>
@@ -100,6 +106,11 @@ public class PaginationServlet extends SlingSafeMethodsServlet
 
     private static final String CREATED_DATE_IDENTIFIER = "cards:CreatedDate";
 
+    /** Conditions provided by the active permission scheme, letting the index skip inaccessible nodes. */
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, fieldOption = FieldOption.REPLACE,
+        policy = ReferencePolicy.DYNAMIC)
+    private volatile List<AccessQueryFilter> accessFilters;
+
     /**
      * Various supported filter types.
      */
@@ -385,6 +396,15 @@ protected String createQuery(final SlingHttpServletRequest request, Session sess
         // Conditions on child nodes
         query.append(getQueryConditions(nodeType, filters));
 
+        // Only look at the nodes that the current user can access
+        final List<AccessQueryFilter> currentAccessFilters = this.accessFilters;
+        if (currentAccessFilters != null) {
+            currentAccessFilters.stream()
+                .map(filter -> filter.getAccessCondition("n", nodeType, session))
+                .filter(StringUtils::isNotBlank)
+                .forEach(condition -> query.append(" and ").append(condition));
+        }
+
         // Results ordering
         final boolean sortDescending = Boolean.valueOf(request.getParameter("descending"));
         query.append(" order by n.'jcr:created'").append(sortDescending ? " DESC" : " ASC");
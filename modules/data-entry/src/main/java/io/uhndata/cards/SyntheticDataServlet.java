@@ -0,0 +1,640 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A servlet generating synthetic patients, visits and forms, used for load testing and capacity planning. Only the
+ * admin user may use it, and only on instances where it was explicitly enabled by creating a configuration for it,
+ * since it is never needed in production.
+ * <p>
+ * This servlet supports the following parameters:
+ * </p>
+ * <ul>
+ * <li><code>questionnaire</code>: the path to a questionnaire to fill in for each visit, may be repeated;
+ * mandatory</li>
+ * <li><code>patients</code>: how many patients to create; mandatory</li>
+ * <li><code>patientType</code>: the path to the subject type of the generated patients; mandatory</li>
+ * <li><code>visits</code>: how many visits to create for each patient; if {@code 0}, forms are created directly for
+ * the patients; {@code 1} by default</li>
+ * <li><code>visitType</code>: the path to the subject type of the generated visits, which must be a child of the
+ * patient type; mandatory unless <code>visits</code> is {@code 0}</li>
+ * <li><code>offset</code>: the number of the first generated patient, so that several requests can generate distinct
+ * patients; {@code 0} by default</li>
+ * <li><code>prefix</code>: prefix for the identifiers of the generated patients; {@code LT} by default</li>
+ * <li><code>batchSize</code>: how many forms to create before saving; {@code 200} by default</li>
+ * <li><code>threads</code>: how many patients to create in parallel, each worker using its own session; the number
+ * of processors by default, at most the configured maximum; workers run as scheduler jobs, so the size of the
+ * scheduler thread pool also limits how many of them run at the same time</li>
+ * </ul>
+ * <p>
+ * Answers are generated for all the questions that users are expected to fill in; computed answers, answers to
+ * missing questions, and the form status are then filled in by the usual commit hooks, so each save costs the same as
+ * it would in production.
+ * </p>
+ *
+ * @version $Id$
+ */
+@Designate(ocd = SyntheticDataServlet.Config.class)
+@Component(service = { Servlet.class }, configurationPolicy = ConfigurationPolicy.REQUIRE)
+@SlingServletResourceTypes(
+    resourceTypes = { "cards/FormsHomepage" },
+    selectors = { "generate" },
+    methods = { "POST" })
+public class SyntheticDataServlet extends SlingAllMethodsServlet
+{
+    private static final long serialVersionUID = 4526385311045928130L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyntheticDataServlet.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 200;
+
+    private static final String SUBJECT_NODETYPE = "cards:Subject";
+
+    private static final String SUBJECT_TYPE = "subject type";
+
+    private static final String VALUE = "value";
+
+    @Reference
+    private Scheduler scheduler;
+
+    /** The maximum number of workers used by one request. */
+    private int maxThreads;
+
+    @ObjectClassDefinition(name = "Synthetic data generator",
+        description = "Enables the /Forms.generate endpoint, which fills the repository with synthetic data for load"
+            + " testing. Never enable this on a production instance.")
+    public @interface Config
+    {
+        @AttributeDefinition(name = "Maximum threads",
+            description = "The maximum number of workers creating data in parallel for one request")
+        int maxThreads() default 16;
+    }
+
+    @Activate
+    private void activate(final Config config)
+    {
+        this.maxThreads = Math.max(1, config.maxThreads());
+    }
+
+    @Override
+    public void doPost(final SlingHttpServletRequest request, final SlingHttpServletResponse response)
+        throws IOException
+    {
+        // Ensure that this can only be run when logged in as admin
+        final String remoteUser = request.getRemoteUser();
+        if (remoteUser == null || !"admin".equals(remoteUser.toLowerCase(Locale.ROOT))) {
+            writeError(HttpServletResponse.SC_FORBIDDEN, "Only admin can perform this operation.", response);
+            return;
+        }
+
+        try {
+            final Parameters parameters = new Parameters(request, this.maxThreads);
+            final Session session = request.getResourceResolver().adaptTo(Session.class);
+            final List<FormTemplate> templates = new ArrayList<>();
+            for (final String questionnaire : parameters.questionnaires) {
+                templates.add(new FormTemplate(getNode(session, questionnaire, "questionnaire")));
+            }
+            final Node patientType = getSubjectType(session, parameters.patientType);
+            final String visitType =
+                parameters.visits > 0 ? getVisitType(session, parameters.visitType, patientType) : null;
+
+            final long start = System.currentTimeMillis();
+            final int formsCreated = generate(request.getResourceResolver(), parameters, templates,
+                patientType.getIdentifier(), visitType);
+            final long duration = System.currentTimeMillis() - start;
+            LOGGER.info("Generated {} patients and {} forms in {}ms", parameters.patients, formsCreated, duration);
+
+            final JsonObjectBuilder json = Json.createObjectBuilder();
+            json.add("status", "success");
+            json.add("patients", parameters.patients);
+            json.add("visits", parameters.patients * parameters.visits);
+            json.add("forms", formsCreated);
+            json.add("time", duration);
+            writeResponse(HttpServletResponse.SC_OK, json.build().toString(), response);
+        } catch (final IllegalArgumentException e) {
+            writeError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage(), response);
+        } catch (final RepositoryException | ExecutionException | LoginException e) {
+            LOGGER.error("Failed to generate synthetic data: {}", e.getMessage(), e);
+            writeError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage(), response);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Interrupted", response);
+        }
+    }
+
+    /**
+     * Split the requested patients between workers, run them as scheduler jobs, and wait for all of them to finish.
+     *
+     * @return the number of forms created
+     */
+    private int generate(final ResourceResolver resolver, final Parameters parameters,
+        final List<FormTemplate> templates, final String patientType, final String visitType)
+        throws LoginException, InterruptedException, ExecutionException
+    {
+        final int threads = Math.min(parameters.threads, parameters.patients);
+        final String jobPrefix = "SyntheticData-" + UUID.randomUUID() + "-";
+        final List<Worker> workers = new ArrayList<>();
+        try {
+            final int chunk = (parameters.patients + threads - 1) / threads;
+            for (int from = 0; from < parameters.patients; from += chunk) {
+                // Sessions are not thread safe, each worker needs its own
+                final Worker worker = new Worker(resolver.clone(null), parameters, templates, patientType,
+                    visitType, parameters.offset + from,
+                    parameters.offset + Math.min(from + chunk, parameters.patients));
+                workers.add(worker);
+                schedule(worker, jobPrefix + from);
+            }
+            int total = 0;
+            for (final Worker worker : workers) {
+                total += worker.result.get();
+            }
+            return total;
+        } finally {
+            // If a worker failed, the others are stopped; sessions are only closed once their worker is done with them
+            workers.forEach(Worker::stop);
+            workers.forEach(Worker::close);
+        }
+    }
+
+    /**
+     * Run a worker as a one-time scheduler job.
+     *
+     * @param worker the worker to run
+     * @param jobName a unique name for the job
+     */
+    private void schedule(final Worker worker, final String jobName)
+    {
+        final ScheduleOptions options = this.scheduler.NOW();
+        options.name(jobName);
+        options.canRunConcurrently(true);
+        if (!this.scheduler.schedule(worker, options)) {
+            worker.result.completeExceptionally(new IllegalStateException("Failed to schedule job " + jobName));
+        }
+    }
+
+    /**
+     * Retrieve the visit subject type, which must be a direct child of the patient subject type.
+     *
+     * @return the UUID of the visit subject type
+     */
+    private static String getVisitType(final Session session, final String path, final Node patientType)
+        throws RepositoryException
+    {
+        if (path == null) {
+            throw new IllegalArgumentException("Required parameter \"visitType\" missing");
+        }
+        final Node visitType = getSubjectType(session, path);
+        if (!visitType.getParent().isSame(patientType)) {
+            throw new IllegalArgumentException("The visit type " + path + " is not a child of the patient type");
+        }
+        return visitType.getIdentifier();
+    }
+
+    private static Node getSubjectType(final Session session, final String path) throws RepositoryException
+    {
+        final Node result = getNode(session, path, SUBJECT_TYPE);
+        if (!result.isNodeType("cards:SubjectType")) {
+            throw new IllegalArgumentException("Not a subject type: " + path);
+        }
+        return result;
+    }
+
+    private static Node getNode(final Session session, final String path, final String what)
+        throws RepositoryException
+    {
+        try {
+            return session.getNode(path);
+        } catch (final PathNotFoundException e) {
+            throw new IllegalArgumentException("Invalid " + what + " " + path);
+        }
+    }
+
+    private void writeError(final int status, final String message, final SlingHttpServletResponse response)
+        throws IOException
+    {
+        final JsonObjectBuilder json = Json.createObjectBuilder();
+        json.add("status", "error");
+        json.add("error", StringUtils.defaultString(message));
+        writeResponse(status, json.build().toString(), response);
+    }
+
+    private void writeResponse(final int status, final String body, final SlingHttpServletResponse response)
+        throws IOException
+    {
+        response.setStatus(status);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(body);
+    }
+
+    /**
+     * The parsed request parameters.
+     */
+    private static final class Parameters
+    {
+        private final String[] questionnaires;
+
+        private final int patients;
+
+        private final String patientType;
+
+        private final int visits;
+
+        private final String visitType;
+
+        private final int offset;
+
+        private final String prefix;
+
+        private final int batchSize;
+
+        private final int threads;
+
+        Parameters(final SlingHttpServletRequest request, final int maxThreads)
+        {
+            this.questionnaires = request.getParameterValues("questionnaire");
+            if (this.questionnaires == null || this.questionnaires.length == 0) {
+                throw new IllegalArgumentException("Required parameter \"questionnaire\" missing");
+            }
+            this.patients = getInt(request, "patients", -1);
+            if (this.patients <= 0) {
+                throw new IllegalArgumentException("Required parameter \"patients\" missing or not positive");
+            }
+            this.patientType = request.getParameter("patientType");
+            if (StringUtils.isBlank(this.patientType)) {
+                throw new IllegalArgumentException("Required parameter \"patientType\" missing");
+            }
+            this.visits = Math.max(0, getInt(request, "visits", 1));
+            this.visitType = StringUtils.trimToNull(request.getParameter("visitType"));
+            this.offset = Math.max(0, getInt(request, "offset", 0));
+            this.prefix = StringUtils.defaultIfBlank(request.getParameter("prefix"), "LT");
+            this.batchSize = Math.max(1, getInt(request, "batchSize", DEFAULT_BATCH_SIZE));
+            this.threads = Math.max(1, Math.min(maxThreads,
+                getInt(request, "threads", Runtime.getRuntime().availableProcessors())));
+        }
+
+        private static int getInt(final SlingHttpServletRequest request, final String name, final int defaultValue)
+        {
+            final String value = request.getParameter(name);
+            if (StringUtils.isBlank(value)) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for parameter \"" + name + "\": " + value);
+            }
+        }
+    }
+
+    /**
+     * Creates a range of patients, with their visits and forms, saving every {@code batchSize} forms. A worker runs at
+     * most once, and can be stopped before or while it runs.
+     */
+    private static final class Worker implements Runnable
+    {
+        /** The number of forms created, once the worker is done. */
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        /** Set once the worker either started running, or was stopped before starting. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final ResourceResolver resolver;
+
+        private final Session session;
+
+        private final Parameters parameters;
+
+        private final List<FormTemplate> templates;
+
+        private final String patientType;
+
+        private final String visitType;
+
+        private final int from;
+
+        private final int to;
+
+        private int unsavedForms;
+
+        private volatile boolean stopping;
+
+        Worker(final ResourceResolver resolver, final Parameters parameters, final List<FormTemplate> templates,
+            final String patientType, final String visitType, final int from, final int to)
+        {
+            this.resolver = resolver;
+            this.session = resolver.adaptTo(Session.class);
+            this.parameters = parameters;
+            this.templates = templates;
+            this.patientType = patientType;
+            this.visitType = visitType;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run()
+        {
+            if (!this.claimed.compareAndSet(false, true)) {
+                // Stopped before it got a chance to start
+                return;
+            }
+            try {
+                this.result.complete(createPatients());
+            } catch (final RepositoryException | RuntimeException e) {
+                this.result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Make the worker stop after the current patient, if it is running.
+         */
+        void stop()
+        {
+            this.stopping = true;
+        }
+
+        /**
+         * Prevent the worker from starting, or wait for it to finish if it already started, then close its session.
+         */
+        void close()
+        {
+            if (!this.claimed.compareAndSet(false, true)) {
+                // Already running or done, wait for it to finish; any failure was already reported
+                this.result.handle((count, error) -> count).join();
+            }
+            this.resolver.close();
+        }
+
+        private int createPatients() throws RepositoryException
+        {
+            final Node subjects = this.session.getNode("/Subjects");
+            final Node forms = this.session.getNode("/Forms");
+            int created = 0;
+            for (int p = this.from; p < this.to && !this.stopping; ++p) {
+                final Node patient = subjects.addNode(UUID.randomUUID().toString(), SUBJECT_NODETYPE);
+                patient.setProperty("identifier", String.format("%s%07d", this.parameters.prefix, p));
+                patient.setProperty("type", this.patientType, PropertyType.REFERENCE);
+                if (this.parameters.visits == 0) {
+                    created += createForms(forms, patient);
+                }
+                for (int v = 1; v <= this.parameters.visits; ++v) {
+                    final Node visit = patient.addNode(UUID.randomUUID().toString(), SUBJECT_NODETYPE);
+                    visit.setProperty("identifier", "V" + v);
+                    visit.setProperty("type", this.visitType, PropertyType.REFERENCE);
+                    visit.setProperty("parents", patient);
+                    created += createForms(forms, visit);
+                }
+                if (this.unsavedForms >= this.parameters.batchSize) {
+                    this.session.save();
+                    this.unsavedForms = 0;
+                }
+            }
+            this.session.save();
+            return created;
+        }
+
+        private int createForms(final Node forms, final Node subject) throws RepositoryException
+        {
+            for (final FormTemplate template : this.templates) {
+                final Node form = forms.addNode(UUID.randomUUID().toString(), "cards:Form");
+                form.setProperty("questionnaire", template.identifier, PropertyType.REFERENCE);
+                form.setProperty("subject", subject);
+                template.fill(form);
+            }
+            this.unsavedForms += this.templates.size();
+            return this.templates.size();
+        }
+    }
+
+    /**
+     * The user-fillable structure of a questionnaire, gathered once per request and shared by all the workers.
+     */
+    private static final class FormTemplate
+    {
+        private final String identifier;
+
+        private final List<Item> items;
+
+        FormTemplate(final Node questionnaire) throws RepositoryException
+        {
+            if (!questionnaire.isNodeType("cards:Questionnaire")) {
+                throw new IllegalArgumentException("Not a questionnaire: " + questionnaire.getPath());
+            }
+            this.identifier = questionnaire.getIdentifier();
+            this.items = Item.readChildren(questionnaire);
+        }
+
+        void fill(final Node form) throws RepositoryException
+        {
+            for (final Item item : this.items) {
+                item.fill(form);
+            }
+        }
+    }
+
+    /**
+     * A question to answer, or a section to create along with its answers.
+     */
+    private static final class Item
+    {
+        /** The answer node type for each data type that can be generated. */
+        private static final Map<String, String> ANSWER_NODETYPES = Map.of(
+            "long", "cards:LongAnswer",
+            "double", "cards:DoubleAnswer",
+            "decimal", "cards:DecimalAnswer",
+            "boolean", "cards:BooleanAnswer",
+            "date", "cards:DateAnswer",
+            "time", "cards:TimeAnswer",
+            "text", "cards:TextAnswer");
+
+        private final String identifier;
+
+        /** The answer node type, {@code null} for sections. */
+        private final String answerType;
+
+        private final String dataType;
+
+        private final List<String> options;
+
+        private final double minValue;
+
+        private final double maxValue;
+
+        private final List<Item> children;
+
+        private Item(final Node definition, final String answerType, final List<Item> children)
+            throws RepositoryException
+        {
+            this.identifier = definition.getIdentifier();
+            this.answerType = answerType;
+            this.dataType = answerType == null ? null : definition.getProperty("dataType").getString();
+            this.children = children;
+            final List<String> values = new ArrayList<>();
+            if (answerType != null) {
+                final NodeIterator optionNodes = definition.getNodes();
+                while (optionNodes.hasNext()) {
+                    final Node option = optionNodes.nextNode();
+                    if (option.isNodeType("cards:AnswerOption") && !option.hasProperty("noneOfTheAbove")
+                        && !option.hasProperty("notApplicable")) {
+                        values.add(option.getProperty(VALUE).getString());
+                    }
+                }
+            }
+            this.options = Collections.unmodifiableList(values);
+            this.minValue = definition.hasProperty("minValue") ? definition.getProperty("minValue").getDouble() : 0;
+            this.maxValue = definition.hasProperty("maxValue") ? definition.getProperty("maxValue").getDouble()
+                : this.minValue + 100;
+        }
+
+        static List<Item> readChildren(final Node parent) throws RepositoryException
+        {
+            final List<Item> result = new ArrayList<>();
+            final NodeIterator children = parent.getNodes();
+            while (children.hasNext()) {
+                final Node child = children.nextNode();
+                if (child.isNodeType("cards:Section")) {
+                    final List<Item> sectionItems = readChildren(child);
+                    if (!sectionItems.isEmpty()) {
+                        result.add(new Item(child, null, sectionItems));
+                    }
+                } else if (child.isNodeType("cards:Question")) {
+                    final String type = getAnswerNodeType(child);
+                    if (type != null) {
+                        result.add(new Item(child, type, Collections.emptyList()));
+                    }
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        /**
+         * The answer node type for a question, only for questions filled in by users and with simple values.
+         *
+         * @return a node type name, or {@code null} if the question should not be answered
+         */
+        private static String getAnswerNodeType(final Node question) throws RepositoryException
+        {
+            if (question.hasProperty("entryMode")
+                && !"user".equals(question.getProperty("entryMode").getString())) {
+                return null;
+            }
+            // Computed, vocabulary, file, pedigree... answers are not generated
+            return ANSWER_NODETYPES.get(question.getProperty("dataType").getString());
+        }
+
+        void fill(final Node parent) throws RepositoryException
+        {
+            if (this.answerType == null) {
+                final Node section = parent.addNode(UUID.randomUUID().toString(), "cards:AnswerSection");
+                section.setProperty("section", this.identifier, PropertyType.REFERENCE);
+                for (final Item child : this.children) {
+                    child.fill(section);
+                }
+                return;
+            }
+            final Node answer = parent.addNode(UUID.randomUUID().toString(), this.answerType);
+            answer.setProperty("question", this.identifier, PropertyType.REFERENCE);
+            setValue(answer);
+        }
+
+        private void setValue(final Node answer) throws RepositoryException
+        {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (!this.options.isEmpty()) {
+                answer.setProperty(VALUE, this.options.get(random.nextInt(this.options.size())));
+                return;
+            }
+            final double number = this.minValue + random.nextDouble() * (this.maxValue - this.minValue);
+            switch (this.dataType) {
+                case "long":
+                    answer.setProperty(VALUE, Math.round(number));
+                    break;
+                case "double":
+                    answer.setProperty(VALUE, number);
+                    break;
+                case "decimal":
+                    answer.setProperty(VALUE, BigDecimal.valueOf(number).setScale(2, RoundingMode.HALF_UP));
+                    break;
+                case "boolean":
+                    answer.setProperty(VALUE, random.nextInt(2));
+                    break;
+                case "date":
+                    answer.setProperty(VALUE, getRandomDate(random));
+                    break;
+                case "time":
+                    answer.setProperty(VALUE, String.format("%02d:%02d", random.nextInt(24), random.nextInt(60)));
+                    break;
+                default:
+                    answer.setProperty(VALUE, "Synthetic answer " + random.nextInt(10_000));
+            }
+        }
+
+        private static Calendar getRandomDate(final ThreadLocalRandom random)
+        {
+            final Calendar result = Calendar.getInstance();
+            result.add(Calendar.DATE, -random.nextInt(5 * 365));
+            return result;
+        }
+    }
+}
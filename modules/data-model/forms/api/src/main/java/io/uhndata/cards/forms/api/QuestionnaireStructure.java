@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.forms.api;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable, in-memory snapshot of the structure of a Questionnaire: its sections and questions, their types and
+ * entry modes, and an index by UUID. A snapshot reflects one version of the questionnaire, and is meant to be shared
+ * between all the components that need to walk the questionnaire, instead of repeatedly traversing the JCR tree.
+ *
+ * @version $Id$
+ */
+public interface QuestionnaireStructure
+{
+    /**
+     * The UUID of the questionnaire.
+     *
+     * @return a UUID
+     */
+    String getIdentifier();
+
+    /**
+     * The version of the questionnaire this snapshot was built from.
+     *
+     * @return the {@code jcr:lastModified} timestamp of the questionnaire, in milliseconds, or {@code -1} if the
+     *         questionnaire does not have a last modified date
+     */
+    long getVersion();
+
+    /**
+     * The root element, corresponding to the questionnaire node itself.
+     *
+     * @return an element for which {@link Element#isQuestionnaire()} returns {@code true}
+     */
+    Element getRoot();
+
+    /**
+     * Look up a section or question by its UUID.
+     *
+     * @param identifier the UUID of a section or question
+     * @return the matching element, or {@code null} if the identifier is not part of this questionnaire
+     */
+    Element getElement(String identifier);
+
+    /**
+     * Look up the conditional sections whose condition references the answers to a question.
+     *
+     * @param questionIdentifier the UUID of a question
+     * @return the UUIDs of the conditional sections whose visibility may change when the answers to the question
+     *         change, an empty set if there are none
+     */
+    Set<String> getDependentSections(String questionIdentifier);
+
+    /**
+     * A node in the questionnaire tree: the questionnaire itself, a section, or a question. Other types of nodes, such
+     * as answer options, conditions or information blocks, are not part of the structure.
+     */
+    interface Element
+    {
+        /**
+         * The UUID of the JCR node.
+         *
+         * @return a UUID
+         */
+        String getIdentifier();
+
+        /**
+         * The name of the JCR node.
+         *
+         * @return a node name
+         */
+        String getName();
+
+        /**
+         * The absolute path of the JCR node.
+         *
+         * @return a JCR path
+         */
+        String getPath();
+
+        /**
+         * Check if this element is the questionnaire.
+         *
+         * @return {@code true} for the root element, {@code false} otherwise
+         */
+        boolean isQuestionnaire();
+
+        /**
+         * Check if this element is a section.
+         *
+         * @return {@code true} if the node is of type {@code cards:Section}
+         */
+        boolean isSection();
+
+        /**
+         * Check if this element is a section that is only displayed when a condition is satisfied.
+         *
+         * @return {@code true} if the node is a {@code cards:Section} with a condition
+         */
+        boolean isConditionalSection();
+
+        /**
+         * Check if this element is a question.
+         *
+         * @return {@code true} if the node is of type {@code cards:Question}
+         */
+        boolean isQuestion();
+
+        /**
+         * The data type of a question.
+         *
+         * @return the value of the {@code dataType} property, or {@code null} for sections or questions without one
+         */
+        String getDataType();
+
+        /**
+         * The entry mode of a question.
+         *
+         * @return the value of the {@code entryMode} property, or {@code null} for sections or questions without one
+         */
+        String getEntryMode();
+
+        /**
+         * Check if this element is a computed question.
+         *
+         * @return {@code true} if this is a question with either the {@code computed} data type or entry mode
+         */
+        boolean isComputedQuestion();
+
+        /**
+         * Check if this element is a reference question.
+         *
+         * @return {@code true} if this is a question with the {@code reference} entry mode
+         */
+        boolean isReferenceQuestion();
+
+        /**
+         * The parent element.
+         *
+         * @return the parent section or questionnaire, or {@code null} for the root element
+         */
+        Element getParent();
+
+        /**
+         * The child sections and questions, in the order they appear in the questionnaire.
+         *
+         * @return an unmodifiable list, empty for questions
+         */
+        List<Element> getChildren();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.forms.api;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+/**
+ * Provides cached {@link QuestionnaireStructure questionnaire structure snapshots}. Snapshots are built once per
+ * questionnaire version, using a service session that can access all the questions, and are invalidated whenever the
+ * questionnaire changes.
+ *
+ * @version $Id$
+ */
+public interface QuestionnaireStructureProvider
+{
+    /**
+     * Retrieve the structure of a questionnaire, making sure that it is up to date with the version of the passed node.
+     *
+     * @param questionnaire a questionnaire node, may be {@code null}
+     * @return the structure of the questionnaire, or {@code null} if the node is not an accessible questionnaire
+     */
+    QuestionnaireStructure getStructure(Node questionnaire);
+
+    /**
+     * Retrieve the structure of a questionnaire, restricted to the sections and questions that a session can read.
+     * Since the cached snapshots include all the questions, this must be used whenever the structure is used on behalf
+     * of a user, for example when creating the answers of a new form.
+     *
+     * @param questionnaire a questionnaire node, may be {@code null}
+     * @param session the session whose access rights must be enforced
+     * @return a view of the structure of the questionnaire, which skips the elements that the session cannot read, or
+     *         {@code null} if the node is not an accessible questionnaire
+     */
+    QuestionnaireStructure getStructure(Node questionnaire, Session session);
+
+    /**
+     * Retrieve the structure of a questionnaire. A cached snapshot is returned without checking the current version
+     * of the questionnaire, relying on change notifications for invalidation.
+     *
+     * @param questionnaireIdentifier the UUID of a questionnaire, may be {@code null}
+     * @return the structure of the questionnaire, or {@code null} if the identifier doesn't point to an accessible
+     *         questionnaire
+     */
+    QuestionnaireStructure getStructure(String questionnaireIdentifier);
+}
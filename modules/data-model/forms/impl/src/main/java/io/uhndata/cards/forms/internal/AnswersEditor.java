@@ -25,7 +25,6 @@
 import java.util.Set;
 
 import javax.jcr.Node;
-import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
@@ -41,6 +40,8 @@
 import org.slf4j.Logger;
 
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 
 /**
@@ -67,12 +68,17 @@ public abstract class AnswersEditor extends DefaultEditor
 
     protected final FormUtils formUtils;
 
+    protected final QuestionnaireStructureProvider structureProvider;
+
     protected boolean isFormNode;
 
     protected boolean shouldRunOnLeave;
 
     protected AbstractAnswerChangeTracker answerChangeTracker;
 
+    /** The cached structure of the form's questionnaire, lazily retrieved when first needed. */
+    private QuestionnaireStructure questionnaireStructure;
+
     /**
      * Simple constructor.
      *
@@ -81,13 +87,16 @@ public abstract class AnswersEditor extends DefaultEditor
      * @param rrf the resource resolver factory which can provide access to JCR sessions
      * @param questionnaireUtils for working with questionnaire data
      * @param formUtils for working with form data
+     * @param structureProvider provides the cached structure of questionnaires
      */
     public AnswersEditor(final NodeBuilder nodeBuilder, final Session currentSession, final ResourceResolverFactory rrf,
-        final QuestionnaireUtils questionnaireUtils, final FormUtils formUtils)
+        final QuestionnaireUtils questionnaireUtils, final FormUtils formUtils,
+        final QuestionnaireStructureProvider structureProvider)
     {
         this.currentNodeBuilder = nodeBuilder;
         this.questionnaireUtils = questionnaireUtils;
         this.formUtils = formUtils;
+        this.structureProvider = structureProvider;
         this.answerChangeTracker = getAnswerChangeTracker();
         this.shouldRunOnLeave = false;
         this.currentSession = currentSession;
@@ -103,7 +112,7 @@ public AnswersEditor(final NodeBuilder nodeBuilder, final Session currentSession
 
     protected abstract AnswersEditor getNewEditor(String name);
 
-    protected abstract boolean isQuestionNodeMatchingType(Node node) throws RepositoryException;
+    protected abstract boolean isQuestionMatchingType(QuestionnaireStructure.Element question);
 
     @Override
     public Editor childNodeAdded(final String name, final NodeState after)
@@ -154,39 +163,75 @@ protected Node getQuestionnaire()
         }
     }
 
-    // Returns a QuestionTree if any children of this node contains an unanswered matching question, else null
-    protected QuestionTree getUnansweredMatchingQuestions(final Node currentNode)
+    /**
+     * Retrieve the cached structure of the form's questionnaire. If a service session is available, the structure is
+     * checked against the current version of the questionnaire, otherwise the last cached version is used.
+     *
+     * @return the questionnaire structure, or {@code null} if this is not a form or the questionnaire is not accessible
+     */
+    protected QuestionnaireStructure getQuestionnaireStructure()
+    {
+        if (this.serviceSession != null) {
+            final Node questionnaire = getQuestionnaire();
+            if (questionnaire != null) {
+                this.questionnaireStructure = this.structureProvider.getStructure(questionnaire);
+            }
+        } else if (this.questionnaireStructure == null) {
+            final PropertyState questionnaireId = this.currentNodeBuilder.getProperty("questionnaire");
+            if (questionnaireId != null) {
+                this.questionnaireStructure =
+                    this.structureProvider.getStructure(questionnaireId.getValue(Type.REFERENCE));
+            }
+        }
+        return this.questionnaireStructure;
+    }
+
+    /**
+     * Look up a question of the form's questionnaire in the cached questionnaire structure.
+     *
+     * @param questionId the UUID of the question
+     * @return the question, or {@code null} if the question is not part of the questionnaire
+     */
+    protected QuestionnaireStructure.Element getQuestionElement(final String questionId)
+    {
+        final QuestionnaireStructure structure = getQuestionnaireStructure();
+        return structure == null ? null : structure.getElement(questionId);
+    }
+
+    // Returns a QuestionTree if any children of this element contains an unanswered matching question, else null
+    protected QuestionTree getUnansweredMatchingQuestions(final QuestionnaireStructure.Element currentElement)
     {
         QuestionTree currentTree = null;
 
-        try {
-            if (isQuestionNodeMatchingType(currentNode)) {
-                // Ignore questions that do not match the question type this editor is looking for
-                // Skip already answered questions
-                if (!this.answerChangeTracker.getModifiedAnswers().contains(currentNode.getIdentifier())) {
-                    currentTree = new QuestionTree(currentNode, true, this.formUtils);
+        if (currentElement.isQuestion()) {
+            // Ignore questions that do not match the question type this editor is looking for
+            // Skip already answered questions
+            if (isQuestionMatchingType(currentElement)
+                && !this.answerChangeTracker.getModifiedAnswers().contains(currentElement.getIdentifier())) {
+                try {
+                    // Only the matching questions are actually read from the repository
+                    final Node question = this.serviceSession.getNodeByIdentifier(currentElement.getIdentifier());
+                    currentTree = new QuestionTree(currentElement, question, this.formUtils);
+                } catch (RepositoryException e) {
+                    // Unable to retrieve the question: skip
+                    getLogger().warn(e.getMessage());
                 }
-            } else if (this.questionnaireUtils.isQuestionnaire(currentNode)
-                || this.questionnaireUtils.isSection(currentNode)) {
-                // Recursively check if any children have a matching question
-                QuestionTree newTree = new QuestionTree(currentNode, false, this.formUtils);
-                for (NodeIterator i = currentNode.getNodes(); i.hasNext();) {
-                    Node child = i.nextNode();
-                    QuestionTree childTree = getUnansweredMatchingQuestions(child);
-                    if (childTree != null) {
-                        // Child has data that should be stored
-                        newTree.getChildren().put(child.getName(), childTree);
-                    }
+            }
+        } else {
+            // Recursively check if any children have a matching question
+            QuestionTree newTree = new QuestionTree(currentElement, null, this.formUtils);
+            for (QuestionnaireStructure.Element child : currentElement.getChildren()) {
+                QuestionTree childTree = getUnansweredMatchingQuestions(child);
+                if (childTree != null) {
+                    // Child has data that should be stored
+                    newTree.getChildren().put(child.getName(), childTree);
                 }
+            }
 
-                // If this node has a child with a matching question, return this information
-                if (newTree.getChildren().size() > 0) {
-                    currentTree = newTree;
-                }
+            // If this node has a child with a matching question, return this information
+            if (newTree.getChildren().size() > 0) {
+                currentTree = newTree;
             }
-        } catch (RepositoryException e) {
-            // Unable to retrieve type: skip
-            getLogger().warn(e.getMessage());
         }
 
         return currentTree;
@@ -276,15 +321,18 @@ public Set<String> getModifiedAnswers()
 
         private Map<String, QuestionTree> children;
 
+        private QuestionnaireStructure.Element element;
+
         private Node node;
 
         private boolean isQuestion;
 
-        QuestionTree(final Node node, final boolean isQuestion, final FormUtils formUtils)
+        QuestionTree(final QuestionnaireStructure.Element element, final Node node, final FormUtils formUtils)
         {
-            this.isQuestion = isQuestion;
+            this.element = element;
+            this.isQuestion = element.isQuestion();
             this.node = node;
-            this.children = isQuestion ? null : new HashMap<>();
+            this.children = this.isQuestion ? null : new HashMap<>();
             this.formUtils = formUtils;
         }
 
@@ -293,6 +341,11 @@ public Map<String, QuestionTree> getChildren()
             return this.children;
         }
 
+        public QuestionnaireStructure.Element getElement()
+        {
+            return this.element;
+        }
+
         public Node getNode()
         {
             return this.node;
@@ -312,16 +365,12 @@ public Map<Node, NodeBuilder> getQuestionAndAnswers(NodeBuilder currentNode)
                 Map<String, List<NodeBuilder>> childNodesByReference = getChildNodesByReference(currentNode);
 
                 this.children.values().forEach(childTree -> {
-                    try {
-                        String referenceKey = childTree.getNode().getIdentifier();
-                        if (childNodesByReference.containsKey(referenceKey)) {
-                            List<NodeBuilder> matchingChildren = childNodesByReference.get(referenceKey);
-                            for (NodeBuilder childNode : matchingChildren) {
-                                result.putAll(childTree.getQuestionAndAnswers(childNode));
-                            }
+                    String referenceKey = childTree.getElement().getIdentifier();
+                    if (childNodesByReference.containsKey(referenceKey)) {
+                        List<NodeBuilder> matchingChildren = childNodesByReference.get(referenceKey);
+                        for (NodeBuilder childNode : matchingChildren) {
+                            result.putAll(childTree.getQuestionAndAnswers(childNode));
                         }
-                    } catch (RepositoryException e) {
-                        // Question identifier could not be found so could not search for answers
                     }
                 });
                 return result;
@@ -356,7 +405,7 @@ public String toString()
         {
             return "{question:" + this.isQuestion
                 + (this.children == null ? "" : " children: " + this.children.toString())
-                + (this.node == null ? "" : " node: " + this.node.toString()) + " }";
+                + (this.element == null ? "" : " element: " + this.element.toString()) + " }";
         }
     }
 
@@ -25,7 +25,6 @@
 import java.util.stream.Collectors;
 
 import javax.jcr.Node;
-import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -40,6 +39,8 @@
 
 import io.uhndata.cards.forms.api.ExpressionUtils;
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 
 /**
@@ -61,13 +62,15 @@ public class ComputedAnswersEditor extends AnswersEditor
      * @param rrf the resource resolver factory which can provide access to JCR sessions
      * @param questionnaireUtils for working with questionnaire data
      * @param formUtils for working with form data
+     * @param structureProvider provides the cached structure of questionnaires
      * @param expressionUtils for evaluating the computed questions
      */
     public ComputedAnswersEditor(final NodeBuilder nodeBuilder, final Session currentSession,
         final ResourceResolverFactory rrf, final QuestionnaireUtils questionnaireUtils, final FormUtils formUtils,
+        final QuestionnaireStructureProvider structureProvider,
         final ExpressionUtils expressionUtils)
     {
-        super(nodeBuilder, currentSession, rrf, questionnaireUtils, formUtils);
+        super(nodeBuilder, currentSession, rrf, questionnaireUtils, formUtils, structureProvider);
         this.expressionUtils = expressionUtils;
     }
 
@@ -93,13 +96,14 @@ protected ComputedAnswerChangeTracker getAnswerChangeTracker()
     protected ComputedAnswersEditor getNewEditor(String name)
     {
         return new ComputedAnswersEditor(this.currentNodeBuilder.getChildNode(name),
-            this.currentSession, this.rrf, this.questionnaireUtils, this.formUtils, this.expressionUtils);
+            this.currentSession, this.rrf, this.questionnaireUtils, this.formUtils, this.structureProvider,
+            this.expressionUtils);
     }
 
     @Override
-    protected boolean isQuestionNodeMatchingType(Node node)
+    protected boolean isQuestionMatchingType(QuestionnaireStructure.Element question)
     {
-        return this.questionnaireUtils.isComputedQuestion(node);
+        return question.isComputedQuestion();
     }
 
     @Override
@@ -121,12 +125,12 @@ protected void handleLeave(final NodeState form)
         final Map<String, Object> answersByQuestionName = getNodeAnswers(form);
 
         // Get a list of all unanswered computed questions that need to be calculated
-        final Node questionnaireNode = getQuestionnaire();
-        if (questionnaireNode == null) {
+        final QuestionnaireStructure questionnaire = getQuestionnaireStructure();
+        if (questionnaire == null) {
             return;
         }
         final QuestionTree computedQuestionsTree =
-            getUnansweredMatchingQuestions(questionnaireNode);
+            getUnansweredMatchingQuestions(questionnaire.getRoot());
 
         // There are missing computed questions, let's create them!
         if (computedQuestionsTree != null) {
@@ -243,16 +247,8 @@ public boolean isMatchedAnswerNode(NodeState after, String questionId)
             if ("cards:ComputedAnswer".equals(after.getName("jcr:primaryType"))) {
                 return true;
             } else if (questionId != null) {
-                Node questionNode = ComputedAnswersEditor.this.questionnaireUtils.getQuestion(questionId);
-                try {
-                    if (questionNode != null && questionNode.hasProperty("entryMode")
-                        && "computed".equals(questionNode.getProperty("entryMode").getString())) {
-                        return true;
-                    }
-                } catch (RepositoryException e) {
-                    // Can't access this answer's question. Ignore
-                    return false;
-                }
+                final QuestionnaireStructure.Element question = getQuestionElement(questionId);
+                return question != null && "computed".equals(question.getEntryMode());
             }
             return false;
         }
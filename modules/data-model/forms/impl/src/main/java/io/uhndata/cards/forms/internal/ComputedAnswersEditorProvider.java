@@ -34,8 +34,11 @@
 
 import io.uhndata.cards.forms.api.ExpressionUtils;
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
+import io.uhndata.cards.utils.EditorScope;
+import io.uhndata.cards.utils.ScopedEditor;
 
 /**
  * A {@link EditorProvider} returning {@link ComputedAnswersEditor}.
@@ -45,6 +48,9 @@
 @Component(property = "service.ranking:Integer=60")
 public class ComputedAnswersEditorProvider implements EditorProvider
 {
+    /** Computed answers only exist inside forms, and are computed from the other answers of the same form. */
+    private static final EditorScope SCOPE = EditorScope.forPaths("/Forms/*").withNodeTypes("cards:Form");
+
     @Reference(fieldOption = FieldOption.REPLACE, cardinality = ReferenceCardinality.OPTIONAL,
         policyOption = ReferencePolicyOption.GREEDY)
     private ResourceResolverFactory rrf;
@@ -58,6 +64,9 @@ public class ComputedAnswersEditorProvider implements EditorProvider
     @Reference
     private FormUtils formUtils;
 
+    @Reference
+    private QuestionnaireStructureProvider structureProvider;
+
     @Reference
     private ExpressionUtils expressionUtils;
 
@@ -70,10 +79,12 @@ public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder build
         final ResourceResolver resolver = this.rrp.getThreadResourceResolver();
         if (resolver != null && !("true".equals(computedAnswersDisabled))) {
             // Each ComputedEditor maintains a state, so a new instance must be returned each time
-            return new ComputedAnswersEditor(builder, resolver.adaptTo(Session.class), this.rrf,
+            return ScopedEditor.wrap(SCOPE, new ComputedAnswersEditor(builder, resolver.adaptTo(Session.class),
+                this.rrf,
                 this.questionnaireUtils,
                 this.formUtils,
-                this.expressionUtils);
+                this.structureProvider,
+                this.expressionUtils));
         }
         return null;
     }
@@ -18,7 +18,6 @@
 
 import java.util.Map;
 
-import javax.jcr.Node;
 import javax.jcr.Session;
 
 import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
@@ -32,6 +31,8 @@
 import org.slf4j.LoggerFactory;
 
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
 
@@ -59,6 +60,8 @@ public class CreateMissingAnswersEditor extends DefaultEditor
 
     private final FormUtils formUtils;
 
+    private final QuestionnaireStructureProvider structureProvider;
+
     private final boolean isFormNode;
 
     /**
@@ -70,14 +73,17 @@ public class CreateMissingAnswersEditor extends DefaultEditor
      * @param rrp for sharing the resource resolver with other components
      * @param questionnaireUtils for working with questionnaire data
      * @param formUtils for working with form data
+     * @param structureProvider provides the cached structure of questionnaires
      */
     public CreateMissingAnswersEditor(final NodeBuilder nodeBuilder, final Session currentSession,
         final ResourceResolverFactory rrf, final ThreadResourceResolverProvider rrp,
-        final QuestionnaireUtils questionnaireUtils, final FormUtils formUtils)
+        final QuestionnaireUtils questionnaireUtils, final FormUtils formUtils,
+        final QuestionnaireStructureProvider structureProvider)
     {
         this.currentNodeBuilder = nodeBuilder;
         this.questionnaireUtils = questionnaireUtils;
         this.formUtils = formUtils;
+        this.structureProvider = structureProvider;
         this.currentSession = currentSession;
         this.rrf = rrf;
         this.rrp = rrp;
@@ -92,7 +98,7 @@ public Editor childNodeAdded(final String name, final NodeState after)
             return null;
         } else {
             return new CreateMissingAnswersEditor(this.currentNodeBuilder.getChildNode(name), this.currentSession,
-                this.rrf, this.rrp, this.questionnaireUtils, this.formUtils);
+                this.rrf, this.rrp, this.questionnaireUtils, this.formUtils, this.structureProvider);
         }
     }
 
@@ -126,13 +132,14 @@ public void leave(final NodeState before, final NodeState after)
 
     private void createMissingNodes()
     {
-        final Node questionnaireNode = this.formUtils.getQuestionnaire(this.currentNodeBuilder);
-        if (questionnaireNode == null) {
+        // Only create answers for the questions that the user can see
+        final QuestionnaireStructure questionnaire = this.structureProvider
+            .getStructure(this.formUtils.getQuestionnaire(this.currentNodeBuilder), this.currentSession);
+        if (questionnaire == null) {
             return;
         }
 
-        final FormGenerator generator = new FormGenerator(this.questionnaireUtils, this.formUtils,
-            this.currentSession);
-        generator.createMissingNodes(questionnaireNode, this.currentNodeBuilder);
+        final FormGenerator generator = new FormGenerator(this.formUtils, this.currentSession);
+        generator.createMissingNodes(questionnaire.getRoot(), this.currentNodeBuilder);
     }
 }
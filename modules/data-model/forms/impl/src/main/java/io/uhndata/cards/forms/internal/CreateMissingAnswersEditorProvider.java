@@ -33,8 +33,11 @@
 import org.osgi.service.component.annotations.ReferencePolicyOption;
 
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
+import io.uhndata.cards.utils.EditorScope;
+import io.uhndata.cards.utils.ScopedEditor;
 
 /**
  * A {@link EditorProvider} returning {@link ReferenceAnswersEditor}.
@@ -44,6 +47,9 @@
 @Component(property = "service.ranking:Integer=50")
 public class CreateMissingAnswersEditorProvider implements EditorProvider
 {
+    /** Missing answers are only created in forms, the rest of the repository is skipped. */
+    private static final EditorScope SCOPE = EditorScope.forPaths("/Forms/*").withNodeTypes("cards:Form");
+
     @Reference(fieldOption = FieldOption.REPLACE, cardinality = ReferenceCardinality.OPTIONAL,
         policyOption = ReferencePolicyOption.GREEDY)
     private ResourceResolverFactory rrf;
@@ -57,6 +63,9 @@ public class CreateMissingAnswersEditorProvider implements EditorProvider
     @Reference
     private FormUtils formUtils;
 
+    @Reference
+    private QuestionnaireStructureProvider structureProvider;
+
     @Override
     public Editor getRootEditor(final NodeState before, final NodeState after, final NodeBuilder builder,
         final CommitInfo info)
@@ -65,8 +74,8 @@ public Editor getRootEditor(final NodeState before, final NodeState after, final
         final ResourceResolver resolver = this.rrp.getThreadResourceResolver();
         if (resolver != null) {
             // Each ReferenceEditor maintains a state, so a new instance must be returned each time
-            return new CreateMissingAnswersEditor(builder, resolver.adaptTo(Session.class), this.rrf, this.rrp,
-                this.questionnaireUtils, this.formUtils);
+            return ScopedEditor.wrap(SCOPE, new CreateMissingAnswersEditor(builder, resolver.adaptTo(Session.class),
+                this.rrf, this.rrp, this.questionnaireUtils, this.formUtils, this.structureProvider));
         }
         return null;
     }
@@ -22,8 +22,6 @@
 import java.util.Map;
 import java.util.UUID;
 
-import javax.jcr.Node;
-import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
@@ -41,7 +39,7 @@
 import org.slf4j.LoggerFactory;
 
 import io.uhndata.cards.forms.api.FormUtils;
-import io.uhndata.cards.forms.api.QuestionnaireUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
 
 /**
  * @version $Id$
@@ -50,8 +48,6 @@
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(FormGenerator.class);
 
-    private final QuestionnaireUtils questionnaireUtils;
-
     private final FormUtils formUtils;
 
     private final Session session;
@@ -61,39 +57,38 @@
     /**
      * Simple constructor.
      *
-     * @param questionnaireUtils for working with questionnaire data
      * @param formUtils for working with form data
      * @param session the current JCR session
      */
-    public FormGenerator(final QuestionnaireUtils questionnaireUtils, final FormUtils formUtils,
-        final Session session)
+    public FormGenerator(final FormUtils formUtils, final Session session)
     {
-        this.questionnaireUtils = questionnaireUtils;
         this.formUtils = formUtils;
         this.session = session;
         this.userID = session.getUserID();
     }
 
-    public NodeBuilder createMissingNodes(final Node questionnaireNode, final NodeBuilder formNode)
+    public NodeBuilder createMissingNodes(final QuestionnaireStructure.Element questionnaireElement,
+        final NodeBuilder formNode)
     {
         // If the current node has a primary type, it has already been created
         final boolean nodeNeedsInitialization = !formNode.hasProperty("jcr:primaryType");
 
-        if (this.questionnaireUtils.isSection(questionnaireNode)) {
+        if (questionnaireElement.isSection()) {
             if (nodeNeedsInitialization) {
-                initializeSection(questionnaireNode, formNode);
+                initializeSection(questionnaireElement, formNode);
             }
-            createMissingChildren(questionnaireNode, formNode);
-        } else if (this.questionnaireUtils.isQuestionnaire(questionnaireNode)) {
-            createMissingChildren(questionnaireNode, formNode);
+            createMissingChildren(questionnaireElement, formNode);
+        } else if (questionnaireElement.isQuestionnaire()) {
+            createMissingChildren(questionnaireElement, formNode);
         } else if (nodeNeedsInitialization) {
-            initializeAnswer(questionnaireNode, formNode);
+            initializeAnswer(questionnaireElement, formNode);
         }
 
         return formNode;
     }
 
-    private void createMissingChildren(final Node questionnaireNode, final NodeBuilder formNode)
+    private void createMissingChildren(final QuestionnaireStructure.Element questionnaireElement,
+        final NodeBuilder formNode)
     {
         final Map<String, NodeBuilder> childFormNodes = new HashMap<>();
         for (final String childNodeName : formNode.getChildNodeNames()) {
@@ -105,60 +100,45 @@ private void createMissingChildren(final Node questionnaireNode, final NodeBuild
             }
         }
 
-        try {
-            for (final NodeIterator i = questionnaireNode.getNodes(); i.hasNext();) {
-                final Node questionnaireChild = i.nextNode();
-
-                if (!this.questionnaireUtils.isSection(questionnaireChild)
-                    && !this.questionnaireUtils.isQuestion(questionnaireChild)
-                    || this.questionnaireUtils.isConditionalSection(questionnaireChild)) {
-                    continue;
-                }
-
-                NodeBuilder childNode;
-                if (childFormNodes.containsKey(questionnaireChild.getIdentifier())) {
-                    childNode = childFormNodes.get(questionnaireChild.getIdentifier());
-                } else {
-                    childNode = formNode.setChildNode(UUID.randomUUID().toString());
-                }
-
-                createMissingNodes(questionnaireChild, childNode);
-                // TODO: Handle recurrent sections properly
-                // if (childQuestionNode.hasProperty("recurrent")
-                // && childQuestionNode.getProperty("recurrent").getBoolean()
-                // && childQuestionNode.hasProperty("initialNumberOfInstances")) {
-                // expectedNumberOfInstances = (int) childQuestionNode.getProperty("initialNumberOfInstances")
-                //     .getLong();
+        for (final QuestionnaireStructure.Element questionnaireChild : questionnaireElement.getChildren()) {
+            if (questionnaireChild.isConditionalSection()) {
+                continue;
+            }
 
+            NodeBuilder childNode;
+            if (childFormNodes.containsKey(questionnaireChild.getIdentifier())) {
+                childNode = childFormNodes.get(questionnaireChild.getIdentifier());
+            } else {
+                childNode = formNode.setChildNode(UUID.randomUUID().toString());
             }
-        } catch (final RepositoryException e) {
-            // Could not iterate through children
+
+            createMissingNodes(questionnaireChild, childNode);
+            // TODO: Handle recurrent sections properly
+            // if (childQuestionNode.hasProperty("recurrent")
+            // && childQuestionNode.getProperty("recurrent").getBoolean()
+            // && childQuestionNode.hasProperty("initialNumberOfInstances")) {
+            // expectedNumberOfInstances = (int) childQuestionNode.getProperty("initialNumberOfInstances")
+            //     .getLong();
         }
     }
 
-    private void initializeSection(final Node sectionNode, final NodeBuilder answerSectionNode)
+    private void initializeSection(final QuestionnaireStructure.Element section, final NodeBuilder answerSectionNode)
     {
-        try {
-            // Section must be created before primary type
-            answerSectionNode.setProperty(FormUtils.SECTION_PROPERTY, sectionNode.getIdentifier(),
-                Type.REFERENCE);
-            answerSectionNode.setProperty("jcr:primaryType", FormUtils.ANSWER_SECTION_NODETYPE, Type.NAME);
-            autoCreateProperties(answerSectionNode);
-        } catch (final RepositoryException e) {
-            // Could not retrieve section UUID
-        }
+        // Section must be created before primary type
+        answerSectionNode.setProperty(FormUtils.SECTION_PROPERTY, section.getIdentifier(), Type.REFERENCE);
+        answerSectionNode.setProperty("jcr:primaryType", FormUtils.ANSWER_SECTION_NODETYPE, Type.NAME);
+        autoCreateProperties(answerSectionNode);
     }
 
-    private void initializeAnswer(final Node questionNode, final NodeBuilder answerNode)
+    private void initializeAnswer(final QuestionnaireStructure.Element question, final NodeBuilder answerNode)
     {
-        try {
-            answerNode.setProperty(FormUtils.QUESTION_PROPERTY, questionNode.getIdentifier(),
-                Type.REFERENCE);
-            answerNode.setProperty("jcr:primaryType", getAnswerNodeType(questionNode), Type.NAME);
-            autoCreateProperties(answerNode);
-        } catch (final RepositoryException e) {
-            // Could not retrieve answer type or question UUID
+        if (question.getDataType() == null) {
+            // Could not determine the answer type
+            return;
         }
+        answerNode.setProperty(FormUtils.QUESTION_PROPERTY, question.getIdentifier(), Type.REFERENCE);
+        answerNode.setProperty("jcr:primaryType", getAnswerNodeType(question), Type.NAME);
+        autoCreateProperties(answerNode);
     }
 
     private void autoCreateProperties(final NodeBuilder node)
@@ -211,9 +191,9 @@ private PropertyState autoCreateProperty(final PropertyDefinition definition, fi
         return null;
     }
 
-    private String getAnswerNodeType(final Node questionNode) throws RepositoryException
+    private String getAnswerNodeType(final QuestionnaireStructure.Element question)
     {
-        final String dataTypeString = questionNode.getProperty("dataType").getString();
+        final String dataTypeString = question.getDataType();
         final String capitalizedType = StringUtils.capitalize(dataTypeString);
         return "cards:" + capitalizedType + "Answer";
     }
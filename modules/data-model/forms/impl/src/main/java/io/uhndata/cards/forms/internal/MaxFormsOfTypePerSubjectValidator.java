@@ -17,6 +17,7 @@
 package io.uhndata.cards.forms.internal;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -32,7 +33,9 @@
 
 /**
  * A {@link Validator} that ensures that the number of created Forms of a specific type does not exceed the maximum
- * value allowed for a Subject.
+ * value allowed for a Subject. New forms are collected while the commit is traversed and grouped by subject and
+ * questionnaire, and each group is checked only once when leaving the root, taking into account all the forms of that
+ * type created for that subject in the same commit.
  *
  * @version $Id$
  */
@@ -40,72 +43,129 @@ public class MaxFormsOfTypePerSubjectValidator extends DefaultValidator
 {
     private final ResourceResolverFactory rrf;
 
-    public MaxFormsOfTypePerSubjectValidator(final ResourceResolverFactory rrf)
+    /** Cached {@code maxPerSubject} values, by questionnaire UUID, shared by all the commits. */
+    private final Map<String, Long> maxPerSubjectCache;
+
+    /** The number of new forms in this commit, by subject UUID, then by questionnaire UUID. */
+    private final Map<String, Map<String, Long>> newForms;
+
+    private final boolean isRoot;
+
+    /** The validator used for all the descendants of the root, since it has no state of its own. */
+    private final MaxFormsOfTypePerSubjectValidator descendantsValidator;
+
+    /** A service resolver, only opened by the root validator if the limits must be checked. */
+    private ResourceResolver serviceResolver;
+
+    /**
+     * Constructor for the root validator.
+     *
+     * @param rrf the resource resolver factory used for obtaining a service session
+     * @param maxPerSubjectCache a cache of {@code maxPerSubject} values, by questionnaire UUID
+     */
+    public MaxFormsOfTypePerSubjectValidator(final ResourceResolverFactory rrf,
+        final Map<String, Long> maxPerSubjectCache)
     {
         this.rrf = rrf;
+        this.maxPerSubjectCache = maxPerSubjectCache;
+        this.newForms = new HashMap<>();
+        this.isRoot = true;
+        this.descendantsValidator = new MaxFormsOfTypePerSubjectValidator(this);
+    }
+
+    private MaxFormsOfTypePerSubjectValidator(final MaxFormsOfTypePerSubjectValidator root)
+    {
+        this.rrf = root.rrf;
+        this.maxPerSubjectCache = root.maxPerSubjectCache;
+        this.newForms = root.newForms;
+        this.isRoot = false;
+        this.descendantsValidator = this;
     }
 
     @Override
     public Validator childNodeAdded(final String name, final NodeState after) throws CommitFailedException
     {
-        // Get the type of this node. Return immediately if it's not a cards:Form node
+        // Get the type of this node. Look deeper if it's not a cards:Form node
         final String childNodeType = after.getName("jcr:primaryType");
         if (!("cards:Form".equals(childNodeType))) {
-            return this;
+            return this.descendantsValidator;
         }
 
         // Get the jcr:uuid values for the Form's associated Questionnaire and Subject
-        final String questionnaireUUID = after.getProperty("questionnaire").getValue(Type.REFERENCE).toString();
-        final String subjectUUID = after.getProperty("subject").getValue(Type.REFERENCE).toString();
-
-        // Obtain a ResourceResolver for querying the JCR
-        final Map<String, Object> parameters =
-            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, "maxFormsOfTypePerSubjectValidator");
-        try (ResourceResolver serviceResolver = this.rrf.getServiceResourceResolver(parameters)) {
-
-            // Get the Questionnaire Resource associated with this Form
-            final Resource questionnaire = getQuestionnaireResourceByUuid(serviceResolver, questionnaireUUID);
-            if (questionnaire == null) {
-                return this;
-            }
+        if (after.hasProperty("questionnaire") && after.hasProperty("subject")) {
+            final String questionnaireUUID = after.getProperty("questionnaire").getValue(Type.REFERENCE);
+            final String subjectUUID = after.getProperty("subject").getValue(Type.REFERENCE);
+            this.newForms.computeIfAbsent(subjectUUID, k -> new HashMap<>())
+                .merge(questionnaireUUID, 1L, Long::sum);
+        }
+        // Forms cannot contain other forms
+        return null;
+    }
+
+    @Override
+    public Validator childNodeChanged(final String name, final NodeState before, final NodeState after)
+        throws CommitFailedException
+    {
+        return this.descendantsValidator;
+    }
 
-            // Get the maxPerSubject value for the Questionnaire
-            final long maxPerSubject = questionnaire.getValueMap().get("maxPerSubject", -1);
+    @Override
+    public void leave(final NodeState before, final NodeState after) throws CommitFailedException
+    {
+        if (!this.isRoot || this.newForms.isEmpty()) {
+            return;
+        }
 
-            // Should this commit be allowed or does it exceed the maxPerSubject constraint?
-            if (maxPerSubject > 0) {
-                final long formNumber = countFormsPerSubject(subjectUUID, questionnaireUUID, serviceResolver) + 1;
-                if (formNumber > maxPerSubject) {
-                    throw new CommitFailedException(CommitFailedException.STATE, 400,
-                        "The number of created forms is bigger than is allowed");
+        try {
+            for (final Map.Entry<String, Map<String, Long>> subjectForms : this.newForms.entrySet()) {
+                for (final Map.Entry<String, Long> questionnaireForms : subjectForms.getValue().entrySet()) {
+                    checkLimit(subjectForms.getKey(), questionnaireForms.getKey(), questionnaireForms.getValue());
                 }
             }
         } catch (final LoginException e) {
             // Should not happen
+        } finally {
+            if (this.serviceResolver != null) {
+                this.serviceResolver.close();
+                this.serviceResolver = null;
+            }
         }
-        return this;
     }
 
-    @Override
-    public Validator childNodeChanged(final String name, final NodeState before, final NodeState after)
-        throws CommitFailedException
+    /**
+     * Checks that the forms created in this commit don't exceed the number of forms allowed for a subject.
+     *
+     * @param subjectUUID the subject of the new forms
+     * @param questionnaireUUID the questionnaire of the new forms
+     * @param newFormsCount how many forms were created in this commit
+     * @throws CommitFailedException if there are more forms than allowed
+     * @throws LoginException if obtaining a service session fails
+     */
+    private void checkLimit(final String subjectUUID, final String questionnaireUUID, final long newFormsCount)
+        throws CommitFailedException, LoginException
     {
-        return this;
+        final long maxPerSubject = getMaxPerSubject(questionnaireUUID);
+        // Should this commit be allowed or does it exceed the maxPerSubject constraint?
+        if (maxPerSubject > 0
+            && countFormsPerSubject(subjectUUID, questionnaireUUID) + newFormsCount > maxPerSubject) {
+            throw new CommitFailedException(CommitFailedException.STATE, 400,
+                "The number of created forms is bigger than is allowed");
+        }
     }
 
     /**
-     * Counts the number of created Forms per Subject with a specific Questionnaire UUID.
+     * Counts the number of already stored Forms per Subject with a specific Questionnaire UUID.
      *
      * @param subjectUUID subject UUID that must match with the Form's subject
      * @param questionnaireUUID questionnaire that must match with the Form's questionnaire
-     * @param ResourceResolver a ResourceResolver that can be used for querying the JCR
      * @return a long-typed number of the number of Forms with the specified questionnaire and subject
+     * @throws LoginException if obtaining a service session fails
      */
-    private long countFormsPerSubject(final String subjectUUID, final String questionnaireUUID,
-        final ResourceResolver serviceResolver)
+    private long countFormsPerSubject(final String subjectUUID, final String questionnaireUUID)
+        throws LoginException
     {
         long count = 0;
-        final Iterator<Resource> results = serviceResolver.findResources(
+        final Iterator<Resource> results = getServiceResolver().findResources(
             "SELECT f.* FROM [cards:Form] AS f WHERE f.'subject'='" + subjectUUID + "'"
                 + " AND f.'questionnaire'='" + questionnaireUUID + "'",
             "JCR-SQL2");
@@ -118,19 +178,37 @@ private long countFormsPerSubject(final String subjectUUID, final String questio
     }
 
     /**
-     * Obtains the Questionnaire Resource that has a specified jcr:uuid.
+     * Obtains the {@code maxPerSubject} value of the Questionnaire that has a specified jcr:uuid, from the cache if
+     * available.
      *
-     * @param ResourceResolver a ResourceResolver that can be used for querying the JCR
-     * @param uuid the jcr:uuid of the Questionnaire Resource which we wish to obtain
-     * @return the matching Questionnaire Resource or null if none can be found
+     * @param uuid the jcr:uuid of the Questionnaire Resource
+     * @return the {@code maxPerSubject} value, or {@code -1} if the questionnaire doesn't have a limit or cannot be
+     *         found
+     * @throws LoginException if obtaining a service session fails
      */
-    private Resource getQuestionnaireResourceByUuid(final ResourceResolver serviceResolver, final String uuid)
+    private long getMaxPerSubject(final String uuid) throws LoginException
     {
-        final Iterator<Resource> resourceIterator = serviceResolver.findResources(
+        final Long cached = this.maxPerSubjectCache.get(uuid);
+        if (cached != null) {
+            return cached;
+        }
+        final Iterator<Resource> resourceIterator = getServiceResolver().findResources(
             "SELECT * FROM [cards:Questionnaire] as q WHERE q.'jcr:uuid'='" + uuid + "'", "JCR-SQL2");
         if (!resourceIterator.hasNext()) {
-            return null;
+            // Not cached, since the questionnaire may just not be visible yet
+            return -1;
+        }
+        final long result = resourceIterator.next().getValueMap().get("maxPerSubject", -1L);
+        this.maxPerSubjectCache.put(uuid, result);
+        return result;
+    }
+
+    private ResourceResolver getServiceResolver() throws LoginException
+    {
+        if (this.serviceResolver == null) {
+            this.serviceResolver = this.rrf.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, "maxFormsOfTypePerSubjectValidator"));
         }
-        return resourceIterator.next();
+        return this.serviceResolver;
     }
 }
@@ -16,24 +16,40 @@
  */
 package io.uhndata.cards.forms.internal;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
 import org.apache.jackrabbit.oak.spi.commit.Validator;
 import org.apache.jackrabbit.oak.spi.commit.ValidatorProvider;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 
 /**
  * The {@link ValidatorProvider} for the
- * MaxFormsOfTypePerSubjectValidator {@link Validator}.
+ * MaxFormsOfTypePerSubjectValidator {@link Validator}. Also caches the {@code maxPerSubject} value of questionnaires,
+ * clearing the cache whenever a questionnaire changes.
  *
  * @version $Id$
  */
-@Component(name = "MaxFormsOfTypePerSubjectValidatorProvider", service = EditorProvider.class)
-public class MaxFormsOfTypePerSubjectValidatorProvider extends ValidatorProvider
+@Component(name = "MaxFormsOfTypePerSubjectValidatorProvider",
+    service = { EditorProvider.class, ResourceChangeListener.class }, property = {
+        ResourceChangeListener.PATHS + "=/Questionnaires",
+        ResourceChangeListener.CHANGES + "=ADDED",
+        ResourceChangeListener.CHANGES + "=CHANGED",
+        ResourceChangeListener.CHANGES + "=REMOVED"
+    })
+public class MaxFormsOfTypePerSubjectValidatorProvider extends ValidatorProvider implements ResourceChangeListener
 {
+    /** Cached {@code maxPerSubject} values, by questionnaire UUID. */
+    private final Map<String, Long> maxPerSubjectCache = new ConcurrentHashMap<>();
+
     @Reference
     private ResourceResolverFactory rrf;
 
@@ -41,8 +57,15 @@ public class MaxFormsOfTypePerSubjectValidatorProvider extends ValidatorProvider
     protected Validator getRootValidator(NodeState before, NodeState after, CommitInfo info)
     {
         if (this.rrf != null) {
-            return new MaxFormsOfTypePerSubjectValidator(this.rrf);
+            return new MaxFormsOfTypePerSubjectValidator(this.rrf, this.maxPerSubjectCache);
         }
         return null;
     }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes)
+    {
+        // Questionnaires rarely change, so simply start over
+        this.maxPerSubjectCache.clear();
+    }
 }
@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.forms.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireUtils;
+
+/**
+ * Immutable implementation of {@link QuestionnaireStructure}, built by walking a questionnaire node once. The
+ * conditions of conditional sections are inspected while walking, to build an index of the sections that depend on
+ * each question.
+ *
+ * @version $Id$
+ */
+public final class QuestionnaireStructureImpl implements QuestionnaireStructure
+{
+    private final String identifier;
+
+    private final long version;
+
+    private final Element root;
+
+    private final Map<String, Element> index;
+
+    /** The conditional sections depending on each question, by question UUID. */
+    private final Map<String, Set<String>> dependentSections;
+
+    private QuestionnaireStructureImpl(final Node questionnaire) throws RepositoryException
+    {
+        this.identifier = questionnaire.getIdentifier();
+        this.version = getVersion(questionnaire);
+        final Map<String, Element> elements = new HashMap<>();
+        final Map<String, Set<String>> conditionReferences = new HashMap<>();
+        this.root = new ElementImpl(questionnaire, null, elements, conditionReferences);
+        this.index = Collections.unmodifiableMap(elements);
+        this.dependentSections = resolveDependentSections(conditionReferences);
+    }
+
+    /**
+     * Build the structure of a questionnaire.
+     *
+     * @param questionnaire a {@code cards:Questionnaire} node
+     * @return the structure of the questionnaire
+     * @throws RepositoryException if accessing the questionnaire fails
+     */
+    public static QuestionnaireStructure build(final Node questionnaire) throws RepositoryException
+    {
+        return new QuestionnaireStructureImpl(questionnaire);
+    }
+
+    /**
+     * Read the version of a questionnaire, as stored in its {@code jcr:lastModified} property.
+     *
+     * @param questionnaire a {@code cards:Questionnaire} node
+     * @return the last modified timestamp, in milliseconds, or {@code -1} if the property is missing
+     * @throws RepositoryException if accessing the questionnaire fails
+     */
+    public static long getVersion(final Node questionnaire) throws RepositoryException
+    {
+        return questionnaire.hasProperty("jcr:lastModified")
+            ? questionnaire.getProperty("jcr:lastModified").getDate().getTimeInMillis()
+            : -1;
+    }
+
+    @Override
+    public String getIdentifier()
+    {
+        return this.identifier;
+    }
+
+    @Override
+    public long getVersion()
+    {
+        return this.version;
+    }
+
+    @Override
+    public Element getRoot()
+    {
+        return this.root;
+    }
+
+    @Override
+    public Element getElement(final String elementIdentifier)
+    {
+        return elementIdentifier == null ? null : this.index.get(elementIdentifier);
+    }
+
+    @Override
+    public Set<String> getDependentSections(final String questionIdentifier)
+    {
+        return questionIdentifier == null ? Collections.emptySet()
+            : this.dependentSections.getOrDefault(questionIdentifier, Collections.emptySet());
+    }
+
+    /**
+     * Turn the question names referenced by each conditional section into an index of the sections depending on each
+     * question.
+     *
+     * @param conditionReferences the question names referenced in the condition of each section, by section UUID
+     * @return the UUIDs of the dependent sections, by question UUID
+     */
+    private Map<String, Set<String>> resolveDependentSections(final Map<String, Set<String>> conditionReferences)
+    {
+        final Map<String, Set<String>> result = new HashMap<>();
+        conditionReferences.forEach((section, questionNames) -> questionNames.forEach(name -> {
+            final String question = getQuestionWithName(this.root, name);
+            if (question != null) {
+                result.computeIfAbsent(question, k -> new HashSet<>()).add(section);
+            }
+        }));
+        result.replaceAll((question, sections) -> Collections.unmodifiableSet(sections));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Find a question by its name, the same way conditions are resolved: the first match in document order.
+     *
+     * @param parent the element to (recursively) look in, starting with the questionnaire
+     * @param questionName the simple question name
+     * @return the question identifier, or {@code null} if the question cannot be found
+     */
+    private static String getQuestionWithName(final Element parent, final String questionName)
+    {
+        for (final Element child : parent.getChildren()) {
+            if (questionName.equals(child.getName())) {
+                return child.getIdentifier();
+            }
+            final String sectionResult = child.isSection() ? getQuestionWithName(child, questionName) : null;
+            if (sectionResult != null) {
+                return sectionResult;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collect the names of the questions referenced in a {@code cards:Conditional} or {@code cards:ConditionalGroup}
+     * node.
+     *
+     * @param condition the condition node
+     * @param names collects the referenced question names
+     * @throws RepositoryException if accessing the condition fails
+     */
+    private static void collectReferencedNames(final Node condition, final Set<String> names)
+        throws RepositoryException
+    {
+        if (condition.isNodeType("cards:ConditionalGroup")) {
+            for (final NodeIterator i = condition.getNodes(); i.hasNext();) {
+                collectReferencedNames(i.nextNode(), names);
+            }
+        } else if (condition.isNodeType("cards:Conditional")) {
+            collectReferencedName(condition, "operandA", names);
+            collectReferencedName(condition, "operandB", names);
+        }
+    }
+
+    private static void collectReferencedName(final Node condition, final String operandName,
+        final Set<String> names) throws RepositoryException
+    {
+        if (!condition.hasNode(operandName)) {
+            return;
+        }
+        final Node operand = condition.getNode(operandName);
+        if (!operand.hasProperty("isReference") || !operand.getProperty("isReference").getBoolean()
+            || !operand.hasProperty("value")) {
+            return;
+        }
+        final Property value = operand.getProperty("value");
+        final Value[] values = value.isMultiple() ? value.getValues() : new Value[] { value.getValue() };
+        if (values.length > 0) {
+            names.add(sanitizeNodeName(values[0].getString()));
+        }
+    }
+
+    /**
+     * Remove the characters that are not allowed in question names, as done when evaluating conditions.
+     *
+     * @param name a question name, as written in a condition
+     * @return the name, without any disallowed characters
+     */
+    private static String sanitizeNodeName(final String name)
+    {
+        final StringBuilder result = new StringBuilder(name.length());
+        for (final char c : name.toCharArray()) {
+            if ("abcdefghijklmnopqrstuvwxyz 0123456789_-".indexOf(Character.toLowerCase(c)) > -1) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static final class ElementImpl implements Element
+    {
+        private final String identifier;
+
+        private final String name;
+
+        private final String path;
+
+        private final boolean isQuestionnaire;
+
+        private final boolean isSection;
+
+        private final boolean isQuestion;
+
+        private final boolean isConditional;
+
+        private final String dataType;
+
+        private final String entryMode;
+
+        private final Element parent;
+
+        private final List<Element> children;
+
+        ElementImpl(final Node node, final Element parent, final Map<String, Element> index,
+            final Map<String, Set<String>> conditionReferences) throws RepositoryException
+        {
+            this.identifier = node.getIdentifier();
+            this.name = node.getName();
+            this.path = node.getPath();
+            this.parent = parent;
+            this.isQuestionnaire = node.isNodeType(QuestionnaireUtils.QUESTIONNAIRE_NODETYPE);
+            this.isSection = node.isNodeType(QuestionnaireUtils.SECTION_NODETYPE);
+            this.isQuestion = node.isNodeType(QuestionnaireUtils.QUESTION_NODETYPE);
+            this.dataType = getStringProperty(node, "dataType");
+            this.entryMode = getStringProperty(node, "entryMode");
+            index.put(this.identifier, this);
+
+            boolean conditional = false;
+            final Set<String> referencedNames = new HashSet<>();
+            final List<Element> childElements = new ArrayList<>();
+            if (!this.isQuestion) {
+                for (final NodeIterator i = node.getNodes(); i.hasNext();) {
+                    final Node child = i.nextNode();
+                    if (child.isNodeType(QuestionnaireUtils.SECTION_NODETYPE)
+                        || child.isNodeType(QuestionnaireUtils.QUESTION_NODETYPE)) {
+                        childElements.add(new ElementImpl(child, this, index, conditionReferences));
+                    } else if (child.isNodeType("cards:Conditional") || child.isNodeType("cards:ConditionalGroup")) {
+                        conditional = true;
+                        collectReferencedNames(child, referencedNames);
+                    }
+                }
+            }
+            this.isConditional = this.isSection && conditional;
+            if (this.isConditional) {
+                conditionReferences.put(this.identifier, referencedNames);
+            }
+            this.children = Collections.unmodifiableList(childElements);
+        }
+
+        private static String getStringProperty(final Node node, final String property) throws RepositoryException
+        {
+            return node.hasProperty(property) ? node.getProperty(property).getString() : null;
+        }
+
+        @Override
+        public String getIdentifier()
+        {
+            return this.identifier;
+        }
+
+        @Override
+        public String getName()
+        {
+            return this.name;
+        }
+
+        @Override
+        public String getPath()
+        {
+            return this.path;
+        }
+
+        @Override
+        public boolean isQuestionnaire()
+        {
+            return this.isQuestionnaire;
+        }
+
+        @Override
+        public boolean isSection()
+        {
+            return this.isSection;
+        }
+
+        @Override
+        public boolean isConditionalSection()
+        {
+            return this.isConditional;
+        }
+
+        @Override
+        public boolean isQuestion()
+        {
+            return this.isQuestion;
+        }
+
+        @Override
+        public String getDataType()
+        {
+            return this.dataType;
+        }
+
+        @Override
+        public String getEntryMode()
+        {
+            return this.entryMode;
+        }
+
+        @Override
+        public boolean isComputedQuestion()
+        {
+            return this.isQuestion && ("computed".equals(this.dataType) || "computed".equals(this.entryMode));
+        }
+
+        @Override
+        public boolean isReferenceQuestion()
+        {
+            return this.isQuestion && "reference".equals(this.entryMode);
+        }
+
+        @Override
+        public Element getParent()
+        {
+            return this.parent;
+        }
+
+        @Override
+        public List<Element> getChildren()
+        {
+            return this.children;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.path;
+        }
+    }
+}
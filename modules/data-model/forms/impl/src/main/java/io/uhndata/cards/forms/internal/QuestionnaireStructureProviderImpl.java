@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.forms.internal;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
+import io.uhndata.cards.forms.api.QuestionnaireUtils;
+import io.uhndata.cards.utils.LruCache;
+
+/**
+ * Caches {@link QuestionnaireStructure} snapshots, one per questionnaire, for a bounded number of recently used
+ * questionnaires. A snapshot is dropped as soon as a commit changing anything under its questionnaire is applied: this
+ * is an Oak {@link Observer}, which is notified synchronously after each commit, so a snapshot is never used after its
+ * questionnaire was modified.
+ *
+ * @version $Id$
+ */
+@Component(service = { QuestionnaireStructureProvider.class, Observer.class })
+public class QuestionnaireStructureProviderImpl implements QuestionnaireStructureProvider, Observer
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuestionnaireStructureProviderImpl.class);
+
+    /** How many questionnaire structures to cache. */
+    private static final int MAX_CACHED_STRUCTURES = 200;
+
+    private static final String QUESTIONNAIRES_ROOT = "Questionnaires";
+
+    /** Cached structures, by questionnaire UUID. */
+    private final LruCache<String, QuestionnaireStructure> cache = new LruCache<>(MAX_CACHED_STRUCTURES);
+
+    /** Incremented on each change, so that structures loaded while a change was happening are not cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The root state from the previous notification. */
+    private NodeState previousRoot;
+
+    @Reference
+    private volatile ResourceResolverFactory rrf;
+
+    @Override
+    public QuestionnaireStructure getStructure(final Node questionnaire)
+    {
+        if (questionnaire == null) {
+            return null;
+        }
+        try {
+            final QuestionnaireStructure cached = this.cache.get(questionnaire.getIdentifier());
+            if (cached != null && cached.getVersion() == QuestionnaireStructureImpl.getVersion(questionnaire)) {
+                return cached;
+            }
+            return load(questionnaire.getIdentifier());
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to access questionnaire: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public QuestionnaireStructure getStructure(final Node questionnaire, final Session session)
+    {
+        final QuestionnaireStructure structure = getStructure(questionnaire);
+        return structure == null || session == null ? structure
+            : new SessionFilteredQuestionnaireStructure(structure, session);
+    }
+
+    @Override
+    public QuestionnaireStructure getStructure(final String questionnaireIdentifier)
+    {
+        if (questionnaireIdentifier == null) {
+            return null;
+        }
+        final QuestionnaireStructure cached = this.cache.get(questionnaireIdentifier);
+        return cached != null ? cached : load(questionnaireIdentifier);
+    }
+
+    @Override
+    public synchronized void contentChanged(final NodeState root, final CommitInfo info)
+    {
+        this.generation.incrementAndGet();
+        if (this.previousRoot == null) {
+            this.cache.clear();
+        } else {
+            root.getChildNode(QUESTIONNAIRES_ROOT).compareAgainstBaseState(
+                this.previousRoot.getChildNode(QUESTIONNAIRES_ROOT), new ChangeDetector("/" + QUESTIONNAIRES_ROOT));
+        }
+        this.previousRoot = root;
+    }
+
+    private QuestionnaireStructure load(final String identifier)
+    {
+        // Use a service session, so that the cached structure includes all the questions, regardless of which user
+        // first requested it
+        try (ResourceResolver serviceResolver = this.rrf.getServiceResourceResolver(
+            Map.of(ResourceResolverFactory.SUBSERVICE, "questionnaireStructure"))) {
+            final Session session = serviceResolver.adaptTo(Session.class);
+            final long crtGeneration = this.generation.get();
+            final Node questionnaire = session.getNodeByIdentifier(identifier);
+            if (!questionnaire.isNodeType(QuestionnaireUtils.QUESTIONNAIRE_NODETYPE)) {
+                return null;
+            }
+            final QuestionnaireStructure result = QuestionnaireStructureImpl.build(questionnaire);
+            this.cache.put(identifier, result);
+            if (crtGeneration != this.generation.get()) {
+                // The questionnaire may have been modified while it was being built, don't cache it
+                this.cache.remove(identifier, result);
+            }
+            return result;
+        } catch (final ItemNotFoundException e) {
+            // Not a questionnaire, or not accessible yet
+        } catch (final LoginException e) {
+            LOGGER.warn("Failed to get service session: {}", e.getMessage(), e);
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to load the questionnaire structure for {}: {}", identifier, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Drop the cached structures of the questionnaires at or under a path.
+     *
+     * @param path the path of a changed or removed node
+     */
+    private void evict(final String path)
+    {
+        final String prefix = path + "/";
+        this.cache.removeValuesIf(structure -> {
+            final String root = structure.getRoot().getPath();
+            return root.equals(path) || root.startsWith(prefix);
+        });
+    }
+
+    /**
+     * Looks for changed or removed questionnaires. The comparison stops at questionnaire nodes, since any change inside
+     * a questionnaire invalidates its whole structure.
+     */
+    private final class ChangeDetector extends DefaultNodeStateDiff
+    {
+        private final String path;
+
+        ChangeDetector(final String path)
+        {
+            this.path = path;
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            final String childPath = this.path + "/" + name;
+            if (isQuestionnaire(before) || isQuestionnaire(after)) {
+                evict(childPath);
+                return true;
+            }
+            return after.compareAgainstBaseState(before, new ChangeDetector(childPath));
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            evict(this.path + "/" + name);
+            return true;
+        }
+
+        private boolean isQuestionnaire(final NodeState node)
+        {
+            return QuestionnaireUtils.QUESTIONNAIRE_NODETYPE.equals(node.getName(JcrConstants.JCR_PRIMARYTYPE));
+        }
+    }
+}
@@ -37,6 +37,8 @@
 import org.slf4j.LoggerFactory;
 
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 import io.uhndata.cards.subjects.api.SubjectUtils;
 
@@ -59,13 +61,15 @@ public class ReferenceAnswersEditor extends AnswersEditor
      * @param rrf the resource resolver factory which can provide access to JCR sessions
      * @param questionnaireUtils for working with questionnaire data
      * @param formUtils for working with form data
+     * @param structureProvider provides the cached structure of questionnaires
      * @param subjectUtils for working with subject data
      */
     public ReferenceAnswersEditor(final NodeBuilder nodeBuilder, final Session currentSession,
         final ResourceResolverFactory rrf, final QuestionnaireUtils questionnaireUtils, final FormUtils formUtils,
+        final QuestionnaireStructureProvider structureProvider,
         final SubjectUtils subjectUtils)
     {
-        super(nodeBuilder, currentSession, rrf, questionnaireUtils, formUtils);
+        super(nodeBuilder, currentSession, rrf, questionnaireUtils, formUtils, structureProvider);
         this.subjectUtils = subjectUtils;
     }
 
@@ -91,13 +95,13 @@ protected ReferenceAnswerChangeTracker getAnswerChangeTracker()
     protected ReferenceAnswersEditor getNewEditor(String name)
     {
         return new ReferenceAnswersEditor(this.currentNodeBuilder.getChildNode(name), this.currentSession,
-            this.rrf, this.questionnaireUtils, this.formUtils, this.subjectUtils);
+            this.rrf, this.questionnaireUtils, this.formUtils, this.structureProvider, this.subjectUtils);
     }
 
     @Override
-    protected boolean isQuestionNodeMatchingType(Node node)
+    protected boolean isQuestionMatchingType(QuestionnaireStructure.Element question)
     {
-        return this.questionnaireUtils.isReferenceQuestion(node);
+        return question.isReferenceQuestion();
     }
 
     @Override
@@ -113,12 +117,12 @@ public void propertyAdded(final PropertyState after)
     protected void handleLeave(final NodeState form)
     {
         // Get a list of all unanswered reference questions
-        final Node questionnaireNode = getQuestionnaire();
-        if (questionnaireNode == null) {
+        final QuestionnaireStructure questionnaire = getQuestionnaireStructure();
+        if (questionnaire == null) {
             return;
         }
         final QuestionTree unansweredQuestionsTree =
-            getUnansweredMatchingQuestions(questionnaireNode);
+            getUnansweredMatchingQuestions(questionnaire.getRoot());
 
         // There are missing reference questions, let's create them!
         if (unansweredQuestionsTree != null) {
@@ -199,16 +203,8 @@ public boolean isMatchedAnswerNode(NodeState after, String questionId)
             if ("cards:ReferenceAnswer".equals(after.getName("jcr:primaryType"))) {
                 return true;
             } else if (questionId != null) {
-                Node questionNode = ReferenceAnswersEditor.this.questionnaireUtils.getQuestion(questionId);
-                try {
-                    if (questionNode != null && questionNode.hasProperty("entryMode")
-                        && "reference".equals(questionNode.getProperty("entryMode").getString())) {
-                        return true;
-                    }
-                } catch (RepositoryException e) {
-                    // Can't access this answer's question. Ignore
-                    return false;
-                }
+                final QuestionnaireStructure.Element question = getQuestionElement(questionId);
+                return question != null && "reference".equals(question.getEntryMode());
             }
             return false;
         }
@@ -33,9 +33,12 @@
 import org.osgi.service.component.annotations.ReferencePolicyOption;
 
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.forms.api.QuestionnaireUtils;
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
 import io.uhndata.cards.subjects.api.SubjectUtils;
+import io.uhndata.cards.utils.EditorScope;
+import io.uhndata.cards.utils.ScopedEditor;
 
 /**
  * A {@link EditorProvider} returning {@link ReferenceAnswersEditor}.
@@ -45,6 +48,9 @@
 @Component(property = "service.ranking:Integer=60")
 public class ReferenceAnswersEditorProvider implements EditorProvider
 {
+    /** The reference answers being filled in are inside forms, even if the referenced values may be elsewhere. */
+    private static final EditorScope SCOPE = EditorScope.forPaths("/Forms/*").withNodeTypes("cards:Form");
+
     @Reference(fieldOption = FieldOption.REPLACE, cardinality = ReferenceCardinality.OPTIONAL,
         policyOption = ReferencePolicyOption.GREEDY)
     private ResourceResolverFactory rrf;
@@ -58,6 +64,9 @@ public class ReferenceAnswersEditorProvider implements EditorProvider
     @Reference
     private FormUtils formUtils;
 
+    @Reference
+    private QuestionnaireStructureProvider structureProvider;
+
     @Reference
     private SubjectUtils subjectUtils;
 
@@ -68,8 +77,8 @@ public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder build
         final ResourceResolver resolver = this.rrp.getThreadResourceResolver();
         if (resolver != null) {
             // Each ReferenceEditor maintains a state, so a new instance must be returned each time
-            return new ReferenceAnswersEditor(builder, resolver.adaptTo(Session.class), this.rrf,
-                this.questionnaireUtils, this.formUtils, this.subjectUtils);
+            return ScopedEditor.wrap(SCOPE, new ReferenceAnswersEditor(builder, resolver.adaptTo(Session.class),
+                this.rrf, this.questionnaireUtils, this.formUtils, this.structureProvider, this.subjectUtils));
         }
         return null;
     }
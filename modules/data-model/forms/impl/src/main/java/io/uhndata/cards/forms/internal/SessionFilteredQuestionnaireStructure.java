@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.forms.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+
+/**
+ * A view of a cached {@link QuestionnaireStructure} restricted to the elements that a session can read. An element is
+ * visible only if its node and all of its ancestors are accessible to the session. Access is checked lazily, at most
+ * once per element, so a view should only be used for the duration of one request.
+ *
+ * @version $Id$
+ */
+final class SessionFilteredQuestionnaireStructure implements QuestionnaireStructure
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionFilteredQuestionnaireStructure.class);
+
+    private final QuestionnaireStructure structure;
+
+    private final Session session;
+
+    /** Filtered elements, by identifier; {@code null} values mark elements that are not accessible. */
+    private final Map<String, Element> elements = new HashMap<>();
+
+    SessionFilteredQuestionnaireStructure(final QuestionnaireStructure structure, final Session session)
+    {
+        this.structure = structure;
+        this.session = session;
+    }
+
+    @Override
+    public String getIdentifier()
+    {
+        return this.structure.getIdentifier();
+    }
+
+    @Override
+    public long getVersion()
+    {
+        return this.structure.getVersion();
+    }
+
+    @Override
+    public Element getRoot()
+    {
+        return filter(this.structure.getRoot());
+    }
+
+    @Override
+    public Element getElement(final String identifier)
+    {
+        return filter(this.structure.getElement(identifier));
+    }
+
+    @Override
+    public Set<String> getDependentSections(final String questionIdentifier)
+    {
+        final Set<String> result = this.structure.getDependentSections(questionIdentifier);
+        return result.isEmpty() ? result
+            : result.stream().filter(section -> getElement(section) != null).collect(Collectors.toSet());
+    }
+
+    /**
+     * Wrap an element of the full structure, if it is accessible to the session.
+     *
+     * @param element an element of the full structure, may be {@code null}
+     * @return the filtered element, or {@code null} if the element is {@code null} or not accessible
+     */
+    private Element filter(final Element element)
+    {
+        if (element == null) {
+            return null;
+        }
+        if (this.elements.containsKey(element.getIdentifier())) {
+            return this.elements.get(element.getIdentifier());
+        }
+        FilteredElement result = null;
+        final Element parent = element.getParent() == null ? null : filter(element.getParent());
+        if ((element.getParent() == null || parent != null) && isAccessible(element)) {
+            result = new FilteredElement(element, parent);
+        }
+        this.elements.put(element.getIdentifier(), result);
+        return result;
+    }
+
+    private boolean isAccessible(final Element element)
+    {
+        try {
+            return this.session.nodeExists(element.getPath());
+        } catch (RepositoryException e) {
+            LOGGER.warn("Failed to check access to {}: {}", element.getPath(), e.getMessage());
+            return false;
+        }
+    }
+
+    private final class FilteredElement implements Element
+    {
+        private final Element element;
+
+        private final Element parent;
+
+        private List<Element> children;
+
+        FilteredElement(final Element element, final Element parent)
+        {
+            this.element = element;
+            this.parent = parent;
+        }
+
+        @Override
+        public String getIdentifier()
+        {
+            return this.element.getIdentifier();
+        }
+
+        @Override
+        public String getName()
+        {
+            return this.element.getName();
+        }
+
+        @Override
+        public String getPath()
+        {
+            return this.element.getPath();
+        }
+
+        @Override
+        public boolean isQuestionnaire()
+        {
+            return this.element.isQuestionnaire();
+        }
+
+        @Override
+        public boolean isSection()
+        {
+            return this.element.isSection();
+        }
+
+        @Override
+        public boolean isConditionalSection()
+        {
+            return this.element.isConditionalSection();
+        }
+
+        @Override
+        public boolean isQuestion()
+        {
+            return this.element.isQuestion();
+        }
+
+        @Override
+        public String getDataType()
+        {
+            return this.element.getDataType();
+        }
+
+        @Override
+        public String getEntryMode()
+        {
+            return this.element.getEntryMode();
+        }
+
+        @Override
+        public boolean isComputedQuestion()
+        {
+            return this.element.isComputedQuestion();
+        }
+
+        @Override
+        public boolean isReferenceQuestion()
+        {
+            return this.element.isReferenceQuestion();
+        }
+
+        @Override
+        public Element getParent()
+        {
+            return this.parent;
+        }
+
+        @Override
+        public List<Element> getChildren()
+        {
+            if (this.children == null) {
+                final List<Element> result = new ArrayList<>();
+                for (final Element child : this.element.getChildren()) {
+                    final Element filtered = filter(child);
+                    if (filtered != null) {
+                        result.add(filtered);
+                    }
+                }
+                this.children = Collections.unmodifiableList(result);
+            }
+            return this.children;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.element.toString();
+        }
+    }
+}
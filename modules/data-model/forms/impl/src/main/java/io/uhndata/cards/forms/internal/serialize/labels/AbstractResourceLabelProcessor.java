@@ -60,10 +60,26 @@ protected String getLabelPropertyName(final Node question)
 
     /**
      * Given a resource path as a String, extract the value indicated by labelPropertyName
-     * from the resource node and return it as the label.
+     * from the resource node and return it as the label. Labels are cached, since the same resources are usually
+     * referenced by many answers.
      */
     protected String getLabelForResource(final String resourcePath, final ResourceResolver resolver,
         final String labelPropertyName)
+    {
+        final String label = getLabelCache().getLabel(resolver.getUserID(), resourcePath, labelPropertyName,
+            path -> loadLabelForResource(path, resolver, labelPropertyName));
+        return label != null ? label : resourcePath;
+    }
+
+    /**
+     * Provides the cache of resource labels shared by all the resource label processors.
+     *
+     * @return the label cache service
+     */
+    protected abstract ResourceLabelCache getLabelCache();
+
+    private String loadLabelForResource(final String resourcePath, final ResourceResolver resolver,
+        final String labelPropertyName)
     {
         try {
             // Determine the resource which is the answer to this question
@@ -78,13 +94,11 @@ protected String getLabelForResource(final String resourcePath, final ResourceRe
                 } else {
                     return resource.getName();
                 }
-            } else {
-                // No resource found
-                return resourcePath;
             }
+            // No resource found
         } catch (final RepositoryException ex) {
             // Shouldn't be happening
         }
-        return resourcePath;
+        return null;
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.forms.internal.serialize.labels;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Component;
+
+import io.uhndata.cards.utils.LruCache;
+
+/**
+ * Caches the labels of the resources referenced by answers, such as vocabulary terms, so that serializing many answers
+ * referencing the same resources doesn't resolve them again each time. Since different users may have access to
+ * different resources, labels are cached separately for each user. Only resources under the {@link #CACHED_ROOTS
+ * roots that answers usually reference} are cached, and only changes under these roots are listened to, in order to
+ * discard cached labels when a resource is modified or removed, for example when a vocabulary is reinstalled. Since
+ * access to these resources may also be granted by the root access control policy or through group memberships,
+ * changes to {@code /rep:policy} and to groups discard all the cached labels.
+ *
+ * @version $Id$
+ */
+@Component(service = { ResourceLabelCache.class, ResourceChangeListener.class }, property = {
+    ResourceChangeListener.PATHS + "=/Vocabularies",
+    ResourceChangeListener.PATHS + "=/SubjectTypes",
+    ResourceChangeListener.PATHS + "=/Subjects",
+    ResourceChangeListener.PATHS + "=/Questionnaires",
+    ResourceChangeListener.PATHS + "=" + ResourceLabelCache.POLICY,
+    ResourceChangeListener.PATHS + "=" + ResourceLabelCache.GROUPS,
+    ResourceChangeListener.CHANGES + "=ADDED",
+    ResourceChangeListener.CHANGES + "=CHANGED",
+    ResourceChangeListener.CHANGES + "=REMOVED"
+})
+public class ResourceLabelCache implements ResourceChangeListener
+{
+    /**
+     * The name of access control policy nodes, as a path segment; this is also the path of the policy of the
+     * repository root, which applies to all the cached resources.
+     */
+    static final String POLICY = "/rep:policy";
+
+    /** Where groups are stored; their members may be granted access to the cached resources. */
+    static final String GROUPS = "/home/groups";
+
+    /** The resources that can be cached, must be kept in sync with the paths listened to. */
+    private static final String[] CACHED_ROOTS =
+        { "/Vocabularies/", "/SubjectTypes/", "/Subjects/", "/Questionnaires/" };
+
+    /** How many resources to cache labels for. */
+    private static final int MAX_CACHED_RESOURCES = 10_000;
+
+    /** Cached labels, by resource path, then by user and label property. */
+    private final LruCache<String, Map<String, String>> labels = new LruCache<>(MAX_CACHED_RESOURCES);
+
+    /** Incremented on each change, so that labels loaded while a change was happening are not cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Retrieves the label of a resource, from the cache if available, otherwise using the provided loader.
+     *
+     * @param userId the identifier of the user requesting the label, since access rights may differ between users
+     * @param path the path of the resource
+     * @param labelProperty the property holding the label, may be {@code null} if the default label is used
+     * @param loader computes the label of the resource when it is not cached; may return {@code null} if the resource
+     *            cannot be accessed, in which case nothing is cached
+     * @return the label of the resource, or {@code null} if the loader could not compute it
+     */
+    public String getLabel(final String userId, final String path, final String labelProperty,
+        final Function<String, String> loader)
+    {
+        if (!StringUtils.startsWithAny(path, CACHED_ROOTS)) {
+            return loader.apply(path);
+        }
+        final String key = StringUtils.defaultString(userId) + "\n" + StringUtils.defaultString(labelProperty);
+        final Map<String, String> resourceLabels = this.labels.get(path);
+        if (resourceLabels != null) {
+            final String cached = resourceLabels.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final long crtGeneration = this.generation.get();
+        final String label = loader.apply(path);
+        if (label != null) {
+            this.labels.computeIfAbsent(path, p -> new ConcurrentHashMap<>()).put(key, label);
+            // If a change happened while the label was loaded, the cached label may be outdated
+            if (crtGeneration != this.generation.get()) {
+                this.labels.remove(path);
+            }
+        }
+        return label;
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes)
+    {
+        this.generation.incrementAndGet();
+        final Set<String> removedTrees = new HashSet<>();
+        for (final ResourceChange change : changes) {
+            final String path = change.getPath();
+            if (path.startsWith(POLICY) || path.startsWith(GROUPS)) {
+                // Access rights changed for any resource, or for any user
+                this.labels.clear();
+                return;
+            } else if (path.contains(POLICY)) {
+                // Access rights changed, cached labels may no longer be visible to the users they were cached for
+                removedTrees.add(StringUtils.substringBefore(path, POLICY));
+            } else if (change.getType() == ResourceChange.ChangeType.REMOVED) {
+                // Removing a node, for example a vocabulary being reinstalled, also removes all its descendants
+                removedTrees.add(path);
+            } else if (change.getType() == ResourceChange.ChangeType.CHANGED) {
+                this.labels.remove(path);
+            }
+        }
+        if (!removedTrees.isEmpty()) {
+            this.labels.removeKeysIf(path -> isInAny(path, removedTrees));
+        }
+    }
+
+    /**
+     * Checks if a path is one of the given trees, or a descendant of one of them.
+     *
+     * @param path the path to check
+     * @param trees the roots of the trees to look for
+     * @return {@code true} if the path is in one of the trees
+     */
+    private static boolean isInAny(final String path, final Set<String> trees)
+    {
+        for (String ancestor = path; !ancestor.isEmpty(); ancestor = StringUtils.substringBeforeLast(ancestor, "/")) {
+            if (trees.contains(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -50,6 +50,16 @@ public class ResourceLabelProcessor extends AbstractResourceLabelProcessor imple
     @Reference
     private ThreadResourceResolverProvider rrp;
 
+    /** Avoids resolving the same resources repeatedly. */
+    @Reference
+    private ResourceLabelCache labelCache;
+
+    @Override
+    protected ResourceLabelCache getLabelCache()
+    {
+        return this.labelCache;
+    }
+
     @Override
     public int getPriority()
     {
@@ -50,6 +50,16 @@ public class ResourceOptionsLabelProcessor extends AbstractResourceLabelProcesso
     @Reference
     private ThreadResourceResolverProvider rrp;
 
+    /** Avoids resolving the same resources repeatedly. */
+    @Reference
+    private ResourceLabelCache labelCache;
+
+    @Override
+    protected ResourceLabelCache getLabelCache()
+    {
+        return this.labelCache;
+    }
+
     @Override
     public boolean canProcess(Resource resource)
     {
@@ -25,11 +25,13 @@
 import javax.jcr.Node;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import javax.jcr.Value;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
 
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
 import io.uhndata.cards.serialize.spi.ResourceJsonProcessor;
 
@@ -41,6 +43,10 @@
 @Component(immediate = true)
 public class VocabularyLabelProcessor extends AnswerOptionsLabelProcessor implements ResourceJsonProcessor
 {
+    /** Avoids resolving the same vocabulary terms repeatedly. */
+    @Reference
+    private ResourceLabelCache labelCache;
+
     @Override
     public void leave(Node node, JsonObjectBuilder json, Function<Node, JsonValue> serializeNode)
     {
@@ -92,14 +98,27 @@ public JsonValue getAnswerLabel(final Node node, final Node question)
     private void processVocabularyLabels(final Node node, final Node question, final Map<String, String> propsMap)
         throws RepositoryException
     {
+        final Session session = node.getSession();
         for (String value : propsMap.keySet()) {
-            if (value.startsWith("/Vocabularies/") && node.getSession().nodeExists(value)) {
-                Node term = node.getSession().getNode(value);
-                String label = term.getProperty(PROP_LABEL).getValue().toString();
+            if (value.startsWith("/Vocabularies/")) {
+                String label = this.labelCache.getLabel(session.getUserID(), value, PROP_LABEL,
+                    path -> getTermLabel(session, path));
                 if (label != null) {
                     propsMap.put(value, label);
                 }
             }
         }
     }
+
+    private String getTermLabel(final Session session, final String path)
+    {
+        try {
+            if (session.nodeExists(path)) {
+                return session.getNode(path).getProperty(PROP_LABEL).getValue().toString();
+            }
+        } catch (final RepositoryException ex) {
+            // Not a vocabulary term, use the raw value
+        }
+        return null;
+    }
 }
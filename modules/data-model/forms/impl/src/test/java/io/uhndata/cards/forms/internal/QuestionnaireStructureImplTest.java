@@ -0,0 +1,192 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.forms.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireUtils;
+
+/**
+ * Unit tests for {@link QuestionnaireStructureImpl} and {@link SessionFilteredQuestionnaireStructure}.
+ *
+ * @version $Id$
+ */
+public class QuestionnaireStructureImplTest
+{
+    private static final String ROOT = "/Questionnaires/Q";
+
+    private QuestionnaireStructure structure;
+
+    @Before
+    public void build() throws RepositoryException
+    {
+        final Node q1 = mockNode("q1", ROOT + "/q1", QuestionnaireUtils.QUESTION_NODETYPE, "text");
+        final Node q2 = mockNode("q2", ROOT + "/s1/q2", QuestionnaireUtils.QUESTION_NODETYPE, "computed");
+        final Node q3 = mockNode("q3", ROOT + "/s2/q3", QuestionnaireUtils.QUESTION_NODETYPE, "long");
+        final Node condition = mockNode("c", ROOT + "/s2/condition", "cards:Conditional", null);
+        mockOperand(condition, "operandA", true, "q1!");
+        mockOperand(condition, "operandB", false, "yes");
+        final Node s1 = mockNode("s1", ROOT + "/s1", QuestionnaireUtils.SECTION_NODETYPE, null, q2);
+        final Node s2 = mockNode("s2", ROOT + "/s2", QuestionnaireUtils.SECTION_NODETYPE, null, condition, q3);
+        final Node root = mockNode("Q", ROOT, QuestionnaireUtils.QUESTIONNAIRE_NODETYPE, null, q1, s1, s2);
+        this.structure = QuestionnaireStructureImpl.build(root);
+    }
+
+    @Test
+    public void buildIndexesAllSectionsAndQuestions()
+    {
+        Assert.assertEquals("Q", this.structure.getIdentifier());
+        Assert.assertTrue(this.structure.getRoot().isQuestionnaire());
+        Assert.assertEquals(3, this.structure.getRoot().getChildren().size());
+        for (final String id : Arrays.asList("q1", "q2", "q3", "s1", "s2")) {
+            Assert.assertNotNull(this.structure.getElement(id));
+        }
+        Assert.assertNull(this.structure.getElement("c"));
+        Assert.assertNull(this.structure.getElement(null));
+        Assert.assertEquals("s1", this.structure.getElement("q2").getParent().getIdentifier());
+    }
+
+    @Test
+    public void buildDetectsSpecialElements()
+    {
+        Assert.assertTrue(this.structure.getElement("s2").isConditionalSection());
+        Assert.assertFalse(this.structure.getElement("s1").isConditionalSection());
+        Assert.assertTrue(this.structure.getElement("q2").isComputedQuestion());
+        Assert.assertFalse(this.structure.getElement("q1").isComputedQuestion());
+        Assert.assertFalse(this.structure.getElement("q1").isReferenceQuestion());
+    }
+
+    @Test
+    public void conditionalSectionsAreIndexedByReferencedQuestion()
+    {
+        Assert.assertEquals(Collections.singleton("s2"), this.structure.getDependentSections("q1"));
+        Assert.assertTrue(this.structure.getDependentSections("q3").isEmpty());
+        Assert.assertTrue(this.structure.getDependentSections(null).isEmpty());
+    }
+
+    @Test
+    public void filteredStructureHidesInaccessibleElements() throws RepositoryException
+    {
+        final Session session = Mockito.mock(Session.class);
+        Mockito.when(session.nodeExists(Mockito.anyString())).thenReturn(true);
+        Mockito.when(session.nodeExists(ROOT + "/s1")).thenReturn(false);
+        Mockito.when(session.nodeExists(ROOT + "/s2/q3")).thenReturn(false);
+
+        final QuestionnaireStructure filtered = new SessionFilteredQuestionnaireStructure(this.structure, session);
+        final List<QuestionnaireStructure.Element> children = filtered.getRoot().getChildren();
+        Assert.assertEquals(2, children.size());
+        Assert.assertEquals("q1", children.get(0).getIdentifier());
+        Assert.assertEquals("s2", children.get(1).getIdentifier());
+        Assert.assertTrue(children.get(1).getChildren().isEmpty());
+        Assert.assertNull(filtered.getElement("s1"));
+        // Elements under a hidden section are hidden as well, even if their own node is accessible
+        Assert.assertNull(filtered.getElement("q2"));
+        Assert.assertNull(filtered.getElement("q3"));
+        Assert.assertSame(filtered.getRoot(), filtered.getElement("q1").getParent());
+        Assert.assertEquals(Collections.singleton("s2"), filtered.getDependentSections("q1"));
+    }
+
+    @Test
+    public void filteredStructureChecksAccessOnce() throws RepositoryException
+    {
+        final Session session = Mockito.mock(Session.class);
+        Mockito.when(session.nodeExists(Mockito.anyString())).thenReturn(true);
+
+        final QuestionnaireStructure filtered = new SessionFilteredQuestionnaireStructure(this.structure, session);
+        filtered.getRoot().getChildren();
+        filtered.getElement("q1");
+        filtered.getElement("q1");
+        Mockito.verify(session, Mockito.times(1)).nodeExists(ROOT + "/q1");
+    }
+
+    @Test
+    public void filteredStructureIsEmptyWithoutAccessToTheQuestionnaire() throws RepositoryException
+    {
+        final Session session = Mockito.mock(Session.class);
+        Mockito.when(session.nodeExists(Mockito.anyString())).thenReturn(false);
+
+        final QuestionnaireStructure filtered = new SessionFilteredQuestionnaireStructure(this.structure, session);
+        Assert.assertNull(filtered.getRoot());
+        Assert.assertNull(filtered.getElement("q1"));
+    }
+
+    private static void mockOperand(final Node condition, final String name, final boolean isReference,
+        final String value) throws RepositoryException
+    {
+        final Node operand = Mockito.mock(Node.class);
+        final Property isReferenceProperty = Mockito.mock(Property.class);
+        Mockito.when(isReferenceProperty.getBoolean()).thenReturn(isReference);
+        final Property valueProperty = Mockito.mock(Property.class);
+        final Value valueValue = Mockito.mock(Value.class);
+        Mockito.when(valueValue.getString()).thenReturn(value);
+        Mockito.when(valueProperty.isMultiple()).thenReturn(true);
+        Mockito.when(valueProperty.getValues()).thenReturn(new Value[] { valueValue });
+        Mockito.when(operand.hasProperty(Mockito.anyString())).thenReturn(true);
+        Mockito.when(operand.getProperty("isReference")).thenReturn(isReferenceProperty);
+        Mockito.when(operand.getProperty("value")).thenReturn(valueProperty);
+        Mockito.when(condition.hasNode(name)).thenReturn(true);
+        Mockito.when(condition.getNode(name)).thenReturn(operand);
+    }
+
+    private static Node mockNode(final String identifier, final String path, final String type, final String dataType,
+        final Node... children) throws RepositoryException
+    {
+        final Node node = Mockito.mock(Node.class);
+        Mockito.when(node.getIdentifier()).thenReturn(identifier);
+        Mockito.when(node.getName()).thenReturn(path.substring(path.lastIndexOf('/') + 1));
+        Mockito.when(node.getPath()).thenReturn(path);
+        Mockito.when(node.isNodeType(Mockito.anyString())).thenReturn(false);
+        Mockito.when(node.isNodeType(type)).thenReturn(true);
+        if (dataType != null) {
+            final Property property = Mockito.mock(Property.class);
+            Mockito.when(property.getString()).thenReturn(dataType);
+            Mockito.when(node.hasProperty("dataType")).thenReturn(true);
+            Mockito.when(node.getProperty("dataType")).thenReturn(property);
+        }
+        final NodeIterator iterator = Mockito.mock(NodeIterator.class);
+        // hasNext() returns true once for each child, then false
+        final Boolean[] hasNext = new Boolean[children.length];
+        Arrays.fill(hasNext, Boolean.TRUE);
+        if (children.length > 0) {
+            hasNext[children.length - 1] = Boolean.FALSE;
+        }
+        Mockito.when(iterator.hasNext()).thenReturn(children.length > 0, hasNext);
+        if (children.length > 0) {
+            Mockito.when(iterator.nextNode()).thenReturn(children[0], Arrays.copyOfRange(children, 1, children.length));
+        }
+        Mockito.when(node.getNodes()).thenReturn(iterator);
+        return node;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.forms.internal;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import io.uhndata.cards.forms.api.QuestionnaireUtils;
+
+/**
+ * Unit tests for {@link QuestionnaireStructureProviderImpl}.
+ *
+ * @version $Id$
+ */
+public class QuestionnaireStructureProviderImplTest
+{
+    private static final String QUESTIONNAIRES = "Questionnaires";
+
+    private static final String IDENTIFIER = "Q";
+
+    private static final String TITLE = "title";
+
+    @Mock
+    private ResourceResolverFactory rrf;
+
+    @InjectMocks
+    private QuestionnaireStructureProviderImpl provider;
+
+    private final NodeStore store = new MemoryNodeStore();
+
+    @Before
+    public void setup() throws LoginException, RepositoryException, CommitFailedException
+    {
+        MockitoAnnotations.initMocks(this);
+        final Node questionnaire = Mockito.mock(Node.class);
+        Mockito.when(questionnaire.getIdentifier()).thenReturn(IDENTIFIER);
+        Mockito.when(questionnaire.getName()).thenReturn(IDENTIFIER);
+        Mockito.when(questionnaire.getPath()).thenReturn("/Questionnaires/Q");
+        Mockito.when(questionnaire.isNodeType(QuestionnaireUtils.QUESTIONNAIRE_NODETYPE)).thenReturn(true);
+        final NodeIterator noChildren = Mockito.mock(NodeIterator.class);
+        Mockito.when(questionnaire.getNodes()).thenReturn(noChildren);
+        final Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getNodeByIdentifier(IDENTIFIER)).thenReturn(questionnaire);
+        final ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        Mockito.when(resolver.adaptTo(Session.class)).thenReturn(session);
+        Mockito.when(this.rrf.getServiceResourceResolver(Matchers.anyMapOf(String.class, Object.class)))
+            .thenReturn(resolver);
+
+        final NodeBuilder builder = this.store.getRoot().builder();
+        final NodeBuilder questionnaires = builder.child(QUESTIONNAIRES);
+        questionnaires.child(IDENTIFIER).setProperty(JcrConstants.JCR_PRIMARYTYPE,
+            QuestionnaireUtils.QUESTIONNAIRE_NODETYPE, Type.NAME);
+        questionnaires.child("Other").setProperty(JcrConstants.JCR_PRIMARYTYPE,
+            QuestionnaireUtils.QUESTIONNAIRE_NODETYPE, Type.NAME);
+        merge(builder);
+    }
+
+    @Test
+    public void structuresAreCached() throws LoginException
+    {
+        Assert.assertNotNull(this.provider.getStructure(IDENTIFIER));
+        Assert.assertSame(this.provider.getStructure(IDENTIFIER), this.provider.getStructure(IDENTIFIER));
+        Mockito.verify(this.rrf, Mockito.times(1))
+            .getServiceResourceResolver(Matchers.anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void changesToTheQuestionnaireInvalidateItsStructure() throws LoginException, CommitFailedException
+    {
+        final Object cached = this.provider.getStructure(IDENTIFIER);
+        commit(IDENTIFIER, "q1");
+        Assert.assertNotSame(cached, this.provider.getStructure(IDENTIFIER));
+        Mockito.verify(this.rrf, Mockito.times(2))
+            .getServiceResourceResolver(Matchers.anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void removingTheQuestionnaireInvalidatesItsStructure() throws LoginException, CommitFailedException
+    {
+        this.provider.getStructure(IDENTIFIER);
+        final NodeBuilder builder = this.store.getRoot().builder();
+        builder.getChildNode(QUESTIONNAIRES).getChildNode(IDENTIFIER).remove();
+        merge(builder);
+        this.provider.getStructure(IDENTIFIER);
+        Mockito.verify(this.rrf, Mockito.times(2))
+            .getServiceResourceResolver(Matchers.anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void changesToOtherQuestionnairesAreIgnored() throws LoginException, CommitFailedException
+    {
+        final Object cached = this.provider.getStructure(IDENTIFIER);
+        commit("Other", "q2");
+        Assert.assertSame(cached, this.provider.getStructure(IDENTIFIER));
+    }
+
+    private void commit(final String questionnaire, final String child) throws CommitFailedException
+    {
+        final NodeBuilder builder = this.store.getRoot().builder();
+        builder.getChildNode(QUESTIONNAIRES).getChildNode(questionnaire).child(child).setProperty(TITLE, child);
+        merge(builder);
+    }
+
+    private void merge(final NodeBuilder builder) throws CommitFailedException
+    {
+        this.store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        this.provider.contentChanged(this.store.getRoot(), CommitInfo.EMPTY);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.forms.internal.serialize.labels;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ResourceLabelCache}.
+ *
+ * @version $Id$
+ */
+public class ResourceLabelCacheTest
+{
+    private static final String USER = "alice";
+
+    private static final String TERM = "/Vocabularies/HP/HP_0001638";
+
+    private static final String OTHER_TERM = "/Vocabularies/HPO/HP_1";
+
+    private static final String SUBJECT = "/Subjects/s1";
+
+    private ResourceLabelCache cache;
+
+    private AtomicInteger loads;
+
+    private Function<String, String> loader;
+
+    @Before
+    public void setup()
+    {
+        this.cache = new ResourceLabelCache();
+        this.loads = new AtomicInteger();
+        this.loader = path -> {
+            this.loads.incrementAndGet();
+            return "label of " + path;
+        };
+    }
+
+    @Test
+    public void labelsAreCachedPerUserAndProperty()
+    {
+        Assert.assertEquals("label of " + TERM, this.cache.getLabel(USER, TERM, "label", this.loader));
+        this.cache.getLabel(USER, TERM, "label", this.loader);
+        Assert.assertEquals(1, this.loads.get());
+        this.cache.getLabel("bob", TERM, "label", this.loader);
+        this.cache.getLabel(USER, TERM, "name", this.loader);
+        Assert.assertEquals(3, this.loads.get());
+    }
+
+    @Test
+    public void missingLabelsAreNotCached()
+    {
+        Assert.assertNull(this.cache.getLabel(USER, TERM, null, path -> null));
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        Assert.assertEquals(1, this.loads.get());
+    }
+
+    @Test
+    public void resourcesOutsideTheCachedRootsAreNotCached()
+    {
+        this.cache.getLabel(USER, "/Forms/f1", null, this.loader);
+        this.cache.getLabel(USER, "/Forms/f1", null, this.loader);
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    @Test
+    public void changedResourcesAreReloaded()
+    {
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        change(ChangeType.CHANGED, TERM);
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    @Test
+    public void removingAVocabularyDiscardsItsTerms()
+    {
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, OTHER_TERM, null, this.loader);
+        change(ChangeType.REMOVED, "/Vocabularies/HP");
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, OTHER_TERM, null, this.loader);
+        // Only the term of the removed vocabulary is loaded again
+        Assert.assertEquals(3, this.loads.get());
+    }
+
+    @Test
+    public void accessRightChangesDiscardTheAffectedTree()
+    {
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, SUBJECT, null, this.loader);
+        change(ChangeType.ADDED, "/Vocabularies/rep:policy/allow");
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, SUBJECT, null, this.loader);
+        Assert.assertEquals(3, this.loads.get());
+    }
+
+    @Test
+    public void rootAccessRightChangesDiscardEverything()
+    {
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, SUBJECT, null, this.loader);
+        change(ChangeType.CHANGED, "/rep:policy/allow1");
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, SUBJECT, null, this.loader);
+        Assert.assertEquals(4, this.loads.get());
+    }
+
+    @Test
+    public void membershipChangesDiscardEverything()
+    {
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, SUBJECT, null, this.loader);
+        change(ChangeType.CHANGED, "/home/groups/c/clinicians");
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        this.cache.getLabel(USER, SUBJECT, null, this.loader);
+        Assert.assertEquals(4, this.loads.get());
+    }
+
+    @Test
+    public void labelsLoadedDuringAChangeAreNotCached()
+    {
+        this.cache.getLabel(USER, TERM, null, path -> {
+            change(ChangeType.CHANGED, path);
+            return "old label";
+        });
+        Assert.assertEquals("label of " + TERM, this.cache.getLabel(USER, TERM, null, this.loader));
+    }
+
+    @Test
+    public void cacheIsBounded()
+    {
+        for (int i = 0; i < 10_010; ++i) {
+            this.cache.getLabel(USER, "/Subjects/s" + i, null, this.loader);
+        }
+        this.loads.set(0);
+        for (int i = 0; i < 10_010; ++i) {
+            this.cache.getLabel(USER, "/Subjects/s" + i, null, this.loader);
+        }
+        Assert.assertTrue(this.loads.get() > 0);
+    }
+
+    @Test
+    public void recentlyUsedLabelsAreKept()
+    {
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        for (int i = 0; i < 10_010; ++i) {
+            // Keep using the term while other resources are cached
+            this.cache.getLabel(USER, TERM, null, this.loader);
+            this.cache.getLabel(USER, "/Subjects/s" + i, null, this.loader);
+        }
+        this.loads.set(0);
+        this.cache.getLabel(USER, TERM, null, this.loader);
+        Assert.assertEquals(0, this.loads.get());
+    }
+
+    private void change(final ChangeType type, final String path)
+    {
+        this.cache.onChange(Collections.singletonList(new ResourceChange(type, path, false)));
+    }
+}
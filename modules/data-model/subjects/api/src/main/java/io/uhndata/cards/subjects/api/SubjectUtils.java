@@ -16,6 +16,8 @@
  */
 package io.uhndata.cards.subjects.api;
 
+import java.util.Map;
+
 import javax.jcr.Node;
 
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
@@ -83,6 +85,31 @@
      */
     Node getType(Node subject);
 
+    /**
+     * Retrieve the ancestors of a subject, including the subject itself, indexed by their type. If there are several
+     * ancestors of the same type, only the closest one is returned. Ancestries are cached for each user, so
+     * repeated calls for subjects in the same hierarchy don't need to access the repository again. Only the ancestors
+     * that the current user can access are returned.
+     *
+     * @param subject a Subject node, may be {@code null}
+     * @return an unmodifiable map from Subject Type UUIDs to Subject UUIDs, ordered from the subject up to its
+     *         top-level ancestor; an empty map if the provided node is not a Subject
+     */
+    Map<String, String> getAncestorsByType(Node subject);
+
+    /**
+     * Find the closest ancestor of a subject, including the subject itself, with the given type.
+     *
+     * @param subject a Subject node, may be {@code null}
+     * @param typeIdentifier the UUID of a Subject Type
+     * @return the UUID of the subject or ancestor of the requested type, or {@code null} if there isn't one
+     * @see #getAncestorsByType(Node)
+     */
+    default String getAncestorOfType(final Node subject, final String typeIdentifier)
+    {
+        return getAncestorsByType(subject).get(typeIdentifier);
+    }
+
     /**
      * Retrieve the label (human readable identifier) of the given Subject.
      *
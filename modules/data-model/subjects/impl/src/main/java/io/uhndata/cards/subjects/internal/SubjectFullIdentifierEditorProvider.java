@@ -31,6 +31,9 @@
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicyOption;
 
+import io.uhndata.cards.utils.EditorScope;
+import io.uhndata.cards.utils.ScopedEditor;
+
 /**
  * A {@link EditorProvider} returning {@link SubjectFullIdentifierEditor}.
  *
@@ -39,6 +42,9 @@
 @Component(property = "service.ranking:Integer=50")
 public class SubjectFullIdentifierEditorProvider implements EditorProvider
 {
+    /** Subjects are only stored under the subjects homepage. */
+    private static final EditorScope SCOPE = EditorScope.forPaths("/Subjects/*").withNodeTypes("cards:Subject");
+
     @Reference(fieldOption = FieldOption.REPLACE, cardinality = ReferenceCardinality.OPTIONAL,
         policyOption = ReferencePolicyOption.GREEDY)
     private ResourceResolverFactory rrf;
@@ -49,6 +55,6 @@ public Editor getRootEditor(final NodeState before, final NodeState after, final
         throws CommitFailedException
     {
         // Each SubjectFullIdentifierEditor maintains a state, so a new instance must be returned each time
-        return new SubjectFullIdentifierEditor(builder, new Stack<>());
+        return ScopedEditor.wrap(SCOPE, new SubjectFullIdentifierEditor(builder, new Stack<>()));
     }
 }
@@ -16,29 +16,60 @@
  */
 package io.uhndata.cards.subjects.internal;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
 import io.uhndata.cards.spi.AbstractNodeUtils;
 import io.uhndata.cards.subjects.api.SubjectUtils;
 
 /**
- * Basic utilities for working with Subject data.
+ * Basic utilities for working with Subject data. Also observes changes to subjects, to discard the cached ancestries
+ * of a subject and of its descendants when its type changes, or when it is moved or removed.
  *
  * @version $Id$
  */
-@Component
-public final class SubjectUtilsImpl extends AbstractNodeUtils implements SubjectUtils
+@Component(service = { SubjectUtils.class, Observer.class })
+public final class SubjectUtilsImpl extends AbstractNodeUtils implements SubjectUtils, Observer
 {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubjectUtilsImpl.class);
+
+    /** How many subject ancestries to cache. */
+    private static final int MAX_CACHED_ANCESTRIES = 10_000;
+
+    private static final String SUBJECTS = "Subjects";
+
     @Reference
     private ThreadResourceResolverProvider rrp;
 
+    /**
+     * Cached ancestries, by user and subject UUID. Each user only sees the ancestors they can access, so ancestries are
+     * not shared between users.
+     */
+    private final Map<String, Ancestry> ancestries = new ConcurrentHashMap<>();
+
+    /** The last observed root state. */
+    private NodeState previousRoot;
+
     // Subject methods
 
     @Override
@@ -79,6 +110,50 @@ public Node getType(final Node subject)
         return null;
     }
 
+    @Override
+    public Map<String, String> getAncestorsByType(final Node subject)
+    {
+        if (!isSubject(subject)) {
+            return Collections.emptyMap();
+        }
+        try {
+            final String user = subject.getSession().getUserID();
+            final String key = getCacheKey(user, subject);
+            final Ancestry cached = this.ancestries.get(key);
+            if (cached != null) {
+                return cached.types;
+            }
+            final Ancestry ancestry = computeAncestry(subject, user);
+            if (ancestry != null) {
+                this.ancestries.put(key, ancestry);
+                evictOtherThan(key);
+                return ancestry.types;
+            }
+            // The current user cannot see all the ancestors, don't cache this incomplete ancestry
+            return computeVisibleAncestry(subject);
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to retrieve the ancestors of subject {}: {}", subject, e.getMessage(), e);
+        }
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void contentChanged(final NodeState root, final CommitInfo info)
+    {
+        final NodeState before;
+        synchronized (this) {
+            before = this.previousRoot;
+            this.previousRoot = root;
+        }
+        if (before == null) {
+            // First notification, there is no previous state to compare against
+            this.ancestries.clear();
+            return;
+        }
+        root.getChildNode(SUBJECTS).compareAgainstBaseState(before.getChildNode(SUBJECTS),
+            new SubjectsDiff("/" + SUBJECTS));
+    }
+
     @Override
     public String getLabel(final Node subject)
     {
@@ -91,4 +166,162 @@ public String getLabel(final Node subject)
         }
         return null;
     }
+
+    /**
+     * Compute the ancestry of a subject, reusing the cached ancestry of one of its ancestors if possible.
+     *
+     * @param subject a Subject node
+     * @param user the identifier of the user accessing the subject
+     * @return the ancestry, or {@code null} if the user cannot access all the ancestors of the subject
+     * @throws RepositoryException if accessing the repository fails
+     */
+    private Ancestry computeAncestry(final Node subject, final String user) throws RepositoryException
+    {
+        final Map<String, String> result = new LinkedHashMap<>();
+        try {
+            for (Node s = subject; isSubject(s); s = s.getParent()) {
+                // Siblings share their ancestors, reuse an already cached ancestry if possible
+                final Ancestry cachedAncestry = s == subject ? null : this.ancestries.get(getCacheKey(user, s));
+                if (cachedAncestry != null) {
+                    cachedAncestry.types.forEach(result::putIfAbsent);
+                    break;
+                }
+                addType(s, result);
+            }
+        } catch (final AccessDeniedException | ItemNotFoundException e) {
+            return null;
+        }
+        return new Ancestry(subject.getPath(), result);
+    }
+
+    /**
+     * Compute the ancestry of a subject, as far up as the current user can access, without using the cache.
+     *
+     * @param subject a Subject node
+     * @return an unmodifiable map from Subject Type UUIDs to Subject UUIDs
+     * @throws RepositoryException if accessing the repository fails
+     */
+    private Map<String, String> computeVisibleAncestry(final Node subject) throws RepositoryException
+    {
+        final Map<String, String> result = new LinkedHashMap<>();
+        try {
+            for (Node s = subject; isSubject(s); s = s.getParent()) {
+                addType(s, result);
+            }
+        } catch (final AccessDeniedException | ItemNotFoundException e) {
+            // Expected, stop at the first inaccessible ancestor
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static void addType(final Node subject, final Map<String, String> ancestry) throws RepositoryException
+    {
+        if (subject.hasProperty(TYPE_PROPERTY)) {
+            ancestry.putIfAbsent(subject.getProperty(TYPE_PROPERTY).getString(), subject.getIdentifier());
+        }
+    }
+
+    private static String getCacheKey(final String user, final Node subject) throws RepositoryException
+    {
+        return user + ':' + subject.getIdentifier();
+    }
+
+    /**
+     * Discard cached ancestries other than the one just added while the cache holds too many entries.
+     *
+     * @param key the key of the entry just added
+     */
+    private void evictOtherThan(final String key)
+    {
+        final Iterator<String> keys = this.ancestries.keySet().iterator();
+        while (this.ancestries.size() > MAX_CACHED_ANCESTRIES && keys.hasNext()) {
+            if (!key.equals(keys.next())) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Discard the cached ancestries of a subject and of all its descendants, for all users.
+     *
+     * @param path the path of the subject
+     */
+    private void invalidate(final String path)
+    {
+        final String descendantsPrefix = path + "/";
+        this.ancestries.values()
+            .removeIf(ancestry -> ancestry.path.equals(path) || ancestry.path.startsWith(descendantsPrefix));
+    }
+
+    /**
+     * A cached ancestry.
+     */
+    private static final class Ancestry
+    {
+        /** The path of the subject, used for discarding the ancestries of changed subjects. */
+        private final String path;
+
+        /** The ancestors of the subject, by type. */
+        private final Map<String, String> types;
+
+        Ancestry(final String path, final Map<String, String> types)
+        {
+            this.path = path;
+            this.types = Collections.unmodifiableMap(types);
+        }
+    }
+
+    /**
+     * Looks for subjects whose ancestry changed: a change in the type of a subject, or a removed subject. A moved
+     * subject appears as removed from its old location. New subjects don't have a cached ancestry yet, so they are
+     * ignored.
+     */
+    private final class SubjectsDiff extends DefaultNodeStateDiff
+    {
+        private final String path;
+
+        SubjectsDiff(final String path)
+        {
+            this.path = path;
+        }
+
+        @Override
+        public boolean propertyAdded(final PropertyState after)
+        {
+            return checkType(after);
+        }
+
+        @Override
+        public boolean propertyChanged(final PropertyState before, final PropertyState after)
+        {
+            return checkType(after);
+        }
+
+        @Override
+        public boolean propertyDeleted(final PropertyState before)
+        {
+            return checkType(before);
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            return after.compareAgainstBaseState(before, new SubjectsDiff(this.path + "/" + name));
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            invalidate(this.path + "/" + name);
+            return true;
+        }
+
+        private boolean checkType(final PropertyState property)
+        {
+            if (TYPE_PROPERTY.equals(property.getName())) {
+                invalidate(this.path);
+            }
+            return true;
+        }
+    }
 }
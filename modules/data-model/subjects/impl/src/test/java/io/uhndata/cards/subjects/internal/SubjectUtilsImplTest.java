@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.subjects.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.uhndata.cards.subjects.api.SubjectUtils;
+
+/**
+ * Unit tests for {@link SubjectUtilsImpl}.
+ *
+ * @version $Id$
+ */
+public class SubjectUtilsImplTest
+{
+    private static final String PATIENT_TYPE = "patient-type";
+
+    private static final String VISIT_TYPE = "visit-type";
+
+    private static final String PATIENT = "patient";
+
+    private static final String VISIT = "visit";
+
+    private static final String SUBJECTS = "Subjects";
+
+    private final SubjectUtilsImpl utils = new SubjectUtilsImpl();
+
+    private Session session;
+
+    private Node patient;
+
+    private Node visit;
+
+    @Before
+    public void setup() throws RepositoryException
+    {
+        this.session = mockSession("alice");
+        final Node root = Mockito.mock(Node.class);
+        this.patient = mockSubject(PATIENT, PATIENT_TYPE, "/Subjects/patient", this.session);
+        this.visit = mockSubject(VISIT, VISIT_TYPE, "/Subjects/patient/visit", this.session);
+        Mockito.when(this.patient.getParent()).thenReturn(root);
+        Mockito.when(this.visit.getParent()).thenReturn(this.patient);
+    }
+
+    @Test
+    public void ancestorsAreIndexedByType()
+    {
+        final Map<String, String> ancestry = this.utils.getAncestorsByType(this.visit);
+        Assert.assertEquals(List.of(VISIT_TYPE, PATIENT_TYPE), List.copyOf(ancestry.keySet()));
+        Assert.assertEquals(VISIT, ancestry.get(VISIT_TYPE));
+        Assert.assertEquals(PATIENT, this.utils.getAncestorOfType(this.visit, PATIENT_TYPE));
+        Assert.assertNull(this.utils.getAncestorOfType(this.visit, "other-type"));
+    }
+
+    @Test
+    public void nonSubjectsHaveNoAncestors()
+    {
+        Assert.assertTrue(this.utils.getAncestorsByType(null).isEmpty());
+        Assert.assertTrue(this.utils.getAncestorsByType(Mockito.mock(Node.class)).isEmpty());
+    }
+
+    @Test
+    public void ancestriesAreCachedPerUser() throws RepositoryException
+    {
+        this.utils.getAncestorsByType(this.visit);
+        this.utils.getAncestorsByType(this.visit);
+        Mockito.verify(this.visit, Mockito.times(1)).getParent();
+
+        final Session otherSession = mockSession("bob");
+        Mockito.when(this.visit.getSession()).thenReturn(otherSession);
+        this.utils.getAncestorsByType(this.visit);
+        Mockito.verify(this.visit, Mockito.times(2)).getParent();
+    }
+
+    @Test
+    public void cachedAncestorsAreReused() throws RepositoryException
+    {
+        this.utils.getAncestorsByType(this.patient);
+        final Map<String, String> ancestry = this.utils.getAncestorsByType(this.visit);
+        Assert.assertEquals(PATIENT, ancestry.get(PATIENT_TYPE));
+        Mockito.verify(this.patient, Mockito.times(1)).getParent();
+    }
+
+    @Test
+    public void incompleteAncestriesAreNotCached() throws RepositoryException
+    {
+        Mockito.when(this.visit.getParent()).thenThrow(new AccessDeniedException());
+        Assert.assertEquals(Map.of(VISIT_TYPE, VISIT), this.utils.getAncestorsByType(this.visit));
+        this.utils.getAncestorsByType(this.visit);
+        Mockito.verify(this.visit, Mockito.times(4)).getParent();
+    }
+
+    @Test
+    public void typeChangesDiscardDescendantAncestries() throws RepositoryException
+    {
+        final NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        builder.child(SUBJECTS).child(PATIENT).setProperty("type", PATIENT_TYPE);
+        builder.child(SUBJECTS).child("other").setProperty("type", PATIENT_TYPE);
+        final NodeState before = builder.getNodeState();
+        this.utils.contentChanged(before, CommitInfo.EMPTY);
+        this.utils.getAncestorsByType(this.visit);
+
+        // Unrelated subjects don't affect the cache
+        builder.child(SUBJECTS).child("other").setProperty("type", VISIT_TYPE);
+        final NodeState unrelated = builder.getNodeState();
+        this.utils.contentChanged(unrelated, CommitInfo.EMPTY);
+        this.utils.getAncestorsByType(this.visit);
+        Mockito.verify(this.visit, Mockito.times(1)).getParent();
+
+        builder.child(SUBJECTS).child(PATIENT).setProperty("type", VISIT_TYPE);
+        this.utils.contentChanged(builder.getNodeState(), CommitInfo.EMPTY);
+        this.utils.getAncestorsByType(this.visit);
+        Mockito.verify(this.visit, Mockito.times(2)).getParent();
+    }
+
+    @Test
+    public void removedSubjectsDiscardTheirAncestries() throws RepositoryException
+    {
+        final NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        builder.child(SUBJECTS).child(PATIENT).child(VISIT);
+        this.utils.contentChanged(builder.getNodeState(), CommitInfo.EMPTY);
+        this.utils.getAncestorsByType(this.visit);
+
+        builder.child(SUBJECTS).child(PATIENT).child(VISIT).remove();
+        this.utils.contentChanged(builder.getNodeState(), CommitInfo.EMPTY);
+        this.utils.getAncestorsByType(this.visit);
+        Mockito.verify(this.visit, Mockito.times(2)).getParent();
+    }
+
+    private static Session mockSession(final String user)
+    {
+        final Session result = Mockito.mock(Session.class);
+        Mockito.when(result.getUserID()).thenReturn(user);
+        return result;
+    }
+
+    private static Node mockSubject(final String identifier, final String type, final String path,
+        final Session session) throws RepositoryException
+    {
+        final Node subject = Mockito.mock(Node.class);
+        final Property typeProperty = Mockito.mock(Property.class);
+        Mockito.when(typeProperty.getString()).thenReturn(type);
+        Mockito.when(subject.isNodeType(SubjectUtils.SUBJECT_NODETYPE)).thenReturn(true);
+        Mockito.when(subject.getIdentifier()).thenReturn(identifier);
+        Mockito.when(subject.getPath()).thenReturn(path);
+        Mockito.when(subject.getSession()).thenReturn(session);
+        Mockito.when(subject.hasProperty(SubjectUtils.TYPE_PROPERTY)).thenReturn(true);
+        Mockito.when(subject.getProperty(SubjectUtils.TYPE_PROPERTY)).thenReturn(typeProperty);
+        return subject;
+    }
+}
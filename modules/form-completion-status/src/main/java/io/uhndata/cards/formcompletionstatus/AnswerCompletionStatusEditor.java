@@ -16,6 +16,7 @@
  */
 package io.uhndata.cards.formcompletionstatus;
 
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -29,9 +30,12 @@
 import javax.jcr.Session;
 
 import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
@@ -39,10 +43,13 @@
 
 import io.uhndata.cards.formcompletionstatus.spi.AnswerValidator;
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 
 /**
  * An {@link Editor} that verifies the correctness and completeness of submitted questionnaire answers and sets the
- * {@code INVALID} and {@code INCOMPLETE} status flags accordingly.
+ * {@code INVALID} and {@code INCOMPLETE} status flags accordingly. New forms are fully validated, while for existing
+ * forms only the changed answers are validated, and only the sections affected by those changes are summarized again.
  *
  * @version $Id$
  */
@@ -66,6 +73,8 @@ public class AnswerCompletionStatusEditor extends DefaultEditor
 
     private final FormUtils formUtils;
 
+    private final QuestionnaireStructureProvider structureProvider;
+
     private final boolean isFormNode;
 
     // Validators list to be called in sequence, in ascending order of their priority, and each can add or remove flags.
@@ -80,15 +89,18 @@ public class AnswerCompletionStatusEditor extends DefaultEditor
      * @param newNode is this a newly created node, or an existing node being updated
      * @param session the current JCR session
      * @param formUtils for working with form data
+     * @param structureProvider for caching the compiled conditions of conditional sections
      * @param allValidators all available AnswerValidator services
      */
     public AnswerCompletionStatusEditor(final NodeBuilder currentNodeBuilder, final boolean newNode,
-        final Session session, final FormUtils formUtils, final List<AnswerValidator> allValidators)
+        final Session session, final FormUtils formUtils, final QuestionnaireStructureProvider structureProvider,
+        final List<AnswerValidator> allValidators)
     {
         this.currentNodeBuilder = currentNodeBuilder;
         this.newForm = newNode;
         this.session = session;
         this.formUtils = formUtils;
+        this.structureProvider = structureProvider;
         this.allValidators = allValidators;
         this.isFormNode = this.formUtils.isForm(currentNodeBuilder);
     }
@@ -105,7 +117,7 @@ public Editor childNodeAdded(final String name, final NodeState after)
             return null;
         }
         return new AnswerCompletionStatusEditor(this.currentNodeBuilder.getChildNode(name), true, this.session,
-            this.formUtils, this.allValidators);
+            this.formUtils, this.structureProvider, this.allValidators);
     }
 
     @Override
@@ -116,7 +128,7 @@ public Editor childNodeChanged(final String name, final NodeState before, final
             return null;
         }
         return new AnswerCompletionStatusEditor(this.currentNodeBuilder.getChildNode(name), false, this.session,
-            this.formUtils, this.allValidators);
+            this.formUtils, this.structureProvider, this.allValidators);
     }
 
     @Override
@@ -124,10 +136,160 @@ public void leave(final NodeState before, final NodeState after)
         throws CommitFailedException
     {
         if (this.isFormNode) {
-            processNode(this.currentNodeBuilder);
+            if (this.newForm || !before.exists()) {
+                processNode(this.currentNodeBuilder);
+            } else {
+                processChanges(before);
+            }
         }
     }
 
+    /**
+     * Validate only the answers that changed since the form was last stored, and summarize again only the sections
+     * that contain them, along with the conditional sections whose condition depends on them.
+     *
+     * @param before the stored state of the form
+     */
+    private void processChanges(final NodeState before)
+    {
+        // Compare against the current state of the builder and not the committed state, since other editors may have
+        // already modified more answers, for example computed answers
+        final FormChangeCollector changes = new FormChangeCollector("");
+        this.currentNodeBuilder.getNodeState().compareAgainstBaseState(before, changes);
+
+        final Set<String> toSummarize = new HashSet<>();
+        final Set<String> changedQuestions = new HashSet<>(changes.deletedQuestions);
+        toSummarize.add("");
+        changes.changedNodes.forEach(path -> {
+            final NodeBuilder node = getDescendant(path);
+            if (!node.exists()) {
+                return;
+            }
+            if (this.formUtils.isAnswer(node)) {
+                validateAnswer(node);
+                changedQuestions.add(this.formUtils.getQuestionIdentifier(node));
+            } else if (this.formUtils.isAnswerSection(node)) {
+                toSummarize.add(path);
+            }
+            addAncestors(path, toSummarize);
+        });
+        changes.modifiedParents.forEach(path -> {
+            toSummarize.add(path);
+            addAncestors(path, toSummarize);
+        });
+        changedQuestions.remove(null);
+        if (!changedQuestions.isEmpty()) {
+            addDependentConditionalSections(changedQuestions, toSummarize);
+        }
+
+        // Summarize the deepest sections first, since their parents aggregate their flags
+        toSummarize.stream()
+            .sorted(Comparator.comparingInt(AnswerCompletionStatusEditor::getDepth).reversed())
+            .map(this::getDescendant)
+            .filter(NodeBuilder::exists)
+            .forEach(this::summarizeNode);
+    }
+
+    /**
+     * Mark for summarizing the parents of the conditional sections whose condition depends on the changed questions,
+     * since their visibility may have changed.
+     *
+     * @param changedQuestions the UUIDs of the questions whose answers changed
+     * @param toSummarize collects the paths of the nodes to summarize again
+     */
+    private void addDependentConditionalSections(final Set<String> changedQuestions, final Set<String> toSummarize)
+    {
+        final QuestionnaireStructure structure = this.currentNodeBuilder.hasProperty(FormUtils.QUESTIONNAIRE_PROPERTY)
+            ? this.structureProvider.getStructure(
+                this.currentNodeBuilder.getProperty(FormUtils.QUESTIONNAIRE_PROPERTY).getValue(Type.REFERENCE))
+            : null;
+        if (structure == null) {
+            // Fall back to inspecting the condition of each section
+            addDependentConditionalSections(this.currentNodeBuilder, "", changedQuestions, toSummarize);
+            return;
+        }
+        final Set<String> dependentSections = new HashSet<>();
+        changedQuestions.forEach(question -> dependentSections.addAll(structure.getDependentSections(question)));
+        if (!dependentSections.isEmpty()) {
+            addSectionsAncestors(this.currentNodeBuilder, "", dependentSections, toSummarize);
+        }
+    }
+
+    /**
+     * Mark for summarizing the parents of the answer sections for the given sections.
+     *
+     * @param node the node to (recursively) look in, starting with the form
+     * @param path the path of the node, relative to the form
+     * @param sections the UUIDs of the questionnaire sections to look for
+     * @param toSummarize collects the paths of the nodes to summarize again
+     */
+    private void addSectionsAncestors(final NodeBuilder node, final String path, final Set<String> sections,
+        final Set<String> toSummarize)
+    {
+        for (final String childName : node.getChildNodeNames()) {
+            final NodeBuilder child = node.getChildNode(childName);
+            if (this.formUtils.isAnswerSection(child)) {
+                final String childPath = path.isEmpty() ? childName : path + "/" + childName;
+                if (child.hasProperty(FormUtils.SECTION_PROPERTY)
+                    && sections.contains(child.getProperty(FormUtils.SECTION_PROPERTY).getValue(Type.REFERENCE))) {
+                    addAncestors(childPath, toSummarize);
+                }
+                addSectionsAncestors(child, childPath, sections, toSummarize);
+            }
+        }
+    }
+
+    private void addDependentConditionalSections(final NodeBuilder node, final String path,
+        final Set<String> changedQuestions, final Set<String> toSummarize)
+    {
+        for (final String childName : node.getChildNodeNames()) {
+            final NodeBuilder child = node.getChildNode(childName);
+            if (!this.formUtils.isAnswerSection(child)) {
+                continue;
+            }
+            final String childPath = path.isEmpty() ? childName : path + "/" + childName;
+            try {
+                final Set<String> referencedQuestions = ConditionalSectionUtils.getReferencedQuestions(this.session,
+                    this.structureProvider, child, this.currentNodeBuilder);
+                referencedQuestions.retainAll(changedQuestions);
+                if (!referencedQuestions.isEmpty()) {
+                    // The visibility of this section may have changed, so its parents must be summarized again
+                    addAncestors(childPath, toSummarize);
+                }
+            } catch (final RepositoryException e) {
+                // Conservatively assume that the condition may have changed
+                addAncestors(childPath, toSummarize);
+            }
+            addDependentConditionalSections(child, childPath, changedQuestions, toSummarize);
+        }
+    }
+
+    private NodeBuilder getDescendant(final String path)
+    {
+        NodeBuilder result = this.currentNodeBuilder;
+        if (!path.isEmpty()) {
+            for (final String name : path.split("/")) {
+                result = result.getChildNode(name);
+            }
+        }
+        return result;
+    }
+
+    private static void addAncestors(final String path, final Set<String> paths)
+    {
+        int end = path.lastIndexOf('/');
+        while (end > 0) {
+            paths.add(path.substring(0, end));
+            end = path.lastIndexOf('/', end - 1);
+        }
+        paths.add("");
+    }
+
+    private static int getDepth(final String path)
+    {
+        return path.isEmpty() ? 0 : (int) path.chars().filter(c -> c == '/').count() + 1;
+    }
+
     private void processNode(final NodeBuilder node)
     {
         summarizeChildren(node);
@@ -194,7 +356,8 @@ private void summarize(final NodeBuilder node) throws RepositoryException
             .filter(child -> {
                 try {
                     return !(this.formUtils.isAnswerSection(child)
-                        && !ConditionalSectionUtils.isConditionSatisfied(this.session, child, this.currentNodeBuilder));
+                        && !ConditionalSectionUtils.isConditionSatisfied(this.session, this.structureProvider,
+                            child, this.currentNodeBuilder));
                 } catch (final RepositoryException e) {
                     return true;
                 }
@@ -250,4 +413,99 @@ private boolean isEmptyForm()
         }
         return false;
     }
+
+    /**
+     * Collects the paths, relative to the form, of the nodes that were added or had their properties changed, the
+     * nodes that had some of their children removed, and the questions of the removed answers.
+     */
+    private final class FormChangeCollector extends DefaultNodeStateDiff
+    {
+        private final String path;
+
+        private final Set<String> changedNodes;
+
+        private final Set<String> modifiedParents;
+
+        private final Set<String> deletedQuestions;
+
+        FormChangeCollector(final String path)
+        {
+            this(path, new HashSet<>(), new HashSet<>(), new HashSet<>());
+        }
+
+        private FormChangeCollector(final String path, final Set<String> changedNodes,
+            final Set<String> modifiedParents, final Set<String> deletedQuestions)
+        {
+            this.path = path;
+            this.changedNodes = changedNodes;
+            this.modifiedParents = modifiedParents;
+            this.deletedQuestions = deletedQuestions;
+        }
+
+        @Override
+        public boolean propertyAdded(final PropertyState after)
+        {
+            this.changedNodes.add(this.path);
+            return true;
+        }
+
+        @Override
+        public boolean propertyChanged(final PropertyState before, final PropertyState after)
+        {
+            this.changedNodes.add(this.path);
+            return true;
+        }
+
+        @Override
+        public boolean propertyDeleted(final PropertyState before)
+        {
+            this.changedNodes.add(this.path);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after)
+        {
+            addSubtree(getChildPath(name), after);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            return after.compareAgainstBaseState(before, new FormChangeCollector(getChildPath(name),
+                this.changedNodes, this.modifiedParents, this.deletedQuestions));
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            this.modifiedParents.add(this.path);
+            collectDeletedQuestions(before);
+            return true;
+        }
+
+        private void addSubtree(final String subtreePath, final NodeState node)
+        {
+            this.changedNodes.add(subtreePath);
+            for (final ChildNodeEntry child : node.getChildNodeEntries()) {
+                addSubtree(subtreePath + "/" + child.getName(), child.getNodeState());
+            }
+        }
+
+        private void collectDeletedQuestions(final NodeState node)
+        {
+            if (AnswerCompletionStatusEditor.this.formUtils.isAnswer(node)) {
+                this.deletedQuestions.add(AnswerCompletionStatusEditor.this.formUtils.getQuestionIdentifier(node));
+            }
+            for (final ChildNodeEntry child : node.getChildNodeEntries()) {
+                collectDeletedQuestions(child.getNodeState());
+            }
+        }
+
+        private String getChildPath(final String name)
+        {
+            return this.path.isEmpty() ? name : this.path + "/" + name;
+        }
+    }
 }
@@ -36,7 +36,10 @@
 
 import io.uhndata.cards.formcompletionstatus.spi.AnswerValidator;
 import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
+import io.uhndata.cards.utils.EditorScope;
+import io.uhndata.cards.utils.ScopedEditor;
 
 /**
  * A {@link EditorProvider} returning {@link AnswerCompletionStatusEditor}.
@@ -46,12 +49,18 @@
 @Component(property = "service.ranking:Integer=100")
 public class AnswerCompletionStatusEditorProvider implements EditorProvider
 {
+    /** The completion status flags are set on the answers and sections of forms. */
+    private static final EditorScope SCOPE = EditorScope.forPaths("/Forms/*").withNodeTypes("cards:Form");
+
     @Reference
     private ThreadResourceResolverProvider rrp;
 
     @Reference
     private FormUtils formUtils;
 
+    @Reference
+    private QuestionnaireStructureProvider structureProvider;
+
     /** A list of all available {@link AnswerValidator}s. */
     @Reference(cardinality = ReferenceCardinality.MULTIPLE, fieldOption = FieldOption.REPLACE,
         policy = ReferencePolicy.DYNAMIC)
@@ -67,8 +76,8 @@ public Editor getRootEditor(final NodeState before, final NodeState after, final
             final List<AnswerValidator> sortedValidators = new ArrayList<>(this.allValidators);
             sortedValidators.sort(null);
             // Each AnswerCompletionStatusEditor maintains a state, so a new instance must be returned each time
-            return new AnswerCompletionStatusEditor(builder, false, resolver.adaptTo(Session.class), this.formUtils,
-                sortedValidators);
+            return ScopedEditor.wrap(SCOPE, new AnswerCompletionStatusEditor(builder, false,
+                resolver.adaptTo(Session.class), this.formUtils, this.structureProvider, sortedValidators));
         }
         return null;
     }
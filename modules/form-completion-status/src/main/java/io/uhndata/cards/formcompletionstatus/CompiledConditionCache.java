@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.formcompletionstatus;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.utils.LruCache;
+
+/**
+ * Caches the compiled conditions of conditional sections, grouped by questionnaire. Conditions are only reused with the
+ * questionnaire structure snapshot they were compiled for, and that snapshot is only weakly referenced, so outdated
+ * snapshots discarded by the structure provider are not kept in memory. The conditions of at most
+ * {@link #MAX_CACHED_QUESTIONNAIRES} recently used questionnaires are cached.
+ *
+ * @param <C> the type of compiled conditions
+ * @version $Id$
+ */
+final class CompiledConditionCache<C>
+{
+    /** How many questionnaires to cache conditions for. */
+    private static final int MAX_CACHED_QUESTIONNAIRES = 200;
+
+    /** Cached conditions, by questionnaire UUID. */
+    private final LruCache<String, QuestionnaireConditions<C>> conditions = new LruCache<>(MAX_CACHED_QUESTIONNAIRES);
+
+    private CompiledConditionCache()
+    {
+        // Instances must be created with create()
+    }
+
+    /**
+     * Create a new, empty cache.
+     *
+     * @param <C> the type of compiled conditions
+     * @return a new cache
+     */
+    static <C> CompiledConditionCache<C> create()
+    {
+        return new CompiledConditionCache<>();
+    }
+
+    /**
+     * Retrieve a cached condition.
+     *
+     * @param structure the current structure of the questionnaire the section belongs to
+     * @param sectionIdentifier the UUID of the section
+     * @return the cached condition, or {@code null} if the condition was not compiled for this structure yet
+     */
+    C get(final QuestionnaireStructure structure, final String sectionIdentifier)
+    {
+        final QuestionnaireConditions<C> cached = this.conditions.get(structure.getIdentifier());
+        return cached == null || !cached.isFor(structure) ? null : cached.conditions.get(sectionIdentifier);
+    }
+
+    /**
+     * Cache a compiled condition. If the questionnaire changed since other conditions were cached for it, the
+     * previously cached conditions are discarded.
+     *
+     * @param structure the structure of the questionnaire the condition was compiled for
+     * @param sectionIdentifier the UUID of the section
+     * @param condition the compiled condition
+     */
+    void put(final QuestionnaireStructure structure, final String sectionIdentifier, final C condition)
+    {
+        final String questionnaire = structure.getIdentifier();
+        QuestionnaireConditions<C> cached = this.conditions.get(questionnaire);
+        if (cached == null || !cached.isFor(structure)) {
+            cached = new QuestionnaireConditions<>(structure);
+            this.conditions.put(questionnaire, cached);
+        }
+        cached.conditions.put(sectionIdentifier, condition);
+    }
+
+    /**
+     * The conditions compiled for one questionnaire structure snapshot.
+     *
+     * @param <C> the type of compiled conditions
+     */
+    private static final class QuestionnaireConditions<C>
+    {
+        private final WeakReference<QuestionnaireStructure> structure;
+
+        private final Map<String, C> conditions = new ConcurrentHashMap<>();
+
+        QuestionnaireConditions(final QuestionnaireStructure structure)
+        {
+            this.structure = new WeakReference<>(structure);
+        }
+
+        boolean isFor(final QuestionnaireStructure otherStructure)
+        {
+            return this.structure.get() == otherStructure;
+        }
+    }
+}
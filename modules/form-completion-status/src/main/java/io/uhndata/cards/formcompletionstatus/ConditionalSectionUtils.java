@@ -21,12 +21,15 @@
 import java.text.SimpleDateFormat;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -43,6 +46,17 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+import io.uhndata.cards.forms.api.QuestionnaireStructureProvider;
+
+/**
+ * Evaluates the conditions of conditional sections against the answers in a form. Each condition is compiled once into
+ * an immutable tree holding the resolved question identifiers, typed constant operands, and comparison operators, and
+ * compiled conditions are cached for as long as the questionnaire they belong to doesn't change.
+ *
+ * @version $Id$
+ */
 public final class ConditionalSectionUtils
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConditionalSectionUtils.class);
@@ -55,6 +69,43 @@
 
     private static final String PROP_REQUIRE_ALL = "requireAll";
 
+    private static final String PROP_SECTION = "section";
+
+    /** A condition that always holds, used for sections that don't have a condition. */
+    private static final Condition ALWAYS_SATISFIED = new Condition()
+    {
+        @Override
+        public boolean evaluate(final NodeBuilder form)
+        {
+            return true;
+        }
+
+        @Override
+        public void collectReferencedQuestions(final Set<String> result)
+        {
+            // Nothing referenced
+        }
+    };
+
+    /** A condition that never holds, used for unknown types of condition nodes. */
+    private static final Condition NEVER_SATISFIED = new Condition()
+    {
+        @Override
+        public boolean evaluate(final NodeBuilder form)
+        {
+            return false;
+        }
+
+        @Override
+        public void collectReferencedQuestions(final Set<String> result)
+        {
+            // Nothing referenced
+        }
+    };
+
+    /** Compiled conditions, by questionnaire structure and section UUID. */
+    private static final CompiledConditionCache<Condition> COMPILED_CONDITIONS = CompiledConditionCache.create();
+
     @SuppressWarnings("serial")
     private static final Map<Integer, java.util.function.BiFunction<Object, Object, Boolean>> EQ_OPERATORS =
         new HashMap<Integer, java.util.function.BiFunction<Object, Object, Boolean>>()
@@ -174,8 +225,8 @@ private ConditionalSectionUtils()
     private static Node getSectionNode(final Session resourceSession, final NodeBuilder answerSection)
     {
         try {
-            if (answerSection.hasProperty("section")) {
-                final String sectionNodeReference = answerSection.getProperty("section").getValue(Type.REFERENCE);
+            if (answerSection.hasProperty(PROP_SECTION)) {
+                final String sectionNodeReference = answerSection.getProperty(PROP_SECTION).getValue(Type.REFERENCE);
                 return resourceSession.getNodeByIdentifier(sectionNodeReference);
             }
         } catch (final RepositoryException ex) {
@@ -304,7 +355,6 @@ private static int getPropertyObjectType(final Object obj)
 
     private static boolean evalSection(final Object propA, final Object propB,
         final Map<Integer, java.util.function.BiFunction<Object, Object, Boolean>> operators)
-        throws RepositoryException, ValueFormatException
     {
         if (propA == null || propB == null) {
             return false;
@@ -316,32 +366,6 @@ private static boolean evalSection(final Object propA, final Object propB,
         return operators.get(type).apply(propA, propB);
     }
 
-    /**
-     * Evaluates the boolean expression {propA} {operator} {propB}.
-     */
-    private static boolean evalSectionCondition(final Object propA, final Object propB, final String operator)
-        throws RepositoryException, ValueFormatException
-    {
-        // If we can't evaluate it, default to false
-        boolean result = false;
-        if ("=".equals(operator) || "<>".equals(operator)) {
-            boolean testResult = evalSection(propA, propB, EQ_OPERATORS);
-            if ("<>".equals(operator)) {
-                testResult = !testResult;
-            }
-            result = testResult;
-        } else if ("<".equals(operator)) {
-            result = evalSection(propA, propB, LT_OPERATORS);
-        } else if (">".equals(operator)) {
-            result = evalSection(propA, propB, GT_OPERATORS);
-        } else if ("<=".equals(operator)) {
-            result = evalSection(propA, propB, LTE_OPERATORS);
-        } else if (">=".equals(operator)) {
-            result = evalSection(propA, propB, GTE_OPERATORS);
-        }
-        return result;
-    }
-
     /*
      * Read in a string, inStr, and return it with any non-allowed chars removed.
      */
@@ -419,24 +443,6 @@ private static Object getObjectFromValue(Value val) throws RepositoryException,
         return ret;
     }
 
-    private static PropertyState getPropertyStateFromRef(final Node operand,
-        final Node sectionNode, final NodeBuilder form) throws RepositoryException
-    {
-        String key = sanitizeNodeName(operand.getProperty(PROP_VALUE).getValues()[0].getString());
-        final Node questionnaire = getQuestionnaireForSection(sectionNode);
-        final Node question = getQuestionWithName(questionnaire, key);
-        if (question == null) {
-            return null;
-        }
-        final String questionUUID = question.getIdentifier();
-        // Get the node from the Form containing the answer to keyNode
-        final NodeBuilder answer = getAnswerForQuestion(form, questionUUID);
-        if (answer == null) {
-            return null;
-        }
-        return answer.getProperty(PROP_VALUE);
-    }
-
     /**
      * Retrieves for the Questionnaire that a Section belongs to. This is usually the parent node, but in the case of a
      * nested section, it may be higher up the ancestors chain.
@@ -488,139 +494,217 @@ private static Node getQuestionWithName(final Node parent, final String question
         return null;
     }
 
-    private static Object getOperandValue(final Node operand, final Node sectionNode, final NodeBuilder form,
-        int index) throws RepositoryException
+    /**
+     * Checks if the condition of a conditional answer section is satisfied by the answers in the form. The condition
+     * is compiled again on each call; prefer {@link #isConditionSatisfied(Session, QuestionnaireStructureProvider,
+     * NodeBuilder, NodeBuilder)} which caches compiled conditions.
+     *
+     * @param resourceSession the current session
+     * @param answerSection the answer section whose condition should be evaluated
+     * @param form the form holding the answers
+     * @return {@code true} if the section is not conditional, or its condition is satisfied
+     * @throws RepositoryException if accessing the condition fails
+     */
+    public static boolean isConditionSatisfied(final Session resourceSession,
+        final NodeBuilder answerSection, final NodeBuilder form) throws RepositoryException
     {
-        Object returnedValue = null;
-        if (operand.getProperty(PROP_IS_REFERENCE).getValue().getBoolean()) {
-            PropertyState operandProp = getPropertyStateFromRef(operand, sectionNode, form);
-            if (operandProp != null) {
-                returnedValue = getObjectFromPropertyState(operandProp, index);
-            }
-        } else {
-            Property nodeProp = operand.getProperty(PROP_VALUE);
-            Value nodeVal;
-            if (nodeProp.isMultiple()) {
-                nodeVal = nodeProp.getValues()[index];
-            } else {
-                nodeVal = nodeProp.getValue();
-            }
-            returnedValue = getObjectFromValue(nodeVal);
-        }
-        return returnedValue;
+        return isConditionSatisfied(resourceSession, null, answerSection, form);
     }
 
-    private static int getOperandLength(final Node operand, final Node sectionNode, final NodeBuilder form)
-        throws RepositoryException
+    /**
+     * Checks if the condition of a conditional answer section is satisfied by the answers in the form.
+     *
+     * @param resourceSession the current session
+     * @param structureProvider used for caching compiled conditions per questionnaire version, may be {@code null}
+     * @param answerSection the answer section whose condition should be evaluated
+     * @param form the form holding the answers
+     * @return {@code true} if the section is not conditional, or its condition is satisfied
+     * @throws RepositoryException if accessing the condition fails
+     */
+    public static boolean isConditionSatisfied(final Session resourceSession,
+        final QuestionnaireStructureProvider structureProvider, final NodeBuilder answerSection,
+        final NodeBuilder form) throws RepositoryException
     {
-        int returnedValue = -1;
-        if (operand.getProperty(PROP_IS_REFERENCE).getValue().getBoolean()) {
-            PropertyState operandProp = getPropertyStateFromRef(operand, sectionNode, form);
-            if (operandProp != null) {
-                returnedValue = operandProp.count();
-            }
-        } else {
-            Property nodeProp = operand.getProperty(PROP_VALUE);
-            if (nodeProp.isMultiple()) {
-                Value[] nodeVals = nodeProp.getValues();
-                returnedValue = nodeVals.length;
-            } else {
-                returnedValue = 1;
-            }
-        }
-        return returnedValue;
+        return getCondition(resourceSession, structureProvider, answerSection, form).evaluate(form);
     }
 
-    private static boolean evalOperands(final Node operandA, final Node operandB,
-        final String comparator, final Node sectionNode, final NodeBuilder form)
-            throws RepositoryException
+    /**
+     * Lists the questions whose answers are used in the condition of a conditional answer section.
+     *
+     * @param resourceSession the current session
+     * @param structureProvider used for caching compiled conditions per questionnaire version, may be {@code null}
+     * @param answerSection the answer section whose condition should be inspected
+     * @param form the form holding the answer section
+     * @return the UUIDs of the referenced questions, empty if the section is not conditional
+     * @throws RepositoryException if accessing the condition fails
+     */
+    public static Set<String> getReferencedQuestions(final Session resourceSession,
+        final QuestionnaireStructureProvider structureProvider, final NodeBuilder answerSection,
+        final NodeBuilder form) throws RepositoryException
     {
-        final int lengthB = getOperandLength(operandB, sectionNode, form);
-        final int lengthA = getOperandLength(operandA, sectionNode, form);
-        final boolean requireAllB = operandB.getProperty(PROP_REQUIRE_ALL).getBoolean();
-        final boolean requireAllA = operandA.getProperty(PROP_REQUIRE_ALL).getBoolean();
+        final Set<String> result = new HashSet<>();
+        getCondition(resourceSession, structureProvider, answerSection, form).collectReferencedQuestions(result);
+        return result;
+    }
 
-        /*
-         * Check for "is empty" / "is not empty" as requireAll is not relevant for these operators
-         */
-        if ("is empty".equals(comparator) || "is not empty".equals(comparator)) {
-            boolean testResult = (lengthB == -1 || lengthA == -1);
-            if ("is not empty".equals(comparator)) {
-                testResult = !testResult;
-            }
-            return testResult;
+    /**
+     * Retrieves the compiled condition of an answer section, either from the cache, or by compiling it from the
+     * condition nodes of its section.
+     *
+     * @param resourceSession the current session
+     * @param structureProvider used for caching compiled conditions per questionnaire version, may be {@code null}
+     * @param answerSection the answer section whose condition should be retrieved
+     * @param form the form holding the answer section
+     * @return a compiled condition, {@link #ALWAYS_SATISFIED} if the section is not conditional
+     * @throws RepositoryException if accessing the condition fails
+     */
+    private static Condition getCondition(final Session resourceSession,
+        final QuestionnaireStructureProvider structureProvider, final NodeBuilder answerSection,
+        final NodeBuilder form) throws RepositoryException
+    {
+        if (!answerSection.hasProperty(PROP_SECTION)) {
+            return ALWAYS_SATISFIED;
+        }
+        final String sectionIdentifier = answerSection.getProperty(PROP_SECTION).getValue(Type.REFERENCE);
+        final QuestionnaireStructure structure = getStructure(structureProvider, form);
+        final Condition cached = structure == null ? null : getCachedCondition(structure, sectionIdentifier);
+        if (cached != null) {
+            return cached;
         }
 
-        // If at least one operand requires all to match
-        final boolean requireAllMulti = requireAllB | requireAllA;
+        final Condition result = compileSectionCondition(resourceSession, answerSection, structure);
+        if (result == null) {
+            // Not cached, since this may be caused by the current user not having access to the condition
+            return ALWAYS_SATISFIED;
+        }
+        if (structure != null) {
+            COMPILED_CONDITIONS.put(structure, sectionIdentifier, result);
+        }
+        return result;
+    }
 
-        boolean res = requireAllMulti;
-        for (int bi = 0; bi < lengthB; bi++) {
-            for (int ai = 0; ai < lengthA; ai++) {
-                final Object valueA = getOperandValue(operandA, sectionNode, form, ai);
-                final Object valueB = getOperandValue(operandB, sectionNode, form, bi);
-                if (evalSectionCondition(valueA, valueB, comparator) == !requireAllMulti) {
-                    res = !requireAllMulti;
-                }
-            }
+    /**
+     * Retrieves the cached condition of a section, or {@link #ALWAYS_SATISFIED} if the structure shows that the
+     * section is not conditional.
+     *
+     * @param structure the structure of the questionnaire
+     * @param sectionIdentifier the UUID of the section
+     * @return a compiled condition, or {@code null} if the condition must be compiled
+     */
+    private static Condition getCachedCondition(final QuestionnaireStructure structure,
+        final String sectionIdentifier)
+    {
+        final Condition cached = COMPILED_CONDITIONS.get(structure, sectionIdentifier);
+        if (cached != null) {
+            return cached;
+        }
+        final QuestionnaireStructure.Element section = structure.getElement(sectionIdentifier);
+        if (section != null && !section.isConditionalSection()) {
+            COMPILED_CONDITIONS.put(structure, sectionIdentifier, ALWAYS_SATISFIED);
+            return ALWAYS_SATISFIED;
         }
-        return res;
+        return null;
+    }
+
+    /**
+     * Compiles the condition of the section of an answer section, read from the questionnaire.
+     *
+     * @param resourceSession the current session
+     * @param answerSection the answer section whose condition should be compiled
+     * @param structure the structure of the questionnaire, used for resolving question names, may be {@code null}
+     * @return a compiled condition, or {@code null} if the section or its condition cannot be accessed
+     * @throws RepositoryException if accessing the condition fails
+     */
+    private static Condition compileSectionCondition(final Session resourceSession, final NodeBuilder answerSection,
+        final QuestionnaireStructure structure) throws RepositoryException
+    {
+        final Node sectionNode = getSectionNode(resourceSession, answerSection);
+        final Node conditionNode = sectionNode == null ? null : findCondition(sectionNode);
+        if (conditionNode == null) {
+            return null;
+        }
+        return compile(conditionNode, structure == null ? getQuestionnaireForSection(sectionNode) : null, structure);
+    }
+
+    private static QuestionnaireStructure getStructure(final QuestionnaireStructureProvider structureProvider,
+        final NodeBuilder form)
+    {
+        if (structureProvider == null || !form.hasProperty(FormUtils.QUESTIONNAIRE_PROPERTY)) {
+            return null;
+        }
+        return structureProvider.getStructure(form.getProperty(FormUtils.QUESTIONNAIRE_PROPERTY)
+            .getValue(Type.REFERENCE));
     }
 
     /*
-     * Given a "condition" node from the "Questionnaires" and a "cards:AnswerSection" node from the "Forms" and a
-     * NodeBuilder type object referring to the parent of the "cards:AnswerSection" node, evaluate the boolean
-     * expression defined by the descendants of the "condition" Node.
+     * Compile a "condition" node from the "Questionnaires", either a cards:Conditional or a cards:ConditionalGroup,
+     * into an immutable condition tree.
      */
-    private static boolean evaluateConditionNodeRecursive(final Node conditionNode, final Node sectionNode,
-        final NodeBuilder form) throws RepositoryException
+    private static Condition compile(final Node conditionNode, final Node questionnaire,
+        final QuestionnaireStructure structure) throws RepositoryException
     {
-        if ("cards:ConditionalGroup".equals(conditionNode.getPrimaryNodeType().getName())) {
-            // Is this an OR or an AND
-            final boolean requireAll = conditionNode.getProperty(PROP_REQUIRE_ALL).getBoolean();
-            // Evaluate recursively
-            @SuppressWarnings("unchecked")
-            final Iterator<Node> conditionChildren = conditionNode.getNodes();
-            boolean downstreamResult = false;
-            if (requireAll) {
-                downstreamResult = true;
-            }
+        if (conditionNode.isNodeType("cards:ConditionalGroup")) {
+            final List<Condition> children = new ArrayList<>();
+            final NodeIterator conditionChildren = conditionNode.getNodes();
             while (conditionChildren.hasNext()) {
-                final boolean partialRes =
-                    evaluateConditionNodeRecursive(conditionChildren.next(), sectionNode, form);
-                if (requireAll) {
-                    downstreamResult = downstreamResult && partialRes;
-                } else {
-                    downstreamResult = downstreamResult || partialRes;
-                }
+                children.add(compile(conditionChildren.nextNode(), questionnaire, structure));
             }
-            return downstreamResult;
-        } else if ("cards:Conditional".equals(conditionNode.getPrimaryNodeType().getName())) {
-            final String comparator = conditionNode.getProperty("comparator").getString();
-            final Node operandB = conditionNode.getNode("operandB");
-            final Node operandA = conditionNode.getNode("operandA");
-
-            return evalOperands(operandA, operandB, comparator, sectionNode, form);
+            return new ConditionGroup(conditionNode.getProperty(PROP_REQUIRE_ALL).getBoolean(), children);
+        } else if (conditionNode.isNodeType("cards:Conditional")) {
+            return new Comparison(conditionNode.getProperty("comparator").getString(),
+                compileOperand(conditionNode.getNode("operandA"), questionnaire, structure),
+                compileOperand(conditionNode.getNode("operandB"), questionnaire, structure));
         }
         // If all goes wrong
-        return false;
+        return NEVER_SATISFIED;
     }
 
-    public static boolean isConditionSatisfied(final Session resourceSession,
-        final NodeBuilder answerSection, final NodeBuilder form) throws RepositoryException
+    private static Operand compileOperand(final Node operand, final Node questionnaire,
+        final QuestionnaireStructure structure) throws RepositoryException
     {
-        final Node sectionNode = getSectionNode(resourceSession, answerSection);
-        if (sectionNode != null) {
-            final Node conditionNode = findCondition(sectionNode);
-            /*
-             * Recursively go through all children of the condition node and determine if this condition node evaluates
-             * to True or False.
-             */
-            if (conditionNode != null && !evaluateConditionNodeRecursive(conditionNode, sectionNode, form)) {
-                return false;
+        final boolean requireAll = operand.getProperty(PROP_REQUIRE_ALL).getBoolean();
+        final Property valueProperty = operand.getProperty(PROP_VALUE);
+        if (operand.getProperty(PROP_IS_REFERENCE).getValue().getBoolean()) {
+            final String key = sanitizeNodeName(valueProperty.getValues()[0].getString());
+            String questionIdentifier = null;
+            if (structure != null) {
+                questionIdentifier = getQuestionWithName(structure.getRoot(), key);
+            } else {
+                final Node question = getQuestionWithName(questionnaire, key);
+                questionIdentifier = question == null ? null : question.getIdentifier();
+            }
+            return new Operand(requireAll, true, questionIdentifier, null);
+        }
+        final Value[] values = valueProperty.isMultiple() ? valueProperty.getValues()
+            : new Value[] { valueProperty.getValue() };
+        final Object[] constants = new Object[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            constants[i] = getObjectFromValue(values[i]);
+        }
+        return new Operand(requireAll, false, null, constants);
+    }
+
+    /**
+     * Retrieves the identifier of the question with the given name from a cached questionnaire structure.
+     *
+     * @param parent the element to (recursively) look in, starting with the Questionnaire
+     * @param questionName the simple question name
+     * @return the question identifier, or {@code null} if the question cannot be found
+     */
+    private static String getQuestionWithName(final QuestionnaireStructure.Element parent, final String questionName)
+    {
+        for (final QuestionnaireStructure.Element child : parent.getChildren()) {
+            if (questionName.equals(child.getName())) {
+                return child.getIdentifier();
+            }
+            if (child.isSection()) {
+                final String sectionResult = getQuestionWithName(child, questionName);
+                if (sectionResult != null) {
+                    return sectionResult;
+                }
             }
         }
-        return true;
+        return null;
     }
 
     private static Node findCondition(final Node section)
@@ -704,4 +788,200 @@ private static Calendar toDate(Object o)
         }
         return result;
     }
+
+    /**
+     * A compiled section condition.
+     */
+    private interface Condition
+    {
+        /**
+         * Evaluates this condition against the answers in a form.
+         *
+         * @param form the form holding the answers
+         * @return {@code true} if the condition holds
+         */
+        boolean evaluate(NodeBuilder form);
+
+        /**
+         * Lists the questions whose answers are used in this condition.
+         *
+         * @param result a set where the UUIDs of the referenced questions will be added
+         */
+        void collectReferencedQuestions(Set<String> result);
+    }
+
+    /**
+     * A compiled {@code cards:ConditionalGroup}, either an AND or an OR of its child conditions.
+     */
+    private static final class ConditionGroup implements Condition
+    {
+        private final boolean requireAll;
+
+        private final List<Condition> children;
+
+        ConditionGroup(final boolean requireAll, final List<Condition> children)
+        {
+            this.requireAll = requireAll;
+            this.children = List.copyOf(children);
+        }
+
+        @Override
+        public boolean evaluate(final NodeBuilder form)
+        {
+            for (final Condition child : this.children) {
+                if (child.evaluate(form) != this.requireAll) {
+                    return !this.requireAll;
+                }
+            }
+            return this.requireAll;
+        }
+
+        @Override
+        public void collectReferencedQuestions(final Set<String> result)
+        {
+            this.children.forEach(child -> child.collectReferencedQuestions(result));
+        }
+    }
+
+    /**
+     * A compiled {@code cards:Conditional}, comparing two operands.
+     */
+    private static final class Comparison implements Condition
+    {
+        private final Operand operandA;
+
+        private final Operand operandB;
+
+        /** Whether this is an "is empty" or "is not empty" check, instead of a value comparison. */
+        private final boolean emptinessCheck;
+
+        /** The typed operators for the comparison, {@code null} if the comparator is not known. */
+        private final Map<Integer, java.util.function.BiFunction<Object, Object, Boolean>> operators;
+
+        /** Whether the result of the comparison must be negated, for "<>" and "is not empty". */
+        private final boolean negated;
+
+        Comparison(final String comparator, final Operand operandA, final Operand operandB)
+        {
+            this.operandA = operandA;
+            this.operandB = operandB;
+            this.emptinessCheck = "is empty".equals(comparator) || "is not empty".equals(comparator);
+            this.negated = "<>".equals(comparator) || "is not empty".equals(comparator);
+            if ("=".equals(comparator) || "<>".equals(comparator)) {
+                this.operators = EQ_OPERATORS;
+            } else if ("<".equals(comparator)) {
+                this.operators = LT_OPERATORS;
+            } else if (">".equals(comparator)) {
+                this.operators = GT_OPERATORS;
+            } else if ("<=".equals(comparator)) {
+                this.operators = LTE_OPERATORS;
+            } else if (">=".equals(comparator)) {
+                this.operators = GTE_OPERATORS;
+            } else {
+                this.operators = null;
+            }
+        }
+
+        @Override
+        public boolean evaluate(final NodeBuilder form)
+        {
+            final Object[] valuesA = this.operandA.getValues(form);
+            final Object[] valuesB = this.operandB.getValues(form);
+
+            // requireAll is not relevant for emptiness checks
+            if (this.emptinessCheck) {
+                return (valuesA == null || valuesB == null) != this.negated;
+            }
+            if (valuesA == null || valuesB == null) {
+                // Nothing to compare
+                return this.operandA.requireAll || this.operandB.requireAll;
+            }
+
+            // If at least one operand requires all to match
+            final boolean requireAllMulti = this.operandA.requireAll || this.operandB.requireAll;
+            for (final Object valueB : valuesB) {
+                for (final Object valueA : valuesA) {
+                    if (compare(valueA, valueB) != requireAllMulti) {
+                        return !requireAllMulti;
+                    }
+                }
+            }
+            return requireAllMulti;
+        }
+
+        private boolean compare(final Object valueA, final Object valueB)
+        {
+            // If we can't evaluate it, default to false
+            if (this.operators == null) {
+                return false;
+            }
+            return evalSection(valueA, valueB, this.operators) != this.negated;
+        }
+
+        @Override
+        public void collectReferencedQuestions(final Set<String> result)
+        {
+            this.operandA.collectReferencedQuestion(result);
+            this.operandB.collectReferencedQuestion(result);
+        }
+    }
+
+    /**
+     * A compiled condition operand, either a list of typed constants, or a reference to the answer of a question.
+     */
+    private static final class Operand
+    {
+        private final boolean requireAll;
+
+        private final boolean isReference;
+
+        /** For references, the UUID of the referenced question, {@code null} if the question cannot be found. */
+        private final String questionIdentifier;
+
+        /** For constants, the already converted values. */
+        private final Object[] constants;
+
+        Operand(final boolean requireAll, final boolean isReference, final String questionIdentifier,
+            final Object[] constants)
+        {
+            this.requireAll = requireAll;
+            this.isReference = isReference;
+            this.questionIdentifier = questionIdentifier;
+            this.constants = constants;
+        }
+
+        /**
+         * Retrieves the values of this operand.
+         *
+         * @param form the form holding the answers
+         * @return the values, or {@code null} if this is a reference to a question that is not answered
+         */
+        Object[] getValues(final NodeBuilder form)
+        {
+            if (!this.isReference) {
+                return this.constants;
+            }
+            if (this.questionIdentifier == null) {
+                return null;
+            }
+            // Get the node from the Form containing the answer to the referenced question
+            final NodeBuilder answer = getAnswerForQuestion(form, this.questionIdentifier);
+            final PropertyState answerValue = answer == null ? null : answer.getProperty(PROP_VALUE);
+            if (answerValue == null) {
+                return null;
+            }
+            final Object[] result = new Object[answerValue.count()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = getObjectFromPropertyState(answerValue, i);
+            }
+            return result;
+        }
+
+        void collectReferencedQuestion(final Set<String> result)
+        {
+            if (this.questionIdentifier != null) {
+                result.add(this.questionIdentifier);
+            }
+        }
+    }
 }
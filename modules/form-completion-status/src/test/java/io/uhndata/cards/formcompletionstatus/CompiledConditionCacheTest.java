@@ -0,0 +1,102 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.formcompletionstatus;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.uhndata.cards.forms.api.QuestionnaireStructure;
+
+/**
+ * Unit tests for {@link CompiledConditionCache}.
+ *
+ * @version $Id$
+ */
+public class CompiledConditionCacheTest
+{
+    private static final String SECTION = "s1";
+
+    private static final String CONDITION = "condition";
+
+    @Test
+    public void conditionsAreCachedPerStructure()
+    {
+        final CompiledConditionCache<String> cache = CompiledConditionCache.create();
+        final QuestionnaireStructure structure = structure("q1");
+        Assert.assertNull(cache.get(structure, SECTION));
+        cache.put(structure, SECTION, CONDITION);
+        Assert.assertEquals(CONDITION, cache.get(structure, SECTION));
+        Assert.assertNull(cache.get(structure, "s2"));
+    }
+
+    @Test
+    public void newStructuresDiscardOldConditions()
+    {
+        final CompiledConditionCache<String> cache = CompiledConditionCache.create();
+        final QuestionnaireStructure oldStructure = structure("q1");
+        final QuestionnaireStructure newStructure = structure("q1");
+        cache.put(oldStructure, SECTION, CONDITION);
+        cache.put(oldStructure, "s2", CONDITION);
+        Assert.assertNull(cache.get(newStructure, SECTION));
+        cache.put(newStructure, SECTION, "new condition");
+        Assert.assertEquals("new condition", cache.get(newStructure, SECTION));
+        Assert.assertNull(cache.get(newStructure, "s2"));
+        Assert.assertNull(cache.get(oldStructure, "s2"));
+    }
+
+    @Test
+    public void cacheIsBounded()
+    {
+        final CompiledConditionCache<String> cache = CompiledConditionCache.create();
+        final QuestionnaireStructure[] structures = new QuestionnaireStructure[210];
+        for (int i = 0; i < structures.length; ++i) {
+            structures[i] = structure("q" + i);
+            cache.put(structures[i], SECTION, CONDITION);
+        }
+        int cached = 0;
+        for (final QuestionnaireStructure structure : structures) {
+            cached += cache.get(structure, SECTION) == null ? 0 : 1;
+        }
+        Assert.assertEquals(200, cached);
+        Assert.assertNotNull(cache.get(structures[structures.length - 1], SECTION));
+    }
+
+    @Test
+    public void recentlyUsedQuestionnairesAreKept()
+    {
+        final CompiledConditionCache<String> cache = CompiledConditionCache.create();
+        final QuestionnaireStructure first = structure("first");
+        cache.put(first, SECTION, CONDITION);
+        for (int i = 0; i < 210; ++i) {
+            // Keep using the first questionnaire while others are cached
+            Assert.assertEquals(CONDITION, cache.get(first, SECTION));
+            cache.put(structure("q" + i), SECTION, CONDITION);
+        }
+        Assert.assertEquals(CONDITION, cache.get(first, SECTION));
+    }
+
+    private static QuestionnaireStructure structure(final String identifier)
+    {
+        final QuestionnaireStructure result = Mockito.mock(QuestionnaireStructure.class);
+        Mockito.when(result.getIdentifier()).thenReturn(identifier);
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Looks for changes that may change whether the allowed principals are complete, aborting the comparison as soon
+ * as one is found: access control policies, group memberships, the backfill markers, and subjects added to or
+ * removed from other subjects. Added nodes are only checked for a policy on the node itself, except for added
+ * subjects, whose child subjects are checked as well. Used by {@link OwnerAccessQueryFilter} to know when its cached
+ * outcomes are no longer valid.
+ *
+ * @version $Id$
+ */
+final class AccessChangeDetector extends DefaultNodeStateDiff
+{
+    private static final String POLICY_NODE = "rep:policy";
+
+    private static final String MEMBERS_PROPERTY = "rep:members";
+
+    private static final String SUBJECT_TYPE = "cards:Subject";
+
+    /** Whether this diff is for a subject node. */
+    private final boolean inSubject;
+
+    AccessChangeDetector(final boolean inSubject)
+    {
+        this.inSubject = inSubject;
+    }
+
+    @Override
+    public boolean propertyAdded(final PropertyState after)
+    {
+        return !isRelevant(after);
+    }
+
+    @Override
+    public boolean propertyChanged(final PropertyState before, final PropertyState after)
+    {
+        return !isRelevant(before);
+    }
+
+    @Override
+    public boolean propertyDeleted(final PropertyState before)
+    {
+        return !isRelevant(before);
+    }
+
+    @Override
+    public boolean childNodeAdded(final String name, final NodeState after)
+    {
+        if (POLICY_NODE.equals(name) || after.hasChildNode(POLICY_NODE)) {
+            return false;
+        }
+        if (isSubject(after)) {
+            return !this.inSubject && EmptyNodeState.compareAgainstEmptyState(after, new AccessChangeDetector(true));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+    {
+        return !POLICY_NODE.equals(name)
+            && after.compareAgainstBaseState(before, new AccessChangeDetector(isSubject(after)));
+    }
+
+    @Override
+    public boolean childNodeDeleted(final String name, final NodeState before)
+    {
+        return !(POLICY_NODE.equals(name) || this.inSubject && isSubject(before));
+    }
+
+    private static boolean isRelevant(final PropertyState property)
+    {
+        final String name = property.getName();
+        return MEMBERS_PROPERTY.equals(name) || AllowedPrincipals.INDEXED_MARKER.equals(name);
+    }
+
+    private static boolean isSubject(final NodeState node)
+    {
+        final PropertyState type = node.getProperty("jcr:primaryType");
+        return type != null && SUBJECT_TYPE.equals(type.getValue(Type.NAME));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
+
+/**
+ * Computes the {@link AccessQueryFilter#ALLOWED_PRINCIPALS_PROPERTY allowed principals} of a Form or Subject, as granted
+ * by the ownership scheme: the owner of the node, or everyone if the node doesn't have an owner, and the principals
+ * that were granted unrestricted access to the node itself.
+ *
+ * @version $Id$
+ */
+final class AllowedPrincipals
+{
+    /** The property holding the name of the owner of a Form or Subject. */
+    static final String OWNER = "owner";
+
+    /**
+     * Property set on the {@code /Forms} and {@code /Subjects} homepages once all their nodes have their allowed
+     * principals set and indexed.
+     */
+    static final String INDEXED_MARKER = "allowedPrincipalsIndexed";
+
+    /** The node types whose allowed principals are tracked. */
+    static final String[] TRACKED_TYPES = { "cards:Form", "cards:Subject" };
+
+    /** The homepages of the tracked node types, in the same order as {@link #TRACKED_TYPES}. */
+    static final String[] HOMEPAGES = { "/Forms", "/Subjects" };
+
+    /** The indexes of the tracked node types, in the same order as {@link #TRACKED_TYPES}. */
+    static final String[] INDEXES = { "/oak:index/forms", "/oak:index/subjects" };
+
+    private AllowedPrincipals()
+    {
+        // Utility class
+    }
+
+    /**
+     * Compute the allowed principals of a node.
+     *
+     * @param owner the owner of the node, may be {@code null} or blank
+     * @param sharedWith the principals granted unrestricted access on the node itself
+     * @return a sorted set of principal names
+     */
+    static Set<String> compute(final String owner, final Collection<String> sharedWith)
+    {
+        final Set<String> result = new TreeSet<>(sharedWith);
+        // Without an owner, the ownership restriction grants access to everyone
+        result.add(StringUtils.isBlank(owner) ? EveryonePrincipal.NAME : owner);
+        return result;
+    }
+
+    /**
+     * Find the homepage of a tracked node type.
+     *
+     * @param nodeType a node type name, for example {@code cards:Form}
+     * @return the homepage path, or {@code null} if the node type isn't tracked
+     */
+    static String getHomepage(final String nodeType)
+    {
+        for (int i = 0; i < TRACKED_TYPES.length; ++i) {
+            if (TRACKED_TYPES[i].equals(nodeType)) {
+                return HOMEPAGES[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedule the one-time {@link AllowedPrincipalsBackfillTask backfill} of the allowed principals.
+ *
+ * @version $Id$
+ */
+@Component(immediate = true)
+public class AllowedPrincipalsBackfillScheduler
+{
+    /** Default log. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AllowedPrincipalsBackfillScheduler.class);
+
+    private static final String SCHEDULER_JOB_NAME = "AllowedPrincipalsBackfill";
+
+    /** Provides access to resources. */
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    /** The scheduler for running the job. */
+    @Reference
+    private Scheduler scheduler;
+
+    @Activate
+    protected void activate(final ComponentContext componentContext)
+    {
+        try {
+            // Only once, the task itself skips the homepages that are already complete
+            final ScheduleOptions options = this.scheduler.NOW();
+            options.name(SCHEDULER_JOB_NAME);
+            options.canRunConcurrently(false);
+
+            this.scheduler.schedule(new AllowedPrincipalsBackfillTask(this.resolverFactory), options);
+        } catch (final Exception e) {
+            LOGGER.error("AllowedPrincipalsBackfill failed to schedule: {}", e.getMessage(), e);
+        }
+    }
+}
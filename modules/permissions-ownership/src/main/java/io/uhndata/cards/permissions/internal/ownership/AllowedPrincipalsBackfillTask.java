@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlPolicy;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
+
+/**
+ * One-time task setting the {@link AccessQueryFilter#ALLOWED_PRINCIPALS_PROPERTY allowed principals} of the Forms and
+ * Subjects created before they were tracked, then reindexing the Forms and Subjects indexes. Once the reindex is
+ * complete, the {@link AllowedPrincipals#INDEXED_MARKER} is set on the homepage, and only from then on
+ * {@link OwnerAccessQueryFilter} relies on the indexed property.
+ *
+ * @version $Id$
+ */
+public class AllowedPrincipalsBackfillTask implements Runnable
+{
+    /** Default log. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AllowedPrincipalsBackfillTask.class);
+
+    /** Number of modified nodes saved at once. */
+    private static final int BATCH_SIZE = 1000;
+
+    /** How long to wait between checks of the reindex status, in milliseconds. */
+    private static final long REINDEX_POLL_INTERVAL = 10_000L;
+
+    /** How many times to check the reindex status before giving up until the next activation. */
+    private static final int MAX_REINDEX_POLLS = 8640;
+
+    private static final String REINDEX = "reindex";
+
+    /** Provides access to resources. */
+    private final ResourceResolverFactory resolverFactory;
+
+    /**
+     * @param resolverFactory a valid ResourceResolverFactory providing access to resources
+     */
+    AllowedPrincipalsBackfillTask(final ResourceResolverFactory resolverFactory)
+    {
+        this.resolverFactory = resolverFactory;
+    }
+
+    @Override
+    public void run()
+    {
+        try (ResourceResolver resolver = this.resolverFactory
+            .getServiceResourceResolver(Map.of(ResourceResolverFactory.SUBSERVICE, "allowedPrincipals"))) {
+            final Session session = resolver.adaptTo(Session.class);
+            final List<Integer> pending = new ArrayList<>();
+            for (int i = 0; i < AllowedPrincipals.TRACKED_TYPES.length; ++i) {
+                if (needsBackfill(session, AllowedPrincipals.HOMEPAGES[i])) {
+                    final long updated = backfill(session, AllowedPrincipals.TRACKED_TYPES[i]);
+                    LOGGER.info("Set the allowed principals of {} {} nodes", updated,
+                        AllowedPrincipals.TRACKED_TYPES[i]);
+                    session.getNode(AllowedPrincipals.INDEXES[i]).setProperty(REINDEX, true);
+                    session.save();
+                    pending.add(i);
+                }
+            }
+            if (!pending.isEmpty() && waitForReindex(session, pending)) {
+                for (int i : pending) {
+                    session.getNode(AllowedPrincipals.HOMEPAGES[i]).setProperty(AllowedPrincipals.INDEXED_MARKER,
+                        true);
+                }
+                session.save();
+            }
+        } catch (final LoginException e) {
+            LOGGER.warn("Failed to get service session: {}", e.getMessage(), e);
+        } catch (final RepositoryException e) {
+            LOGGER.error("Failed to set the allowed principals: {}", e.getMessage(), e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean needsBackfill(final Session session, final String homepage) throws RepositoryException
+    {
+        return session.nodeExists(homepage)
+            && !session.getNode(homepage).hasProperty(AllowedPrincipals.INDEXED_MARKER);
+    }
+
+    /**
+     * Set the allowed principals of all the nodes of a type, saving every {@link #BATCH_SIZE} modified nodes.
+     *
+     * @param session a service session with read access to the nodes and their access control policies
+     * @param nodeType the type of nodes to update
+     * @return the number of nodes that were updated
+     * @throws RepositoryException if accessing the repository fails
+     */
+    long backfill(final Session session, final String nodeType) throws RepositoryException
+    {
+        long updated = 0;
+        final NodeIterator nodes = session.getWorkspace().getQueryManager()
+            .createQuery("select n.* from [" + nodeType + "] as n", Query.JCR_SQL2).execute().getNodes();
+        while (nodes.hasNext()) {
+            if (update(nodes.nextNode(), session) && ++updated % BATCH_SIZE == 0) {
+                session.save();
+            }
+        }
+        session.save();
+        return updated;
+    }
+
+    /**
+     * Set the allowed principals of a node, if they differ from the expected ones.
+     *
+     * @param node the node to update
+     * @param session a service session with read access to the node and its access control policy
+     * @return {@code true} if the node was modified
+     * @throws RepositoryException if accessing the repository fails
+     */
+    private boolean update(final Node node, final Session session) throws RepositoryException
+    {
+        final String owner = node.hasProperty(AllowedPrincipals.OWNER)
+            ? node.getProperty(AllowedPrincipals.OWNER).getString() : null;
+        final Set<String> expected = AllowedPrincipals.compute(owner, getSharedWith(node.getPath(), session));
+        final Set<String> current = new HashSet<>();
+        if (node.hasProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY)) {
+            for (Value value : node.getProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY).getValues()) {
+                current.add(value.getString());
+            }
+        }
+        if (expected.equals(current)) {
+            return false;
+        }
+        node.setProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY, expected.toArray(new String[0]));
+        return true;
+    }
+
+    /**
+     * Lists the principals granted unrestricted access by the access control list of a node.
+     *
+     * @param path the path of the node
+     * @param session a service session with read access to the access control policy of the node
+     * @return a list of principal names, may be empty
+     * @throws RepositoryException if accessing the access control policy fails
+     */
+    private List<String> getSharedWith(final String path, final Session session) throws RepositoryException
+    {
+        final List<String> result = new ArrayList<>();
+        for (AccessControlPolicy policy : session.getAccessControlManager().getPolicies(path)) {
+            if (!(policy instanceof JackrabbitAccessControlList)) {
+                continue;
+            }
+            for (AccessControlEntry entry : ((JackrabbitAccessControlList) policy).getAccessControlEntries()) {
+                final JackrabbitAccessControlEntry jackrabbitEntry = (JackrabbitAccessControlEntry) entry;
+                if (jackrabbitEntry.isAllow() && jackrabbitEntry.getRestrictionNames().length == 0) {
+                    result.add(jackrabbitEntry.getPrincipal().getName());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Wait until the asynchronous reindex of the modified indexes completes.
+     *
+     * @param session a service session with read access to the index definitions
+     * @param pending the positions of the reindexed types in {@link AllowedPrincipals#INDEXES}
+     * @return {@code true} if the reindex completed, {@code false} if it took too long
+     * @throws RepositoryException if accessing the index definitions fails
+     * @throws InterruptedException if the task was interrupted while waiting
+     */
+    private boolean waitForReindex(final Session session, final List<Integer> pending)
+        throws RepositoryException, InterruptedException
+    {
+        for (int poll = 0; poll < MAX_REINDEX_POLLS; ++poll) {
+            session.refresh(false);
+            boolean done = true;
+            for (int i : pending) {
+                final Node index = session.getNode(AllowedPrincipals.INDEXES[i]);
+                done &= !(index.hasProperty(REINDEX) && index.getProperty(REINDEX).getBoolean());
+            }
+            if (done) {
+                return true;
+            }
+            Thread.sleep(REINDEX_POLL_INTERVAL);
+        }
+        LOGGER.warn("The reindex of the Forms and Subjects indexes did not complete in time,"
+            + " the allowed principals will only be used after the next restart");
+        return false;
+    }
+}
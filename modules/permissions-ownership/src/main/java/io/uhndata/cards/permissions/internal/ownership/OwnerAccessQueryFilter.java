@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlPolicy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
+import io.uhndata.cards.utils.LruCache;
+
+/**
+ * Restricts queries listing Forms and Subjects to those that the current user owns, or which were shared with the
+ * user or one of its groups, using the indexed {@link AccessQueryFilter#ALLOWED_PRINCIPALS_PROPERTY} property, which
+ * mirrors the access granted by the {@code cards:owner} restriction.
+ * <p>
+ * The condition is only returned when it is provably complete: all existing nodes must have been
+ * {@link AllowedPrincipalsBackfillTask backfilled and reindexed}, and all the entries granting access to the user under
+ * the homepage of the listed nodes must be either the {@code cards:owner} restricted entry on the homepage, or
+ * unrestricted entries on individual Forms or childless Subjects, which are recorded in the allowed principals. In any
+ * other case, no condition is returned and the query is left unfiltered.
+ * </p>
+ * <p>
+ * Checking this requires all the effective policies of the user, so the outcome is cached for each homepage and set of
+ * principals. This is also a repository {@link Observer}, notified synchronously after each commit, which discards
+ * the cached outcomes when access control policies, group memberships, the backfill markers, or the nesting of
+ * subjects change.
+ * </p>
+ *
+ * @version $Id$
+ */
+@Component(service = { AccessQueryFilter.class, Observer.class })
+@SuppressWarnings("checkstyle:ClassFanOutComplexity")
+public class OwnerAccessQueryFilter implements AccessQueryFilter, Observer
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(OwnerAccessQueryFilter.class);
+
+    private static final String FORM_TYPE = "cards:Form";
+
+    private static final String SUBJECT_TYPE = "cards:Subject";
+
+    /** How many homepage and principals combinations to remember. */
+    private static final int MAX_CACHED = 1000;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    /** Whether the allowed principals are complete, by homepage followed by the sorted principal names. */
+    private final LruCache<List<String>, Boolean> completeness = new LruCache<>(MAX_CACHED);
+
+    /**
+     * Incremented when the cache is cleared, so that outcomes computed before the change aren't cached. Only changed
+     * while holding the lock of {@link #contentChanged}.
+     */
+    private volatile long generation;
+
+    /** The last observed root state. */
+    private NodeState previousRoot;
+
+    @Override
+    public String getAccessCondition(final String selector, final String nodeType, final Session session)
+    {
+        final String homepage = AllowedPrincipals.getHomepage(nodeType);
+        if (session == null || homepage == null || !(session instanceof JackrabbitSession)) {
+            return null;
+        }
+        try {
+            final Authorizable user =
+                ((JackrabbitSession) session).getUserManager().getAuthorizable(session.getUserID());
+            if (user == null || user.isGroup() || ((User) user).isAdmin() || ((User) user).isSystemUser()) {
+                // Administrators and services can access everything
+                return null;
+            }
+            final Set<Principal> principals = getPrincipals(user);
+            if (!isComplete(homepage, principals)) {
+                return null;
+            }
+            final Set<String> names = new TreeSet<>();
+            // The ownership restriction compares the owner with the user ID
+            names.add(session.getUserID());
+            principals.forEach(principal -> names.add(principal.getName()));
+            return names.stream()
+                .map(name -> selector + ".[" + ALLOWED_PRINCIPALS_PROPERTY + "] = '" + name.replace("'", "''") + "'")
+                .collect(Collectors.joining(" or ", "(", ")"));
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to determine the principals of {}: {}", session.getUserID(), e.getMessage());
+        }
+        return null;
+    }
+
+    private Set<Principal> getPrincipals(final Authorizable user) throws RepositoryException
+    {
+        final Set<Principal> principals = new HashSet<>();
+        principals.add(user.getPrincipal());
+        principals.add(EveryonePrincipal.getInstance());
+        final Iterator<Group> groups = user.memberOf();
+        while (groups.hasNext()) {
+            principals.add(groups.next().getPrincipal());
+        }
+        return principals;
+    }
+
+    @Override
+    public synchronized void contentChanged(final NodeState root, final CommitInfo info)
+    {
+        if (this.previousRoot == null
+            || !root.compareAgainstBaseState(this.previousRoot, new AccessChangeDetector(false))) {
+            ++this.generation;
+            this.completeness.clear();
+        }
+        this.previousRoot = root;
+    }
+
+    /**
+     * Check if the allowed principals fully describe the access granted to the principals under a homepage, reusing
+     * the previous outcome for the same principals if access rights didn't change since.
+     *
+     * @param homepage the homepage of the listed nodes, {@code /Forms} or {@code /Subjects}
+     * @param principals the principals of the current user
+     * @return {@code true} if the indexed allowed principals can be used for filtering
+     */
+    boolean isComplete(final String homepage, final Set<Principal> principals)
+    {
+        final List<String> key = new ArrayList<>(principals.size() + 1);
+        key.add(homepage);
+        principals.stream().map(Principal::getName).sorted().forEach(key::add);
+        final Boolean cached = this.completeness.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final long startGeneration = this.generation;
+        final boolean result = checkComplete(homepage, principals);
+        // Don't remember an outcome that may have been computed from access rights that changed in the meantime
+        if (this.generation == startGeneration) {
+            this.completeness.put(key, result);
+        }
+        return result;
+    }
+
+    private boolean checkComplete(final String homepage, final Set<Principal> principals)
+    {
+        try (ResourceResolver resolver = this.resolverFactory
+            .getServiceResourceResolver(Map.of(ResourceResolverFactory.SUBSERVICE, "allowedPrincipals"))) {
+            final Session serviceSession = resolver.adaptTo(Session.class);
+            if (!serviceSession.nodeExists(homepage)
+                || !serviceSession.getNode(homepage).hasProperty(AllowedPrincipals.INDEXED_MARKER)) {
+                // Existing nodes were not backfilled and reindexed yet
+                return false;
+            }
+            final JackrabbitAccessControlManager acm =
+                (JackrabbitAccessControlManager) serviceSession.getAccessControlManager();
+            for (AccessControlPolicy policy : acm.getEffectivePolicies(principals)) {
+                if (!isTracked(policy, homepage, serviceSession)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (final LoginException e) {
+            LOGGER.warn("Failed to get service session: {}", e.getMessage(), e);
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to check the access granted under {}: {}", homepage, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Check if the allow entries of an access control list, which are all for the current user's principals, are
+     * reflected in the allowed principals.
+     *
+     * @param policy an effective policy of the current user
+     * @param homepage the homepage of the listed nodes
+     * @param serviceSession a service session with read access to the nodes under the homepage
+     * @return {@code false} if the policy grants access under the homepage in a way that isn't tracked
+     * @throws RepositoryException if accessing the policy fails
+     */
+    private boolean isTracked(final AccessControlPolicy policy, final String homepage, final Session serviceSession)
+        throws RepositoryException
+    {
+        if (!(policy instanceof JackrabbitAccessControlList)) {
+            // Unknown kind of policy, cannot prove anything
+            return false;
+        }
+        final JackrabbitAccessControlList acl = (JackrabbitAccessControlList) policy;
+        final String path = acl.getPath();
+        if (!affects(path, homepage)) {
+            return true;
+        }
+        for (AccessControlEntry entry : acl.getAccessControlEntries()) {
+            final JackrabbitAccessControlEntry jackrabbitEntry = (JackrabbitAccessControlEntry) entry;
+            // Deny entries can only make the filtered results a superset of what is accessible
+            if (jackrabbitEntry.isAllow() && !isTrackedEntry(jackrabbitEntry, path, homepage, serviceSession)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isTrackedEntry(final JackrabbitAccessControlEntry entry, final String path, final String homepage,
+        final Session serviceSession) throws RepositoryException
+    {
+        final String[] restrictions = entry.getRestrictionNames();
+        if (restrictions.length > 0) {
+            // The ownership scheme entry on the homepage itself is the only tracked restricted entry
+            return homepage.equals(path) && restrictions.length == 1
+                && OwnerRestrictionFactory.NAME.equals(restrictions[0]);
+        }
+        if (homepage.equals(path) || !serviceSession.nodeExists(path)) {
+            return false;
+        }
+        // Unrestricted entries on a node are tracked for that node, but they are also inherited by child Subjects
+        final Node node = serviceSession.getNode(path);
+        final String type = node.getPrimaryNodeType().getName();
+        return FORM_TYPE.equals(type) || SUBJECT_TYPE.equals(type) && !hasChildSubject(node);
+    }
+
+    private static boolean hasChildSubject(final Node node) throws RepositoryException
+    {
+        final NodeIterator children = node.getNodes();
+        while (children.hasNext()) {
+            if (children.nextNode().isNodeType(SUBJECT_TYPE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if an access control list can grant access to nodes under a homepage.
+     *
+     * @param path the path of the access controlled node, {@code null} for repository level entries
+     * @param homepage the homepage of the listed nodes
+     * @return {@code true} if the path is the homepage, one of its ancestors, or one of its descendants
+     */
+    private static boolean affects(final String path, final String homepage)
+    {
+        return path != null && (homepage.equals(path) || homepage.startsWith(StringUtils.appendIfMissing(path, "/"))
+            || path.startsWith(homepage + "/"));
+    }
+}
@@ -23,9 +23,10 @@
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
-import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
 
+import io.uhndata.cards.permissions.spi.RestrictionLookupCache;
+
 /**
  * A restriction that makes a permissions entry only be valid on a node of type Form or Subject if it has an Owner
  * specified, and the current user is that owner.
@@ -54,20 +55,16 @@ public boolean matches(final Tree tree, final PropertyState property)
         }
         // This restriction only applies to Forms/Subjects and their descendant items.
         // If this is not a Form or Subject node, look for one among its ancestors.
-        Tree mainTree = tree;
-        while (!mainTree.isRoot() && (mainTree.getProperty("jcr:primaryType") == null
-            || !StringUtils.equalsAny(mainTree.getProperty("jcr:primaryType").getValue(Type.STRING),
-                "cards:Form", "cards:Subject"))) {
-            mainTree = mainTree.getParent();
-        }
-        if (mainTree.isRoot()) {
+        final RestrictionLookupCache.OwningNode mainNode = RestrictionLookupCache.forSession(this.session)
+            .getOwningNode(tree);
+        if (mainNode == null) {
             // Not a targeted node, this restriction doesn't apply
             return true;
         }
 
         // Check if the node has an owner
-        PropertyState ownerProperty = mainTree.getProperty("owner");
-        if (ownerProperty == null || StringUtils.isBlank(ownerProperty.getValue(Type.STRING))) {
+        final String owner = mainNode.getOwner();
+        if (StringUtils.isBlank(owner)) {
             // There is no owner, we let the rule apply since otherwise there is no way to create/access a node before
             // setting an owner -- chicken vs egg problem
             // FIXME Maybe check the jcr:createdBy property in this case?
@@ -75,7 +72,7 @@ public boolean matches(final Tree tree, final PropertyState property)
         }
 
         // There is an owner set, so this authorization rule only applies to that specified owner
-        return StringUtils.equals(ownerProperty.getValue(Type.STRING), this.session.getUserID());
+        return StringUtils.equals(owner, this.session.getUserID());
 
     }
 
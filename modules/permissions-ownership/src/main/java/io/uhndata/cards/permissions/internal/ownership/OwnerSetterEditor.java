@@ -16,6 +16,11 @@
  */
 package io.uhndata.cards.permissions.internal.ownership;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -28,8 +33,13 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
+
 /**
- * An {@link Editor} that automatically sets the current user as the "owner" of a new Form or Subject.
+ * An {@link Editor} that automatically sets the current user as the "owner" of a new Form or Subject. The indexed
+ * {@link AccessQueryFilter#ALLOWED_PRINCIPALS_PROPERTY allowed principals} of the node are also kept in sync with its
+ * owner and with the unrestricted access granted on the node itself, which allows queries to only look at the nodes
+ * accessible to the current user. The allowed principals are only written when their value changes.
  *
  * @version $Id$
  */
@@ -37,6 +47,8 @@ public class OwnerSetterEditor extends DefaultEditor
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(OwnerSetterEditor.class);
 
+    private static final String POLICY = "rep:policy";
+
     /**
      * This holds the builder for the current node. The methods called for editing specific properties don't receive the
      * actual parent node of those properties, so we must manually keep track of the current node.
@@ -48,6 +60,9 @@ public class OwnerSetterEditor extends DefaultEditor
      */
     private final String author;
 
+    /** Whether the owner or the access control policy of the current node changed. */
+    private boolean accessChanged;
+
     /**
      * Simple constructor.
      *
@@ -67,13 +82,20 @@ public OwnerSetterEditor(final NodeBuilder nodeBuilder, final String author)
     @Override
     public Editor childNodeAdded(String name, NodeState after) throws CommitFailedException
     {
-        return new OwnerSetterEditor(this.currentNodeBuilder.getChildNode(name), this.author);
+        return getChildEditor(name);
     }
 
     @Override
     public Editor childNodeChanged(String name, NodeState before, NodeState after) throws CommitFailedException
     {
-        return new OwnerSetterEditor(this.currentNodeBuilder.getChildNode(name), this.author);
+        return getChildEditor(name);
+    }
+
+    @Override
+    public Editor childNodeDeleted(String name, NodeState before) throws CommitFailedException
+    {
+        this.accessChanged |= POLICY.equals(name);
+        return null;
     }
 
     @Override
@@ -81,11 +103,85 @@ public void propertyAdded(PropertyState after) throws CommitFailedException
     {
         // FIXME The list of nodetypes to be changed should be configurable
         if ("jcr:primaryType".equals(after.getName())
-            && StringUtils.equalsAny(after.getValue(Type.STRING), "cards:Form", "cards:Subject")) {
-            this.currentNodeBuilder.setProperty("owner", this.author);
+            && StringUtils.equalsAny(after.getValue(Type.STRING), AllowedPrincipals.TRACKED_TYPES)) {
+            this.currentNodeBuilder.setProperty(AllowedPrincipals.OWNER, this.author);
+            this.accessChanged = true;
             LOGGER.debug("Set {} as the owner of {} {}", this.author, after.getValue(Type.STRING),
                 this.currentNodeBuilder instanceof MemoryNodeBuilder
                     ? ((MemoryNodeBuilder) this.currentNodeBuilder).getPath() : this.currentNodeBuilder);
+        } else {
+            this.accessChanged |= AllowedPrincipals.OWNER.equals(after.getName());
+        }
+    }
+
+    @Override
+    public void propertyChanged(PropertyState before, PropertyState after) throws CommitFailedException
+    {
+        this.accessChanged |= AllowedPrincipals.OWNER.equals(after.getName());
+    }
+
+    @Override
+    public void propertyDeleted(PropertyState before) throws CommitFailedException
+    {
+        this.accessChanged |= AllowedPrincipals.OWNER.equals(before.getName());
+    }
+
+    @Override
+    public void leave(NodeState before, NodeState after) throws CommitFailedException
+    {
+        if (this.accessChanged && isTargetedNode()) {
+            updateAllowedPrincipals();
+        }
+    }
+
+    private Editor getChildEditor(final String name)
+    {
+        if (POLICY.equals(name)) {
+            // Access control entries are only inspected when leaving the parent node
+            this.accessChanged = true;
+            return null;
+        }
+        return new OwnerSetterEditor(this.currentNodeBuilder.getChildNode(name), this.author);
+    }
+
+    private boolean isTargetedNode()
+    {
+        return StringUtils.equalsAny(this.currentNodeBuilder.getName("jcr:primaryType"),
+            AllowedPrincipals.TRACKED_TYPES);
+    }
+
+    private void updateAllowedPrincipals()
+    {
+        final Set<String> expected = AllowedPrincipals.compute(
+            this.currentNodeBuilder.getString(AllowedPrincipals.OWNER), getSharedWith());
+        final Set<String> current = new HashSet<>();
+        final PropertyState property =
+            this.currentNodeBuilder.getProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY);
+        if (property != null) {
+            property.getValue(Type.STRINGS).forEach(current::add);
+        }
+        if (!expected.equals(current)) {
+            this.currentNodeBuilder.setProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY, expected, Type.STRINGS);
+        }
+    }
+
+    /**
+     * Lists the principals granted unrestricted access by the access control list of the current node.
+     *
+     * @return a list of principal names, may be empty
+     */
+    private List<String> getSharedWith()
+    {
+        final List<String> result = new ArrayList<>();
+        final NodeBuilder policy = this.currentNodeBuilder.getChildNode(POLICY);
+        for (String name : policy.getChildNodeNames()) {
+            final NodeBuilder entry = policy.getChildNode(name);
+            if ("rep:GrantACE".equals(entry.getName("jcr:primaryType"))
+                && !entry.hasChildNode("rep:restrictions") && !entry.hasProperty("rep:glob")
+                && entry.hasProperty("rep:principalName")) {
+                result.add(entry.getString("rep:principalName"));
+            }
         }
+        return result;
     }
 }
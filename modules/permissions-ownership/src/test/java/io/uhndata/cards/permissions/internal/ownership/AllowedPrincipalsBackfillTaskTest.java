@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import java.security.Principal;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.AccessControlPolicy;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
+
+/**
+ * Unit tests for {@link AllowedPrincipalsBackfillTask}.
+ *
+ * @version $Id$
+ */
+public class AllowedPrincipalsBackfillTaskTest
+{
+    private static final String ALICE = "alice";
+
+    private Session session;
+
+    private AccessControlManager acm;
+
+    @Before
+    public void setup() throws RepositoryException
+    {
+        this.session = Mockito.mock(Session.class);
+        this.acm = Mockito.mock(AccessControlManager.class);
+        Mockito.when(this.session.getAccessControlManager()).thenReturn(this.acm);
+        Mockito.when(this.acm.getPolicies(Matchers.anyString())).thenReturn(new AccessControlPolicy[0]);
+    }
+
+    @Test
+    public void onlyOutdatedNodesAreUpdated() throws RepositoryException
+    {
+        final Node upToDate = mockNode("/Forms/f1", ALICE, ALICE);
+        final Node ownerless = mockNode("/Forms/f2", null);
+        final Node shared = mockNode("/Forms/f3", ALICE);
+        final AccessControlEntry[] entries = { mockEntry("bob", true), mockEntry("carol", false) };
+        final JackrabbitAccessControlList acl = Mockito.mock(JackrabbitAccessControlList.class);
+        Mockito.when(acl.getAccessControlEntries()).thenReturn(entries);
+        Mockito.when(this.acm.getPolicies("/Forms/f3")).thenReturn(new AccessControlPolicy[] { acl });
+        mockQuery(upToDate, ownerless, shared);
+
+        Assert.assertEquals(2, new AllowedPrincipalsBackfillTask(null).backfill(this.session, "cards:Form"));
+        Mockito.verify(upToDate, Mockito.never()).setProperty(Matchers.anyString(), Matchers.any(String[].class));
+        Mockito.verify(ownerless).setProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY,
+            new String[] { "everyone" });
+        Mockito.verify(shared).setProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY,
+            new String[] { ALICE, "bob" });
+        Mockito.verify(this.session).save();
+    }
+
+    private void mockQuery(final Node... nodes) throws RepositoryException
+    {
+        final Workspace workspace = Mockito.mock(Workspace.class);
+        final QueryManager queryManager = Mockito.mock(QueryManager.class);
+        final Query query = Mockito.mock(Query.class);
+        final QueryResult result = Mockito.mock(QueryResult.class);
+        final NodeIterator iterator = Mockito.mock(NodeIterator.class);
+        Mockito.when(this.session.getWorkspace()).thenReturn(workspace);
+        Mockito.when(workspace.getQueryManager()).thenReturn(queryManager);
+        Mockito.when(queryManager.createQuery(Matchers.anyString(), Matchers.anyString())).thenReturn(query);
+        Mockito.when(query.execute()).thenReturn(result);
+        Mockito.when(result.getNodes()).thenReturn(iterator);
+        final Boolean[] more = new Boolean[nodes.length];
+        for (int i = 0; i < nodes.length; ++i) {
+            more[i] = i < nodes.length - 1;
+        }
+        Mockito.when(iterator.hasNext()).thenReturn(nodes.length > 0, more);
+        final Node[] rest = new Node[nodes.length - 1];
+        System.arraycopy(nodes, 1, rest, 0, rest.length);
+        Mockito.when(iterator.nextNode()).thenReturn(nodes[0], rest);
+    }
+
+    private Node mockNode(final String path, final String owner, final String... allowed) throws RepositoryException
+    {
+        final Node node = Mockito.mock(Node.class);
+        Mockito.when(node.getPath()).thenReturn(path);
+        if (owner != null) {
+            final Property property = Mockito.mock(Property.class);
+            Mockito.when(property.getString()).thenReturn(owner);
+            Mockito.when(node.hasProperty(AllowedPrincipals.OWNER)).thenReturn(true);
+            Mockito.when(node.getProperty(AllowedPrincipals.OWNER)).thenReturn(property);
+        }
+        if (allowed.length > 0) {
+            final Value[] values = new Value[allowed.length];
+            for (int i = 0; i < allowed.length; ++i) {
+                values[i] = Mockito.mock(Value.class);
+                Mockito.when(values[i].getString()).thenReturn(allowed[i]);
+            }
+            final Property property = Mockito.mock(Property.class);
+            Mockito.when(property.getValues()).thenReturn(values);
+            Mockito.when(node.hasProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY)).thenReturn(true);
+            Mockito.when(node.getProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY)).thenReturn(property);
+        }
+        return node;
+    }
+
+    private static JackrabbitAccessControlEntry mockEntry(final String principalName, final boolean unrestricted)
+        throws RepositoryException
+    {
+        final JackrabbitAccessControlEntry entry = Mockito.mock(JackrabbitAccessControlEntry.class);
+        final Principal principal = Mockito.mock(Principal.class);
+        Mockito.when(principal.getName()).thenReturn(principalName);
+        Mockito.when(entry.getPrincipal()).thenReturn(principal);
+        Mockito.when(entry.isAllow()).thenReturn(true);
+        Mockito.when(entry.getRestrictionNames())
+            .thenReturn(unrestricted ? new String[0] : new String[] { "rep:glob" });
+        return entry;
+    }
+}
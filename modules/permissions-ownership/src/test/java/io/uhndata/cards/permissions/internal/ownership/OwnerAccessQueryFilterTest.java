@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlPolicy;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Unit tests for {@link OwnerAccessQueryFilter}.
+ *
+ * @version $Id$
+ */
+public class OwnerAccessQueryFilterTest
+{
+    private static final String ALICE = "alice";
+
+    private static final String FORMS = "/Forms";
+
+    private static final String FORM_TYPE = "cards:Form";
+
+    private static final String SELECTOR = "n";
+
+    private static final String SUBJECT_TYPE = "cards:Subject";
+
+    private static final String PRIMARY_TYPE = "jcr:primaryType";
+
+    private static final String SUBJECTS = "Subjects";
+
+    @Mock
+    private ResourceResolverFactory resolverFactory;
+
+    @InjectMocks
+    private OwnerAccessQueryFilter filter;
+
+    private JackrabbitSession session;
+
+    private User user;
+
+    private Session serviceSession;
+
+    private Node homepage;
+
+    private JackrabbitAccessControlManager acm;
+
+    @Before
+    public void setup() throws RepositoryException, LoginException
+    {
+        MockitoAnnotations.initMocks(this);
+
+        this.session = Mockito.mock(JackrabbitSession.class);
+        final UserManager userManager = Mockito.mock(UserManager.class);
+        this.user = Mockito.mock(User.class);
+        final Group group = Mockito.mock(Group.class);
+        final Principal groupPrincipal = mockPrincipal("doctors");
+        final Principal userPrincipal = mockPrincipal(ALICE);
+        Mockito.when(this.session.getUserID()).thenReturn(ALICE);
+        Mockito.when(this.session.getUserManager()).thenReturn(userManager);
+        Mockito.when(userManager.getAuthorizable(ALICE)).thenReturn(this.user);
+        Mockito.when(this.user.getPrincipal()).thenReturn(userPrincipal);
+        Mockito.when(group.getPrincipal()).thenReturn(groupPrincipal);
+        Mockito.when(this.user.memberOf()).thenAnswer(invocation -> List.of(group).iterator());
+
+        final ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        this.serviceSession = Mockito.mock(Session.class);
+        this.homepage = Mockito.mock(Node.class);
+        this.acm = Mockito.mock(JackrabbitAccessControlManager.class);
+        Mockito.when(this.resolverFactory.getServiceResourceResolver(Matchers.<Map<String, Object>>any()))
+            .thenReturn(resolver);
+        Mockito.when(resolver.adaptTo(Session.class)).thenReturn(this.serviceSession);
+        Mockito.when(this.serviceSession.nodeExists(FORMS)).thenReturn(true);
+        Mockito.when(this.serviceSession.getNode(FORMS)).thenReturn(this.homepage);
+        Mockito.when(this.homepage.hasProperty(AllowedPrincipals.INDEXED_MARKER)).thenReturn(true);
+        Mockito.when(this.serviceSession.getAccessControlManager()).thenReturn(this.acm);
+    }
+
+    @Test
+    public void trackedEntriesProduceACondition() throws RepositoryException
+    {
+        mockNode("/Forms/f1", FORM_TYPE);
+        mockPolicies(mockAcl(FORMS, mockEntry("everyone", OwnerRestrictionFactory.NAME)),
+            mockAcl("/Forms/f1", mockEntry("doctors")),
+            mockAcl("/Questionnaires", mockEntry("everyone")),
+            mockAcl(null, mockEntry("doctors")));
+        Assert.assertEquals("(n.[allowedPrincipals] = 'alice' or n.[allowedPrincipals] = 'doctors'"
+            + " or n.[allowedPrincipals] = 'everyone')", this.filter.getAccessCondition(SELECTOR, FORM_TYPE,
+                this.session));
+    }
+
+    @Test
+    public void untrackedEntriesLeaveTheQueryUnfiltered() throws RepositoryException
+    {
+        mockPolicies(mockAcl(FORMS, mockEntry("everyone", OwnerRestrictionFactory.NAME)),
+            mockAcl("/", mockEntry("doctors")));
+        Assert.assertNull(this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session));
+    }
+
+    @Test
+    public void otherRestrictionsLeaveTheQueryUnfiltered() throws RepositoryException
+    {
+        mockPolicies(mockAcl(FORMS, mockEntry("doctors", "cards:subjects")));
+        Assert.assertNull(this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session));
+    }
+
+    @Test
+    public void parentSubjectEntriesLeaveTheQueryUnfiltered() throws RepositoryException
+    {
+        Mockito.when(this.serviceSession.nodeExists("/Subjects")).thenReturn(true);
+        Mockito.when(this.serviceSession.getNode("/Subjects")).thenReturn(this.homepage);
+        final Node subject = mockNode("/Subjects/s1", SUBJECT_TYPE);
+        final Node child = Mockito.mock(Node.class);
+        final NodeIterator children = Mockito.mock(NodeIterator.class);
+        Mockito.when(children.hasNext()).thenReturn(true, false);
+        Mockito.when(children.nextNode()).thenReturn(child);
+        Mockito.when(child.isNodeType(SUBJECT_TYPE)).thenReturn(true);
+        Mockito.when(subject.getNodes()).thenReturn(children);
+        mockPolicies(mockAcl("/Subjects/s1", mockEntry("doctors")));
+        Assert.assertNull(this.filter.getAccessCondition(SELECTOR, SUBJECT_TYPE, this.session));
+    }
+
+    @Test
+    public void incompleteBackfillLeavesTheQueryUnfiltered() throws RepositoryException
+    {
+        Mockito.when(this.homepage.hasProperty(AllowedPrincipals.INDEXED_MARKER)).thenReturn(false);
+        mockPolicies();
+        Assert.assertNull(this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session));
+    }
+
+    @Test
+    public void completenessIsCheckedOnceForTheSamePrincipals() throws RepositoryException
+    {
+        mockPolicies(mockAcl(FORMS, mockEntry("everyone", OwnerRestrictionFactory.NAME)));
+        final String condition = this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session);
+        Assert.assertNotNull(condition);
+        Assert.assertEquals(condition, this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session));
+        Mockito.verify(this.acm, Mockito.times(1)).getEffectivePolicies(Matchers.<Set<Principal>>any());
+    }
+
+    @Test
+    public void policyChangesDiscardTheCachedCompleteness() throws RepositoryException
+    {
+        final NodeBuilder builder = contentRoot();
+        final NodeState before = builder.getNodeState();
+        builder.child("Forms").child("f1").child("rep:policy");
+        assertCheckedAgain(before, builder.getNodeState());
+    }
+
+    @Test
+    public void membershipChangesDiscardTheCachedCompleteness() throws RepositoryException
+    {
+        final NodeBuilder builder = contentRoot();
+        final NodeState before = builder.getNodeState();
+        builder.child("home").child("groups").child("doctors").setProperty("rep:members", List.of("bob"),
+            Type.WEAKREFERENCES);
+        assertCheckedAgain(before, builder.getNodeState());
+    }
+
+    @Test
+    public void nestedSubjectsDiscardTheCachedCompleteness() throws RepositoryException
+    {
+        final NodeBuilder builder = contentRoot();
+        final NodeState before = builder.getNodeState();
+        builder.child(SUBJECTS).child("s1").child("v1").setProperty(PRIMARY_TYPE, SUBJECT_TYPE, Type.NAME);
+        assertCheckedAgain(before, builder.getNodeState());
+    }
+
+    @Test
+    public void answerChangesKeepTheCachedCompleteness() throws RepositoryException
+    {
+        final NodeBuilder builder = contentRoot();
+        final NodeState before = builder.getNodeState();
+        builder.child("Forms").child("f1").child("a1").setProperty("value", "changed");
+        builder.child(SUBJECTS).child("s2").setProperty(PRIMARY_TYPE, SUBJECT_TYPE, Type.NAME);
+        this.filter.contentChanged(before, CommitInfo.EMPTY);
+        mockPolicies(mockAcl(FORMS, mockEntry("everyone", OwnerRestrictionFactory.NAME)));
+        this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session);
+        this.filter.contentChanged(builder.getNodeState(), CommitInfo.EMPTY);
+        this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session);
+        Mockito.verify(this.acm, Mockito.times(1)).getEffectivePolicies(Matchers.<Set<Principal>>any());
+    }
+
+    @Test
+    public void administratorsAreNotFiltered() throws RepositoryException
+    {
+        Mockito.when(this.user.isAdmin()).thenReturn(true);
+        Assert.assertNull(this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session));
+    }
+
+    @Test
+    public void otherNodeTypesAreNotFiltered()
+    {
+        Assert.assertNull(this.filter.getAccessCondition(SELECTOR, "cards:Questionnaire", this.session));
+    }
+
+    private void assertCheckedAgain(final NodeState before, final NodeState after) throws RepositoryException
+    {
+        this.filter.contentChanged(before, CommitInfo.EMPTY);
+        mockPolicies(mockAcl(FORMS, mockEntry("everyone", OwnerRestrictionFactory.NAME)));
+        Assert.assertNotNull(this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session));
+        this.filter.contentChanged(after, CommitInfo.EMPTY);
+        Assert.assertNotNull(this.filter.getAccessCondition(SELECTOR, FORM_TYPE, this.session));
+        Mockito.verify(this.acm, Mockito.times(2)).getEffectivePolicies(Matchers.<Set<Principal>>any());
+    }
+
+    private static NodeBuilder contentRoot()
+    {
+        final NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        builder.child("Forms").child("f1").setProperty(PRIMARY_TYPE, FORM_TYPE, Type.NAME);
+        builder.child("Forms").child("f1").child("a1").setProperty("value", "original");
+        builder.child(SUBJECTS).child("s1").setProperty(PRIMARY_TYPE, SUBJECT_TYPE, Type.NAME);
+        builder.child("home").child("groups").child("doctors").setProperty("rep:members", List.of("alice"),
+            Type.WEAKREFERENCES);
+        // Start from a saved state, so that only the changes made by the tests are compared
+        return builder.getNodeState().builder();
+    }
+
+    private void mockPolicies(final AccessControlPolicy... policies) throws RepositoryException
+    {
+        Mockito.when(this.acm.getEffectivePolicies(Matchers.<Set<Principal>>any())).thenReturn(policies);
+    }
+
+    private Node mockNode(final String path, final String type) throws RepositoryException
+    {
+        final Node node = Mockito.mock(Node.class);
+        final NodeType nodeType = Mockito.mock(NodeType.class);
+        Mockito.when(nodeType.getName()).thenReturn(type);
+        Mockito.when(node.getPrimaryNodeType()).thenReturn(nodeType);
+        Mockito.when(node.getNodes()).thenReturn(Mockito.mock(NodeIterator.class));
+        Mockito.when(this.serviceSession.nodeExists(path)).thenReturn(true);
+        Mockito.when(this.serviceSession.getNode(path)).thenReturn(node);
+        return node;
+    }
+
+    private static JackrabbitAccessControlList mockAcl(final String path, final AccessControlEntry... entries)
+        throws RepositoryException
+    {
+        final JackrabbitAccessControlList acl = Mockito.mock(JackrabbitAccessControlList.class);
+        Mockito.when(acl.getPath()).thenReturn(path);
+        Mockito.when(acl.getAccessControlEntries()).thenReturn(entries);
+        return acl;
+    }
+
+    private static JackrabbitAccessControlEntry mockEntry(final String principalName, final String... restrictions)
+        throws RepositoryException
+    {
+        final JackrabbitAccessControlEntry entry = Mockito.mock(JackrabbitAccessControlEntry.class);
+        final Principal principal = mockPrincipal(principalName);
+        Mockito.when(entry.getPrincipal()).thenReturn(principal);
+        Mockito.when(entry.isAllow()).thenReturn(true);
+        Mockito.when(entry.getRestrictionNames()).thenReturn(restrictions);
+        return entry;
+    }
+
+    private static Principal mockPrincipal(final String name)
+    {
+        final Principal principal = Mockito.mock(Principal.class);
+        Mockito.when(principal.getName()).thenReturn(name);
+        return principal;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.permissions.internal.ownership;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
+
+/**
+ * Unit tests for {@link OwnerSetterEditor}.
+ *
+ * @version $Id$
+ */
+public class OwnerSetterEditorTest
+{
+    private static final String FORMS = "Forms";
+
+    private static final String FORM = "f1";
+
+    private static final String ALICE = "alice";
+
+    private static final String BOB = "bob";
+
+    private static final String PRIMARY_TYPE = "jcr:primaryType";
+
+    private static final String POLICY = "rep:policy";
+
+    private NodeState base;
+
+    @Before
+    public void setup()
+    {
+        final NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        final NodeBuilder form = builder.child(FORMS).child(FORM);
+        form.setProperty(PRIMARY_TYPE, "cards:Form", Type.NAME);
+        form.setProperty(AllowedPrincipals.OWNER, ALICE);
+        form.setProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY, List.of(ALICE), Type.STRINGS);
+        form.child("answer").setProperty("value", "old");
+        this.base = builder.getNodeState();
+    }
+
+    @Test
+    public void newFormsAreOwnedByTheAuthor() throws CommitFailedException
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child("f2").setProperty(PRIMARY_TYPE, "cards:Form", Type.NAME);
+        final NodeState form = commit(builder, BOB).getChildNode(FORMS).getChildNode("f2");
+        Assert.assertEquals(BOB, form.getString(AllowedPrincipals.OWNER));
+        Assert.assertEquals(List.of(BOB), getAllowedPrincipals(form));
+    }
+
+    @Test
+    public void ownerChangesReplaceThePrincipal() throws CommitFailedException
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child(FORM).setProperty(AllowedPrincipals.OWNER, BOB);
+        Assert.assertEquals(List.of(BOB), getAllowedPrincipals(commit(builder, ALICE).getChildNode(FORMS)
+            .getChildNode(FORM)));
+    }
+
+    @Test
+    public void formsWithoutOwnerAreAllowedForEveryone() throws CommitFailedException
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child(FORM).removeProperty(AllowedPrincipals.OWNER);
+        Assert.assertEquals(List.of("everyone"), getAllowedPrincipals(commit(builder, ALICE).getChildNode(FORMS)
+            .getChildNode(FORM)));
+    }
+
+    @Test
+    public void unrestrictedEntriesAreAllowed() throws CommitFailedException
+    {
+        final NodeBuilder builder = this.base.builder();
+        final NodeBuilder policy = builder.child(FORMS).child(FORM).child(POLICY);
+        addEntry(policy, "allow", BOB);
+        addEntry(policy, "allow1", "carol").child("rep:restrictions").setProperty("cards:owner", "");
+        addEntry(policy, "deny", "dave").setProperty(PRIMARY_TYPE, "rep:DenyACE", Type.NAME);
+        Assert.assertEquals(List.of(ALICE, BOB), getAllowedPrincipals(commit(builder, ALICE).getChildNode(FORMS)
+            .getChildNode(FORM)));
+    }
+
+    @Test
+    public void unchangedPrincipalsAreNotRewritten() throws CommitFailedException
+    {
+        final NodeBuilder builder = Mockito.mock(NodeBuilder.class);
+        final NodeBuilder policy = Mockito.mock(NodeBuilder.class);
+        Mockito.when(builder.getName(PRIMARY_TYPE)).thenReturn("cards:Form");
+        Mockito.when(builder.getString(AllowedPrincipals.OWNER)).thenReturn(BOB);
+        Mockito.when(builder.getProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY)).thenReturn(
+            PropertyStates.createProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY, List.of(BOB), Type.STRINGS));
+        Mockito.when(builder.getChildNode(POLICY)).thenReturn(policy);
+        Mockito.when(policy.getChildNodeNames()).thenReturn(List.of());
+
+        final OwnerSetterEditor editor = new OwnerSetterEditor(builder, ALICE);
+        editor.propertyChanged(PropertyStates.createProperty(AllowedPrincipals.OWNER, ALICE),
+            PropertyStates.createProperty(AllowedPrincipals.OWNER, BOB));
+        editor.leave(this.base, this.base);
+        Mockito.verify(builder, Mockito.never()).setProperty(Matchers.eq(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY),
+            Matchers.any(), Matchers.<Type<Object>>any());
+    }
+
+    @Test
+    public void otherChangesAreIgnored() throws CommitFailedException
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child(FORM).setProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY, List.of(BOB),
+            Type.STRINGS);
+        builder.child(FORMS).child(FORM).child("answer").setProperty("value", "new");
+        Assert.assertEquals(List.of(BOB), getAllowedPrincipals(commit(builder, ALICE).getChildNode(FORMS)
+            .getChildNode(FORM)));
+    }
+
+    private NodeBuilder addEntry(final NodeBuilder policy, final String name, final String principal)
+    {
+        final NodeBuilder entry = policy.child(name);
+        entry.setProperty(PRIMARY_TYPE, "rep:GrantACE", Type.NAME);
+        entry.setProperty("rep:principalName", principal);
+        return entry;
+    }
+
+    private NodeState commit(final NodeBuilder builder, final String author) throws CommitFailedException
+    {
+        return new EditorHook(new OwnerSetterEditorProvider()).processCommit(this.base, builder.getNodeState(),
+            new CommitInfo("session", author));
+    }
+
+    private static List<String> getAllowedPrincipals(final NodeState node)
+    {
+        final List<String> result = new ArrayList<>();
+        node.getProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY).getValue(Type.STRINGS).forEach(result::add);
+        return result;
+    }
+}
@@ -20,9 +20,12 @@
 
 import java.security.Principal;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
@@ -33,18 +36,24 @@
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
 import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
 import org.osgi.service.component.annotations.Component;
 
+import io.uhndata.cards.permissions.spi.AccessQueryFilter;
 import io.uhndata.cards.permissions.spi.PermissionsManager;
 
 /**
- * Permission changing service for altering/creating ACLs on arbitrary nodes.
+ * Permission changing service for altering/creating ACLs on arbitrary nodes. Unrestricted access granted on a Form or
+ * Subject is also recorded in its indexed {@link AccessQueryFilter#ALLOWED_PRINCIPALS_PROPERTY allowed principals}.
  *
  * @version $Id$
  */
 @Component(service = { PermissionsManager.class })
 public class PermissionsManagerService implements PermissionsManager
 {
+    /** The property holding the name of the owner of a Form or Subject. */
+    private static final String OWNER_PROPERTY = "owner";
+
     @Override
     public void addAccessControlEntry(String target, boolean isAllow, Principal principal, String[] privileges,
         Map<String, Value> restrictions, Session session) throws RepositoryException
@@ -64,6 +73,7 @@ public void addAccessControlEntry(String target, boolean isAllow, Principal prin
         if (acl != null) {
             acl.addEntry(principal, privileges, isAllow, restrictions);
             acm.setPolicy(target, acl);
+            updateAllowedPrincipals(target, isAllow, principal, restrictions, true, session);
         }
     }
 
@@ -98,12 +108,101 @@ public void removeAccessControlEntry(String target, boolean isAllow, Principal p
             if (toRemove != null) {
                 acl.removeAccessControlEntry(toRemove);
                 acm.setPolicy(target, acl);
+                updateAllowedPrincipals(target, isAllow, principal, restrictions, false, session);
             } else {
                 throw new RepositoryException("Target ACL does not exist");
             }
         }
     }
 
+    /**
+     * Keep the allowed principals of a Form or Subject in sync with the unrestricted access granted to it. The property
+     * is only written when its value actually changes.
+     *
+     * @param target the target node whose permissions were altered
+     * @param isAllow whether the altered entry allows (true) or denies (false) access
+     * @param principal the Principal of the altered entry
+     * @param restrictions the restrictions of the altered entry
+     * @param added whether the entry was added (true) or removed (false)
+     * @param session the {@code javax.jcr.Session} where the changes are made
+     * @throws RepositoryException if accessing the target node fails
+     */
+    private void updateAllowedPrincipals(String target, boolean isAllow, Principal principal,
+        Map<String, Value> restrictions, boolean added, Session session) throws RepositoryException
+    {
+        final Node node = getTrackedNode(target, isAllow, restrictions, session);
+        if (node == null) {
+            return;
+        }
+        final Set<String> principals = getAllowedPrincipals(node);
+        final boolean changed;
+        if (added) {
+            changed = principals.add(principal.getName());
+        } else {
+            changed = !isImplicitlyAllowed(node, principal.getName()) && principals.remove(principal.getName());
+        }
+        if (changed) {
+            node.setProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY, principals.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Find the Form or Subject whose allowed principals are affected by an access control entry.
+     *
+     * @param target the target node whose permissions were altered
+     * @param isAllow whether the altered entry allows (true) or denies (false) access
+     * @param restrictions the restrictions of the altered entry
+     * @param session the {@code javax.jcr.Session} where the changes are made
+     * @return the target node, or {@code null} if the entry does not affect the allowed principals
+     * @throws RepositoryException if accessing the target node fails
+     */
+    private Node getTrackedNode(String target, boolean isAllow, Map<String, Value> restrictions, Session session)
+        throws RepositoryException
+    {
+        // Only unrestricted allow entries are recorded, anything else is left for the access control to evaluate
+        if (!isAllow || (restrictions != null && !restrictions.isEmpty()) || !session.nodeExists(target)) {
+            return null;
+        }
+        final Node node = session.getNode(target);
+        final String nodeType = node.getPrimaryNodeType().getName();
+        return "cards:Form".equals(nodeType) || "cards:Subject".equals(nodeType) ? node : null;
+    }
+
+    /**
+     * Read the current allowed principals of a node.
+     *
+     * @param node the Form or Subject to read
+     * @return a mutable set of principal names, may be empty
+     * @throws RepositoryException if accessing the property fails
+     */
+    private Set<String> getAllowedPrincipals(Node node) throws RepositoryException
+    {
+        final Set<String> principals = new LinkedHashSet<>();
+        if (node.hasProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY)) {
+            for (Value value : node.getProperty(AccessQueryFilter.ALLOWED_PRINCIPALS_PROPERTY).getValues()) {
+                principals.add(value.getString());
+            }
+        }
+        return principals;
+    }
+
+    /**
+     * Check if a principal has access to a node even without an explicit entry: the owner always has access, and
+     * everyone has access to a node without an owner.
+     *
+     * @param node the Form or Subject to check
+     * @param principalName the name of the principal to check
+     * @return {@code true} if the principal must remain in the allowed principals
+     * @throws RepositoryException if accessing the owner property fails
+     */
+    private boolean isImplicitlyAllowed(Node node, String principalName) throws RepositoryException
+    {
+        if (node.hasProperty(OWNER_PROPERTY)) {
+            return principalName.equals(node.getProperty(OWNER_PROPERTY).getString());
+        }
+        return EveryonePrincipal.NAME.equals(principalName);
+    }
+
     /**
      * Determine if the given JackrabbitAccessControlEntry fits the given criteria.
      *
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.permissions.internal;
+
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
+import org.osgi.service.component.annotations.Component;
+
+import io.uhndata.cards.permissions.spi.RestrictionLookupCache;
+
+/**
+ * Clears the {@link RestrictionLookupCache restriction lookup caches} after commits that may affect the cached lookups:
+ * removing forms or subjects or their descendants, changing the type, subject, owner, or parents of existing nodes
+ * under {@code /Forms} and {@code /Subjects}, changing access control policies, or changing group memberships. Only
+ * the changed subtrees are compared, and the comparison stops at the first relevant change.
+ *
+ * @version $Id$
+ */
+@Component(service = Observer.class)
+public class RestrictionLookupCacheInvalidator implements Observer
+{
+    /** The root state from the previous notification. */
+    private NodeState previousRoot;
+
+    @Override
+    public synchronized void contentChanged(final NodeState root, final CommitInfo info)
+    {
+        if (this.previousRoot == null
+            || !root.compareAgainstBaseState(this.previousRoot, new ChangeDetector(true, false))) {
+            RestrictionLookupCache.invalidateAll();
+        }
+        this.previousRoot = root;
+    }
+
+    /**
+     * Looks for changes that affect the cached lookups, aborting the comparison as soon as one is found.
+     */
+    static final class ChangeDetector implements NodeStateDiff
+    {
+        /** The properties read by the restriction lookups. */
+        private static final Set<String> CONTENT_PROPERTIES = Set.of("jcr:primaryType", "subject", "owner", "parents");
+
+        /** The root nodes whose subtrees are cached. */
+        private static final Set<String> CONTENT_ROOTS = Set.of("Forms", "Subjects");
+
+        private static final String POLICY_NODE = "rep:policy";
+
+        private static final String MEMBERS_PROPERTY = "rep:members";
+
+        /** Whether this diff is for the root node. */
+        private final boolean isRoot;
+
+        /** Whether this diff is for a node under one of the {@link #CONTENT_ROOTS}. */
+        private final boolean inContent;
+
+        ChangeDetector(final boolean isRoot, final boolean inContent)
+        {
+            this.isRoot = isRoot;
+            this.inContent = inContent;
+        }
+
+        @Override
+        public boolean propertyAdded(final PropertyState after)
+        {
+            return !isRelevant(after);
+        }
+
+        @Override
+        public boolean propertyChanged(final PropertyState before, final PropertyState after)
+        {
+            return !isRelevant(before);
+        }
+
+        @Override
+        public boolean propertyDeleted(final PropertyState before)
+        {
+            return !isRelevant(before);
+        }
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after)
+        {
+            // The lookups only cache where the owner of a path is, and the owner's type and properties are read again
+            // each time, so adding nodes doesn't invalidate them; a node replacing another one is a change, not an
+            // addition, and its type change is detected as a property change
+            return !POLICY_NODE.equals(name);
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            if (POLICY_NODE.equals(name)) {
+                return false;
+            }
+            return after.compareAgainstBaseState(before,
+                new ChangeDetector(false, this.inContent || isContentRoot(name)));
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            return !(this.inContent || POLICY_NODE.equals(name) || isContentRoot(name));
+        }
+
+        private boolean isContentRoot(final String name)
+        {
+            return this.isRoot && CONTENT_ROOTS.contains(name);
+        }
+
+        private boolean isRelevant(final PropertyState property)
+        {
+            final String name = property.getName();
+            return MEMBERS_PROPERTY.equals(name) || this.inContent && CONTENT_PROPERTIES.contains(name);
+        }
+    }
+}
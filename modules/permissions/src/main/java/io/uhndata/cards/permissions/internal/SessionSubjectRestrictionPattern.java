@@ -18,15 +18,15 @@
  */
 package io.uhndata.cards.permissions.internal;
 
-import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
-import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
 
+import io.uhndata.cards.permissions.spi.RestrictionLookupCache;
+
 /**
  * A restriction that makes a permissions entry only be valid on a form or subject node if the session is bound to a
  * specific subject, and the accessed node belongs to a form that has the target subject as its subject, is the target
@@ -81,32 +81,34 @@ public boolean matches(final Tree tree, final PropertyState property)
             return false;
         }
 
-        return isFormForSubject(tree, sessionSubject) || isSubject(tree, sessionSubject);
+        // This restriction only applies to Forms/Subjects and their descendant items.
+        // If this is not a Form or Subject node, look for one among its ancestors.
+        final RestrictionLookupCache cache = RestrictionLookupCache.forSession(this.session);
+        final RestrictionLookupCache.OwningNode owner = cache.getOwningNode(tree);
+        if (owner == null) {
+            // Not a targeted node, this restriction doesn't apply
+            return false;
+        }
+        return isFormForSubject(owner, sessionSubject, cache) || isSubject(owner, sessionSubject);
     }
 
-    private boolean isFormForSubject(final Tree start, final String sessionSubject)
+    private boolean isFormForSubject(final RestrictionLookupCache.OwningNode form, final String sessionSubject,
+        final RestrictionLookupCache cache)
     {
-        final Tree form = findAncestor(start, "cards:Form");
-        if (form == null) {
+        if (!form.isForm()) {
             // Not part of a form
             return false;
         }
 
         // This is a form. Check if the node has a subject
-        final PropertyState subjectProperty = form.getProperty("subject");
+        final String subject = form.getSubject();
         // If there is a subject set, this authorization rule only applies if it is the same as the session's subject
-        try {
-            return subjectProperty != null && StringUtils.equals(sessionSubject,
-                this.session.getNodeByIdentifier(subjectProperty.getValue(Type.STRING)).getPath());
-        } catch (RepositoryException e) {
-            return false;
-        }
+        return subject != null && StringUtils.equals(sessionSubject, cache.getSubjectPath(subject));
     }
 
-    private boolean isSubject(final Tree start, final String sessionSubject)
+    private boolean isSubject(final RestrictionLookupCache.OwningNode subject, final String sessionSubject)
     {
-        final Tree subject = findAncestor(start, "cards:Subject");
-        if (subject == null) {
+        if (!subject.isSubject()) {
             // Not part of a subject
             return false;
         }
@@ -114,20 +116,4 @@ private boolean isSubject(final Tree start, final String sessionSubject)
         // This is a subject, this authorization rule only applies if it is the same as the session's subject
         return StringUtils.equals(sessionSubject, subject.getPath());
     }
-
-    private Tree findAncestor(final Tree start, final String targetNodetype)
-    {
-        // This restriction only applies to Forms/Subjects and their descendant items.
-        // If this is not a Form or Subject node, look for one among its ancestors.
-        Tree current = start;
-        while (!current.isRoot() && (current.getProperty("jcr:primaryType") == null
-            || !StringUtils.equals(current.getProperty("jcr:primaryType").getValue(Type.STRING), targetNodetype))) {
-            current = current.getParent();
-        }
-        if (current.isRoot()) {
-            // Not a targeted node, this restriction doesn't apply
-            return null;
-        }
-        return current;
-    }
 }
@@ -18,19 +18,17 @@
  */
 package io.uhndata.cards.permissions.internal;
 
-import javax.jcr.ItemNotFoundException;
-import javax.jcr.Node;
-import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
-import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.uhndata.cards.permissions.spi.RestrictionLookupCache;
+
 /**
  * A restriction that makes a permissions entry only be valid on a node of type Form for a specific Subject.
  *
@@ -60,20 +58,15 @@ public boolean matches(final Tree tree, final PropertyState property)
     {
         // This restriction only applies to Forms and their descendant items.
         // If this is not a Form node, look for one among its ancestors.
-        Tree formTree = tree;
-        while ((formTree.getProperty("jcr:primaryType") == null
-            || !formTree.getProperty("jcr:primaryType").getValue(Type.STRING).equals("cards:Form"))
-            && !formTree.isRoot()) {
-            formTree = formTree.getParent();
-        }
-        if (formTree.isRoot()) {
+        final RestrictionLookupCache.OwningNode form = RestrictionLookupCache.forSession(this.session)
+            .getOwningNode(tree);
+        if (form == null || !form.isForm()) {
             // Not a Form node, this restriction doesn't apply
             return false;
         }
 
         // Check if the form's subject is the same as the one specified in the restriction
-        String subject = formTree.getProperty("subject").getValue(Type.REFERENCE);
-        return matchesReference(subject);
+        return matchesReference(form.getSubject());
     }
 
     @Override
@@ -101,26 +94,15 @@ private boolean matchesReference(String uuid)
             return true;
         }
 
+        if (uuid == null) {
+            return false;
+        }
+
         if (this.session == null) {
             LOGGER.warn("Could not match subject UUID {}: session not found.", uuid);
             return false;
         }
 
-        String nextUuid = uuid;
-        try {
-            Node subject = this.session.getNodeByIdentifier(nextUuid);
-            while (subject.hasProperty("parents")) {
-                nextUuid = subject.getProperty("parents").getString();
-                if (StringUtils.equals(nextUuid, this.targetSubject)) {
-                    return true;
-                }
-                subject = this.session.getNodeByIdentifier(nextUuid);
-            }
-        } catch (ItemNotFoundException e) {
-            LOGGER.debug("Subject UUID {} is inaccessible", nextUuid, e);
-        } catch (RepositoryException e) {
-            LOGGER.error("Failed to find subject UUID {}", nextUuid, e);
-        }
-        return false;
+        return RestrictionLookupCache.forSession(this.session).getSubjectAncestors(uuid).contains(this.targetSubject);
     }
 }
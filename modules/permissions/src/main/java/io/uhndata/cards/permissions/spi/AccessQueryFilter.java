@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.permissions.spi;
+
+import javax.jcr.Session;
+
+/**
+ * Service interface for permission schemes which can express, as an indexed query condition, which nodes a session is
+ * allowed to access. Access rights are always enforced by the repository, but access control is applied only after
+ * the query index returns results, so without such a condition a listing has to read and discard all the nodes that
+ * the current user cannot access. Query builders should add the conditions returned by all the available filters.
+ *
+ * @version $Id$
+ */
+public interface AccessQueryFilter
+{
+    /**
+     * The multi-valued property holding the names of the principals explicitly allowed to access a node, such as its
+     * owner or the principals it was shared with.
+     */
+    String ALLOWED_PRINCIPALS_PROPERTY = "allowedPrincipals";
+
+    /**
+     * Build a query condition restricting the results to the nodes that the session can access.
+     *
+     * @param selector the name of the query selector for the nodes being listed, for example {@code n}
+     * @param nodeType the type of the nodes being listed, for example {@code cards:Form}
+     * @param session the session performing the query
+     * @return a JCR-SQL2 condition, or {@code null} if this filter doesn't restrict the query
+     */
+    String getAccessCondition(String selector, String nodeType, Session session);
+}
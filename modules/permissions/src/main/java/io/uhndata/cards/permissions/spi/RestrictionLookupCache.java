@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.permissions.spi;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.utils.LruCache;
+
+/**
+ * A per-session cache of the lookups commonly needed by restriction patterns: which Form or Subject a tree belongs to,
+ * and the chain of ancestors of a subject. Restriction patterns are evaluated for every node and property accessed,
+ * and without caching the same ancestors are looked up again and again while reading a single form.
+ * <p>
+ * Each session gets its own cache, so that lookups never leak information across users with different access rights.
+ * Each cache keeps a bounded number of recently used entries, and all the caches are cleared after each commit that
+ * changes forms, subjects, or access rights, since the cached lookups may no longer be valid.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class RestrictionLookupCache
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(RestrictionLookupCache.class);
+
+    private static final String PRIMARY_TYPE = "jcr:primaryType";
+
+    private static final String FORM_NODETYPE = "cards:Form";
+
+    private static final String SUBJECT_NODETYPE = "cards:Subject";
+
+    /** How many entries to cache for each session, in each of the caches. */
+    private static final int MAX_ENTRIES = 1000;
+
+    /** Incremented on every commit, used for invalidating the cached lookups. */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    /** The caches for the live sessions. Caches are discarded when their session is garbage collected. */
+    private static final Map<SessionKey, RestrictionLookupCache> CACHES = new ConcurrentHashMap<>();
+
+    /** Marker for subjects not accessible to the session, since {@code null} means "not cached". */
+    private static final String INACCESSIBLE = "";
+
+    /** Notified when sessions are garbage collected, so that their caches can be discarded. */
+    private static final ReferenceQueue<Session> COLLECTED_SESSIONS = new ReferenceQueue<>();
+
+    private final Session session;
+
+    /** The paths of the owning nodes, by tree path. */
+    private final LruCache<String, String> owningPaths = new LruCache<>(MAX_ENTRIES);
+
+    /** Resolved subject ancestors, by subject UUID. */
+    private final LruCache<String, List<String>> subjectAncestors = new LruCache<>(MAX_ENTRIES);
+
+    /** Subject paths, by subject UUID, or {@link #INACCESSIBLE} for subjects not accessible to the session. */
+    private final LruCache<String, String> subjectPaths = new LruCache<>(MAX_ENTRIES);
+
+    private long generation;
+
+    private RestrictionLookupCache(final Session session)
+    {
+        this.session = session;
+        this.generation = GENERATION.get();
+    }
+
+    /**
+     * Retrieve the cache for a session.
+     *
+     * @param session the session whose cache to retrieve, may be {@code null}
+     * @return the cache for the session; if the session is {@code null}, a cache that is not shared is returned
+     */
+    public static RestrictionLookupCache forSession(final Session session)
+    {
+        if (session == null) {
+            return new RestrictionLookupCache(null);
+        }
+        final RestrictionLookupCache result = CACHES.get(new SessionKey(session, null));
+        if (result != null) {
+            return result;
+        }
+        expungeCollectedSessions();
+        return CACHES.computeIfAbsent(new SessionKey(session, COLLECTED_SESSIONS),
+            key -> new RestrictionLookupCache(session));
+    }
+
+    private static void expungeCollectedSessions()
+    {
+        for (Reference<? extends Session> collected = COLLECTED_SESSIONS.poll(); collected != null;
+            collected = COLLECTED_SESSIONS.poll()) {
+            CACHES.remove(collected);
+        }
+    }
+
+    /**
+     * Invalidate all the cached lookups, for all the sessions. This is called after each commit that may affect the
+     * cached lookups.
+     */
+    public static void invalidateAll()
+    {
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Find the Form or Subject that a tree belongs to, either the tree itself or its nearest Form or Subject ancestor.
+     * Forms and subjects are never nested inside each other, so the nearest one is the only one.
+     * <p>
+     * Only the location of the owning node is cached, never its properties: the type, subject, and owner are always
+     * read from the given tree, which may hold transient changes not saved yet, or be the state being committed. A
+     * cached location is only used if the ancestor found there is still a Form or Subject. Trees outside forms and
+     * subjects are not cached, since they could become part of a form only through changes that the cache would not
+     * notice.
+     * </p>
+     *
+     * @param tree the tree being accessed
+     * @return the owning Form or Subject, or {@code null} if the tree is not part of a Form or Subject
+     */
+    public synchronized OwningNode getOwningNode(final Tree tree)
+    {
+        checkGeneration();
+        final OwningNode cached = getCachedOwningNode(tree);
+        if (cached != null) {
+            return cached;
+        }
+        final List<String> visited = new ArrayList<>();
+        Tree current = tree;
+        while (!isOwningNode(current)) {
+            if (current.isRoot()) {
+                return null;
+            }
+            visited.add(current.getPath());
+            current = current.getParent();
+        }
+        final String owningPath = current.getPath();
+        visited.add(owningPath);
+        for (final String path : visited) {
+            this.owningPaths.put(path, owningPath);
+        }
+        return toOwningNode(current);
+    }
+
+    /**
+     * Look up the owning node of a tree using the cached location of its owning node.
+     *
+     * @param tree the tree being accessed
+     * @return the owning Form or Subject, or {@code null} if its location is not cached or is no longer valid
+     */
+    private OwningNode getCachedOwningNode(final Tree tree)
+    {
+        final String path = tree.getPath();
+        final String owningPath = this.owningPaths.get(path);
+        if (owningPath == null) {
+            return null;
+        }
+        Tree owner = tree;
+        final int levels = StringUtils.countMatches(path, '/') - StringUtils.countMatches(owningPath, '/');
+        for (int i = levels; i > 0 && !owner.isRoot(); --i) {
+            owner = owner.getParent();
+        }
+        if (!owningPath.equals(owner.getPath()) || !isOwningNode(owner)) {
+            this.owningPaths.remove(path);
+            return null;
+        }
+        return toOwningNode(owner);
+    }
+
+    private static boolean isOwningNode(final Tree tree)
+    {
+        final String type = getString(tree, PRIMARY_TYPE);
+        return FORM_NODETYPE.equals(type) || SUBJECT_NODETYPE.equals(type);
+    }
+
+    private static OwningNode toOwningNode(final Tree tree)
+    {
+        return new OwningNode(tree.getPath(), getString(tree, PRIMARY_TYPE), getString(tree, "subject"),
+            getString(tree, "owner"));
+    }
+
+    /**
+     * Retrieve the chain of ancestors of a subject, following the {@code parents} references as far as they are
+     * accessible to the session.
+     *
+     * @param subjectIdentifier the UUID of a subject
+     * @return a list of subject UUIDs, starting with the subject itself, then its parent, grandparent, and so on; the
+     *         last element may be the UUID of a parent not accessible to the session
+     */
+    public synchronized List<String> getSubjectAncestors(final String subjectIdentifier)
+    {
+        checkGeneration();
+        List<String> result = this.subjectAncestors.get(subjectIdentifier);
+        if (result == null) {
+            result = new ArrayList<>();
+            result.add(subjectIdentifier);
+            if (this.session != null) {
+                String nextIdentifier = subjectIdentifier;
+                try {
+                    Node subject = this.session.getNodeByIdentifier(nextIdentifier);
+                    while (subject.hasProperty("parents")) {
+                        nextIdentifier = subject.getProperty("parents").getString();
+                        result.add(nextIdentifier);
+                        subject = this.session.getNodeByIdentifier(nextIdentifier);
+                    }
+                } catch (final ItemNotFoundException e) {
+                    LOGGER.debug("Subject UUID {} is inaccessible", nextIdentifier, e);
+                } catch (final RepositoryException e) {
+                    LOGGER.error("Failed to find subject UUID {}", nextIdentifier, e);
+                }
+            }
+            result = Collections.unmodifiableList(result);
+            this.subjectAncestors.put(subjectIdentifier, result);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the path of a subject.
+     *
+     * @param subjectIdentifier the UUID of a subject
+     * @return the path of the subject, or {@code null} if the subject is not accessible to the session
+     */
+    public synchronized String getSubjectPath(final String subjectIdentifier)
+    {
+        checkGeneration();
+        if (this.session == null) {
+            return null;
+        }
+        String path = this.subjectPaths.get(subjectIdentifier);
+        if (path == null) {
+            try {
+                path = this.session.getNodeByIdentifier(subjectIdentifier).getPath();
+            } catch (final RepositoryException e) {
+                // Not accessible, or not a valid identifier
+                path = INACCESSIBLE;
+            }
+            this.subjectPaths.put(subjectIdentifier, path);
+        }
+        return INACCESSIBLE.equals(path) ? null : path;
+    }
+
+    private void checkGeneration()
+    {
+        final long current = GENERATION.get();
+        if (this.generation != current) {
+            this.owningPaths.clear();
+            this.subjectAncestors.clear();
+            this.subjectPaths.clear();
+            this.generation = current;
+        }
+    }
+
+    private static String getString(final Tree tree, final String property)
+    {
+        final PropertyState value = tree.getProperty(property);
+        return value == null || value.isArray() ? null : value.getValue(Type.STRING);
+    }
+
+    /**
+     * The Form or Subject node that a tree belongs to.
+     */
+    public static final class OwningNode
+    {
+        private final String path;
+
+        private final String type;
+
+        private final String subject;
+
+        private final String owner;
+
+        OwningNode(final String path, final String type, final String subject, final String owner)
+        {
+            this.path = path;
+            this.type = type;
+            this.subject = subject;
+            this.owner = owner;
+        }
+
+        /**
+         * The path of the Form or Subject node.
+         *
+         * @return a path
+         */
+        public String getPath()
+        {
+            return this.path;
+        }
+
+        /**
+         * Check if this is a Form.
+         *
+         * @return {@code true} for {@code cards:Form} nodes
+         */
+        public boolean isForm()
+        {
+            return FORM_NODETYPE.equals(this.type);
+        }
+
+        /**
+         * Check if this is a Subject.
+         *
+         * @return {@code true} for {@code cards:Subject} nodes
+         */
+        public boolean isSubject()
+        {
+            return SUBJECT_NODETYPE.equals(this.type);
+        }
+
+        /**
+         * The subject of a Form.
+         *
+         * @return the UUID of the subject, or {@code null} if this is not a Form or it doesn't have a subject
+         */
+        public String getSubject()
+        {
+            return isForm() ? this.subject : null;
+        }
+
+        /**
+         * The owner of the Form or Subject.
+         *
+         * @return the owner's user ID, or {@code null} if no owner is set
+         */
+        public String getOwner()
+        {
+            return this.owner;
+        }
+    }
+
+    /**
+     * Weakly references a session, comparing sessions by identity, as the key for the cache of that session.
+     */
+    private static final class SessionKey extends WeakReference<Session>
+    {
+        private final int hash;
+
+        SessionKey(final Session session, final ReferenceQueue<Session> queue)
+        {
+            super(session, queue);
+            this.hash = System.identityHashCode(session);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof SessionKey)) {
+                return false;
+            }
+            final Session session = get();
+            return session != null && session == ((SessionKey) other).get();
+        }
+    }
+}
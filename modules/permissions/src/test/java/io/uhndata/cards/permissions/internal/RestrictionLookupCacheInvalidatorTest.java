@@ -0,0 +1,116 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.permissions.internal;
+
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the change detection done by {@link RestrictionLookupCacheInvalidator}.
+ *
+ * @version $Id$
+ */
+public class RestrictionLookupCacheInvalidatorTest
+{
+    private static final String FORMS = "Forms";
+
+    private static final String FORM = "f1";
+
+    private NodeState base;
+
+    @Before
+    public void setup()
+    {
+        final NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        final NodeBuilder form = builder.child(FORMS).child(FORM);
+        form.setProperty("jcr:primaryType", "cards:Form");
+        form.setProperty("owner", "alice");
+        form.child("answer").setProperty("value", "old");
+        builder.child("Questionnaires").child("q1").setProperty("title", "Q1");
+        builder.child("home").child("groups").child("g1");
+        this.base = builder.getNodeState();
+    }
+
+    @Test
+    public void newAnswersAreIrrelevant()
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child(FORM).child("answer2").setProperty("value", "new");
+        Assert.assertFalse(isRelevant(builder));
+    }
+
+    @Test
+    public void answerValuesAreIrrelevant()
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child(FORM).child("answer").setProperty("value", "new");
+        Assert.assertFalse(isRelevant(builder));
+    }
+
+    @Test
+    public void questionnaireChangesAreIrrelevant()
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child("Questionnaires").child("q1").setProperty("owner", "bob");
+        Assert.assertFalse(isRelevant(builder));
+    }
+
+    @Test
+    public void ownerChangesAreRelevant()
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child(FORM).setProperty("owner", "bob");
+        Assert.assertTrue(isRelevant(builder));
+    }
+
+    @Test
+    public void removedNodesAreRelevant()
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child(FORMS).child(FORM).child("answer").remove();
+        Assert.assertTrue(isRelevant(builder));
+    }
+
+    @Test
+    public void policyChangesAreRelevant()
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child("Questionnaires").child("q1").child("rep:policy");
+        Assert.assertTrue(isRelevant(builder));
+    }
+
+    @Test
+    public void membershipChangesAreRelevant()
+    {
+        final NodeBuilder builder = this.base.builder();
+        builder.child("home").child("groups").child("g1").setProperty("rep:members", "u1");
+        Assert.assertTrue(isRelevant(builder));
+    }
+
+    private boolean isRelevant(final NodeBuilder builder)
+    {
+        return !builder.getNodeState().compareAgainstBaseState(this.base,
+            new RestrictionLookupCacheInvalidator.ChangeDetector(true, false));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.permissions.spi;
+
+import java.util.Arrays;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Unit tests for {@link RestrictionLookupCache}.
+ *
+ * @version $Id$
+ */
+public class RestrictionLookupCacheTest
+{
+    private static final String FORM_PATH = "/Forms/f1";
+
+    private static final String FORM_TYPE = "cards:Form";
+
+    private static final String PARENT = "parent";
+
+    private static final String CHILD = "child";
+
+    private static final String SUBJECT = "subject";
+
+    private static final String PRIMARY_TYPE = "jcr:primaryType";
+
+    @Test
+    public void cachesAreSeparatePerSession()
+    {
+        final Session session = Mockito.mock(Session.class);
+        Assert.assertSame(RestrictionLookupCache.forSession(session), RestrictionLookupCache.forSession(session));
+        Assert.assertNotSame(RestrictionLookupCache.forSession(session),
+            RestrictionLookupCache.forSession(Mockito.mock(Session.class)));
+        Assert.assertNotSame(RestrictionLookupCache.forSession(null), RestrictionLookupCache.forSession(null));
+    }
+
+    @Test
+    public void owningFormIsFoundAndCachedForAllAncestors()
+    {
+        final Tree root = tree("/", null, null);
+        final Tree forms = tree("/Forms", "cards:FormsHomepage", root);
+        final Tree form = tree(FORM_PATH, FORM_TYPE, forms);
+        Mockito.when(form.getProperty(SUBJECT)).thenReturn(PropertyStates.createProperty(SUBJECT, "s1"));
+        Mockito.when(form.getProperty("owner")).thenReturn(PropertyStates.createProperty("owner", "alice"));
+        final Tree section = tree(FORM_PATH + "/section", "cards:AnswerSection", form);
+        final Tree answer = tree(FORM_PATH + "/section/answer", "cards:TextAnswer", section);
+
+        final RestrictionLookupCache cache = RestrictionLookupCache.forSession(Mockito.mock(Session.class));
+        final RestrictionLookupCache.OwningNode owner = cache.getOwningNode(answer);
+        Assert.assertEquals(FORM_PATH, owner.getPath());
+        Assert.assertTrue(owner.isForm());
+        Assert.assertFalse(owner.isSubject());
+        Assert.assertEquals("s1", owner.getSubject());
+        Assert.assertEquals("alice", owner.getOwner());
+
+        // The section was visited while looking up the answer, so its type is not needed again
+        Assert.assertEquals(FORM_PATH, cache.getOwningNode(section).getPath());
+        Mockito.verify(section, Mockito.times(1)).getProperty(PRIMARY_TYPE);
+        Assert.assertNull(cache.getOwningNode(forms));
+    }
+
+    @Test
+    public void transientChangesToTheOwnerAreNotHiddenByTheCache()
+    {
+        final Tree root = tree("/", null, null);
+        final Tree forms = tree("/Forms", "cards:FormsHomepage", root);
+        final Tree form = tree(FORM_PATH, FORM_TYPE, forms);
+        Mockito.when(form.getProperty(SUBJECT)).thenReturn(PropertyStates.createProperty(SUBJECT, "s1"));
+        final Tree answer = tree(FORM_PATH + "/answer", "cards:TextAnswer", form);
+
+        final RestrictionLookupCache cache = RestrictionLookupCache.forSession(Mockito.mock(Session.class));
+        Assert.assertEquals("s1", cache.getOwningNode(answer).getSubject());
+
+        // The subject is changed in the session, but not saved yet, so the cache is not invalidated
+        Mockito.when(form.getProperty(SUBJECT)).thenReturn(PropertyStates.createProperty(SUBJECT, "s2"));
+        Assert.assertEquals("s2", cache.getOwningNode(answer).getSubject());
+
+        // The form is replaced by a node of a different type
+        Mockito.when(form.getProperty(PRIMARY_TYPE))
+            .thenReturn(PropertyStates.createProperty(PRIMARY_TYPE, "nt:unstructured"));
+        Assert.assertNull(cache.getOwningNode(answer));
+    }
+
+    @Test
+    public void subjectAncestorsAreCachedUntilInvalidated() throws RepositoryException
+    {
+        final Session session = Mockito.mock(Session.class);
+        final Node child = subject(session, CHILD, PARENT);
+        subject(session, PARENT, null);
+
+        final RestrictionLookupCache cache = RestrictionLookupCache.forSession(session);
+        Assert.assertEquals(Arrays.asList(CHILD, PARENT), cache.getSubjectAncestors(CHILD));
+        Assert.assertEquals(Arrays.asList(CHILD, PARENT), cache.getSubjectAncestors(CHILD));
+        Mockito.verify(session, Mockito.times(1)).getNodeByIdentifier(CHILD);
+
+        Mockito.when(child.hasProperty("parents")).thenReturn(false);
+        RestrictionLookupCache.invalidateAll();
+        Assert.assertEquals(Arrays.asList(CHILD), cache.getSubjectAncestors(CHILD));
+    }
+
+    @Test
+    public void inaccessibleParentsEndTheAncestry() throws RepositoryException
+    {
+        final Session session = Mockito.mock(Session.class);
+        subject(session, CHILD, PARENT);
+        Mockito.when(session.getNodeByIdentifier(PARENT)).thenThrow(new ItemNotFoundException());
+
+        final RestrictionLookupCache cache = RestrictionLookupCache.forSession(session);
+        Assert.assertEquals(Arrays.asList(CHILD, PARENT), cache.getSubjectAncestors(CHILD));
+        Assert.assertNull(cache.getSubjectPath(PARENT));
+        Assert.assertEquals("/Subjects/" + CHILD, cache.getSubjectPath(CHILD));
+    }
+
+    private static Tree tree(final String path, final String type, final Tree parent)
+    {
+        final Tree result = Mockito.mock(Tree.class);
+        Mockito.when(result.getPath()).thenReturn(path);
+        Mockito.when(result.isRoot()).thenReturn(parent == null);
+        Mockito.when(result.getParent()).thenReturn(parent);
+        if (type != null) {
+            Mockito.when(result.getProperty(PRIMARY_TYPE))
+                .thenReturn(PropertyStates.createProperty(PRIMARY_TYPE, type));
+        }
+        return result;
+    }
+
+    private static Node subject(final Session session, final String identifier, final String parent)
+        throws RepositoryException
+    {
+        final Node result = Mockito.mock(Node.class);
+        Mockito.when(result.getPath()).thenReturn("/Subjects/" + identifier);
+        if (parent != null) {
+            final Property parents = Mockito.mock(Property.class);
+            Mockito.when(parents.getString()).thenReturn(parent);
+            Mockito.when(result.hasProperty("parents")).thenReturn(true);
+            Mockito.when(result.getProperty("parents")).thenReturn(parents);
+        }
+        Mockito.when(session.getNodeByIdentifier(identifier)).thenReturn(result);
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.statistics;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of (x value, split value) buckets, where values are identified by non-negative integer
+ * identifiers. Keys and counts are stored in primitive arrays, using open addressing, so that counting doesn't need to
+ * allocate boxed keys and counts for each answer.
+ *
+ * @version $Id$
+ */
+final class BucketCounter
+{
+    /** Marks an unused slot; valid keys are never negative, since identifiers are never negative. */
+    private static final long FREE = -1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The bucket keys, or {@link #FREE} for unused slots. The length is always a power of two. */
+    private long[] keys;
+
+    /** The count for the bucket in the same slot. */
+    private int[] counts;
+
+    /** The number of used slots. */
+    private int size;
+
+    /**
+     * Receives the non-empty buckets, with their counts.
+     */
+    @FunctionalInterface
+    interface BucketConsumer
+    {
+        /**
+         * Process a bucket.
+         *
+         * @param x the identifier of the x value
+         * @param split the identifier of the split value
+         * @param count the number of occurrences, always positive
+         */
+        void accept(int x, int split, int count);
+    }
+
+    BucketCounter()
+    {
+        clear();
+    }
+
+    /**
+     * Combine the identifiers of an x value and a split value into a bucket key.
+     *
+     * @param x the identifier of the x value
+     * @param split the identifier of the split value
+     * @return a bucket key
+     */
+    static long key(final int x, final int split)
+    {
+        return ((long) x << 32) | (split & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Change the count of a bucket.
+     *
+     * @param key a bucket key, as returned by {@link #key(int, int)}
+     * @param delta the amount to add to the count, may be negative
+     */
+    void add(final long key, final int delta)
+    {
+        final int slot = find(this.keys, key);
+        if (this.keys[slot] == key) {
+            this.counts[slot] += delta;
+            return;
+        }
+        this.keys[slot] = key;
+        this.counts[slot] = delta;
+        if (++this.size * 4 > this.keys.length * 3) {
+            grow();
+        }
+    }
+
+    /**
+     * Send all the buckets with a positive count to a consumer.
+     *
+     * @param consumer the consumer receiving the buckets
+     */
+    void forEach(final BucketConsumer consumer)
+    {
+        for (int i = 0; i < this.keys.length; ++i) {
+            if (this.keys[i] != FREE && this.counts[i] > 0) {
+                consumer.accept((int) (this.keys[i] >>> 32), (int) this.keys[i], this.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Remove all the buckets.
+     */
+    void clear()
+    {
+        this.keys = new long[INITIAL_CAPACITY];
+        Arrays.fill(this.keys, FREE);
+        this.counts = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    private void grow()
+    {
+        final long[] oldKeys = this.keys;
+        final int[] oldCounts = this.counts;
+        this.keys = new long[oldKeys.length * 2];
+        Arrays.fill(this.keys, FREE);
+        this.counts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != FREE) {
+                final int slot = find(this.keys, oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Find the slot holding a key, or the free slot where it should be inserted.
+     *
+     * @param table the keys table to search
+     * @param key the key to look for
+     * @return a slot index
+     */
+    private static int find(final long[] table, final long key)
+    {
+        final int mask = table.length - 1;
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table[slot] != FREE && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
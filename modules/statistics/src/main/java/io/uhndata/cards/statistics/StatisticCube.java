@@ -0,0 +1,855 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.statistics;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.subjects.api.SubjectUtils;
+
+/**
+ * Precomputed data for one statistic: the values of the answers to the x variable, restricted to subjects of a given
+ * type, and optionally the values of the answers to the split variable. The data is computed once with a query, using
+ * a session that can see all the forms, and afterwards only the forms that changed since the last request are
+ * processed again. The counts seen by a user are {@link #count computed} from this shared data, only looking at the
+ * forms that the user can access, and kept in a small {@link Counts} snapshot. The snapshot remembers which forms were
+ * visible to the user, so that the next snapshot only checks again the forms that changed in the meantime.
+ * <p>
+ * Answers are grouped into counting units. Without a split variable, each form is a unit on its own. With a split
+ * variable, all the forms of the same subject of the requested type form a unit, since the x values found in any of
+ * those forms are paired with the split value of that subject. Units without a split answer are counted with the
+ * value used for missing answers.
+ * </p>
+ * <p>
+ * Query results are processed one answer at a time, without keeping the answer nodes around. Displayed values are
+ * replaced by integer identifiers as soon as they are computed, so each form only keeps a few integers, and the counts
+ * themselves are kept in a {@link BucketCounter} without boxing. Values that are no longer used by any form are
+ * discarded once more than {@value #MAX_VALUES} values were encountered. Like the original query, counts are listed in
+ * descending order of their raw values.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class StatisticCube
+{
+    /** The inner bucket used for all the counts of a statistic without a split variable. */
+    public static final String NO_SPLIT = "";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatisticCube.class);
+
+    private static final String QUESTION_PROP = "question";
+
+    private static final String SUBJECT_PROP = "subject";
+
+    private static final String TYPE_PROP = "type";
+
+    private static final int[] EMPTY = new int[0];
+
+    /** How many distinct values can be encountered before unused values are discarded. */
+    private static final int MAX_VALUES = 10_000;
+
+    /** Answer types whose raw values are numbers, and must be sorted as such. */
+    private static final Set<String> NUMERIC_ANSWER_TYPES =
+        Set.of("cards:LongAnswer", "cards:DoubleAnswer", "cards:DecimalAnswer", "cards:BooleanAnswer");
+
+    /**
+     * Computes the values of an answer, as they should be displayed and counted.
+     */
+    @FunctionalInterface
+    public interface AnswerValuesExtractor
+    {
+        /**
+         * Obtain the values of an answer.
+         *
+         * @param answer a {@code cards:Answer} node, or {@code null} to obtain the values used for a missing answer
+         * @param valueDictionary a map where value to raw value pairs encountered are recorded
+         * @return a list of values, never {@code null}
+         */
+        List<String> getValues(Node answer, Map<String, String> valueDictionary);
+    }
+
+    /** The UUID of the question for the x variable. */
+    private final String xQuestion;
+
+    /** The answer node type for the x variable. */
+    private final String xAnswerType;
+
+    /** The UUID of the subject type whose answers are counted. */
+    private final String subjectType;
+
+    /** The UUID of the question for the split variable, or {@code null} if the statistic is not split. */
+    private final String splitQuestion;
+
+    /** The answer node type for the split variable, or {@code null} if the statistic is not split. */
+    private final String splitAnswerType;
+
+    /** Paths of the forms that changed since the last time the counts were updated. */
+    private final Set<String> dirtyForms = ConcurrentHashMap.newKeySet();
+
+    /** The answer values found in each form relevant for this statistic, by form path. */
+    private final Map<String, FormData> forms = new HashMap<>();
+
+    /** The paths of the forms making up each counting unit, by unit key. */
+    private final Map<String, Set<String>> unitForms = new HashMap<>();
+
+    /** The distinct displayed values encountered so far, the position in the list is the value identifier. */
+    private final List<String> values = new ArrayList<>();
+
+    /** The identifiers of the displayed values encountered so far. */
+    private final Map<String, Integer> valueIds = new HashMap<>();
+
+    /** The single split value used for all the counts of a statistic without a split variable. */
+    private final int[] noSplit = new int[] { getValueId(NO_SPLIT) };
+
+    /** Displayed value to raw value for the x variable. */
+    private final Map<String, String> xValueDictionary = new HashMap<>();
+
+    /** Displayed value to raw value for the split variable. */
+    private final Map<String, String> splitValueDictionary = new HashMap<>();
+
+    /** The paths of the forms, by form index; removed forms leave a {@code null} slot, to be reused. */
+    private final List<String> formPaths = new ArrayList<>();
+
+    /** The form indexes left unused by removed forms. */
+    private final Deque<Integer> freeFormIndexes = new ArrayDeque<>();
+
+    /** Whether each subject type encountered is, or is a descendant of, the subject type counted. */
+    private final Map<String, Boolean> matchingTypes = new HashMap<>();
+
+    /** Resolves the ancestors of subjects. */
+    private final SubjectUtils subjectUtils;
+
+    /** The split values used for units without a split answer, computed on the first refresh. */
+    private int[] missingSplit = EMPTY;
+
+    /** The {@link #version} in which each form last changed, by form index. */
+    private long[] formVersions = new long[16];
+
+    /** How many values can be encountered before unused ones are discarded. */
+    private int maxValues = MAX_VALUES;
+
+    /** Incremented whenever the data changes, so that outdated {@link Counts} can be detected. */
+    private long version;
+
+    private boolean initialized;
+
+    /**
+     * Constructor specifying the statistic to compute.
+     *
+     * @param subjectUtils resolves the ancestors of subjects
+     * @param xQuestion the question node for the x variable
+     * @param subjectType the subject type node whose answers are counted
+     * @param splitQuestion the question node for the split variable, may be {@code null}
+     * @throws RepositoryException if accessing the nodes fails
+     */
+    public StatisticCube(final SubjectUtils subjectUtils, final Node xQuestion, final Node subjectType,
+        final Node splitQuestion) throws RepositoryException
+    {
+        this.subjectUtils = subjectUtils;
+        this.xQuestion = xQuestion.getIdentifier();
+        this.xAnswerType = getAnswerNodeType(xQuestion);
+        this.subjectType = subjectType.getIdentifier();
+        this.splitQuestion = splitQuestion == null ? null : splitQuestion.getIdentifier();
+        this.splitAnswerType = splitQuestion == null ? null : getAnswerNodeType(splitQuestion);
+    }
+
+    /**
+     * Mark forms as changed, to be processed again on the next {@link #refresh refresh}.
+     *
+     * @param formPaths the paths of changed forms
+     */
+    public void markDirty(final Collection<String> formPaths)
+    {
+        this.dirtyForms.addAll(formPaths);
+    }
+
+    /**
+     * Bring the data up to date. The first time this is called, all the answers to the x and split variables are
+     * queried, while subsequent calls only process the forms that changed in the meantime.
+     *
+     * @param session a session that can access all the forms, since the data is shared by all users
+     * @param extractor computes the values of each answer
+     * @throws RepositoryException if querying the repository fails
+     */
+    public synchronized void refresh(final Session session, final AnswerValuesExtractor extractor)
+        throws RepositoryException
+    {
+        if (!this.initialized) {
+            if (this.splitQuestion != null) {
+                this.missingSplit = getValueIds(extractor.getValues(null, this.splitValueDictionary));
+            }
+            build(session, extractor);
+            this.initialized = true;
+            ++this.version;
+        }
+        boolean changed = false;
+        for (final Iterator<String> it = this.dirtyForms.iterator(); it.hasNext();) {
+            final String path = it.next();
+            it.remove();
+            reprocessForm(session, path, extractor);
+            changed = true;
+        }
+        if (changed) {
+            ++this.version;
+            discardUnusedValues();
+        }
+    }
+
+    /**
+     * Count the answers in the forms that a user can access.
+     *
+     * @param isVisible checks if a form, identified by its path, can be accessed by the user
+     * @param previous the previous snapshot of the counts for the same user, if any; only the forms that changed since
+     *            it was computed are checked again with {@code isVisible}, the others keep their previous visibility
+     * @return a snapshot of the counts
+     */
+    public synchronized Counts count(final Predicate<String> isVisible, final Counts previous)
+    {
+        final BitSet visible = findVisibleForms(isVisible, previous);
+        final BucketCounter counts = new BucketCounter();
+        for (final Set<String> paths : this.unitForms.values()) {
+            final Set<String> visiblePaths = new LinkedHashSet<>();
+            for (final String path : paths) {
+                if (visible.get(this.forms.get(path).index)) {
+                    visiblePaths.add(path);
+                }
+            }
+            if (!visiblePaths.isEmpty()) {
+                for (final long bucket : computeBuckets(visiblePaths)) {
+                    counts.add(bucket, 1);
+                }
+            }
+        }
+        return new Counts(this, counts, visible);
+    }
+
+    /**
+     * Find the forms that a user can access.
+     *
+     * @param isVisible checks if a form, identified by its path, can be accessed by the user
+     * @param previous the previous snapshot of the counts for the same user, may be {@code null}
+     * @return the indexes of the visible forms
+     */
+    private BitSet findVisibleForms(final Predicate<String> isVisible, final Counts previous)
+    {
+        if (previous == null || previous.cube != this) {
+            final BitSet visible = new BitSet(this.formPaths.size());
+            this.forms.forEach((path, data) -> visible.set(data.index, isVisible.test(path)));
+            return visible;
+        }
+        final BitSet visible = (BitSet) previous.visible.clone();
+        for (int i = 0; i < this.formPaths.size(); ++i) {
+            if (this.formVersions[i] > previous.version) {
+                final String path = this.formPaths.get(i);
+                visible.set(i, path != null && isVisible.test(path));
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Compute all the counts from scratch.
+     *
+     * @param session the session of the user for which the statistic is computed
+     * @param extractor computes the values of each answer
+     * @throws RepositoryException if querying the repository fails
+     */
+    private void build(final Session session, final AnswerValuesExtractor extractor) throws RepositoryException
+    {
+        this.forms.clear();
+        this.unitForms.clear();
+
+        final Set<String> ignoredForms = new HashSet<>();
+        collectAnswers(session, this.xQuestion, this.xAnswerType, true, ignoredForms, extractor);
+        if (this.splitQuestion != null) {
+            collectAnswers(session, this.splitQuestion, this.splitAnswerType, false, ignoredForms, extractor);
+        }
+
+        this.forms.forEach((path, data) -> this.unitForms.computeIfAbsent(data.unit, k -> new LinkedHashSet<>())
+            .add(path));
+    }
+
+    /**
+     * Query all the answers to a question, and record their values in the data of their form.
+     *
+     * @param session the session of the user for which the statistic is computed
+     * @param question the UUID of the question whose answers to collect
+     * @param answerType the node type of the answers
+     * @param isX whether the answers are for the x variable or the split variable
+     * @param ignoredForms forms already found not to belong to the right type of subject
+     * @param extractor computes the values of each answer
+     * @throws RepositoryException if querying the repository fails
+     */
+    private void collectAnswers(final Session session, final String question, final String answerType,
+        final boolean isX, final Set<String> ignoredForms, final AnswerValuesExtractor extractor)
+        throws RepositoryException
+    {
+        final NodeIterator answers = session.getWorkspace().getQueryManager().createQuery(
+            "select n from [" + answerType + "] as n where n.'question'='" + question + "'", Query.JCR_SQL2)
+            .execute().getNodes();
+        while (answers.hasNext()) {
+            final Node answer = answers.nextNode();
+            final Node form = getFormNode(answer);
+            if (form == null || ignoredForms.contains(form.getPath())) {
+                continue;
+            }
+            FormData data = this.forms.get(form.getPath());
+            if (data == null) {
+                final String unit = getUnit(form);
+                if (unit == null) {
+                    ignoredForms.add(form.getPath());
+                    continue;
+                }
+                data = new FormData(unit);
+                putForm(form.getPath(), data);
+            }
+            recordAnswer(data, answer, isX, extractor);
+        }
+    }
+
+    /**
+     * Process again a form that changed, replacing its previously recorded data.
+     *
+     * @param session the session of the user for which the statistic is computed
+     * @param path the path of the form that changed
+     * @param extractor computes the values of each answer
+     */
+    private void reprocessForm(final Session session, final String path, final AnswerValuesExtractor extractor)
+    {
+        final FormData old = removeForm(path);
+        if (old != null) {
+            final Set<String> paths = this.unitForms.get(old.unit);
+            if (paths != null) {
+                paths.remove(path);
+                if (paths.isEmpty()) {
+                    this.unitForms.remove(old.unit);
+                }
+            }
+        }
+        try {
+            if (!session.nodeExists(path)) {
+                // Removed
+                return;
+            }
+            final Node form = session.getNode(path);
+            if (!form.isNodeType("cards:Form")) {
+                return;
+            }
+            final String unit = getUnit(form);
+            if (unit == null) {
+                return;
+            }
+            final FormData data = new FormData(unit);
+            collectFormAnswers(form, data, extractor);
+            if (!data.isEmpty()) {
+                putForm(path, data);
+                this.unitForms.computeIfAbsent(unit, k -> new LinkedHashSet<>()).add(path);
+            }
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to update statistic counts for form {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Record the data of a form, assigning it an index and marking it as changed in the next version.
+     *
+     * @param path the path of the form
+     * @param data the data of the form
+     */
+    private void putForm(final String path, final FormData data)
+    {
+        final Integer free = this.freeFormIndexes.poll();
+        if (free != null) {
+            data.index = free;
+            this.formPaths.set(free, path);
+        } else {
+            data.index = this.formPaths.size();
+            this.formPaths.add(path);
+            if (data.index >= this.formVersions.length) {
+                this.formVersions = Arrays.copyOf(this.formVersions, this.formVersions.length * 2);
+            }
+        }
+        this.formVersions[data.index] = this.version + 1;
+        this.forms.put(path, data);
+    }
+
+    /**
+     * Discard the data of a form, releasing its index and marking it as changed in the next version.
+     *
+     * @param path the path of the form
+     * @return the discarded data, or {@code null} if the form had no data
+     */
+    private FormData removeForm(final String path)
+    {
+        final FormData data = this.forms.remove(path);
+        if (data != null) {
+            this.formPaths.set(data.index, null);
+            this.freeFormIndexes.push(data.index);
+            this.formVersions[data.index] = this.version + 1;
+        }
+        return data;
+    }
+
+    /**
+     * Look for answers to the x and split questions in a form or a form section, and record their values.
+     *
+     * @param node a form or section node
+     * @param data where to record the answer values
+     * @param extractor computes the values of each answer
+     * @throws RepositoryException if accessing the repository fails
+     */
+    private void collectFormAnswers(final Node node, final FormData data, final AnswerValuesExtractor extractor)
+        throws RepositoryException
+    {
+        for (final NodeIterator children = node.getNodes(); children.hasNext();) {
+            final Node child = children.nextNode();
+            if (child.hasProperty(QUESTION_PROP)) {
+                final String question = child.getProperty(QUESTION_PROP).getString();
+                if (this.xQuestion.equals(question)) {
+                    recordAnswer(data, child, true, extractor);
+                } else if (question.equals(this.splitQuestion)) {
+                    recordAnswer(data, child, false, extractor);
+                }
+            } else {
+                collectFormAnswers(child, data, extractor);
+            }
+        }
+    }
+
+    /**
+     * Record the values of an answer in the data of its form. Only the first answer to the split question is used.
+     *
+     * @param data the data of the form containing the answer
+     * @param answer an answer node
+     * @param isX whether the answer is for the x variable or the split variable
+     * @param extractor computes the values of the answer
+     */
+    private void recordAnswer(final FormData data, final Node answer, final boolean isX,
+        final AnswerValuesExtractor extractor)
+    {
+        if (isX) {
+            data.addXValues(getValueIds(extractor.getValues(answer, this.xValueDictionary)));
+        } else if (data.splitValues == null) {
+            data.splitValues = getValueIds(extractor.getValues(answer, this.splitValueDictionary));
+        }
+    }
+
+    /**
+     * Convert displayed values into value identifiers.
+     *
+     * @param answerValues a list of displayed values
+     * @return the identifiers of the values, in the same order
+     */
+    private int[] getValueIds(final List<String> answerValues)
+    {
+        final int[] result = new int[answerValues.size()];
+        int i = 0;
+        for (final String value : answerValues) {
+            result[i++] = getValueId(value);
+        }
+        return result;
+    }
+
+    /**
+     * Get the identifier of a displayed value, assigning a new one if the value wasn't encountered before.
+     *
+     * @param value a displayed value
+     * @return the identifier of the value
+     */
+    private int getValueId(final String value)
+    {
+        return this.valueIds.computeIfAbsent(value, k -> {
+            this.values.add(k);
+            return this.values.size() - 1;
+        });
+    }
+
+    /**
+     * Discard the values that are no longer used by any form, once too many values were encountered, renumbering the
+     * remaining ones. If most values are still used, more values are allowed before checking again.
+     */
+    private void discardUnusedValues()
+    {
+        if (this.values.size() <= this.maxValues) {
+            return;
+        }
+        final int[] newIds = new int[this.values.size()];
+        Arrays.fill(newIds, -1);
+        final List<String> kept = new ArrayList<>();
+        renumber(this.noSplit, this.noSplit.length, newIds, kept);
+        renumber(this.missingSplit, this.missingSplit.length, newIds, kept);
+        for (final FormData data : this.forms.values()) {
+            renumber(data.xValues, data.xCount, newIds, kept);
+            if (data.splitValues != null) {
+                renumber(data.splitValues, data.splitValues.length, newIds, kept);
+            }
+        }
+        this.values.clear();
+        this.values.addAll(kept);
+        this.valueIds.clear();
+        for (int i = 0; i < kept.size(); ++i) {
+            this.valueIds.put(kept.get(i), i);
+        }
+        this.xValueDictionary.keySet().retainAll(this.valueIds.keySet());
+        this.splitValueDictionary.keySet().retainAll(this.valueIds.keySet());
+        this.maxValues = Math.max(MAX_VALUES, 2 * kept.size());
+    }
+
+    /**
+     * Replace value identifiers with new ones, assigning new identifiers in the order in which values are found.
+     *
+     * @param ids the identifiers to replace, in place
+     * @param count how many identifiers to replace
+     * @param newIds the new identifier of each old identifier, {@code -1} if not assigned yet
+     * @param kept the values that were assigned a new identifier, in the order of their new identifiers
+     */
+    private void renumber(final int[] ids, final int count, final int[] newIds, final List<String> kept)
+    {
+        for (int i = 0; i < count; ++i) {
+            if (newIds[ids[i]] < 0) {
+                newIds[ids[i]] = kept.size();
+                kept.add(this.values.get(ids[i]));
+            }
+            ids[i] = newIds[ids[i]];
+        }
+    }
+
+    /**
+     * Build a comparator listing displayed values in descending order of their raw values, like the original query.
+     * Values without a raw value, used for missing answers, come last.
+     *
+     * @param dictionary displayed value to raw value
+     * @param answerType the node type of the answers, which determines whether raw values are numbers
+     * @return a comparator of displayed values
+     */
+    private static Comparator<String> descendingRawValues(final Map<String, String> dictionary,
+        final String answerType)
+    {
+        final Comparator<String> byRawValue = answerType != null && NUMERIC_ANSWER_TYPES.contains(answerType)
+            ? Comparator.comparing(value -> toNumber(dictionary.get(value)),
+                Comparator.nullsFirst(Comparator.<BigDecimal>naturalOrder()))
+            : Comparator.comparing(value -> StringUtils.defaultString(dictionary.get(value)));
+        return byRawValue.reversed();
+    }
+
+    private static BigDecimal toNumber(final String rawValue)
+    {
+        try {
+            return StringUtils.isBlank(rawValue) ? null : new BigDecimal(rawValue);
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compute the buckets that the forms of a counting unit contribute to. Without a split variable, each x value
+     * counts once. With a split variable, each x value found in any of the forms is paired with each value of the
+     * first split answer found, or with the missing value if none of the forms has a split answer.
+     *
+     * @param paths the paths of the forms in the unit
+     * @return the keys of the buckets, may be empty
+     */
+    private long[] computeBuckets(final Set<String> paths)
+    {
+        int[] splitValues = this.noSplit;
+        if (this.splitQuestion != null) {
+            splitValues = paths.stream().map(this.forms::get).map(data -> data.splitValues)
+                .filter(v -> v != null).findFirst().orElse(this.missingSplit);
+        }
+        int total = 0;
+        for (final String path : paths) {
+            total += this.forms.get(path).xCount * splitValues.length;
+        }
+        final long[] buckets = new long[total];
+        int i = 0;
+        for (final String path : paths) {
+            final FormData data = this.forms.get(path);
+            for (int x = 0; x < data.xCount; ++x) {
+                for (final int split : splitValues) {
+                    buckets[i++] = BucketCounter.key(data.xValues[x], split);
+                }
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Determine the counting unit that a form belongs to.
+     *
+     * @param form a form node
+     * @return the form path if the statistic is not split, the UUID of the subject of the requested type if the
+     *         statistic is split, or {@code null} if the form's subject isn't of the requested type
+     * @throws RepositoryException if accessing the repository fails
+     */
+    private String getUnit(final Node form) throws RepositoryException
+    {
+        if (!form.hasProperty(SUBJECT_PROP)) {
+            return null;
+        }
+        final Node subject = form.getProperty(SUBJECT_PROP).getNode();
+        if (this.splitQuestion != null) {
+            // Look for the ancestor subject of the correct type
+            return this.subjectUtils.getAncestorOfType(subject, this.subjectType);
+        } else if (subject.hasProperty(TYPE_PROP)) {
+            // Check if the subject type is, or is a descendant of, the correct type
+            final String type = subject.getProperty(TYPE_PROP).getString();
+            Boolean matches = this.matchingTypes.get(type);
+            if (matches == null) {
+                matches = isTypeOrDescendant(subject.getProperty(TYPE_PROP).getNode());
+                this.matchingTypes.put(type, matches);
+            }
+            return matches ? form.getPath() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Check if a subject type is, or is a descendant of, the subject type whose answers are counted.
+     *
+     * @param type a subject type node
+     * @return {@code true} if the type matches
+     * @throws RepositoryException if accessing the repository fails
+     */
+    private boolean isTypeOrDescendant(final Node type) throws RepositoryException
+    {
+        for (Node t = type; t.getDepth() > 0; t = t.getParent()) {
+            if (this.subjectType.equals(t.getIdentifier())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Obtain the answer node type based on the dataType specified in the question definition.
+     *
+     * @param question The question node
+     * @return A string "cards:____Answer" (e.g., cards:TextAnswer, cards:LongAnswer) or "cards:Answer" if obtaining the
+     *     type fails
+     */
+    private static String getAnswerNodeType(final Node question)
+    {
+        String nodeType = "";
+        try {
+            final String dataTypeString = question.getProperty("dataType").getString();
+            nodeType = StringUtils.capitalize(dataTypeString);
+        } catch (RepositoryException e) {
+            LOGGER.error("Failed to obtain answer node type: {}", e.getMessage(), e);
+        }
+        return "cards:" + nodeType + "Answer";
+    }
+
+    /**
+     * Get the form that an answer belongs to.
+     *
+     * @param answer A node corresponding to an cards:Answer
+     * @return the form node, or {@code null} if the answer isn't inside a form
+     */
+    private static Node getFormNode(final Node answer)
+    {
+        try {
+            // Recursively go through our parents until we find a cards:Form node
+            // If we somehow reach the top level, return an error
+            Node answerParent = answer.getParent();
+            while (answerParent.getDepth() != 0 && !answerParent.isNodeType("cards:Form")) {
+                answerParent = answerParent.getParent();
+            }
+
+            // If we never find a form by going upwards, this cards:Answer is malformed
+            if (answerParent.getDepth() == 0) {
+                LOGGER.warn("Tried to obtain the parent Form for node {} but failed to find one", answer.getPath());
+                return null;
+            }
+
+            return answerParent;
+        } catch (RepositoryException e) {
+            LOGGER.warn("Failed to access Form: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * A snapshot of the counts of a statistic, as seen by one user.
+     */
+    public static final class Counts
+    {
+        /** The cube these counts were computed from. */
+        private final StatisticCube cube;
+
+        /** The version of the cube data when these counts were computed. */
+        private final long version;
+
+        /** When were these counts computed. */
+        private final long creationTime = System.currentTimeMillis();
+
+        /** The indexes of the forms visible to the user when these counts were computed. */
+        private final BitSet visible;
+
+        /** X value to split value to the number of occurrences. */
+        private final Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+
+        private final Map<String, String> xValueDictionary = new LinkedHashMap<>();
+
+        private final Map<String, String> splitValueDictionary = new LinkedHashMap<>();
+
+        Counts(final StatisticCube cube, final BucketCounter buckets, final BitSet visible)
+        {
+            this.cube = cube;
+            this.version = cube.version;
+            this.visible = visible;
+            final Map<String, Map<String, Integer>> unsorted = new HashMap<>();
+            buckets.forEach((x, split, count) -> unsorted.computeIfAbsent(cube.values.get(x), k -> new HashMap<>())
+                .put(cube.values.get(split), count));
+
+            final Comparator<String> xOrder = descendingRawValues(cube.xValueDictionary, cube.xAnswerType);
+            final Comparator<String> splitOrder =
+                descendingRawValues(cube.splitValueDictionary, cube.splitAnswerType);
+            unsorted.keySet().stream().sorted(xOrder).forEach(xValue -> {
+                final Map<String, Integer> row = new LinkedHashMap<>();
+                unsorted.get(xValue).keySet().stream().sorted(splitOrder).forEach(splitValue -> {
+                    row.put(splitValue, unsorted.get(xValue).get(splitValue));
+                    this.splitValueDictionary.putIfAbsent(splitValue,
+                        cube.splitValueDictionary.getOrDefault(splitValue, splitValue));
+                });
+                this.counts.put(xValue, row);
+                this.xValueDictionary.put(xValue, cube.xValueDictionary.getOrDefault(xValue, xValue));
+            });
+        }
+
+        /**
+         * Check if these counts still reflect the data of their cube.
+         *
+         * @param currentCube the cube currently used for the statistic
+         * @return {@code true} if the counts were computed from the current data of the same cube
+         */
+        public boolean isCurrent(final StatisticCube currentCube)
+        {
+            synchronized (currentCube) {
+                return this.cube == currentCube && this.version == currentCube.version;
+            }
+        }
+
+        /**
+         * Check if these counts were computed too long ago.
+         *
+         * @param maxAge for how long counts can be used, in milliseconds
+         * @return {@code true} if the counts are older than the given age
+         */
+        public boolean isOlderThan(final long maxAge)
+        {
+            return System.currentTimeMillis() - this.creationTime > maxAge;
+        }
+
+        /**
+         * Get the counts.
+         *
+         * @return a map of x value to split value to the number of occurrences; for statistics without a split
+         *         variable, the only split value is {@link #NO_SPLIT}
+         */
+        public Map<String, Map<String, Integer>> getCounts()
+        {
+            return Collections.unmodifiableMap(this.counts);
+        }
+
+        /**
+         * Get the displayed value to raw value map for the x values counted.
+         *
+         * @return a map of displayed values to raw values
+         */
+        public Map<String, String> getXValueDictionary()
+        {
+            return Collections.unmodifiableMap(this.xValueDictionary);
+        }
+
+        /**
+         * Get the displayed value to raw value map for the split values counted.
+         *
+         * @return a map of displayed values to raw values
+         */
+        public Map<String, String> getSplitValueDictionary()
+        {
+            return Collections.unmodifiableMap(this.splitValueDictionary);
+        }
+    }
+
+    /**
+     * The answer values found in a form.
+     */
+    private static final class FormData
+    {
+        /** The counting unit this form belongs to. */
+        private final String unit;
+
+        /** The index of this form, used for remembering which forms are visible to a user. */
+        private int index;
+
+        /** The identifiers of the values of all the answers to the x question, in the first {@code xCount} slots. */
+        private int[] xValues = EMPTY;
+
+        /** How many x values were recorded. */
+        private int xCount;
+
+        /** The identifiers of the values of the first answer to the split question, if any. */
+        private int[] splitValues;
+
+        FormData(final String unit)
+        {
+            this.unit = unit;
+        }
+
+        void addXValues(final int[] values)
+        {
+            if (this.xCount + values.length > this.xValues.length) {
+                this.xValues = Arrays.copyOf(this.xValues, Math.max(this.xCount + values.length, this.xCount * 2));
+            }
+            System.arraycopy(values, 0, this.xValues, this.xCount, values.length);
+            this.xCount += values.length;
+        }
+
+        boolean isEmpty()
+        {
+            return this.xCount == 0 && this.splitValues == null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.statistics;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.EqualsDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.subjects.api.SubjectUtils;
+import io.uhndata.cards.utils.LruCache;
+
+/**
+ * Keeps the {@link StatisticCube precomputed statistic data} for the recently requested statistics, and keeps it up to
+ * date by marking the forms that change as needing to be processed again. The data of a statistic is shared by all
+ * users and computed with a service session, while each user only gets a small {@link StatisticCube.Counts snapshot}
+ * of the counts for the forms they can access, which is computed again whenever the data changes, only checking access
+ * to the forms that changed. Changes to access control policies or to group memberships discard all the snapshots.
+ * Since access restrictions may also depend on other content, such as the subjects of the forms, snapshots are also
+ * checked again from scratch after a while.
+ * <p>
+ * This is a repository {@link Observer}, notified as part of each commit, so forms saved just before a statistic is
+ * requested are already marked as changed. Changes to questionnaires, subject types, or to the type or parents of a
+ * subject may affect how answers are labeled or counted, so they discard all the cubes.
+ * </p>
+ *
+ * @version $Id$
+ */
+@Component(service = { StatisticCubeCache.class, Observer.class })
+public class StatisticCubeCache implements Observer
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatisticCubeCache.class);
+
+    /** How many statistics to keep data for. */
+    private static final int MAX_CUBES = 50;
+
+    /** How many per-user count snapshots to keep. */
+    private static final int MAX_COUNTS = 1000;
+
+    /** For how long the forms visible in a snapshot of the counts can be reused, in milliseconds. */
+    private static final long MAX_COUNTS_AGE = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String FORMS = "Forms";
+
+    private static final String SUBJECTS = "Subjects";
+
+    private static final String POLICY = "rep:policy";
+
+    private static final String FORMS_PREFIX = "/Forms/";
+
+    @Reference
+    private SubjectUtils subjectUtils;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    /** Shared cubes, by statistic definition. */
+    private final LruCache<String, StatisticCube> cubes = new LruCache<>(MAX_CUBES);
+
+    /** Count snapshots, by user and statistic definition. */
+    private final LruCache<String, StatisticCube.Counts> counts = new LruCache<>(MAX_COUNTS);
+
+    /** The last observed root state. */
+    private NodeState previousRoot;
+
+    /**
+     * Retrieve the counts of a statistic, as seen by a user. The shared data of the statistic is brought up to date
+     * first, and the counts are only computed again if the data changed since they were last computed for this user.
+     *
+     * @param session the session of the user requesting the statistic
+     * @param xQuestion the question node for the x variable
+     * @param subjectType the subject type node whose answers are counted
+     * @param splitQuestion the question node for the split variable, may be {@code null}
+     * @param extractor computes the values of each answer
+     * @return the counts, never {@code null}
+     * @throws RepositoryException if accessing the repository fails
+     */
+    public StatisticCube.Counts getCounts(final Session session, final Node xQuestion, final Node subjectType,
+        final Node splitQuestion, final StatisticCube.AnswerValuesExtractor extractor) throws RepositoryException
+    {
+        final String key = xQuestion.getIdentifier() + ':' + subjectType.getIdentifier() + ':'
+            + (splitQuestion == null ? "" : splitQuestion.getIdentifier());
+        try (ResourceResolver serviceResolver = this.resolverFactory.getServiceResourceResolver(
+            Map.of(ResourceResolverFactory.SUBSERVICE, "statisticCubes"))) {
+            StatisticCube cube = this.cubes.get(key);
+            if (cube == null) {
+                final StatisticCube created = new StatisticCube(this.subjectUtils, xQuestion, subjectType,
+                    splitQuestion);
+                cube = this.cubes.computeIfAbsent(key, k -> created);
+            }
+            cube.refresh(serviceResolver.adaptTo(Session.class), extractor);
+
+            final String countsKey = session.getUserID() + ':' + key;
+            final StatisticCube.Counts previous = this.counts.get(countsKey);
+            if (previous != null && previous.isCurrent(cube) && !previous.isOlderThan(MAX_COUNTS_AGE)) {
+                return previous;
+            }
+            // Only the forms that changed since the previous snapshot need to be checked again
+            final StatisticCube.Counts result = cube.count(path -> isVisible(session, path),
+                previous == null || previous.isOlderThan(MAX_COUNTS_AGE) ? null : previous);
+            this.counts.put(countsKey, result);
+            return result;
+        } catch (final LoginException e) {
+            LOGGER.warn("Service session unavailable, computing the statistic without caching: {}", e.getMessage());
+            final StatisticCube cube = new StatisticCube(this.subjectUtils, xQuestion, subjectType, splitQuestion);
+            cube.refresh(session, extractor);
+            return cube.count(path -> true, null);
+        }
+    }
+
+    @Override
+    public void contentChanged(final NodeState root, final CommitInfo info)
+    {
+        final NodeState before;
+        synchronized (this) {
+            before = this.previousRoot;
+            this.previousRoot = root;
+        }
+        if (before == null) {
+            // First notification, there is no previous state to compare against
+            clear();
+            return;
+        }
+        if (hasChanged(before, root, "Questionnaires") || hasChanged(before, root, "SubjectTypes")
+            || !root.getChildNode(SUBJECTS).compareAgainstBaseState(before.getChildNode(SUBJECTS),
+                new SubjectsDiff())) {
+            clear();
+            return;
+        }
+        if (havePermissionsChanged(before, root)) {
+            // The data is still valid, but which forms each user can access must be checked again
+            this.counts.clear();
+        }
+        final FormsDiff formsDiff = new FormsDiff();
+        root.getChildNode(FORMS).compareAgainstBaseState(before.getChildNode(FORMS), formsDiff);
+        final Set<String> changedForms = formsDiff.changedForms;
+        if (!changedForms.isEmpty()) {
+            this.cubes.forEachValue(cube -> cube.markDirty(changedForms));
+        }
+    }
+
+    /**
+     * Check if the access control policies that apply to forms, or group memberships, changed. Policies set on
+     * individual forms are detected as form changes.
+     *
+     * @param before the previous root state
+     * @param after the current root state
+     * @return {@code true} if access rights may have changed
+     */
+    private static boolean havePermissionsChanged(final NodeState before, final NodeState after)
+    {
+        return hasChanged(before, after, POLICY)
+            || hasChanged(before.getChildNode(FORMS), after.getChildNode(FORMS), POLICY)
+            || hasChanged(before.getChildNode(SUBJECTS), after.getChildNode(SUBJECTS), POLICY)
+            || hasChanged(before.getChildNode("home"), after.getChildNode("home"), "groups");
+    }
+
+    private void clear()
+    {
+        this.cubes.clear();
+        this.counts.clear();
+    }
+
+    private static boolean hasChanged(final NodeState before, final NodeState after, final String name)
+    {
+        // The diff stops at the first change, and unchanged subtrees are skipped quickly
+        return EqualsDiff.modified(before.getChildNode(name), after.getChildNode(name));
+    }
+
+    private static boolean isVisible(final Session session, final String path)
+    {
+        try {
+            return session.nodeExists(path);
+        } catch (final RepositoryException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Collects the paths of the forms that were added, changed or removed. Forms are stored directly under
+     * {@code /Forms}, and any change to an answer affects its form.
+     */
+    private static final class FormsDiff extends DefaultNodeStateDiff
+    {
+        private final Set<String> changedForms = new HashSet<>();
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after)
+        {
+            this.changedForms.add(FORMS_PREFIX + name);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            this.changedForms.add(FORMS_PREFIX + name);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            this.changedForms.add(FORMS_PREFIX + name);
+            return true;
+        }
+    }
+
+    /**
+     * Looks for subject changes that affect counting: a change in the type or in the parents of a subject, or a
+     * removed subject. New subjects don't have forms yet, so they are ignored. The diff stops at the first relevant
+     * change.
+     */
+    private static final class SubjectsDiff extends DefaultNodeStateDiff
+    {
+        @Override
+        public boolean propertyAdded(final PropertyState after)
+        {
+            return !isRelevant(after.getName());
+        }
+
+        @Override
+        public boolean propertyChanged(final PropertyState before, final PropertyState after)
+        {
+            return !isRelevant(after.getName());
+        }
+
+        @Override
+        public boolean propertyDeleted(final PropertyState before)
+        {
+            return !isRelevant(before.getName());
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            return after.compareAgainstBaseState(before, this);
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            return false;
+        }
+
+        private static boolean isRelevant(final String propertyName)
+        {
+            return "type".equals(propertyName) || "parents".equals(propertyName);
+        }
+    }
+}
@@ -20,10 +20,8 @@
 import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,7 +32,6 @@
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
-import javax.jcr.query.Query;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
@@ -45,11 +42,8 @@
 import javax.json.stream.JsonParser.Event;
 import javax.servlet.Servlet;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
-import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
 import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
 import org.osgi.service.component.annotations.Component;
@@ -84,11 +78,7 @@ public class StatisticQueryServlet extends SlingAllMethodsServlet
 
     private static final String VALUE_NOT_SPECIFIED = "Not specified";
 
-    // xValueDictionary is used to cache the map from answer displayed values to raw values for the variable
-    private final ThreadLocal<Map<String, String>> xValueDictionary = new ThreadLocal<>();
-
-    // splitValueDictionary is used to cache the map from answer displayed values to raw values for the split variable
-    private final ThreadLocal<Map<String, String>> splitValueDictionary = new ThreadLocal<>();
+    private static final char RAW_VALUE_SEPARATOR = '\u001F';
 
     @Reference(cardinality = ReferenceCardinality.MULTIPLE, fieldOption = FieldOption.REPLACE,
         policy = ReferencePolicy.DYNAMIC)
@@ -96,7 +86,9 @@ public class StatisticQueryServlet extends SlingAllMethodsServlet
 
     private final ThreadLocal<List<ResourceJsonProcessor>> labelProcessors = new ThreadLocal<>();
 
-    @SuppressWarnings({"checkstyle:ExecutableStatementCount"})
+    @Reference
+    private StatisticCubeCache cubes;
+
     @Override
     protected void doPost(SlingHttpServletRequest request, SlingHttpServletResponse response)
         throws IOException
@@ -104,47 +96,19 @@ protected void doPost(SlingHttpServletRequest request, SlingHttpServletResponse
         Map<String, String> arguments = parseArguments(request);
 
         try {
-            // Obtain the labels processors and sort them by priority
-            // They will enable aggregating the stats data by displayedValue
-            List<ResourceJsonProcessor> processors = this.allProcessors.stream()
-                .filter(p -> "labels".equals(p.getName())).collect(Collectors.toList());
-            processors.sort((o1, o2) -> o1.getPriority() - o2.getPriority());
-            this.labelProcessors.set(processors);
-
             // Steps to returning the calculated statistic:
             // Grab the question that has data for the given x-axis (xVar)
             Session session = request.getResourceResolver().adaptTo(Session.class);
             Node question = session.getNode(arguments.get("x-label"));
 
-            Iterator<Resource> answers = null;
-            Map<Resource, String> data = new LinkedHashMap<>();
-            Map<String, Map<Resource, String>> dataById = null;
-
-            // Filter those answers based on whether or not their form's subject is of the correct SubjectType (yVar)
+            // Only answers whose form's subject is of the correct SubjectType (yVar) are counted
             Node correctSubjectType = session.getNode(arguments.get("y-label"));
 
-            // Instantiate xLabels
-            this.xValueDictionary.set(new HashMap<>());
-
-            // Grab all answers that have this question filled out, and the split var (if it exists)
+            // The split var, if it exists
             boolean isSplit = arguments.containsKey("splitVar");
-            if (isSplit) {
-                // Instantiate splitLabels
-                this.splitValueDictionary.set(new HashMap<>());
-                Node split = session.getNode(arguments.get("splitVar"));
-                data = getAnswersWithType(data, "x", question, request.getResourceResolver());
-                data = getAnswersWithType(data, "split", split, request.getResourceResolver());
-                // filter if splitVar exists
-                dataById = filterAnswersWithType(data, correctSubjectType);
-            } else {
-                // filter if split does not exist
-                final StringBuilder query =
-                    // We select all answers that answer our question
-                    new StringBuilder("select n from [" + getAnswerNodeType(question) + "] as n where n.'question'='"
-                        + question.getIdentifier() + "' order by n.'value' desc");
-                answers = request.getResourceResolver().findResources(query.toString(), Query.JCR_SQL2);
-                answers = filterAnswersToSubjectType(answers, correctSubjectType);
-            }
+            Node split = isSplit ? session.getNode(arguments.get("splitVar")) : null;
+
+            StatisticCube.Counts counts = getCounts(session, question, correctSubjectType, split);
 
             String xLabel = question.getProperty("text").getString();
             String yLabel = correctSubjectType.getProperty("label").getString();
@@ -158,15 +122,12 @@ protected void doPost(SlingHttpServletRequest request, SlingHttpServletResponse
             builder.add("x-label", xLabel);
             builder.add("y-label", yLabel);
             if (isSplit) {
-                Node split = session.getNode(arguments.get("splitVar"));
                 String splitLabel = split.getProperty("text").getString();
                 builder.add("split-label", splitLabel);
-                addDataSplit(dataById, builder);
-                this.splitValueDictionary.remove();
+                addDataSplit(counts, builder);
             } else {
-                addData(answers, builder);
+                addData(counts, builder);
             }
-            this.xValueDictionary.remove();
 
             // Write the output
             response.setContentType("application/json;charset=UTF-8");
@@ -178,6 +139,33 @@ protected void doPost(SlingHttpServletRequest request, SlingHttpServletResponse
         }
     }
 
+    /**
+     * Obtain the aggregated counts for a statistic, refreshing the cached data first. The answer values are kept
+     * between requests, and only the forms changed since the last request are processed again; answers with the same
+     * raw value have the same displayed value, so the label processors only need to run once for each distinct value.
+     *
+     * @param session the session of the current user
+     * @param question the question whose answers are counted
+     * @param subjectType the subject type whose forms are counted
+     * @param split the question whose answers split the counts, may be {@code null}
+     * @return the counts visible to the current user
+     * @throws RepositoryException if accessing the repository fails
+     */
+    private StatisticCube.Counts getCounts(final Session session, final Node question, final Node subjectType,
+        final Node split) throws RepositoryException
+    {
+        // Obtain the labels processors and sort them by priority
+        // They will enable aggregating the stats data by displayedValue
+        List<ResourceJsonProcessor> processors = this.allProcessors.stream()
+            .filter(p -> "labels".equals(p.getName())).collect(Collectors.toList());
+        processors.sort((o1, o2) -> o1.getPriority() - o2.getPriority());
+        this.labelProcessors.set(processors);
+
+        final Map<String, List<String>> labelCache = new HashMap<>();
+        return this.cubes.getCounts(session, question, subjectType, split,
+            (answer, dictionary) -> getCachedAnswerValues(answer, dictionary, labelCache));
+    }
+
     /**
      * Parse out the arguments given in the POST request into a string map.
      *
@@ -200,189 +188,16 @@ protected Map<String, String> parseArguments(SlingHttpServletRequest request) th
         return retVal;
     }
 
-    /**
-     * Split: Get all answers that have a given question filled out.
-     *
-     * @param data the map that the return values will be added to
-     * @param type given type (x or split)
-     * @param question The question node that the answers is to
-     * @param resolver Reference to the resource resolver
-     * @return map containing all question nodes and their given type
-     */
-    private Map<Resource, String> getAnswersWithType(Map<Resource, String> data, String type, Node question,
-        ResourceResolver resolver) throws RepositoryException
-    {
-        final StringBuilder query =
-            // We select all answers that answer our question
-            new StringBuilder("select n from [" + getAnswerNodeType(question) + "] as n where n.'question'='"
-                + question.getIdentifier() + "' order by n.'value' desc");
-        Iterator<Resource> answers = resolver.findResources(query.toString(), Query.JCR_SQL2);
-
-        while (answers.hasNext()) {
-            Resource answer = answers.next();
-            data.put(answer, type);
-        }
-
-        return data;
-    }
-
-    /**
-     * Obtain the answer node type based on the dataType specified in the question definition.
-     *
-     * @param question The question node
-     * @return A string "cards:____Answer" (e.g., cards:TextAnswer, cards:LongAnswer) or "cards:Answer" if obtaining the
-     *     type fails
-     */
-    private String getAnswerNodeType(Node question)
-    {
-        String nodeType = "";
-        try {
-            final String dataTypeString = question.getProperty("dataType").getString();
-            nodeType = StringUtils.capitalize(dataTypeString);
-        } catch (RepositoryException e) {
-            LOGGER.error("Failed to obtain answer node type: {}", e.getMessage(), e);
-        }
-        return "cards:" + nodeType + "Answer";
-    }
-
-    /**
-     * Split: Filter the given iterator of resources to only include resources whose parent is a Form, whose Subject's
-     * type is equal to the given subjectType.
-     *
-     * @param data Iterator of resources
-     * @param subjectType Subject type of the subject for the answer's form
-     * @return The filtered iterator
-     */
-    private Map<String, Map<Resource, String>> filterAnswersWithType(Map<Resource, String> data, Node subjectType)
-        throws RepositoryException
-    {
-        Iterator<Map.Entry<Resource, String>> entries = data.entrySet().iterator();
-
-        Map<String, Map<Resource, String>> newData = new LinkedHashMap<>();
-
-        String correctType = subjectType.getIdentifier();
-
-        // filter out answers without correct subject type
-        while (entries.hasNext()) {
-            Map.Entry<Resource, String> answer = entries.next();
-            // get form node
-            Node formNode = getFormNode(answer.getKey().adaptTo(Node.class));
-            // get parent subject
-            Node formSubject = formNode.getProperty("subject").getNode();
-
-            boolean foundAnswer = false;
-            while (formSubject.getDepth() > 0) {
-                if (formSubject.hasProperty("type")
-                    && formSubject.getProperty("type").getNode().getIdentifier().equals(correctType)) {
-                    // if it is the correct type, add to new map
-                    String uuid = formSubject.getIdentifier();
-
-                    // this should create a nested hashmap <subjectID, <answer node, string of either "x" or "split">>
-                    if (newData.containsKey(uuid)) {
-                        // if it does include uuid already
-                        newData.get(uuid).put(answer.getKey(), answer.getValue());
-                    } else {
-                        // if does not already include uuid
-                        Map<Resource, String> subjectData = new LinkedHashMap<>();
-                        subjectData.put(answer.getKey(), answer.getValue());
-                        newData.put(uuid, subjectData);
-                    }
-                    foundAnswer = true;
-                    break;
-                }
-                formSubject = formSubject.getParent();
-            }
-
-            if (!foundAnswer) {
-                LOGGER.warn("Could not find answer for node: " + formNode.getIdentifier());
-            }
-        }
-
-        return newData;
-    }
-
-    /**
-     * Split: Aggregate the counts.
-     *
-     * @param xVar X variable to use
-     * @param splitVar Variable to split on
-     * @param counts Map of {SubjectID, {Split variable label, count}}
-     * @return map of {x var, {split var, count}}
-     */
-    private Map<String, Map<String, Integer>> aggregateSplitCounts(Resource xVar, Resource splitVar,
-        Map<String, Map<String, Integer>> counts) throws RepositoryException
-    {
-        Map<String, Integer> innerCount = new LinkedHashMap<>();
-
-        // We can't count anything without an x variable
-        if (xVar == null) {
-            return counts;
-        }
-
-        Node splitAnswer = splitVar.adaptTo(Node.class);
-        List<String> splitValues = getAnswerValues(splitAnswer, this.splitValueDictionary.get());
-
-        Node xAnswer = xVar.adaptTo(Node.class);
-        List<String> values = getAnswerValues(xAnswer, this.xValueDictionary.get());
-        Iterator<String> it = values.iterator();
-        while (it.hasNext()) {
-            String xValue = it.next();
-            Iterator<String> split = splitValues.iterator();
-            while (split.hasNext()) {
-                String splitValue = split.next();
-                // if x value and split value already exist
-                if (counts.containsKey(xValue) && counts.get(xValue).containsKey(splitValue)) {
-                    counts.get(xValue).put(splitValue, counts.get(xValue).get(splitValue) + 1);
-                } else if (counts.containsKey(xValue) && !counts.get(xValue).containsKey(splitValue)) {
-                    // if x value already exists, but not split value - create and set to 1
-                    counts.get(xValue).put(splitValue, 1);
-                } else {
-                    // else, create both and set to 1
-                    innerCount.put(splitValue, 1);
-                    counts.put(xValue, innerCount);
-                }
-            }
-        }
-
-        return counts;
-    }
-
     /**
      * Split: add aggregated data to object builder, to be displayed.
      *
-     * @param data Aggregated data
+     * @param counts the precomputed counts
      * @param builder The object builder for output
      */
-    private void addDataSplit(Map<String, Map<Resource, String>> data, JsonObjectBuilder builder)
-        throws RepositoryException
+    private void addDataSplit(StatisticCube.Counts counts, JsonObjectBuilder builder)
     {
-        Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
-
-        try {
-            for (Map.Entry<String, Map<Resource, String>> entries : data.entrySet()) {
-                Resource splitVar = null;
-
-                // First, find the split variable
-                for (Map.Entry<Resource, String> entry : entries.getValue().entrySet()) {
-                    if ("split".equals(entry.getValue())) {
-                        splitVar = entry.getKey();
-                        break;
-                    }
-                }
-
-                // Then, call aggregate split counts once for each x variable
-                for (Map.Entry<Resource, String> entry : entries.getValue().entrySet()) {
-                    if ("x".equals(entry.getValue())) {
-                        counts = aggregateSplitCounts(entry.getKey(), splitVar, counts);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // Do nothing
-        }
-
         JsonObjectBuilder outerBuilder = Json.createObjectBuilder();
-        for (Map.Entry<String, Map<String, Integer>> t : counts.entrySet()) {
+        for (Map.Entry<String, Map<String, Integer>> t : counts.getCounts().entrySet()) {
             String key = t.getKey();
 
             JsonObjectBuilder keyBuilder = Json.createObjectBuilder();
@@ -397,66 +212,64 @@ private void addDataSplit(Map<String, Map<Resource, String>> data, JsonObjectBui
         builder.add("data", outerBuilder.build());
 
         // Add value->raw value maps for nice display and filter generation on the frontend
-        builder.add("xValueDictionary", buildMapAsJson(this.xValueDictionary.get()));
-        builder.add("splitValueDictionary", buildMapAsJson(this.splitValueDictionary.get()));
+        builder.add("xValueDictionary", buildMapAsJson(counts.getXValueDictionary()));
+        builder.add("splitValueDictionary", buildMapAsJson(counts.getSplitValueDictionary()));
     }
 
     /**
-     * No Split: Filter the given iterator of resources to only include resources whose parent is a Form, and whose
-     * Subject (or an ancestor)'s type is equal to the given subjectType.
+     * Obtain the answer values as a list, reusing the values already computed for another answer to the same question
+     * with the same raw value.
      *
-     * @param answers The iterator of answers to filter
-     * @param subjectType A subjectType to filter for
-     * @return An iterator of Resources that are Nodes of answers for the given subjectType
+     * @param answer The cards:Answer node, or {@code null} for a missing answer
+     * @param valueDictionary a Map that contains all value -> raw value pairs encountered in any of the answers to
+     *     a specific variable (either x or split) used for generating the current statistic
+     * @param labelCache the values already computed during the current request, by question and raw value
+     * @return A list of strings
      */
-    private Iterator<Resource> filterAnswersToSubjectType(Iterator<Resource> answers, Node subjectType)
-        throws RepositoryException
+    private List<String> getCachedAnswerValues(Node answer, Map<String, String> valueDictionary,
+        Map<String, List<String>> labelCache)
     {
-        Deque<Resource> newAnswers = new LinkedList<>();
-        String correctType = subjectType.getIdentifier();
-        while (answers.hasNext()) {
-            Resource answer = answers.next();
-            Node answerParent = getFormNode(answer.adaptTo(Node.class));
-            Node answerSubjectType = answerParent.getProperty("subject").getNode().getProperty("type").getNode();
-
-            while (answerSubjectType.getDepth() > 0) {
-                if (answerSubjectType.getIdentifier().equals(correctType)) {
-                    newAnswers.push(answer);
-                    break;
-                }
-
-                // Check the parent instead
-                answerSubjectType = answerSubjectType.getParent();
-            }
+        if (answer == null) {
+            List<String> values = new LinkedList<>();
+            recordEmptyAnswerValue(values, valueDictionary);
+            return values;
         }
-        return newAnswers.iterator();
+        String key = getRawValueKey(answer);
+        if (key == null) {
+            return getAnswerValues(answer, valueDictionary);
+        }
+        List<String> values = labelCache.get(key);
+        if (values == null) {
+            values = getAnswerValues(answer, valueDictionary);
+            labelCache.put(key, values);
+        }
+        return values;
     }
 
     /**
-     * No Split: Aggregate the given Iterator of answers to a map of counts for each unique value.
+     * Build a key identifying the question and the raw value of an answer.
      *
-     * @param answers An iterator of cards:Answer objects
-     * @return A map of values -> counts
+     * @param answer The cards:Answer node
+     * @return a string key, or {@code null} if the answer cannot be read
      */
-    private Map<String, Integer> aggregateCounts(Iterator<Resource> answers) throws RepositoryException
+    private String getRawValueKey(Node answer)
     {
-        Map<String, Integer> counts = new LinkedHashMap<>();
-        while (answers.hasNext()) {
-            Node answer = answers.next().adaptTo(Node.class);
-            List<String> values = getAnswerValues(answer, this.xValueDictionary.get());
-            Iterator<String> it = values.iterator();
-            while (it.hasNext()) {
-                String value = it.next();
-                // If this already exists in our counts dict, we add 1 to its value
-                // Otherwise, set it to 1 count
-                if (counts.containsKey(value)) {
-                    counts.put(value, counts.get(value) + 1);
+        try {
+            StringBuilder key = new StringBuilder(answer.getProperty("question").getString());
+            if (answer.hasProperty(VALUE_PROP)) {
+                Property rawValue = answer.getProperty(VALUE_PROP);
+                if (rawValue.isMultiple()) {
+                    for (Value value : rawValue.getValues()) {
+                        key.append(RAW_VALUE_SEPARATOR).append(value.getString());
+                    }
                 } else {
-                    counts.put(value, 1);
+                    key.append(RAW_VALUE_SEPARATOR).append(rawValue.getString());
                 }
             }
+            return key.toString();
+        } catch (RepositoryException e) {
+            return null;
         }
-        return counts;
     }
 
     /**
@@ -537,25 +350,20 @@ private void recordAnswerValue(List<String> values, Map<String, String> valueDic
     /**
      * No Split: Add the counts to the data object.
      *
-     * @param answers Counts object to add
+     * @param counts the precomputed counts
      * @param builder Data object to add to
      */
-    private void addData(Iterator<Resource> answers, JsonObjectBuilder builder) throws RepositoryException
+    private void addData(StatisticCube.Counts counts, JsonObjectBuilder builder)
     {
-        // Aggregate our counts
-        Map<String, Integer> counts = aggregateCounts(answers);
-
-        // Convert our HashMap into a JsonObject
+        // Convert our counts into a JsonObject
         JsonObjectBuilder dataBuilder = Json.createObjectBuilder();
-        Iterator<String> keysMap = counts.keySet().iterator();
-        while (keysMap.hasNext()) {
-            String key = keysMap.next();
-            dataBuilder.add(key, counts.get(key));
+        for (Map.Entry<String, Map<String, Integer>> count : counts.getCounts().entrySet()) {
+            dataBuilder.add(count.getKey(), count.getValue().getOrDefault(StatisticCube.NO_SPLIT, 0));
         }
         builder.add("data", dataBuilder.build());
 
         // Add value->label maps for nice display on the frontend)
-        builder.add("xValueDictionary", buildMapAsJson(this.xValueDictionary.get()));
+        builder.add("xValueDictionary", buildMapAsJson(counts.getXValueDictionary()));
     }
 
     /**
@@ -575,34 +383,4 @@ private JsonObject buildMapAsJson(Map<String, String> map)
         }
         return builder.build();
     }
-
-    /**
-     * Get the parent node type of a given cards:Answer node.
-     *
-     * @param answer A node corresponding to an cards:Answer
-     * @return A node corresponding to the parent subject type
-     */
-    public Node getFormNode(Node answer)
-    {
-        try {
-            // Recursively go through our parents until we find a cards:Form node
-            // If we somehow reach the top level, return an error
-            Node answerParent = answer.getParent();
-            while (answerParent != null && answerParent.getDepth() != 0
-                && !"cards:Form".equals(answerParent.getPrimaryNodeType().getName())) {
-                answerParent = answerParent.getParent();
-            }
-
-            // If we never find a form by going upwards, this cards:Answer is malformed
-            if (answerParent.getDepth() == 0) {
-                LOGGER.warn("Tried to obtain the parent Form for node {} but failed to find one", answer.getPath());
-                return null;
-            }
-
-            return answerParent;
-        } catch (RepositoryException e) {
-            LOGGER.warn("Failed to access Form: {}", e.getMessage());
-            return null;
-        }
-    }
 }
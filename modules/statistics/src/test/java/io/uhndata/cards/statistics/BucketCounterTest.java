@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.statistics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link BucketCounter}.
+ *
+ * @version $Id$
+ */
+public class BucketCounterTest
+{
+    @Test
+    public void countsAreAccumulated()
+    {
+        final BucketCounter counter = new BucketCounter();
+        counter.add(BucketCounter.key(1, 2), 1);
+        counter.add(BucketCounter.key(1, 2), 2);
+        counter.add(BucketCounter.key(2, 1), 1);
+        final Map<Long, Integer> result = collect(counter);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(Integer.valueOf(3), result.get(BucketCounter.key(1, 2)));
+        Assert.assertEquals(Integer.valueOf(1), result.get(BucketCounter.key(2, 1)));
+    }
+
+    @Test
+    public void emptyBucketsAreSkipped()
+    {
+        final BucketCounter counter = new BucketCounter();
+        counter.add(BucketCounter.key(0, 0), 1);
+        counter.add(BucketCounter.key(0, 0), -1);
+        Assert.assertTrue(collect(counter).isEmpty());
+    }
+
+    @Test
+    public void counterGrowsAndClears()
+    {
+        final BucketCounter counter = new BucketCounter();
+        for (int i = 0; i < 1000; ++i) {
+            counter.add(BucketCounter.key(i, i % 7), 1);
+        }
+        final Map<Long, Integer> result = collect(counter);
+        Assert.assertEquals(1000, result.size());
+        Assert.assertEquals(Integer.valueOf(1), result.get(BucketCounter.key(999, 999 % 7)));
+        counter.clear();
+        Assert.assertTrue(collect(counter).isEmpty());
+    }
+
+    @Test
+    public void keysKeepBothIdentifiers()
+    {
+        final BucketCounter counter = new BucketCounter();
+        counter.add(BucketCounter.key(Integer.MAX_VALUE, 5), 1);
+        counter.forEach((x, split, count) -> {
+            Assert.assertEquals(Integer.MAX_VALUE, x);
+            Assert.assertEquals(5, split);
+            Assert.assertEquals(1, count);
+        });
+    }
+
+    private static Map<Long, Integer> collect(final BucketCounter counter)
+    {
+        final Map<Long, Integer> result = new HashMap<>();
+        counter.forEach((x, split, count) -> result.put(BucketCounter.key(x, split), count));
+        return result;
+    }
+}
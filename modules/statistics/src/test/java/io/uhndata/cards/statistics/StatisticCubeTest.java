@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.statistics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import io.uhndata.cards.subjects.api.SubjectUtils;
+
+/**
+ * Unit tests for {@link StatisticCube}.
+ *
+ * @version $Id$
+ */
+public class StatisticCubeTest
+{
+    private static final String TYPE_ID = "patient-type";
+
+    private static final String FORM1 = "/Forms/f1";
+
+    private static final String FORM2 = "/Forms/f2";
+
+    private static final String FORM3 = "/Forms/f3";
+
+    private static final String XQ = "xq";
+
+    private static final String NOT_SPECIFIED = "Not specified";
+
+    private static final String SUBJECT = "subject";
+
+    private Session session;
+
+    private QueryManager queryManager;
+
+    private SubjectUtils subjectUtils;
+
+    private Node xQuestion;
+
+    private Node splitQuestion;
+
+    private Node subjectType;
+
+    private Node subject;
+
+    private final Map<Node, String> answerValues = new HashMap<>();
+
+    private final StatisticCube.AnswerValuesExtractor extractor = (answer, dictionary) -> {
+        final String value = answer == null ? NOT_SPECIFIED : this.answerValues.get(answer);
+        dictionary.put(value, value.toLowerCase());
+        return List.of(value);
+    };
+
+    @Before
+    public void setup() throws RepositoryException
+    {
+        this.session = Mockito.mock(Session.class);
+        final Workspace workspace = Mockito.mock(Workspace.class);
+        this.queryManager = Mockito.mock(QueryManager.class);
+        Mockito.when(this.session.getWorkspace()).thenReturn(workspace);
+        Mockito.when(workspace.getQueryManager()).thenReturn(this.queryManager);
+        this.subjectUtils = Mockito.mock(SubjectUtils.class);
+
+        this.xQuestion = mockQuestion(XQ);
+        this.splitQuestion = mockQuestion("sq");
+        this.subjectType = Mockito.mock(Node.class);
+        Mockito.when(this.subjectType.getIdentifier()).thenReturn(TYPE_ID);
+        Mockito.when(this.subjectType.getDepth()).thenReturn(2);
+
+        this.subject = Mockito.mock(Node.class);
+        final Property type = mockProperty(TYPE_ID);
+        Mockito.when(type.getNode()).thenReturn(this.subjectType);
+        Mockito.when(this.subject.hasProperty("type")).thenReturn(true);
+        Mockito.when(this.subject.getProperty("type")).thenReturn(type);
+        Mockito.when(this.subjectUtils.getAncestorOfType(this.subject, TYPE_ID)).thenReturn("s1");
+    }
+
+    @Test
+    public void answersAreCountedPerForm() throws RepositoryException
+    {
+        mockAnswers(XQ, mockAnswer(mockForm(FORM1), "A"), mockAnswer(mockForm(FORM2), "B"));
+        final StatisticCube cube = new StatisticCube(this.subjectUtils, this.xQuestion, this.subjectType, null);
+        cube.refresh(this.session, this.extractor);
+
+        final StatisticCube.Counts all = cube.count(path -> true, null);
+        Assert.assertEquals(Integer.valueOf(1), all.getCounts().get("A").get(StatisticCube.NO_SPLIT));
+        Assert.assertEquals(Integer.valueOf(1), all.getCounts().get("B").get(StatisticCube.NO_SPLIT));
+        Assert.assertEquals("a", all.getXValueDictionary().get("A"));
+
+        final StatisticCube.Counts visible = cube.count(FORM1::equals, null);
+        Assert.assertEquals(1, visible.getCounts().size());
+        Assert.assertTrue(visible.getCounts().containsKey("A"));
+    }
+
+    @Test
+    public void changedFormsAreProcessedAgain() throws RepositoryException
+    {
+        mockAnswers(XQ, mockAnswer(mockForm(FORM1), "A"), mockAnswer(mockForm(FORM2), "B"));
+        final StatisticCube cube = new StatisticCube(this.subjectUtils, this.xQuestion, this.subjectType, null);
+        cube.refresh(this.session, this.extractor);
+        final StatisticCube.Counts before = cube.count(path -> true, null);
+        Assert.assertTrue(before.isCurrent(cube));
+
+        // The second form was removed
+        cube.markDirty(List.of(FORM2));
+        cube.refresh(this.session, this.extractor);
+        Assert.assertFalse(before.isCurrent(cube));
+        final StatisticCube.Counts after = cube.count(path -> true, null);
+        Assert.assertEquals(1, after.getCounts().size());
+        Assert.assertTrue(after.getCounts().containsKey("A"));
+        Mockito.verify(this.queryManager, Mockito.times(1)).createQuery(Matchers.anyString(), Matchers.anyString());
+    }
+
+    @Test
+    public void onlyChangedFormsAreCheckedAgain() throws RepositoryException
+    {
+        mockAnswers(XQ, mockAnswer(mockForm(FORM1), "A"), mockAnswer(mockForm(FORM2), "B"),
+            mockAnswer(mockForm(FORM3), "C"));
+        final StatisticCube cube = new StatisticCube(this.subjectUtils, this.xQuestion, this.subjectType, null);
+        cube.refresh(this.session, this.extractor);
+        final List<String> checked = new ArrayList<>();
+        final StatisticCube.Counts before = cube.count(path -> checked.add(path) && !FORM2.equals(path), null);
+        Assert.assertEquals(3, checked.size());
+        Assert.assertFalse(before.getCounts().containsKey("B"));
+
+        // The third form was removed, the others keep their visibility without being checked again
+        checked.clear();
+        cube.markDirty(List.of(FORM3));
+        cube.refresh(this.session, this.extractor);
+        final StatisticCube.Counts after = cube.count(path -> checked.add(path), before);
+        Assert.assertTrue(checked.isEmpty());
+        Assert.assertEquals(List.of("A"), new ArrayList<>(after.getCounts().keySet()));
+    }
+
+    @Test
+    public void countsAreSortedByDescendingRawValues() throws RepositoryException
+    {
+        mockAnswers(XQ, mockAnswer(mockForm(FORM1), "A"), mockAnswer(mockForm(FORM2), "C"),
+            mockAnswer(mockForm(FORM3), "B"));
+        final StatisticCube cube = new StatisticCube(this.subjectUtils, this.xQuestion, this.subjectType, null);
+        cube.refresh(this.session, this.extractor);
+        Assert.assertEquals(List.of("C", "B", "A"),
+            new ArrayList<>(cube.count(path -> true, null).getCounts().keySet()));
+    }
+
+    @Test
+    public void numericValuesAreSortedAsNumbers() throws RepositoryException
+    {
+        final Node numericQuestion = mockQuestion("nq", "long");
+        mockAnswers("nq", mockAnswer(mockForm(FORM1), "9"), mockAnswer(mockForm(FORM2), "10"),
+            mockAnswer(mockForm(FORM3), "100"));
+        final StatisticCube cube = new StatisticCube(this.subjectUtils, numericQuestion, this.subjectType, null);
+        cube.refresh(this.session, this.extractor);
+        Assert.assertEquals(List.of("100", "10", "9"),
+            new ArrayList<>(cube.count(path -> true, null).getCounts().keySet()));
+    }
+
+    @Test
+    public void unusedValuesAreDiscarded() throws RepositoryException
+    {
+        final Node[] answers = new Node[10_002];
+        for (int i = 0; i < answers.length; ++i) {
+            answers[i] = mockAnswer(mockForm("/Forms/many" + i), "V" + i);
+        }
+        mockAnswers(XQ, answers);
+        final StatisticCube cube = new StatisticCube(this.subjectUtils, this.xQuestion, this.subjectType, null);
+        cube.refresh(this.session, this.extractor);
+
+        // Removing forms triggers renumbering the values still in use
+        cube.markDirty(List.of("/Forms/many0", "/Forms/many1"));
+        cube.refresh(this.session, this.extractor);
+        final StatisticCube.Counts counts = cube.count(path -> true, null);
+        Assert.assertEquals(10_000, counts.getCounts().size());
+        Assert.assertFalse(counts.getCounts().containsKey("V0"));
+        Assert.assertEquals(Integer.valueOf(1), counts.getCounts().get("V10001").get(StatisticCube.NO_SPLIT));
+        Assert.assertEquals("v10001", counts.getXValueDictionary().get("V10001"));
+    }
+
+    @Test
+    public void subjectsWithoutSplitAnswerAreCounted() throws RepositoryException
+    {
+        final Node form1 = mockForm(FORM1);
+        final Node form2 = mockForm(FORM2);
+        final Node otherSubject = Mockito.mock(Node.class);
+        Mockito.when(this.subjectUtils.getAncestorOfType(otherSubject, TYPE_ID)).thenReturn("s2");
+        final Property subjectProperty = form2.getProperty(SUBJECT);
+        Mockito.when(subjectProperty.getNode()).thenReturn(otherSubject);
+        mockAnswers(XQ, mockAnswer(form1, "A"), mockAnswer(form2, "B"));
+        mockAnswers("sq", mockAnswer(form2, "S"));
+
+        final StatisticCube cube =
+            new StatisticCube(this.subjectUtils, this.xQuestion, this.subjectType, this.splitQuestion);
+        cube.refresh(this.session, this.extractor);
+        final StatisticCube.Counts counts = cube.count(path -> true, null);
+        Assert.assertEquals(Integer.valueOf(1), counts.getCounts().get("A").get(NOT_SPECIFIED));
+        Assert.assertEquals(Integer.valueOf(1), counts.getCounts().get("B").get("S"));
+        Assert.assertEquals("s", counts.getSplitValueDictionary().get("S"));
+    }
+
+    @Test
+    public void formsOfOtherSubjectTypesAreIgnored() throws RepositoryException
+    {
+        final Node form = mockForm(FORM1);
+        final Node otherType = Mockito.mock(Node.class);
+        Mockito.when(otherType.getIdentifier()).thenReturn("other-type");
+        Mockito.when(otherType.getDepth()).thenReturn(0);
+        final Node otherSubject = Mockito.mock(Node.class);
+        final Property type = mockProperty("other-type");
+        Mockito.when(type.getNode()).thenReturn(otherType);
+        Mockito.when(otherSubject.hasProperty("type")).thenReturn(true);
+        Mockito.when(otherSubject.getProperty("type")).thenReturn(type);
+        final Property subjectProperty = form.getProperty(SUBJECT);
+        Mockito.when(subjectProperty.getNode()).thenReturn(otherSubject);
+        mockAnswers(XQ, mockAnswer(form, "A"));
+
+        final StatisticCube cube = new StatisticCube(this.subjectUtils, this.xQuestion, this.subjectType, null);
+        cube.refresh(this.session, this.extractor);
+        Assert.assertTrue(cube.count(path -> true, null).getCounts().isEmpty());
+    }
+
+    private Node mockQuestion(final String id) throws RepositoryException
+    {
+        return mockQuestion(id, "text");
+    }
+
+    private Node mockQuestion(final String id, final String type) throws RepositoryException
+    {
+        final Node question = Mockito.mock(Node.class);
+        final Property dataType = mockProperty(type);
+        Mockito.when(question.getIdentifier()).thenReturn(id);
+        Mockito.when(question.getProperty("dataType")).thenReturn(dataType);
+        return question;
+    }
+
+    private Node mockForm(final String path) throws RepositoryException
+    {
+        final Node form = Mockito.mock(Node.class);
+        final Property subjectProperty = Mockito.mock(Property.class);
+        Mockito.when(subjectProperty.getNode()).thenReturn(this.subject);
+        Mockito.when(form.getPath()).thenReturn(path);
+        Mockito.when(form.getDepth()).thenReturn(2);
+        Mockito.when(form.isNodeType("cards:Form")).thenReturn(true);
+        Mockito.when(form.hasProperty(SUBJECT)).thenReturn(true);
+        Mockito.when(form.getProperty(SUBJECT)).thenReturn(subjectProperty);
+        return form;
+    }
+
+    private Node mockAnswer(final Node form, final String value) throws RepositoryException
+    {
+        final Node answer = Mockito.mock(Node.class);
+        Mockito.when(answer.getParent()).thenReturn(form);
+        this.answerValues.put(answer, value);
+        return answer;
+    }
+
+    private void mockAnswers(final String questionId, final Node... answers) throws RepositoryException
+    {
+        final Query query = Mockito.mock(Query.class);
+        final QueryResult result = Mockito.mock(QueryResult.class);
+        final List<Node> list = new ArrayList<>(List.of(answers));
+        final Iterator<Node> iterator = list.iterator();
+        final NodeIterator nodes = Mockito.mock(NodeIterator.class);
+        Mockito.when(nodes.hasNext()).then(invocation -> iterator.hasNext());
+        Mockito.when(nodes.nextNode()).then(invocation -> iterator.next());
+        Mockito.when(this.queryManager.createQuery(Matchers.contains("'" + questionId + "'"), Matchers.anyString()))
+            .thenReturn(query);
+        Mockito.when(query.execute()).thenReturn(result);
+        Mockito.when(result.getNodes()).thenReturn(nodes);
+    }
+
+    private static Property mockProperty(final String value) throws RepositoryException
+    {
+        final Property property = Mockito.mock(Property.class);
+        Mockito.when(property.getString()).thenReturn(value);
+        return property;
+    }
+}
@@ -184,6 +184,36 @@ public CardsTokenImpl(final Root root, final Tree tokenTree, final String token,
         this.attributes = Collections.unmodifiableMap(storedAttributes);
     }
 
+    /**
+     * Copy constructor creating a token that is no longer tied to a JCR session or Oak root, to be kept in memory
+     * beyond the lifetime of the session used to load the original token. A detached token cannot be removed.
+     *
+     * @param source the token to copy
+     * @param token the login token
+     */
+    private CardsTokenImpl(final CardsTokenImpl source, final String token)
+    {
+        this.tokenNode = null;
+        this.root = null;
+        this.tokenTree = null;
+        this.loginToken = token;
+        this.userId = source.userId;
+        this.expirationTime = source.expirationTime;
+        this.validationKey = source.validationKey;
+        this.attributes = source.attributes;
+    }
+
+    /**
+     * Create a copy of this token that is not tied to the session that loaded it, identified by a specific login token.
+     *
+     * @param token the login token to associate with the copy
+     * @return a detached copy of this token
+     */
+    public CardsTokenImpl detachedCopy(final String token)
+    {
+        return new CardsTokenImpl(this, token);
+    }
+
     // ------------------------------------------------------< TokenInfo >---
 
     @Override
@@ -223,6 +253,9 @@ public boolean remove()
             } else if (this.tokenTree != null) {
                 this.tokenTree.remove();
                 this.root.commit();
+            } else {
+                // Detached token, cannot be removed through this object
+                return false;
             }
             return true;
         } catch (RepositoryException | CommitFailedException e) {
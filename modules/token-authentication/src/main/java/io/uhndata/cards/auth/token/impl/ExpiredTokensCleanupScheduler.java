@@ -29,6 +29,8 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.uhndata.cards.metrics.Metrics;
+
 @Component(immediate = true)
 public class ExpiredTokensCleanupScheduler
 {
@@ -51,6 +53,10 @@ protected void activate(final ComponentContext componentContext) throws Exceptio
         cleanupOptions.onSingleInstanceOnly(true);
         cleanupOptions.canRunConcurrently(false);
 
+        // Make sure the metric counting removed tokens exists, if metrics are stored in this instance
+        Metrics.createStatistic(this.resolverFactory, ExpiredTokensCleanupTask.METRIC_NAME,
+            ExpiredTokensCleanupTask.METRIC_HUMAN_NAME);
+
         final Runnable cleanupJob = new ExpiredTokensCleanupTask(this.resolverFactory);
 
         try {
@@ -19,23 +19,48 @@
 
 package io.uhndata.cards.auth.token.impl;
 
-import java.time.ZonedDateTime;
-import java.util.Iterator;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
 
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import javax.jcr.query.Query;
 
+import org.apache.jackrabbit.util.ISO8601;
 import org.apache.sling.api.resource.LoginException;
-import org.apache.sling.api.resource.PersistenceException;
-import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.uhndata.cards.metrics.Metrics;
+
+/**
+ * Removes expired tokens. The expired tokens are listed by a single query, oldest first, using the synchronous property
+ * index on the expiration date, and deleted with a commit after each batch, so that a large number of expired tokens
+ * does not result in one huge commit. To avoid holding up the repository for too long, each run stops after a fixed
+ * amount of time, and any remaining expired tokens will be removed by the next run.
+ *
+ * @version $Id$
+ */
 public class ExpiredTokensCleanupTask implements Runnable
 {
+    /** The name of the metric counting the number of removed tokens. */
+    static final String METRIC_NAME = "ExpiredTokensPurged";
+
+    /** The human readable name of the metric counting the number of removed tokens. */
+    static final String METRIC_HUMAN_NAME = "{900} Expired Tokens Removed";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(ExpiredTokensCleanupTask.class);
 
+    /** How many tokens to delete before committing. */
+    private static final int BATCH_SIZE = 1000;
+
+    /** For how long a cleanup run may go on, in milliseconds. */
+    private static final long TIME_BUDGET = TimeUnit.MINUTES.toMillis(15);
+
     private final ResourceResolverFactory rrf;
 
     ExpiredTokensCleanupTask(final ResourceResolverFactory rrf)
@@ -46,21 +71,72 @@ public class ExpiredTokensCleanupTask implements Runnable
     @Override
     public void run()
     {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + TIME_BUDGET;
+        long removed = 0;
         try (ResourceResolver resolver = this.rrf.getServiceResourceResolver(null)) {
-            final Iterator<Resource> resources = resolver.findResources("SELECT * FROM [cards:Token] WHERE ["
-                + CardsTokenImpl.TOKEN_ATTRIBUTE_EXPIRY + "] < '" + ZonedDateTime.now() + "'", Query.JCR_SQL2);
-            resources.forEachRemaining(token -> {
-                try {
-                    resolver.delete(token);
-                } catch (final PersistenceException e) {
-                    LOGGER.warn("Failed to delete expired token {}: {}", token.getPath(), e.getMessage());
-                }
-            });
-            resolver.commit();
+            final Session session = resolver.adaptTo(Session.class);
+            // Only look at tokens that were already expired when the task started,
+            // the property index on the expiration date can be used to quickly find them
+            final String now = ISO8601.format(Calendar.getInstance());
+            removed = removeExpired(session, now, deadline);
         } catch (final LoginException e) {
             LOGGER.warn("Invalid setup, service rights not set up for the expired tokens cleanup task");
-        } catch (final PersistenceException e) {
+        } catch (final RepositoryException e) {
             LOGGER.warn("Failed to delete expired tokens: {}", e.getMessage());
+        } finally {
+            LOGGER.info("Removed {} expired tokens in {}ms", removed, System.currentTimeMillis() - start);
+            if (removed > 0) {
+                Metrics.increment(this.rrf, METRIC_NAME, removed);
+            }
+        }
+    }
+
+    /**
+     * Delete the expired tokens, committing every {@link #BATCH_SIZE} deletions.
+     *
+     * @param session the service session used for querying and deleting tokens
+     * @param now the current date, tokens expiring before this date are removed
+     * @param deadline the time after which no new batch is started, in milliseconds since the epoch
+     * @return the number of tokens removed
+     * @throws RepositoryException if querying the repository or committing fails
+     */
+    long removeExpired(final Session session, final String now, final long deadline) throws RepositoryException
+    {
+        final Query query = session.getWorkspace().getQueryManager().createQuery("SELECT * FROM [cards:Token] AS t"
+            + " WHERE t.[" + CardsTokenImpl.TOKEN_ATTRIBUTE_EXPIRY + "] < CAST('" + now + "' AS DATE)"
+            + " ORDER BY t.[" + CardsTokenImpl.TOKEN_ATTRIBUTE_EXPIRY + "]", Query.JCR_SQL2);
+
+        long removed = 0;
+        int pending = 0;
+        final NodeIterator tokens = query.execute().getNodes();
+        while (tokens.hasNext()) {
+            if (pending == 0 && System.currentTimeMillis() >= deadline) {
+                LOGGER.info("Expired tokens cleanup stopped after reaching its time limit,"
+                    + " remaining tokens will be removed in the next run");
+                break;
+            }
+            if (remove(tokens.nextNode()) && ++pending == BATCH_SIZE) {
+                session.save();
+                removed += pending;
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            session.save();
+            removed += pending;
+        }
+        return removed;
+    }
+
+    private boolean remove(final Node token) throws RepositoryException
+    {
+        try {
+            token.remove();
+            return true;
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to delete expired token {}: {}", token.getPath(), e.getMessage());
         }
+        return false;
     }
 }
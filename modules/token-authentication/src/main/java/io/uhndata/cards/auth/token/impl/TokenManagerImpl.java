@@ -25,6 +25,7 @@
 import java.util.UUID;
 
 import javax.jcr.InvalidItemStateException;
+import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
@@ -69,6 +70,9 @@ public class TokenManagerImpl implements TokenManager
     @Reference
     private TokenConfiguration configuration;
 
+    @Reference
+    private TokenValidationCache cache;
+
     @Override
     public TokenInfo create(final String userId, final Calendar expiration, final Map<String, String> extraData)
     {
@@ -102,6 +106,14 @@ public TokenInfo parse(final String loginToken)
         // The secret key does not need to be used/validated now, so just ignore it
         final String nodeId = StringUtils.substringBefore(loginToken, CardsTokenImpl.TOKEN_DELIMITER);
 
+        // Most requests come with a token that was already seen recently, try to avoid accessing the repository
+        final CardsTokenImpl cached = this.cache.getValid(nodeId, loginToken);
+        if (cached != null) {
+            return cached;
+        } else if (this.cache.isKnownInvalid(nodeId)) {
+            return null;
+        }
+
         try (ResourceResolver srr = this.rrf.getServiceResourceResolver(null)) {
             final Node tokenNode = srr.adaptTo(Session.class).getNodeByIdentifier(nodeId);
             // Check that the node is indeed a valid token node
@@ -110,9 +122,15 @@ public TokenInfo parse(final String loginToken)
                 String userId = getUser(tokenNode);
                 if (userId != null) {
                     // Everything seems correct so far, return a new TokenInfo wrapper around the node
-                    return new CardsTokenImpl(tokenNode, loginToken, userId);
+                    final CardsTokenImpl result = new CardsTokenImpl(tokenNode, loginToken, userId);
+                    this.cache.putValid(nodeId, result);
+                    return result;
                 }
             }
+            this.cache.putInvalid(nodeId);
+        } catch (ItemNotFoundException e) {
+            this.cache.putInvalid(nodeId);
+            LOGGER.info("Cannot access token {}", loginToken);
         } catch (RepositoryException e) {
             LOGGER.info("Cannot access token {}", loginToken);
         } catch (LoginException e) {
@@ -190,7 +208,9 @@ private TokenInfo createTokenNode(final Node parent, final Calendar expiration,
             // Persist the changes
             tokenNode.getSession().save();
             // Return a TokenInfo exposing the new token information
-            return new CardsTokenImpl(tokenNode, loginToken, userId);
+            final CardsTokenImpl result = new CardsTokenImpl(tokenNode, loginToken, userId);
+            this.cache.putValid(nodeIdentifier, result);
+            return result;
         } catch (RepositoryException e) {
             LOGGER.error("Failed to create token for user {}: {}", userId, e.getMessage(), e);
             return null;
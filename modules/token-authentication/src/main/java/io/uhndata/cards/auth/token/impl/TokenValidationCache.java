@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.auth.token.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * In-memory cache of the tokens already loaded by the {@link TokenManagerImpl}, so that the repository does not have to
+ * be accessed for every token-authenticated request. Two kinds of entries are kept:
+ * <ul>
+ * <li>valid tokens, identified by the identifier of their {@code cards:Token} node, kept for a limited time and never
+ * beyond the expiration date of the token</li>
+ * <li>identifiers that do not point to a valid token node, kept for a shorter time</li>
+ * </ul>
+ * <p>
+ * Since entries must not outlive the token they describe, this is also a repository {@link Observer}: whenever a token
+ * node is removed or modified, the corresponding entry is dropped, and whenever a new token node is added, any
+ * negative entry for its identifier is dropped. User accounts are watched as well, and all the cached tokens of a user
+ * are dropped as soon as that user is disabled or removed.
+ * </p>
+ *
+ * @version $Id$
+ */
+@Component(service = { TokenValidationCache.class, Observer.class })
+public class TokenValidationCache implements Observer
+{
+    /** The maximum number of entries kept in each of the two caches. */
+    private static final int MAX_ENTRIES = 10_000;
+
+    /** For how long a valid token is kept in the cache, in milliseconds. */
+    private static final long VALID_TOKEN_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    /** For how long an invalid identifier is kept in the cache, in milliseconds. */
+    private static final long INVALID_TOKEN_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    /** The root node under which user accounts are stored. */
+    private static final String HOME_NODE_NAME = "home";
+
+    /** Valid tokens, by token node identifier. */
+    private final Map<String, CachedToken> validTokens = new ConcurrentHashMap<>();
+
+    /** Invalid token node identifiers, with the time when the entry expires. */
+    private final Map<String, Long> invalidTokens = new ConcurrentHashMap<>();
+
+    /** The last seen state of the tokens storage, {@code /jcr:system/cards:tokens}. */
+    private NodeState tokensState;
+
+    /** The last seen state of the users storage, {@code /home}. */
+    private NodeState usersState;
+
+    /**
+     * Retrieve a cached valid token.
+     *
+     * @param nodeId the identifier of the token node
+     * @param loginToken the login token that the returned token should be identified with
+     * @return the cached token, or {@code null} if the token is not cached, or its entry expired
+     */
+    public CardsTokenImpl getValid(final String nodeId, final String loginToken)
+    {
+        final CachedToken cached = this.validTokens.get(nodeId);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiresAt < System.currentTimeMillis()) {
+            this.validTokens.remove(nodeId, cached);
+            return null;
+        }
+        return cached.token.detachedCopy(loginToken);
+    }
+
+    /**
+     * Check if an identifier is known not to point to a valid token.
+     *
+     * @param nodeId the identifier of a supposed token node
+     * @return {@code true} if the identifier was recently found not to be a valid token, {@code false} otherwise
+     */
+    public boolean isKnownInvalid(final String nodeId)
+    {
+        final Long expiresAt = this.invalidTokens.get(nodeId);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (expiresAt < System.currentTimeMillis()) {
+            this.invalidTokens.remove(nodeId, expiresAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Store a valid token in the cache. The entry expires after a fixed amount of time, or when the token itself
+     * expires, whichever comes first.
+     *
+     * @param nodeId the identifier of the token node
+     * @param token the token loaded from the repository
+     */
+    public void putValid(final String nodeId, final CardsTokenImpl token)
+    {
+        long expiresAt = System.currentTimeMillis() + VALID_TOKEN_TTL;
+        if (token.getExpirationTime() != null) {
+            expiresAt = Math.min(expiresAt, token.getExpirationTime().getTimeInMillis());
+        }
+        this.invalidTokens.remove(nodeId);
+        putBounded(this.validTokens, nodeId, new CachedToken(token.detachedCopy(null), expiresAt));
+    }
+
+    /**
+     * Remember that an identifier does not point to a valid token.
+     *
+     * @param nodeId the identifier of a supposed token node
+     */
+    public void putInvalid(final String nodeId)
+    {
+        this.validTokens.remove(nodeId);
+        putBounded(this.invalidTokens, nodeId, System.currentTimeMillis() + INVALID_TOKEN_TTL);
+    }
+
+    @Override
+    public void contentChanged(final NodeState root, final CommitInfo info)
+    {
+        final NodeState after = root.getChildNode(CardsTokenImpl.SYSTEM_NODE_NAME)
+            .getChildNode(CardsTokenImpl.TOKENS_NODE_NAME);
+        final NodeState usersAfter = root.getChildNode(HOME_NODE_NAME);
+        final NodeState before;
+        final NodeState usersBefore;
+        synchronized (this) {
+            before = this.tokensState;
+            usersBefore = this.usersState;
+            this.tokensState = after;
+            this.usersState = usersAfter;
+        }
+        if (before == null) {
+            // First notification, there is no previous state to compare against, so just start from a clean state
+            this.validTokens.clear();
+            this.invalidTokens.clear();
+            return;
+        }
+        // Unchanged subtrees are skipped quickly, so this only goes deeper when tokens were actually modified
+        after.compareAgainstBaseState(before, new DefaultNodeStateDiff()
+        {
+            @Override
+            public boolean childNodeChanged(final String userName, final NodeState userBefore,
+                final NodeState userAfter)
+            {
+                userAfter.compareAgainstBaseState(userBefore, new TokenDiff());
+                return true;
+            }
+
+            @Override
+            public boolean childNodeDeleted(final String userName, final NodeState userBefore)
+            {
+                userBefore.getChildNodeEntries().forEach(entry -> invalidate(entry.getNodeState()));
+                return true;
+            }
+        });
+        // Same for user accounts, only the folders that contain modified users are looked at
+        usersAfter.compareAgainstBaseState(usersBefore, new UsersDiff());
+    }
+
+    /**
+     * Drop all the cached tokens of a user.
+     *
+     * @param user the former state of a user node
+     */
+    private void invalidateUser(final NodeState user)
+    {
+        final PropertyState id = user.getProperty(UserConstants.REP_AUTHORIZABLE_ID);
+        if (id == null) {
+            return;
+        }
+        final String userId = id.getValue(Type.STRING);
+        this.validTokens.values().removeIf(cached -> userId.equals(cached.token.getUserId()));
+    }
+
+    /**
+     * Drop the cached entry for a token that was modified or removed.
+     *
+     * @param token the former state of a token node
+     */
+    private void invalidate(final NodeState token)
+    {
+        final String nodeId = getIdentifier(token);
+        if (nodeId != null) {
+            this.validTokens.remove(nodeId);
+        }
+    }
+
+    /**
+     * Store an entry, then discard other entries while the map holds more than {@link #MAX_ENTRIES} entries.
+     *
+     * @param <V> the type of values
+     * @param map the cache to store into
+     * @param key the key of the new entry
+     * @param value the value of the new entry
+     */
+    private static <V> void putBounded(final Map<String, V> map, final String key, final V value)
+    {
+        map.put(key, value);
+        final Iterator<String> keys = map.keySet().iterator();
+        while (map.size() > MAX_ENTRIES && keys.hasNext()) {
+            if (!key.equals(keys.next())) {
+                keys.remove();
+            }
+        }
+    }
+
+    private static String getIdentifier(final NodeState token)
+    {
+        final PropertyState uuid = token.getProperty(JcrConstants.JCR_UUID);
+        return uuid == null ? null : uuid.getValue(Type.STRING);
+    }
+
+    /**
+     * Looks at the changes to the tokens stored for one user.
+     */
+    private final class TokenDiff extends DefaultNodeStateDiff
+    {
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after)
+        {
+            final String nodeId = getIdentifier(after);
+            if (nodeId != null) {
+                TokenValidationCache.this.invalidTokens.remove(nodeId);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            invalidate(before);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            invalidate(before);
+            return true;
+        }
+    }
+
+    /**
+     * Looks for users that were disabled or removed, descending only into the nodes that changed.
+     */
+    private final class UsersDiff extends DefaultNodeStateDiff
+    {
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            if (isUser(after)) {
+                // Re-enabling a user does not make any token invalid
+                final PropertyState disabled = after.getProperty(UserConstants.REP_DISABLED);
+                if (disabled != null && !disabled.equals(before.getProperty(UserConstants.REP_DISABLED))) {
+                    invalidateUser(before);
+                }
+            } else {
+                after.compareAgainstBaseState(before, this);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            removed(before);
+            return true;
+        }
+
+        private void removed(final NodeState node)
+        {
+            if (isUser(node)) {
+                invalidateUser(node);
+            } else {
+                for (final ChildNodeEntry child : node.getChildNodeEntries()) {
+                    removed(child.getNodeState());
+                }
+            }
+        }
+
+        private boolean isUser(final NodeState node)
+        {
+            final String type = node.getName(JcrConstants.JCR_PRIMARYTYPE);
+            return UserConstants.NT_REP_USER.equals(type) || UserConstants.NT_REP_SYSTEM_USER.equals(type);
+        }
+    }
+
+    /** A cached valid token, along with the time when the cache entry expires. */
+    private static final class CachedToken
+    {
+        private final CardsTokenImpl token;
+
+        private final long expiresAt;
+
+        CachedToken(final CardsTokenImpl token, final long expiresAt)
+        {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
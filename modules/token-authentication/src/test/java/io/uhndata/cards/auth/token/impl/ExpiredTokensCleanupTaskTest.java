@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.auth.token.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+/**
+ * Unit tests for {@link ExpiredTokensCleanupTask}.
+ *
+ * @version $Id$
+ */
+public class ExpiredTokensCleanupTaskTest
+{
+    private static final String NOW = "2024-01-01T00:00:00.000Z";
+
+    private Session session;
+
+    private QueryManager queryManager;
+
+    private ExpiredTokensCleanupTask task;
+
+    @Before
+    public void setup() throws RepositoryException
+    {
+        this.session = Mockito.mock(Session.class);
+        final Workspace workspace = Mockito.mock(Workspace.class);
+        this.queryManager = Mockito.mock(QueryManager.class);
+        Mockito.when(this.session.getWorkspace()).thenReturn(workspace);
+        Mockito.when(workspace.getQueryManager()).thenReturn(this.queryManager);
+        this.task = new ExpiredTokensCleanupTask(null);
+    }
+
+    @Test
+    public void allExpiredTokensAreRemovedWithASingleQuery() throws RepositoryException
+    {
+        final List<Node> tokens = mockTokens(2500);
+        Assert.assertEquals(2500, this.task.removeExpired(this.session, NOW, Long.MAX_VALUE));
+        Mockito.verify(this.queryManager, Mockito.times(1)).createQuery(Matchers.anyString(), Matchers.anyString());
+        Mockito.verify(this.session, Mockito.times(3)).save();
+        for (Node token : tokens) {
+            Mockito.verify(token).remove();
+        }
+    }
+
+    @Test
+    public void failedRemovalsAreNotCounted() throws RepositoryException
+    {
+        final List<Node> tokens = mockTokens(3);
+        Mockito.doThrow(new RepositoryException("locked")).when(tokens.get(1)).remove();
+        Assert.assertEquals(2, this.task.removeExpired(this.session, NOW, Long.MAX_VALUE));
+        Mockito.verify(this.session, Mockito.times(1)).save();
+    }
+
+    @Test
+    public void nothingIsRemovedAfterTheDeadline() throws RepositoryException
+    {
+        final List<Node> tokens = mockTokens(3);
+        Assert.assertEquals(0, this.task.removeExpired(this.session, NOW, 0));
+        Mockito.verify(this.session, Mockito.never()).save();
+        Mockito.verify(tokens.get(0), Mockito.never()).remove();
+    }
+
+    private List<Node> mockTokens(final int count) throws RepositoryException
+    {
+        final List<Node> tokens = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            tokens.add(Mockito.mock(Node.class));
+        }
+        final Iterator<Node> iterator = tokens.iterator();
+        final NodeIterator nodes = Mockito.mock(NodeIterator.class);
+        Mockito.when(nodes.hasNext()).then(invocation -> iterator.hasNext());
+        Mockito.when(nodes.nextNode()).then(invocation -> iterator.next());
+        final Query query = Mockito.mock(Query.class);
+        final QueryResult result = Mockito.mock(QueryResult.class);
+        Mockito.when(this.queryManager.createQuery(Matchers.anyString(), Matchers.anyString())).thenReturn(query);
+        Mockito.when(query.execute()).thenReturn(result);
+        Mockito.when(result.getNodes()).thenReturn(nodes);
+        return tokens;
+    }
+}
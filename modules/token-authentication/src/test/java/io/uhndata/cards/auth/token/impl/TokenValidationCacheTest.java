@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.auth.token.impl;
+
+import java.util.Calendar;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.memory.ModifiedNodeState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+/**
+ * Unit tests for {@link TokenValidationCache}.
+ *
+ * @version $Id$
+ */
+public class TokenValidationCacheTest
+{
+    private static final String NODE_ID = "token-1";
+
+    private static final String LOGIN_TOKEN = "login";
+
+    private static final String USER = "alice";
+
+    private static final String TOKEN_NAME = "t1";
+
+    private static final String FOLDER = "a";
+
+    private TokenValidationCache cache;
+
+    private CardsTokenImpl token;
+
+    private NodeState base;
+
+    @Before
+    public void setup()
+    {
+        this.cache = new TokenValidationCache();
+        this.token = Mockito.mock(CardsTokenImpl.class);
+        Mockito.when(this.token.detachedCopy(Matchers.anyString())).thenReturn(this.token);
+        Mockito.when(this.token.getUserId()).thenReturn(USER);
+
+        final NodeBuilder root = EmptyNodeState.EMPTY_NODE.builder();
+        tokens(root).child(USER).child(TOKEN_NAME).setProperty(JcrConstants.JCR_UUID, NODE_ID);
+        final NodeBuilder folder = root.child("home").child("users").child(FOLDER);
+        folder.setProperty(JcrConstants.JCR_PRIMARYTYPE, UserConstants.NT_REP_AUTHORIZABLE_FOLDER, Type.NAME);
+        final NodeBuilder user = folder.child(USER);
+        user.setProperty(JcrConstants.JCR_PRIMARYTYPE, UserConstants.NT_REP_USER, Type.NAME);
+        user.setProperty(UserConstants.REP_AUTHORIZABLE_ID, USER);
+        // A squeezed state, so that comparing against it only reports the nodes actually modified by each test
+        this.base = ModifiedNodeState.squeeze(root.getNodeState());
+        this.cache.contentChanged(this.base, CommitInfo.EMPTY);
+    }
+
+    @Test
+    public void validTokensAreCached()
+    {
+        Assert.assertNull(this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+        this.cache.putValid(NODE_ID, this.token);
+        Assert.assertSame(this.token, this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+    }
+
+    @Test
+    public void expiredTokensAreNotReturned()
+    {
+        final Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.MINUTE, -1);
+        Mockito.when(this.token.getExpirationTime()).thenReturn(expiration);
+        this.cache.putValid(NODE_ID, this.token);
+        Assert.assertNull(this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+    }
+
+    @Test
+    public void invalidIdentifiersReplaceValidTokens()
+    {
+        this.cache.putValid(NODE_ID, this.token);
+        this.cache.putInvalid(NODE_ID);
+        Assert.assertTrue(this.cache.isKnownInvalid(NODE_ID));
+        Assert.assertNull(this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+        this.cache.putValid(NODE_ID, this.token);
+        Assert.assertFalse(this.cache.isKnownInvalid(NODE_ID));
+    }
+
+    @Test
+    public void modifiedTokensAreDropped()
+    {
+        this.cache.putValid(NODE_ID, this.token);
+        final NodeBuilder root = this.base.builder();
+        tokens(root).child(USER).child(TOKEN_NAME).setProperty(CardsTokenImpl.TOKEN_ATTRIBUTE_EXPIRY, "now");
+        this.cache.contentChanged(root.getNodeState(), CommitInfo.EMPTY);
+        Assert.assertNull(this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+    }
+
+    @Test
+    public void removedUsersDropTheirTokens()
+    {
+        this.cache.putValid(NODE_ID, this.token);
+        final NodeBuilder root = this.base.builder();
+        tokens(root).child(USER).remove();
+        this.cache.contentChanged(root.getNodeState(), CommitInfo.EMPTY);
+        Assert.assertNull(this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+    }
+
+    @Test
+    public void disabledUsersDropTheirTokens()
+    {
+        this.cache.putValid(NODE_ID, this.token);
+        final NodeBuilder root = this.base.builder();
+        user(root).setProperty(UserConstants.REP_DISABLED, "reason");
+        this.cache.contentChanged(root.getNodeState(), CommitInfo.EMPTY);
+        Assert.assertNull(this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+    }
+
+    @Test
+    public void deletedUserAccountsDropTheirTokens()
+    {
+        this.cache.putValid(NODE_ID, this.token);
+        final NodeBuilder root = this.base.builder();
+        root.child("home").child("users").child(FOLDER).remove();
+        this.cache.contentChanged(root.getNodeState(), CommitInfo.EMPTY);
+        Assert.assertNull(this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+    }
+
+    @Test
+    public void otherUserChangesKeepTheCachedTokens()
+    {
+        this.cache.putValid(NODE_ID, this.token);
+        final NodeBuilder root = this.base.builder();
+        user(root).setProperty("rep:password", "changed");
+        final NodeBuilder other = root.child("home").child("users").child(FOLDER).child("bob");
+        other.setProperty(JcrConstants.JCR_PRIMARYTYPE, UserConstants.NT_REP_USER, Type.NAME);
+        other.setProperty(UserConstants.REP_AUTHORIZABLE_ID, "bob");
+        this.cache.contentChanged(root.getNodeState(), CommitInfo.EMPTY);
+        Assert.assertSame(this.token, this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+
+        other.setProperty(UserConstants.REP_DISABLED, "reason");
+        this.cache.contentChanged(root.getNodeState(), CommitInfo.EMPTY);
+        Assert.assertSame(this.token, this.cache.getValid(NODE_ID, LOGIN_TOKEN));
+    }
+
+    @Test
+    public void addedTokensAreNoLongerInvalid()
+    {
+        this.cache.putInvalid("token-2");
+        final NodeBuilder root = this.base.builder();
+        tokens(root).child(USER).child("t2").setProperty(JcrConstants.JCR_UUID, "token-2");
+        this.cache.contentChanged(root.getNodeState(), CommitInfo.EMPTY);
+        Assert.assertFalse(this.cache.isKnownInvalid("token-2"));
+    }
+
+    @Test
+    public void cacheIsBounded()
+    {
+        for (int i = 0; i < 10_050; ++i) {
+            this.cache.putInvalid("id" + i);
+        }
+        int remaining = 0;
+        for (int i = 0; i < 10_050; ++i) {
+            remaining += this.cache.isKnownInvalid("id" + i) ? 1 : 0;
+        }
+        Assert.assertEquals(10_000, remaining);
+        Assert.assertTrue(this.cache.isKnownInvalid("id10049"));
+    }
+
+    private static NodeBuilder user(final NodeBuilder root)
+    {
+        return root.child("home").child("users").child(FOLDER).child(USER);
+    }
+
+    private static NodeBuilder tokens(final NodeBuilder root)
+    {
+        return root.child(CardsTokenImpl.SYSTEM_NODE_NAME).child(CardsTokenImpl.TOKENS_NODE_NAME);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Declares which parts of the repository a commit {@link org.apache.jackrabbit.oak.spi.commit.Editor editor} is
+ * interested in. A scope is a list of absolute path patterns, where each path segment may be {@code *} to match any
+ * single node name. A pattern matches a node and its whole subtree. Optionally, a scope may also restrict the primary
+ * node type of the nodes matched by the last segment of a pattern, for example {@code /Forms/*} with
+ * {@code cards:Form}.
+ * <p>
+ * Instances are immutable and can be shared between commits. Use {@link ScopedEditor#wrap} to apply a scope to an
+ * editor.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class EditorScope
+{
+    /** The result of matching a path against a scope. */
+    public enum Match
+    {
+        /** The path is outside the scope, and so is its whole subtree. */
+        NONE,
+        /** The path is not in the scope, but some of its descendants may be. */
+        ANCESTOR,
+        /** The path is in the scope, and so is its whole subtree. */
+        MATCH
+    }
+
+    private final List<String[]> patterns;
+
+    private final Set<String> nodeTypes;
+
+    private EditorScope(final List<String[]> patterns, final Set<String> nodeTypes)
+    {
+        this.patterns = patterns;
+        this.nodeTypes = nodeTypes;
+    }
+
+    /**
+     * Create a scope covering the subtrees matching the given path patterns.
+     *
+     * @param paths absolute path patterns, for example {@code /Forms} or {@code /Subjects/*}
+     * @return a new scope
+     */
+    public static EditorScope forPaths(final String... paths)
+    {
+        final List<String[]> patterns = new ArrayList<>(paths.length);
+        for (final String path : paths) {
+            if (path == null || !path.startsWith("/")) {
+                throw new IllegalArgumentException("Editor scopes must be absolute paths: " + path);
+            }
+            patterns.add(Arrays.stream(path.split("/")).filter(segment -> !segment.isEmpty())
+                .toArray(String[]::new));
+        }
+        return new EditorScope(Collections.unmodifiableList(patterns), Collections.emptySet());
+    }
+
+    /**
+     * Restrict this scope to the subtrees whose root, the node matched by the last segment of a path pattern, has one
+     * of the given primary node types.
+     *
+     * @param types primary node type names, for example {@code cards:Form}
+     * @return a new scope, with the same paths as this one and the specified node types
+     */
+    public EditorScope withNodeTypes(final String... types)
+    {
+        return new EditorScope(this.patterns, Collections.unmodifiableSet(new HashSet<>(Arrays.asList(types))));
+    }
+
+    /**
+     * Check how a node relates to this scope.
+     *
+     * @param segments the names of the nodes on the path from the root to the node to check, excluding the root node
+     * @param state the node to check, used for checking its node type; for deleted nodes this should be the state
+     *            before the deletion
+     * @return the match result
+     */
+    public Match match(final List<String> segments, final NodeState state)
+    {
+        Match result = Match.NONE;
+        for (final String[] pattern : this.patterns) {
+            final Match current = match(pattern, segments, state);
+            if (current == Match.MATCH) {
+                return current;
+            } else if (current == Match.ANCESTOR) {
+                result = current;
+            }
+        }
+        return result;
+    }
+
+    private Match match(final String[] pattern, final List<String> segments, final NodeState state)
+    {
+        final int length = Math.min(pattern.length, segments.size());
+        for (int i = 0; i < length; ++i) {
+            if (!"*".equals(pattern[i]) && !pattern[i].equals(segments.get(i))) {
+                return Match.NONE;
+            }
+        }
+        if (segments.size() < pattern.length) {
+            return Match.ANCESTOR;
+        }
+        // The path is either the root of a matching subtree, or a descendant of it. Descendants are only reached
+        // through roots that have already been checked, so only check the node type for the root itself.
+        if (segments.size() == pattern.length && !this.nodeTypes.isEmpty()) {
+            final PropertyState primaryType = state.getProperty("jcr:primaryType");
+            if (primaryType == null || !this.nodeTypes.contains(primaryType.getValue(Type.NAME))) {
+                return Match.NONE;
+            }
+        }
+        return Match.MATCH;
+    }
+}
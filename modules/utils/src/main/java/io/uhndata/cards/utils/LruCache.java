@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A thread safe cache holding a bounded number of entries, which discards the least recently used entry once full.
+ * Both reading and writing an entry count as using it. {@code null} keys and values are not supported, and a
+ * {@code null} returned by a lookup means that nothing is cached for that key.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of cached values
+ * @version $Id$
+ */
+public final class LruCache<K, V>
+{
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Map<K, V> entries;
+
+    /**
+     * Create a new, empty cache.
+     *
+     * @param maxSize how many entries to keep at most, must be positive
+     */
+    public LruCache(final int maxSize)
+    {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum cache size must be positive: " + maxSize);
+        }
+        this.entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Retrieve a cached value, marking it as recently used.
+     *
+     * @param key the key to look up
+     * @return the cached value, or {@code null} if nothing is cached for this key
+     */
+    public synchronized V get(final K key)
+    {
+        return this.entries.get(key);
+    }
+
+    /**
+     * Cache a value, replacing any value previously cached for the same key. If the cache is full, the least recently
+     * used entry is discarded.
+     *
+     * @param key the key to cache the value for
+     * @param value the value to cache
+     */
+    public synchronized void put(final K key, final V value)
+    {
+        this.entries.put(key, value);
+    }
+
+    /**
+     * Retrieve a cached value, computing and caching it first if it is not cached yet. The computation happens while
+     * the cache is locked, so it should be fast; expensive values should be computed outside the cache and
+     * {@link #put put} afterwards.
+     *
+     * @param key the key to look up
+     * @param computation computes the value if it is not cached; if it returns {@code null}, nothing is cached
+     * @return the cached or newly computed value, may be {@code null}
+     */
+    public synchronized V computeIfAbsent(final K key, final Function<? super K, ? extends V> computation)
+    {
+        return this.entries.computeIfAbsent(key, computation);
+    }
+
+    /**
+     * Discard the entry cached for a key, if any.
+     *
+     * @param key the key whose entry to discard
+     * @return the value that was cached, or {@code null} if nothing was cached for this key
+     */
+    public synchronized V remove(final K key)
+    {
+        return this.entries.remove(key);
+    }
+
+    /**
+     * Discard the entry cached for a key, but only if it is still the given value.
+     *
+     * @param key the key whose entry to discard
+     * @param value the value expected to be cached
+     * @return {@code true} if the entry was discarded
+     */
+    public synchronized boolean remove(final K key, final V value)
+    {
+        return this.entries.remove(key, value);
+    }
+
+    /**
+     * Discard all the entries whose value matches a condition.
+     *
+     * @param condition which values to discard
+     */
+    public synchronized void removeValuesIf(final Predicate<? super V> condition)
+    {
+        this.entries.values().removeIf(condition);
+    }
+
+    /**
+     * Discard all the entries whose key matches a condition.
+     *
+     * @param condition which keys to discard
+     */
+    public synchronized void removeKeysIf(final Predicate<? super K> condition)
+    {
+        this.entries.keySet().removeIf(condition);
+    }
+
+    /**
+     * Perform an action on all the cached values, without marking them as recently used. The cache is locked while the
+     * action runs, so it must not access the cache.
+     *
+     * @param action the action to perform on each value
+     */
+    public synchronized void forEachValue(final Consumer<? super V> action)
+    {
+        this.entries.values().forEach(action);
+    }
+
+    /**
+     * Discard all the cached entries.
+     */
+    public synchronized void clear()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * Count the cached entries.
+     *
+     * @return the number of cached entries, at most the maximum size of the cache
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+}
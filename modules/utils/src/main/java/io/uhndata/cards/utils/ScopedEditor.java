@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.uhndata.cards.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * An {@link Editor} that routes a commit diff to another editor only along the paths that lead to an
+ * {@link EditorScope}. Subtrees that are outside the scope are skipped entirely, without being visited by the wrapped
+ * editor. Once the diff reaches a node inside the scope, the wrapped editor's own child editors are used directly, so
+ * there is no overhead inside the scope.
+ * <p>
+ * Editor providers should use {@link #wrap(EditorScope, Editor)} on the root editor they would otherwise return:
+ * </p>
+ *
+ * <pre>
+ * private static final EditorScope SCOPE = EditorScope.forPaths("/Forms/*").withNodeTypes("cards:Form");
+ *
+ * public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder, CommitInfo info)
+ * {
+ *     return ScopedEditor.wrap(SCOPE, new MyEditor(builder));
+ * }
+ * </pre>
+ *
+ * @version $Id$
+ */
+public final class ScopedEditor implements Editor
+{
+    private final EditorScope scope;
+
+    private final Editor delegate;
+
+    private final List<String> segments;
+
+    private ScopedEditor(final EditorScope scope, final Editor delegate, final List<String> segments)
+    {
+        this.scope = scope;
+        this.delegate = delegate;
+        this.segments = segments;
+    }
+
+    /**
+     * Restrict a root editor to a scope.
+     *
+     * @param scope the scope that the editor is interested in
+     * @param rootEditor the editor for the root node, may be {@code null}
+     * @return an editor that only forwards the diff of the scoped subtrees to the root editor, or {@code null} if the
+     *         root editor is {@code null}
+     */
+    public static Editor wrap(final EditorScope scope, final Editor rootEditor)
+    {
+        if (rootEditor == null) {
+            return null;
+        }
+        return new ScopedEditor(scope, rootEditor, Collections.emptyList());
+    }
+
+    @Override
+    public void enter(final NodeState before, final NodeState after) throws CommitFailedException
+    {
+        this.delegate.enter(before, after);
+    }
+
+    @Override
+    public void leave(final NodeState before, final NodeState after) throws CommitFailedException
+    {
+        this.delegate.leave(before, after);
+    }
+
+    @Override
+    public void propertyAdded(final PropertyState after) throws CommitFailedException
+    {
+        this.delegate.propertyAdded(after);
+    }
+
+    @Override
+    public void propertyChanged(final PropertyState before, final PropertyState after) throws CommitFailedException
+    {
+        this.delegate.propertyChanged(before, after);
+    }
+
+    @Override
+    public void propertyDeleted(final PropertyState before) throws CommitFailedException
+    {
+        this.delegate.propertyDeleted(before);
+    }
+
+    @Override
+    public Editor childNodeAdded(final String name, final NodeState after) throws CommitFailedException
+    {
+        final List<String> childSegments = getChildSegments(name);
+        final EditorScope.Match match = this.scope.match(childSegments, after);
+        return match == EditorScope.Match.NONE ? null
+            : route(match, childSegments, this.delegate.childNodeAdded(name, after));
+    }
+
+    @Override
+    public Editor childNodeChanged(final String name, final NodeState before, final NodeState after)
+        throws CommitFailedException
+    {
+        final List<String> childSegments = getChildSegments(name);
+        final EditorScope.Match match = this.scope.match(childSegments, after);
+        return match == EditorScope.Match.NONE ? null
+            : route(match, childSegments, this.delegate.childNodeChanged(name, before, after));
+    }
+
+    @Override
+    public Editor childNodeDeleted(final String name, final NodeState before) throws CommitFailedException
+    {
+        final List<String> childSegments = getChildSegments(name);
+        final EditorScope.Match match = this.scope.match(childSegments, before);
+        return match == EditorScope.Match.NONE ? null
+            : route(match, childSegments, this.delegate.childNodeDeleted(name, before));
+    }
+
+    private List<String> getChildSegments(final String name)
+    {
+        final List<String> result = new ArrayList<>(this.segments.size() + 1);
+        result.addAll(this.segments);
+        result.add(name);
+        return result;
+    }
+
+    private Editor route(final EditorScope.Match match, final List<String> childSegments, final Editor childEditor)
+    {
+        if (childEditor == null || match == EditorScope.Match.MATCH) {
+            // Inside the scope there's nothing left to filter, let the wrapped editor handle the subtree on its own
+            return childEditor;
+        }
+        return new ScopedEditor(this.scope, childEditor, childSegments);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Unit tests for {@link EditorScope}.
+ *
+ * @version $Id$
+ */
+public class EditorScopeTest
+{
+    private static final String FORM_TYPE = "cards:Form";
+
+    @Test
+    public void pathsMatchTheirWholeSubtree()
+    {
+        final EditorScope scope = EditorScope.forPaths("/Forms");
+        Assert.assertEquals(EditorScope.Match.MATCH, scope.match(Arrays.asList("Forms"), node(null)));
+        Assert.assertEquals(EditorScope.Match.MATCH, scope.match(Arrays.asList("Forms", "f1", "a"), node(null)));
+        Assert.assertEquals(EditorScope.Match.NONE, scope.match(Arrays.asList("Subjects"), node(null)));
+    }
+
+    @Test
+    public void ancestorsOfPatternsArePartialMatches()
+    {
+        final EditorScope scope = EditorScope.forPaths("/Forms/*/answers");
+        Assert.assertEquals(EditorScope.Match.ANCESTOR, scope.match(Collections.emptyList(), node(null)));
+        Assert.assertEquals(EditorScope.Match.ANCESTOR, scope.match(Arrays.asList("Forms", "f1"), node(null)));
+        Assert.assertEquals(EditorScope.Match.MATCH,
+            scope.match(Arrays.asList("Forms", "f1", "answers"), node(null)));
+        Assert.assertEquals(EditorScope.Match.NONE, scope.match(Arrays.asList("Forms", "f1", "other"), node(null)));
+    }
+
+    @Test
+    public void anyPatternCanMatch()
+    {
+        final EditorScope scope = EditorScope.forPaths("/Forms", "/Subjects/*");
+        Assert.assertEquals(EditorScope.Match.MATCH, scope.match(Arrays.asList("Forms"), node(null)));
+        Assert.assertEquals(EditorScope.Match.ANCESTOR, scope.match(Arrays.asList("Subjects"), node(null)));
+        Assert.assertEquals(EditorScope.Match.MATCH, scope.match(Arrays.asList("Subjects", "s1"), node(null)));
+    }
+
+    @Test
+    public void nodeTypesAreCheckedOnTheSubtreeRoot()
+    {
+        final EditorScope scope = EditorScope.forPaths("/Forms/*").withNodeTypes(FORM_TYPE);
+        Assert.assertEquals(EditorScope.Match.MATCH, scope.match(Arrays.asList("Forms", "f1"), node(FORM_TYPE)));
+        Assert.assertEquals(EditorScope.Match.NONE,
+            scope.match(Arrays.asList("Forms", "f1"), node("nt:unstructured")));
+        Assert.assertEquals(EditorScope.Match.NONE, scope.match(Arrays.asList("Forms", "f1"), node(null)));
+        // Descendants of a matched root are not checked again
+        Assert.assertEquals(EditorScope.Match.MATCH,
+            scope.match(Arrays.asList("Forms", "f1", "a1"), node("cards:TextAnswer")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void relativePathsAreRejected()
+    {
+        EditorScope.forPaths("Forms");
+    }
+
+    static NodeState node(final String primaryType)
+    {
+        final NodeState state = Mockito.mock(NodeState.class);
+        if (primaryType != null) {
+            final PropertyState property = Mockito.mock(PropertyState.class);
+            Mockito.when(property.getValue(Type.NAME)).thenReturn(primaryType);
+            Mockito.when(state.getProperty("jcr:primaryType")).thenReturn(property);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LruCache}.
+ *
+ * @version $Id$
+ */
+public class LruCacheTest
+{
+    private static final String FIRST = "a";
+
+    private static final String SECOND = "b";
+
+    private static final String THIRD = "c";
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted()
+    {
+        final LruCache<String, Integer> cache = new LruCache<>(2);
+        cache.put(FIRST, 1);
+        cache.put(SECOND, 2);
+        // Reading the first entry makes the second one the least recently used
+        Assert.assertEquals(Integer.valueOf(1), cache.get(FIRST));
+        cache.put(THIRD, 3);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(Integer.valueOf(1), cache.get(FIRST));
+        Assert.assertNull(cache.get(SECOND));
+        Assert.assertEquals(Integer.valueOf(3), cache.get(THIRD));
+    }
+
+    @Test
+    public void newEntriesAreNeverEvictedImmediately()
+    {
+        final LruCache<String, Integer> cache = new LruCache<>(1);
+        cache.put(FIRST, 1);
+        cache.put(SECOND, 2);
+        Assert.assertNull(cache.get(FIRST));
+        Assert.assertEquals(Integer.valueOf(2), cache.get(SECOND));
+    }
+
+    @Test
+    public void computeIfAbsentOnlyComputesMissingValues()
+    {
+        final LruCache<String, Integer> cache = new LruCache<>(2);
+        Assert.assertEquals(Integer.valueOf(1), cache.computeIfAbsent(FIRST, key -> 1));
+        Assert.assertEquals(Integer.valueOf(1), cache.computeIfAbsent(FIRST, key -> 2));
+        Assert.assertNull(cache.computeIfAbsent(SECOND, key -> null));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void entriesCanBeRemoved()
+    {
+        final LruCache<String, Integer> cache = new LruCache<>(5);
+        cache.put(FIRST, 1);
+        cache.put(SECOND, 2);
+        cache.put(THIRD, 3);
+
+        Assert.assertFalse(cache.remove(FIRST, 2));
+        Assert.assertTrue(cache.remove(FIRST, 1));
+        cache.removeValuesIf(value -> value == 2);
+        Assert.assertNull(cache.get(SECOND));
+        cache.removeKeysIf(THIRD::equals);
+        Assert.assertEquals(0, cache.size());
+
+        cache.put(FIRST, 1);
+        Assert.assertEquals(Integer.valueOf(1), cache.remove(FIRST));
+        cache.put(FIRST, 1);
+        cache.clear();
+        Assert.assertNull(cache.get(FIRST));
+    }
+
+    @Test
+    public void visitingValuesDoesNotChangeTheirOrder()
+    {
+        final LruCache<String, Integer> cache = new LruCache<>(2);
+        cache.put(FIRST, 1);
+        cache.put(SECOND, 2);
+        final int[] sum = new int[1];
+        cache.forEachValue(value -> sum[0] += value);
+        Assert.assertEquals(3, sum[0]);
+
+        // The first entry is still the least recently used
+        cache.put(THIRD, 3);
+        Assert.assertNull(cache.get(FIRST));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxSizeMustBePositive()
+    {
+        new LruCache<String, String>(0);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package io.uhndata.cards.utils;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Unit tests for {@link ScopedEditor}.
+ *
+ * @version $Id$
+ */
+public class ScopedEditorTest
+{
+    private static final String FORMS = "Forms";
+
+    private static final String SUBJECTS = "Subjects";
+
+    private Editor rootEditor;
+
+    private Editor formsEditor;
+
+    private Editor formEditor;
+
+    private Editor scoped;
+
+    @Before
+    public void setup() throws CommitFailedException
+    {
+        this.rootEditor = Mockito.mock(Editor.class);
+        this.formsEditor = Mockito.mock(Editor.class);
+        this.formEditor = Mockito.mock(Editor.class);
+        Mockito.when(this.rootEditor.childNodeChanged(Mockito.eq(FORMS), Mockito.any(NodeState.class),
+            Mockito.any(NodeState.class))).thenReturn(this.formsEditor);
+        Mockito.when(this.formsEditor.childNodeAdded(Mockito.anyString(), Mockito.any(NodeState.class)))
+            .thenReturn(this.formEditor);
+        this.scoped = ScopedEditor.wrap(EditorScope.forPaths("/Forms/*"), this.rootEditor);
+    }
+
+    @Test
+    public void nullEditorsAreNotWrapped()
+    {
+        Assert.assertNull(ScopedEditor.wrap(EditorScope.forPaths("/Forms"), null));
+    }
+
+    @Test
+    public void subtreesOutsideTheScopeAreSkipped() throws CommitFailedException
+    {
+        final NodeState node = EditorScopeTest.node(null);
+        Assert.assertNull(this.scoped.childNodeChanged(SUBJECTS, node, node));
+        Assert.assertNull(this.scoped.childNodeAdded(SUBJECTS, node));
+        Assert.assertNull(this.scoped.childNodeDeleted(SUBJECTS, node));
+        Mockito.verify(this.rootEditor, Mockito.never()).childNodeChanged(Mockito.eq(SUBJECTS),
+            Mockito.any(NodeState.class), Mockito.any(NodeState.class));
+        Mockito.verify(this.rootEditor, Mockito.never()).childNodeAdded(Mockito.eq(SUBJECTS),
+            Mockito.any(NodeState.class));
+        Mockito.verify(this.rootEditor, Mockito.never()).childNodeDeleted(Mockito.eq(SUBJECTS),
+            Mockito.any(NodeState.class));
+    }
+
+    @Test
+    public void ancestorsOfTheScopeAreStillFiltered() throws CommitFailedException
+    {
+        final NodeState node = EditorScopeTest.node(null);
+        final Editor forms = this.scoped.childNodeChanged(FORMS, node, node);
+        Assert.assertNotNull(forms);
+        Assert.assertNotSame(this.formsEditor, forms);
+
+        // Inside the scope, the wrapped editor's own child editors are used directly
+        Assert.assertSame(this.formEditor, forms.childNodeAdded("f1", node));
+    }
+
+    @Test
+    public void propertyAndLifecycleEventsAreForwarded() throws CommitFailedException
+    {
+        final NodeState node = EditorScopeTest.node(null);
+        this.scoped.enter(node, node);
+        this.scoped.propertyAdded(null);
+        this.scoped.propertyChanged(null, null);
+        this.scoped.propertyDeleted(null);
+        this.scoped.leave(node, node);
+        Mockito.verify(this.rootEditor).enter(node, node);
+        Mockito.verify(this.rootEditor).propertyAdded(null);
+        Mockito.verify(this.rootEditor).propertyChanged(null, null);
+        Mockito.verify(this.rootEditor).propertyDeleted(null);
+        Mockito.verify(this.rootEditor).leave(node, node);
+    }
+}
@@ -27,6 +27,8 @@
 import org.osgi.service.component.annotations.Reference;
 
 import io.uhndata.cards.resolverProvider.ThreadResourceResolverProvider;
+import io.uhndata.cards.utils.EditorScope;
+import io.uhndata.cards.utils.ScopedEditor;
 
 /**
  * A {@link EditorProvider} returning {@link LastModifiedEditor}.
@@ -36,6 +38,13 @@
 @Component(property = "service.ranking:Integer=70")
 public class LastModifiedEditorProvider implements EditorProvider
 {
+    /**
+     * The locations of the mix:lastModified nodes that this editor must update. Vocabularies are also
+     * mix:lastModified, but they are replaced as a whole when they are (re)installed, so their modification date is
+     * set when they are created, and walking through all their terms on each install is wasted.
+     */
+    private static final EditorScope SCOPE = EditorScope.forPaths("/Forms", "/Subjects", "/Questionnaires");
+
     @Reference
     private ThreadResourceResolverProvider rrp;
 
@@ -46,7 +55,7 @@ public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder build
         final ResourceResolver myResolver = this.rrp.getThreadResourceResolver();
         if (myResolver != null) {
             // Each LastModifiedEditor maintains a state, so a new instance must be returned each time
-            return new LastModifiedEditor(builder, myResolver, null);
+            return ScopedEditor.wrap(SCOPE, new LastModifiedEditor(builder, myResolver, null));
         }
         return null;
     }
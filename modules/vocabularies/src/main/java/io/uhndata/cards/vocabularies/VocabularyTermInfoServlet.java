@@ -20,9 +20,15 @@
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.jcr.Session;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
@@ -39,13 +45,17 @@
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
 import org.osgi.service.component.annotations.Component;
 
+import io.uhndata.cards.vocabularies.internal.TermChildrenFinder;
+
 /**
  * A servlet that extends the normal JSON object of a VocabularyTermNode by replacing IDs with objects containing their
- * name and ID.
+ * name and ID. Whether the listed terms have children is computed for all of them at once by
+ * {@link TermChildrenFinder}.
  *
  * @version $Id$
  */
@@ -63,8 +73,8 @@ public class VocabularyTermInfoServlet extends SlingSafeMethodsServlet
 
     private static final String CHILDREN_PROPERTY = "cards:children";
 
-    /* Copying over every child tends to bloat the response, so we only copy a subset of the data */
-    private static final String[] KEYS_TO_COPY = { "identifier", "label", "@path" };
+    private static final String IDENTIFIER = "identifier";
+
 
     @Override
     public void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException
@@ -77,6 +87,28 @@ public void doGet(final SlingHttpServletRequest request, final SlingHttpServletR
 
         // Our normal output would be ourselves as a JSONObject
         JsonObject json = request.getResource().adaptTo(JsonObject.class);
+
+        // Resolve the terms referenced in our array properties
+        Map<String, List<Object>> arrays = new LinkedHashMap<>();
+        for (Map.Entry<String, JsonValue> entry : json.entrySet()) {
+            if (entry.getValue() instanceof JsonArray) {
+                arrays.put(entry.getKey(), this.resolveArray((JsonArray) entry.getValue(), vocabulary, resolver));
+            }
+        }
+
+        // Find our children
+        List<Resource> children = new ArrayList<>();
+        getChildren(json, resolver, parentPath).forEachRemaining(children::add);
+
+        // Check which of the listed terms have children, all at once
+        Collection<Resource> listedTerms = new ArrayList<>(children);
+        if (includeChildren) {
+            arrays.values().forEach(values -> values.stream().filter(Resource.class::isInstance)
+                .map(Resource.class::cast).forEach(listedTerms::add));
+        }
+        Set<String> haveChildren =
+            TermChildrenFinder.findTermsWithChildren(listedTerms, resolver.adaptTo(Session.class), parentPath);
+
         response.setContentType("application/json");
         final Writer out = response.getWriter();
         try (JsonGenerator jsonGen = Json.createGenerator(out)) {
@@ -88,31 +120,20 @@ public void doGet(final SlingHttpServletRequest request, final SlingHttpServletR
                 JsonValue value = json.get(key);
                 if (value instanceof JsonArray) {
                     // Any arrays should be iterated through and written
-                    jsonGen.write(
-                        key,
-                        this.processArray((JsonArray) value, vocabulary, resolver, parentPath, includeChildren)
-                    );
+                    jsonGen.write(key, this.processArray(arrays.get(key), haveChildren, includeChildren));
                 } else {
                     // Anything else should be left as-is
                     jsonGen.write(key, value);
                 }
             }
 
-            // Check to see if we ourselves have children, and add it to the result
-            boolean hasChildren = false;
-            Iterator<Resource> children = getChildren(
-                request.getResource().adaptTo(JsonObject.class),
-                resolver,
-                parentPath
-                );
+            // Add our children to the result
             jsonGen.writeStartArray(CHILDREN_PROPERTY);
-            while (children.hasNext()) {
-                hasChildren = true;
-                Resource child = children.next();
-                jsonGen.write(populateChildren(child.adaptTo(JsonObject.class), resolver, parentPath));
+            for (Resource child : children) {
+                jsonGen.write(summarize(child, haveChildren));
             }
             jsonGen.writeEnd();
-            jsonGen.write(HAS_CHILDREN_PROPERTY, hasChildren);
+            jsonGen.write(HAS_CHILDREN_PROPERTY, !children.isEmpty());
 
             jsonGen.writeEnd().flush();
         }
@@ -135,75 +156,76 @@ private Resource findParentVocabulary(Resource node)
     }
 
     /**
-     * Process the given array, following references (if any). Fill in an additional cards:hasChildren field
-     * if the node has children.
+     * Resolve the strings in the given array that are identifiers of terms in the vocabulary.
      *
      * @param array Array to iterate through
      * @param vocab Vocabulary object whose children are the vocabulary terms
      * @param resolver A reference to a ResourceResolver
-     * @param parentPath the location of the vocabulary whose children we're searching
-     * @param includeChildren whether or not we serialize our children
-     * @return The input array, but any strings whose names are vocabulary terms are replaced with the term itself
+     * @return The input values, where any strings whose names are vocabulary terms are replaced with the term resource
      */
-    private JsonValue processArray(JsonArray array, Resource vocab, ResourceResolver resolver, String parentPath,
-        boolean includeChildren)
+    private List<Object> resolveArray(JsonArray array, Resource vocab, ResourceResolver resolver)
     {
-        JsonArrayBuilder builder = Json.createArrayBuilder();
+        List<Object> result = new ArrayList<>(array.size());
         for (int i = 0; i < array.size(); i++) {
             JsonValue value = array.get(i);
+            Resource linkedValue = null;
 
             // If this value is a string, attempt to find it within this vocabulary
-            if (value.getValueType() == ValueType.STRING) {
+            if (value.getValueType() == ValueType.STRING && vocab != null) {
                 // Parse out the name of the node, removing colons
-                JsonString potentialNameString = (JsonString) value;
-                String vocabTermNodeName = potentialNameString.getString();
-                vocabTermNodeName = vocabTermNodeName.replaceAll(":", "");
-
-                Resource linkedValue = resolver.getResource(vocab, "./" + vocabTermNodeName);
-                if (linkedValue == null) {
-                    // We couldn't load the parent resource; leave it as is
-                    builder.add(value);
-                } else {
-                    JsonObject linkedObject = linkedValue.adaptTo(JsonObject.class);
-                    // If necessary, we also populate this child's children
-                    if (includeChildren) {
-                        builder.add(populateChildren(linkedObject, resolver, parentPath));
-                    } else {
-                        builder.add(linkedObject);
-                    }
-                }
+                String vocabTermNodeName = ((JsonString) value).getString().replaceAll(":", "");
+                linkedValue = resolver.getResource(vocab, "./" + vocabTermNodeName);
+            }
+            // If this is not a term, leave it as is
+            result.add(linkedValue == null ? value : linkedValue);
+        }
+        return result;
+    }
+
+    /**
+     * Serialize the given array, where terms have already been resolved.
+     *
+     * @param values the array values, either JSON values or term resources
+     * @param haveChildren the paths of the terms known to have children
+     * @param includeChildren whether or not we serialize the children of the referenced terms
+     * @return The input array, but any strings whose names are vocabulary terms are replaced with the term itself
+     */
+    private JsonValue processArray(List<Object> values, Set<String> haveChildren, boolean includeChildren)
+    {
+        JsonArrayBuilder builder = Json.createArrayBuilder();
+        for (Object value : values) {
+            if (value instanceof Resource) {
+                // If necessary, we also populate this term's children
+                builder.add(includeChildren ? summarize((Resource) value, haveChildren)
+                    : ((Resource) value).adaptTo(JsonObject.class));
             } else {
-                // This is not a string, leave it as is
-                builder.add(value);
+                builder.add((JsonValue) value);
             }
         }
         return builder.build();
     }
 
     /**
-     * Add the children of the given node to itself.
+     * Serialize a subset of the given term, along with whether it has children. Copying over every child tends to bloat
+     * the response, so we only copy a subset of the data.
      *
-     * @param resource The resource whose children we're looking for
-     * @param resolver A reference to a resource resolver
-     * @param parentPath The path of the vocabulary to search through
-     * @return The input resource, with its children added as a property with key CHILDREN_PROPERTY
+     * @param term The term to serialize
+     * @param haveChildren the paths of the terms known to have children
+     * @return A JSON object with the identifier, label and path of the term, and the CHILDREN_PROPERTY flag
      */
-    private JsonObject populateChildren(JsonObject resource, ResourceResolver resolver, String parentPath)
+    private JsonObject summarize(Resource term, Set<String> haveChildren)
     {
-        // Add child terms
-        Iterator<Resource> children = getChildren(resource, resolver, parentPath);
-
-        // Copy the resource but add cards:hasChildren to it
+        ValueMap properties = term.getValueMap();
         JsonObjectBuilder objectCopier = Json.createObjectBuilder();
-        for (String key : KEYS_TO_COPY) {
-            objectCopier.add(key, resource.get(key));
-        }
-        objectCopier.add(HAS_CHILDREN_PROPERTY, children.hasNext());
+        objectCopier.add(IDENTIFIER, properties.get(IDENTIFIER, ""));
+        objectCopier.add("label", properties.get("label", ""));
+        objectCopier.add("@path", term.getPath());
+        objectCopier.add(HAS_CHILDREN_PROPERTY, haveChildren.contains(term.getPath()));
         return objectCopier.build();
     }
 
     /**
-     * Determine if the given resource has children or not.
+     * Find the children of the given resource.
      *
      * @param resource The JsonObject to obtain the children of. Must have a child with key "id"
      * @param resolver A reference to a ResourceResolver to use
@@ -218,7 +240,7 @@ private Iterator<Resource> getChildren(JsonObject resource, ResourceResolver res
             "SELECT * FROM [cards:VocabularyTerm] AS a WHERE isdescendantnode(a, '%s') AND a.parents = '%s'"
             + " ORDER BY a.label",
             parentPath,
-            resource.getString("identifier"));
+            resource.getString(IDENTIFIER));
         return resolver.findResources(oakQuery, "JCR-SQL2");
     }
 }
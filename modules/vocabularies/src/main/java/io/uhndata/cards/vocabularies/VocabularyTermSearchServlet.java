@@ -24,6 +24,9 @@
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -34,9 +37,14 @@
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import io.uhndata.cards.vocabularies.internal.VocabularySuggestionIndex;
 
 /**
  * A servlet that performs full text match and lucene queries on vocabulary terms.
@@ -57,6 +65,24 @@ public class VocabularyTermSearchServlet extends SlingSafeMethodsServlet
 
     private static final int MAX_LIMIT = 1000;
 
+    /** How many matching terms are counted by default before giving up and reporting an approximate total. */
+    private static final long DEFAULT_COUNT_LIMIT = 1000;
+
+    /**
+     * How many intervals of the hierarchy index can be used for matching the descendants of a term. Terms reachable
+     * through many paths may need many intervals, and a very long condition is slower than checking the ancestors.
+     */
+    private static final int MAX_HIERARCHY_RANGES = 16;
+
+    private static final String QUOTE = "'";
+
+    private static final String ESCAPED_QUOTE = "''";
+
+    private static final Pattern TERM_CATEGORY_FILTER = Pattern.compile("term_category:([^ ()]+)");
+
+    @Reference
+    private VocabularySuggestionIndex suggestionIndex;
+
     @Override
     public void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException
     {
@@ -68,10 +94,24 @@ public void doGet(final SlingHttpServletRequest request, final SlingHttpServletR
         long limit = getLongValueOrDefault(request.getParameter("limit"), DEFAULT_LIMIT);
         // To avoid overloading the server, we set a limit on the number of nodes that can be returned
         limit = Math.min(limit, MAX_LIMIT);
+        // Counting all the matches of a broad query can be very slow, so by default we stop counting after a while
+        boolean includeTotal = !"false".equalsIgnoreCase(request.getParameter("includeTotal"));
+        long countLimit = includeTotal
+            ? getLongValueOrDefault(request.getParameter("countLimit"), DEFAULT_COUNT_LIMIT) : 0;
+
+        // Plain suggestions can be answered from memory
+        if (StringUtils.isNotBlank(suggest) && StringUtils.isAllBlank(query, filter, sort)) {
+            VocabularySuggestionIndex.Suggestions suggestions =
+                this.suggestionIndex.suggest(request.getResource(), suggest, Math.max(offset, 0) + limit);
+            if (suggestions != null) {
+                writeSuggestions(request, response, suggestions, offset, limit, includeTotal);
+                return;
+            }
+        }
 
         // Parse and execute the given suggest or query
         String parentPath = request.getResource().getPath();
-        String oakQuery = constructQuery(suggest, query, filter, sort, parentPath);
+        String oakQuery = constructQuery(suggest, query, filter, sort, parentPath, request.getResourceResolver());
         Iterator<Resource> results = request.getResourceResolver().findResources(oakQuery, "JCR-SQL2");
 
         // Write the output
@@ -80,8 +120,8 @@ public void doGet(final SlingHttpServletRequest request, final SlingHttpServletR
         final Writer out = response.getWriter();
         try (JsonGenerator jsonGen = Json.createGenerator(out)) {
             jsonGen.writeStartObject();
-            long[] limits = writeNodes(jsonGen, results, offset, limit);
-            writeSummary(jsonGen, request, limits, oakQuery);
+            long[] limits = writeNodes(jsonGen, results, offset, limit, countLimit);
+            writeSummary(jsonGen, request, limits, oakQuery, includeTotal);
             jsonGen.writeEnd().flush();
         }
     }
@@ -94,9 +134,11 @@ public void doGet(final SlingHttpServletRequest request, final SlingHttpServletR
      * @param filter A filter to apply
      * @param sort Sorting to apply
      * @param parentPath The path of the parent resource
+     * @param resolver the resource resolver used for looking up the terms referenced in the filters
      * @return A formatted JCR-SQL2 query.
      */
-    private String constructQuery(String suggest, String query, String filter, String sort, String parentPath)
+    private String constructQuery(String suggest, String query, String filter, String sort, String parentPath,
+        ResourceResolver resolver)
     {
         // Start by parsing the suggest or query
         String oakQuery = "";
@@ -111,7 +153,7 @@ private String constructQuery(String suggest, String query, String filter, Strin
 
         // Apply filters, if given
         if (StringUtils.isNotBlank(filter)) {
-            oakQuery += getConditionFromFilter(filter);
+            oakQuery += getConditionFromFilter(filter, parentPath, resolver);
         }
 
         // Apply sorting, if given
@@ -134,7 +176,7 @@ private String handleFullTextQuery(String suggest, String parentPath)
         return (String.format(
             "select a.* from [cards:VocabularyTerm] as a where contains(a.*, '*%s*') and "
             + "isdescendantnode(a, '%s')",
-            suggest.replace("'", "''"),
+            suggest.replace(QUOTE, ESCAPED_QUOTE),
             parentPath
             ));
     }
@@ -151,7 +193,7 @@ private String handleLuceneQuery(String query, String parentPath)
         return (String.format(
             "select a.* from [cards:VocabularyTerm] as a where native('lucene', '%s') and "
             + "isdescendantnode(a, '%s')",
-            query.replace("'", "''"),
+            query.replace(QUOTE, ESCAPED_QUOTE),
             parentPath
             ));
     }
@@ -161,9 +203,11 @@ private String handleLuceneQuery(String query, String parentPath)
      * This will not work for everything, but it currently supports is_a:, term_category: and id: calls
      *
      * @param filters the SolR filters to convert
+     * @param parentPath the location of the vocabulary whose children we're searching
+     * @param resolver the resource resolver used for looking up the terms referenced in the filters
      * @return A JCR-SQL2 conditional, prepended with " AND "
      */
-    private String getConditionFromFilter(String filters)
+    private String getConditionFromFilter(String filters, String parentPath, ResourceResolver resolver)
     {
         // URL-decode the filters
         String decodedFilters = "";
@@ -173,9 +217,16 @@ private String getConditionFromFilter(String filters)
             // not going to happen - value came from JDK's own StandardCharsets
         }
 
-        decodedFilters = decodedFilters.replaceAll("'", "''");
+        decodedFilters = decodedFilters.replace(QUOTE, ESCAPED_QUOTE);
         decodedFilters = decodedFilters.replaceAll("is_a:(.+)", "a.'parents'='$1'");
-        decodedFilters = decodedFilters.replaceAll("term_category:([^ ()]+)", "a.'ancestors'='$1'");
+        Matcher categories = TERM_CATEGORY_FILTER.matcher(decodedFilters);
+        StringBuffer withCategories = new StringBuffer();
+        while (categories.find()) {
+            categories.appendReplacement(withCategories,
+                Matcher.quoteReplacement(getDescendantCondition(categories.group(1), parentPath, resolver)));
+        }
+        categories.appendTail(withCategories);
+        decodedFilters = withCategories.toString();
         decodedFilters = decodedFilters.replaceAll("id:(.+)", "a.'parents'='$1'");
 
         // TODO: Guard against UNIONs?
@@ -183,6 +234,53 @@ private String getConditionFromFilter(String filters)
         return (" AND " + decodedFilters);
     }
 
+    /**
+     * Outputs a JCR-SQL2 conditional matching the descendants of a term. If the vocabulary has a hierarchy index, and
+     * the descendants of the term are covered by at most {@link #MAX_HIERARCHY_RANGES} intervals, this is a range check
+     * on the {@code hierarchyIndex} property, otherwise the list of ancestors of each term is checked.
+     * <p>
+     * The {@code hierarchyIndex} property is only served by the {@code vocabularyTerms} index after that index is
+     * reindexed, which existing instances must do once, by setting {@code reindex=true} on
+     * {@code /oak:index/vocabularyTerms}. Until then, the range check is still correct, but is evaluated after the
+     * index lookup.
+     * </p>
+     *
+     * @param ancestor the identifier of the ancestor term, already escaped for use in a query
+     * @param parentPath the location of the vocabulary whose children we're searching
+     * @param resolver the resource resolver used for looking up the ancestor term
+     * @return A JCR-SQL2 conditional
+     */
+    private String getDescendantCondition(String ancestor, String parentPath, ResourceResolver resolver)
+    {
+        final String identifier = ancestor.replace(ESCAPED_QUOTE, QUOTE);
+        final Resource term = resolver.getResource(parentPath + "/" + identifier.replaceAll("[^A-Za-z0-9_\\.]", ""));
+        if (term != null) {
+            final ValueMap properties = term.getValueMap();
+            final Long index = properties.get("hierarchyIndex", Long.class);
+            final long[] ranges = properties.get("hierarchyRanges", long[].class);
+            if (index != null && hasUsableRanges(ranges)
+                && identifier.equals(properties.get("identifier", String.class))) {
+                // The ranges also include the term itself, which is not its own descendant
+                final StringBuilder condition =
+                    new StringBuilder("(a.'hierarchyIndex'<>").append(index).append(" AND (");
+                for (int i = 0; i + 1 < ranges.length; i += 2) {
+                    condition.append(i > 0 ? " OR " : "")
+                        .append("a.'hierarchyIndex'>=").append(ranges[i])
+                        .append(" AND a.'hierarchyIndex'<=").append(ranges[i + 1]);
+                }
+                return condition.append("))").toString();
+            }
+        }
+        // Vocabularies installed before the hierarchy index was introduced only have the list of ancestors, and terms
+        // with too many intervals are faster to match with the ancestors
+        return "a.'ancestors'='" + ancestor + QUOTE;
+    }
+
+    private static boolean hasUsableRanges(final long[] ranges)
+    {
+        return ranges != null && ranges.length > 0 && ranges.length <= 2 * MAX_HIERARCHY_RANGES;
+    }
+
     private String getOrderFromSort(String sort)
     {
         String decodedSort = sort.replace("nameSort", "[label]");
@@ -195,33 +293,67 @@ private String getOrderFromSort(String sort)
      *
      * @param jsonGen the JSON generator where the results should be serialized
      * @param request the current request
-     * @param offset the requested offset, may be the default value of {0}
-     * @param limit the requested limit, may be the default value of {10}
-     * @param returnedNodes the number of matching nodes included in the response, may be {@code 0} if no nodes were
-     *            returned
-     * @param totalMatchingNodes the total number of accessible nodes matching the request, may be {@code 0} if no nodes
-     *            match the filters, or the current user cannot access the nodes
+     * @param limits an array of values defining the range of the result: limits[0] is the 0-based offset, i.e. how many
+     *            results were skipped; limits[1] is the requested limit, the maximum number of results to return;
+     *            limits[2] is the number of results actually returned, equal to or less than limits[1]; limits[3] is
+     *            the number of total items that match the query; limits[4] is 1 if counting stopped before reaching
+     *            the end of the results, in which case limits[3] is only a lower bound
      * @param oakQuery test code, do not commit
+     * @param includeTotal whether the total number of matches should be included
      */
     private void writeSummary(final JsonGenerator jsonGen, final SlingHttpServletRequest request, final long[] limits,
-        final String oakQuery)
+        final String oakQuery, final boolean includeTotal)
     {
         jsonGen.write("req", request.getParameter("req"));
         jsonGen.write("offset", limits[0]);
         jsonGen.write("limit", limits[1]);
         jsonGen.write("returnedrows", limits[2]);
-        jsonGen.write("totalrows", limits[3]);
+        if (includeTotal) {
+            jsonGen.write("totalrows", limits[3]);
+            jsonGen.write("totalIsApproximate", limits[4] == 1);
+        }
         jsonGen.write("oakquery", oakQuery);
     }
 
+    private void writeSuggestions(final SlingHttpServletRequest request, final SlingHttpServletResponse response,
+        final VocabularySuggestionIndex.Suggestions suggestions, final long offset, final long limit,
+        final boolean includeTotal)
+        throws IOException
+    {
+        final long[] counts = new long[5];
+        counts[0] = offset;
+        counts[1] = limit;
+        counts[3] = suggestions.getTotal();
+
+        response.setContentType("application/json");
+        final Writer out = response.getWriter();
+        try (JsonGenerator jsonGen = Json.createGenerator(out)) {
+            jsonGen.writeStartObject();
+            jsonGen.writeStartArray("rows");
+            final List<String> paths = suggestions.getPaths();
+            for (int i = (int) Math.max(offset, 0); i < paths.size(); ++i) {
+                // Terms that the current user cannot access are skipped
+                Resource term = request.getResourceResolver().getResource(paths.get(i));
+                if (term != null) {
+                    jsonGen.write(term.adaptTo(JsonObject.class));
+                    ++counts[2];
+                }
+            }
+            jsonGen.writeEnd();
+            writeSummary(jsonGen, request, counts, "", includeTotal);
+            jsonGen.writeEnd().flush();
+        }
+    }
+
     private long[] writeNodes(final JsonGenerator jsonGen, final Iterator<Resource> nodes,
-        final long offset, final long limit)
+        final long offset, final long limit, final long countLimit)
     {
-        final long[] counts = new long[4];
+        final long[] counts = new long[5];
         counts[0] = offset;
         counts[1] = limit;
         counts[2] = 0;
         counts[3] = 0;
+        counts[4] = 0;
 
         long offsetCounter = offset < 0 ? 0 : offset;
         long limitCounter = limit < 0 ? 0 : limit;
@@ -229,6 +361,11 @@ private long[] writeNodes(final JsonGenerator jsonGen, final Iterator<Resource>
         jsonGen.writeStartArray("rows");
 
         while (nodes.hasNext()) {
+            if (offsetCounter == 0 && limitCounter == 0 && counts[3] >= countLimit) {
+                // The page is full and enough matches were counted, don't walk through all the remaining matches
+                counts[4] = 1;
+                break;
+            }
             Resource n = nodes.next();
             if (offsetCounter > 0) {
                 --offsetCounter;
@@ -26,6 +26,7 @@
 import javax.jcr.RepositoryException;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
@@ -33,15 +34,18 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.uhndata.cards.vocabularies.spi.VocabularyDescription;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescriptionBuilder;
 import io.uhndata.cards.vocabularies.spi.VocabularyIndexException;
 import io.uhndata.cards.vocabularies.spi.VocabularyIndexer;
 import io.uhndata.cards.vocabularies.spi.VocabularyParserUtils;
 
 /**
  * Abstract class specifying a vocabulary ontology indexer specifically for the National Cancer Institute Thesaurus. The
- * class implements methods common to parsers for the NCIT, but omits file-type specific methods. The parsing and node
- * creation process is done as a transaction, meaning that if it fails, then proposed changes saved in storage will not
- * be applied, and the repository will be left in its original state.
+ * class implements methods common to parsers for the NCIT, but omits file-type specific methods. Terms are saved in
+ * batches while they are created, so that the whole thesaurus is never held in memory. The vocabulary is built next
+ * to the previous version of the vocabulary, which is only replaced once the new version is complete; if the parsing
+ * fails, the partially installed vocabulary is removed and the previous version is kept.
  * <p>
  * The indexer assumes that the resource of the response it is given is a <code>VocabulariesHomepage</code> node under
  * which the <code>Vocabulary</code> node instance should be stored in the Jackrabbit Oak repository as a child.
@@ -56,6 +60,12 @@ public abstract class AbstractNCITIndexer implements VocabularyIndexer
     @Reference
     protected VocabularyParserUtils utils;
 
+    @Reference
+    protected VocabularySourceCache sourceCache;
+
+    /** The vocabulary node where the indexed data must be placed, under its temporary name while being installed. */
+    private final InheritableThreadLocal<Node> vocabularyNode = new InheritableThreadLocal<>();
+
     /**
      * Method called by the {@link io.uhndata.cards.vocabularies.VocabularyIndexerServlet} to parse and index a NCIT
      * vocabulary. Specifying the version to index is mandatory. There are two optional parameters.
@@ -86,14 +96,13 @@ public void index(final String source, final SlingHttpServletRequest request,
         // Obtain relevant request parameters.
         String identifier = StringUtils.defaultIfBlank(request.getParameter("identifier"), "ncit");
         String version = request.getParameter("version");
-        String httppath = request.getParameter("httppath");
         String localpath = request.getParameter("localpath");
-        String overwrite = request.getParameter("overwrite");
 
         // Obtain the resource of the request and adapt it to a JCR node. This must be the /Vocabularies homepage node.
         Node homepage = request.getResource().adaptTo(Node.class);
 
         final File temporaryFile = File.createTempFile(identifier, "");
+        File zipFile = null;
         try {
             // Throw exceptions if mandatory parameters are not found or if homepage node cannot be found
             if (version == null) {
@@ -104,83 +113,96 @@ public void index(final String source, final SlingHttpServletRequest request,
                 throw new VocabularyIndexException("Could not access resource of your request.");
             }
 
-            // Delete the Vocabulary node already representing this vocabulary instance if it exists
-            this.utils.clearVocabularyNode(homepage, identifier, overwrite);
+            // An existing Vocabulary node for this vocabulary is only replaced once the new one is fully installed
+            this.utils.checkCanInstall(homepage, identifier, request.getParameter("overwrite"));
 
             // Load temporary NCIT zip file. Default location is at https://evs.nci.nih.gov/ftp1/NCI_Thesaurus/
-            String sourceLocation = getDefaultSource(version);
-
-            VocabularyZipLoader zipLoader = new VocabularyZipLoader();
-            if (localpath != null) {
-                sourceLocation = localpath;
-                zipLoader.loadZipLocal(localpath, temporaryFile);
-            } else if (httppath != null) {
-                sourceLocation = httppath;
-                zipLoader.loadZipHttp(httppath, temporaryFile);
-            } else {
-                zipLoader.loadZipHttp(sourceLocation, temporaryFile);
+            String sourceLocation =
+                ObjectUtils.firstNonNull(localpath, request.getParameter("httppath"), getDefaultSource(version));
+            if (localpath == null) {
+                // Remote zip files are kept in the local cache, so that installing the same version again doesn't
+                // download it again
+                zipFile = downloadZip(source, identifier, version, sourceLocation);
             }
+            new VocabularyZipLoader().loadZipLocal(zipFile == null ? localpath : zipFile.getAbsolutePath(),
+                temporaryFile);
 
             // Create a new Vocabulary node instance representing this vocabulary instance
-            String name = "National Cancer Institute Thesaurus";
-            Node vocabularyNode = createNCITVocabularyNode(homepage, identifier, name, sourceLocation, version);
+            this.vocabularyNode.set(OntologyIndexerUtils.createVocabularyNode(homepage,
+                describe(identifier, sourceLocation, version)));
 
             // Parse the NCIT zip file and create VocabularyTerm node children
-            parseNCIT(temporaryFile, vocabularyNode);
+            parseNCIT(temporaryFile, this.vocabularyNode.get());
 
-            /*
-             * Save the JCR session. If any errors occur before this step, all proposed changes will not be applied and
-             * the repository will remain in its original state. Lucene indexing is automatically performed by the
-             * Jackrabbit Oak repository when this is performed.
-             */
-            saveSession(homepage);
+            // Save the last batch of terms, number the terms so that hierarchy queries can use ranges, replace the
+            // previous version of the vocabulary, and check-in the vocabulary
+            OntologyIndexerUtils.finalizeInstall(homepage, this.vocabularyNode);
 
             // Success response json
             this.utils.writeStatusJson(request, response, true, null);
         } catch (Exception e) {
+            // Remove the terms already saved, since they do not form a complete vocabulary; the previous version is
+            // untouched
+            OntologyIndexerUtils.abortInstall(homepage, this.vocabularyNode);
             // If parsing fails, return an error json with the exception message
             this.utils.writeStatusJson(request, response, false, "NCIT Flat indexing error: " + e.getMessage());
             LOGGER.error("NCIT indexing error: {}", e.getMessage(), e);
         } finally {
+            this.vocabularyNode.remove();
             // Delete temporary source file
             FileUtils.deleteQuietly(temporaryFile);
+            if (zipFile != null) {
+                this.sourceCache.release(zipFile);
+            }
         }
     }
 
     /**
-     * Creates a <code>Vocabulary</code> node that represents the current vocabulary instance with the identifier. as
-     * the name of the node. The vocabulary property <code>website</code> is currently fixed to
-     * https://ncit.nci.nih.gov/ncitbrowser/.
+     * Retrieves the NCIT zip file from the local cache of vocabulary sources, downloading it if needed.
      *
-     * @param homepage <code>VocabulariesHomepage</code> node instance that will be parent of the new vocabulary node
+     * @param source the source type of the indexer, used for distinguishing between the different NCIT formats
      * @param identifier short unique identifier of the vocabulary
-     * @param name the official name of the vocabulary
-     * @param source source of the vocabulary, usually a URL
-     * @param version the version of the vocabulary, a short string
-     * @return the <code>Vocabulary</code> node that was created
-     * @throws VocabularyIndexException when node cannot be created
+     * @param version the version of the vocabulary
+     * @param location the URL of the zip file
+     * @return the local zip file, to be released with {@link VocabularySourceCache#release(File)}
+     * @throws VocabularyIndexException thrown upon failure of zip file to load
      */
-    private Node createNCITVocabularyNode(Node homepage, String identifier, String name, String source, String version)
+    private File downloadZip(String source, String identifier, String version, String location)
         throws VocabularyIndexException
     {
         try {
-            Node vocabularyNode = homepage.addNode("./" + identifier, "cards:Vocabulary");
-            vocabularyNode.setProperty("identifier", identifier);
-            vocabularyNode.setProperty("name", name);
-            vocabularyNode.setProperty("source", source);
-            vocabularyNode.setProperty("version", version);
-            vocabularyNode.setProperty("website", "https://ncit.nci.nih.gov/ncitbrowser/");
-            return vocabularyNode;
-        } catch (RepositoryException e) {
-            String message = "Failed to create Vocabulary node: " + e.getMessage();
+            return this.sourceCache.getSource(source, identifier, version, location);
+        } catch (IllegalArgumentException | IOException e) {
+            String message = "Failed to load zip: " + e.getMessage();
             throw new VocabularyIndexException(message, e);
         }
     }
 
+    /**
+     * Describes the NCIT vocabulary instance being installed. The vocabulary property <code>website</code> is currently
+     * fixed to https://ncit.nci.nih.gov/ncitbrowser/.
+     *
+     * @param identifier short unique identifier of the vocabulary
+     * @param source source of the vocabulary, usually a URL
+     * @param version the version of the vocabulary, a short string
+     * @return the description of the vocabulary
+     */
+    private VocabularyDescription describe(String identifier, String source, String version)
+    {
+        return new VocabularyDescriptionBuilder()
+            .withIdentifier(identifier)
+            .withName("National Cancer Institute Thesaurus")
+            .withSource(source)
+            .withVersion(version)
+            .withWebsite("https://ncit.nci.nih.gov/ncitbrowser/")
+            .build();
+    }
+
     /**
      * Creates a <code>VocabularyTerm</code> node representing an individual term of the NCIT. This method is protected
      * to allow subclass implementations of {@link parseNCIT} to use this method, allowing the node creation process to
-     * be standardized.
+     * be standardized. Terms are saved in batches, so that the thesaurus is not held entirely in memory, and terms
+     * without parents are listed as the roots of the vocabulary.
      * <p>
      * Note that if the label does not exist, then the first synonym that exists is used instead for the label.
      * </p>
@@ -212,6 +234,7 @@ protected void createNCITVocabularyTermNode(Node vocabularyNode, String identifi
             vocabularyTermNode.setProperty("synonyms", synonyms);
             vocabularyTermNode.setProperty("parents", parents);
             vocabularyTermNode.setProperty("ancestors", ancestors);
+            OntologyIndexerUtils.termCreated(vocabularyTermNode, parents == null || parents.length == 0);
         } catch (RepositoryException e) {
             // If the identifier exists, print the identifier in the error message to identify node
             String message =
@@ -220,26 +243,6 @@ protected void createNCITVocabularyTermNode(Node vocabularyNode, String identifi
         }
     }
 
-    /**
-     * Saves the JCR session of the homepage node that was obtained from the resource of the request. If this is
-     * successful, then the changes made already will be applied to the JCR repository. If not, then all of the changes
-     * will not be applied. After the session is saved, then the JCR repository will automatically begin Lucene
-     * indexing.
-     *
-     * @param vocabulariesHomepage the <code>VocabulariesHomepage</code> node obtained from the request
-     * @throws VocabularyIndexException if session is not successfully saved
-     */
-    private void saveSession(Node vocabulariesHomepage)
-        throws VocabularyIndexException
-    {
-        try {
-            vocabulariesHomepage.getSession().save();
-        } catch (RepositoryException e) {
-            String message = "Failed to save session: " + e.getMessage();
-            throw new VocabularyIndexException(message, e);
-        }
-    }
-
     /**
      * Parses the temporary NCIT source file and creates <code>VocabularyTerm</code> nodes for each term. The new term
      * nodes must be children of the given <code>Vocabulary</code> node representing the NCIT vocabulary instance.
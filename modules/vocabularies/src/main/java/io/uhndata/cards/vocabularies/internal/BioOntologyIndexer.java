@@ -28,7 +28,6 @@
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.osgi.service.component.annotations.Component;
@@ -126,8 +125,8 @@ public void index(final String source, final SlingHttpServletRequest request,
                 throw new VocabularyIndexException("Could not access resource of your request.");
             }
 
-            // Delete the Vocabulary node already representing this vocabulary instance if it exists
-            this.utils.clearVocabularyNode(homepage, identifier, overwrite);
+            // An existing Vocabulary node for this vocabulary is only replaced once the new one is fully installed
+            this.utils.checkCanInstall(homepage, identifier, overwrite);
 
             // Load the description
             VocabularyDescription description = this.repository.getVocabularyDescription(identifier, version);
@@ -144,25 +143,29 @@ public void index(final String source, final SlingHttpServletRequest request,
             // Create a new Vocabulary node representing this vocabulary
             this.vocabularyNode.set(OntologyIndexerUtils.createVocabularyNode(homepage, description));
 
-            // Parse the source file and create VocabularyTerm node children
-            parser.parse(temporaryFile, description, this::createVocabularyTermNode);
+            // Parse the source file on a separate thread and create VocabularyTerm node children on this thread
+            VocabularyTermPipeline pipeline = new VocabularyTermPipeline(parser, temporaryFile, description);
+            pipeline.run(this::createVocabularyTermNode);
 
             /*
-             * Save the JCR session and check-in nodes. If any errors occur before this step, all proposed changes
-             * will not be applied and the repository will remain in its original state. Lucene indexing is
-             * automatically performed by the Jackrabbit Oak repository when this is performed.
+             * Save the last batch of terms, replace the previous version of the vocabulary, and check-in the
+             * vocabulary. If any errors occur, the partially installed vocabulary is removed and the previous version
+             * is kept. Lucene indexing is automatically performed by the Jackrabbit Oak repository as each batch is
+             * saved.
              */
             OntologyIndexerUtils.finalizeInstall(homepage, this.vocabularyNode);
 
             // Success response json
-            this.utils.writeStatusJson(request, response, true, null);
+            this.utils.writeStatusJson(request, response, true, null, pipeline.getStatistics());
         } catch (Exception e) {
+            // Terms are saved in batches, remove anything that was already stored; the previous version is untouched
+            OntologyIndexerUtils.abortInstall(homepage, this.vocabularyNode);
             // If parsing fails, return an error json with the exception message
             this.utils.writeStatusJson(request, response, false, "Vocabulary indexing error: " + e.getMessage());
             LOGGER.error("Vocabulary indexing error: {}", e.getMessage(), e);
         } finally {
-            // Delete temporary source file
-            FileUtils.deleteQuietly(temporaryFile);
+            // Delete the temporary source file, sources kept in the local cache are preserved
+            this.repository.releaseVocabularySource(temporaryFile);
             this.vocabularyNode.remove();
         }
     }
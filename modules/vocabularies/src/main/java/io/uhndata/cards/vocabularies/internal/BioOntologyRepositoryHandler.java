@@ -29,7 +29,6 @@
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -76,6 +75,9 @@ public class BioOntologyRepositoryHandler implements RepositoryHandler
     @Reference
     private BioPortalApiKeyManager apiKeyManager;
 
+    @Reference
+    private VocabularySourceCache sourceCache;
+
     @Override
     public String getRepositoryName()
     {
@@ -93,6 +95,10 @@ public String getRepositoryDescription()
     public VocabularyDescription getVocabularyDescription(String identifier, String version)
         throws IllegalArgumentException, IOException
     {
+        if (this.sourceCache.isOffline()) {
+            // Air-gapped installations cannot reach the repository, only the cached description is available
+            return this.sourceCache.getDescription(this.getRepositoryName(), identifier, version);
+        }
         String resourceConfiguration = this.getRequestConfiguration();
         final String submissionsURL = "https://data.bioontology.org/ontologies/" + identifier
             + "/submissions" + resourceConfiguration;
@@ -158,27 +164,18 @@ public File downloadVocabularySource(VocabularyDescription vocabulary) throws Il
 
         String identifier = vocabulary.getIdentifier();
 
-        // Create a temporary file where the source will be stored
-        final File temporaryFile = File.createTempFile(this.getRepositoryName() + "-" + identifier, "");
-
-        // Download the source
-        HttpGet httpget = new HttpGet(vocabulary.getSource());
-
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-            CloseableHttpResponse httpResponse = httpClient.execute(httpget)) {
-
-            if (httpResponse.getStatusLine().getStatusCode() < 400) {
-                // If the HTTP request is successful, write all of the contents of the response to the temporary file
-                FileUtils.copyInputStreamToFile(httpResponse.getEntity().getContent(), temporaryFile);
-            } else {
-                // If the HTTP request is not successful, throw an exception
-                String message = "Failed to download the source for vocabulary [" + identifier + "] from ["
-                    + this.getRepositoryName() + "]: " + httpResponse.getStatusLine().getStatusCode()
-                    + " http error";
-                LOGGER.warn(message);
-                throw new IllegalArgumentException(message);
-            }
-            return temporaryFile;
+        // Download the source, unless it is already available in the local cache
+        try {
+            final File source = this.sourceCache.getSource(this.getRepositoryName(), identifier,
+                vocabulary.getVersion(), vocabulary.getSource());
+            this.sourceCache.storeDescription(this.getRepositoryName(), vocabulary);
+            return source;
+        } catch (IllegalArgumentException e) {
+            // If the HTTP request is not successful, throw an exception
+            String message = "Failed to download the source for vocabulary [" + identifier + "] from ["
+                + this.getRepositoryName() + "]: " + e.getMessage();
+            LOGGER.warn(message);
+            throw new IllegalArgumentException(message, e);
         } catch (IOException e) {
             String message = "Unexpected IO error while accessing vocabulary [" + identifier + "]: "
                 + e.getMessage();
@@ -187,6 +184,12 @@ public File downloadVocabularySource(VocabularyDescription vocabulary) throws Il
         }
     }
 
+    @Override
+    public void releaseVocabularySource(File source)
+    {
+        this.sourceCache.release(source);
+    }
+
     /**
      * Retrieves a version identifier from the submission. Although each release should have a proper version
      * identifier, sometimes it is missing and must be computed from other sources.
@@ -26,13 +26,13 @@
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +52,9 @@ public class EbiRepositoryHandler implements RepositoryHandler
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(EbiRepositoryHandler.class);
 
+    @Reference
+    private VocabularySourceCache sourceCache;
+
     @Override
     public String getRepositoryName()
     {
@@ -69,6 +72,10 @@ public String getRepositoryDescription()
     public VocabularyDescription getVocabularyDescription(String identifier, String version)
         throws IllegalArgumentException, IOException
     {
+        if (this.sourceCache.isOffline()) {
+            // Air-gapped installations cannot reach the repository, only the cached description is available
+            return this.sourceCache.getDescription(this.getRepositoryName(), identifier, version);
+        }
         final String ontologyURL = "https://www.ebi.ac.uk/ols/api/ontologies/" + identifier;
         HttpGet httpget = new HttpGet(ontologyURL);
         httpget.setHeader("Accept", "application/json");
@@ -119,27 +126,18 @@ public File downloadVocabularySource(VocabularyDescription vocabulary) throws Il
 
         String identifier = vocabulary.getIdentifier();
 
-        // Create a temporary file where the source will be stored
-        final File temporaryFile = File.createTempFile(this.getRepositoryName() + "-" + identifier, "");
-
-        // Download the source
-        HttpGet httpget = new HttpGet(vocabulary.getSource());
-
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-            CloseableHttpResponse httpResponse = httpClient.execute(httpget)) {
-
-            if (httpResponse.getStatusLine().getStatusCode() < 400) {
-                // If the HTTP request is successful, write all of the contents of the response to the temporary file
-                FileUtils.copyInputStreamToFile(httpResponse.getEntity().getContent(), temporaryFile);
-            } else {
-                // If the HTTP request is not successful, throw an exception
-                String message = "Failed to download the source for vocabulary [" + identifier + "] from ["
-                    + this.getRepositoryName() + "]: " + httpResponse.getStatusLine().getStatusCode()
-                    + " http error";
-                LOGGER.warn(message);
-                throw new IllegalArgumentException(message);
-            }
-            return temporaryFile;
+        // Download the source, unless it is already available in the local cache
+        try {
+            final File source = this.sourceCache.getSource(this.getRepositoryName(), identifier,
+                vocabulary.getVersion(), vocabulary.getSource());
+            this.sourceCache.storeDescription(this.getRepositoryName(), vocabulary);
+            return source;
+        } catch (IllegalArgumentException e) {
+            // If the HTTP request is not successful, throw an exception
+            String message = "Failed to download the source for vocabulary [" + identifier + "] from ["
+                + this.getRepositoryName() + "]: " + e.getMessage();
+            LOGGER.warn(message);
+            throw new IllegalArgumentException(message, e);
         } catch (IOException e) {
             String message = "Unexpected IO error while accessing vocabulary [" + identifier + "]: "
                 + e.getMessage();
@@ -147,4 +145,10 @@ public File downloadVocabularySource(VocabularyDescription vocabulary) throws Il
             throw new IOException(message, e);
         }
     }
+
+    @Override
+    public void releaseVocabularySource(File source)
+    {
+        this.sourceCache.release(source);
+    }
 }
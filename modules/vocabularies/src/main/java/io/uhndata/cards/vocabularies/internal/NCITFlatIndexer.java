@@ -20,20 +20,19 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 import javax.jcr.Node;
-import javax.jcr.RepositoryException;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.lang3.ArrayUtils;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 
@@ -43,13 +42,20 @@
 
 /**
  * Concrete subclass of {@link AbstractNCITIndexer} for indexing NCIT in flat file form.
+ * <p>
+ * The flat file is memory-mapped and read twice. The first pass only decodes the identifiers and parents of the terms,
+ * which are stored in a compact {@link TermGraph} where terms are identified by integers, and the ancestors of all the
+ * terms are computed at once, reusing the ancestors of each parent instead of walking the hierarchy again for every
+ * term. The second pass decodes the rest of the columns and creates the term nodes.
+ * </p>
  *
  * @version $Id$
  */
 @Component(
     service = VocabularyIndexer.class,
     name = "VocabularyIndexer.ncit-flat",
-    reference = { @Reference(field = "utils", name = "utils", service = VocabularyParserUtils.class) })
+    reference = { @Reference(field = "utils", name = "utils", service = VocabularyParserUtils.class),
+        @Reference(field = "sourceCache", name = "sourceCache", service = VocabularySourceCache.class) })
 public class NCITFlatIndexer extends AbstractNCITIndexer
 {
     // Column numbers of the properties we want to extract.
@@ -66,9 +72,6 @@ public class NCITFlatIndexer extends AbstractNCITIndexer
     // Charset to use when reading the source file
     private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
 
-    /** An empty String[] array to use for {@code Set.toArray}, we don't want to create a new array for each call. */
-    private static final String[] EMPTY_STRING_ARRAY = new String[0];
-
     @Override
     public boolean canIndex(String source)
     {
@@ -84,15 +87,32 @@ String getDefaultSource(String version)
     @Override
     protected void parseNCIT(final File source, final Node vocabularyNode) throws VocabularyIndexException
     {
-        try {
-            // Extracts term parents the flat file and returns a map of (term, parents) pairs
-            Map<String, String[]> parentsMap = returnParentMap(source);
-
-            // Extracts all other properties and creates VocabularyTerm nodes based on them
-            createTermNodes(source, parentsMap, vocabularyNode);
-        } catch (RepositoryException e) {
-            String message = "Failed to access Vocabulary node: " + e.getMessage();
-            throw new VocabularyIndexException(message, e);
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new VocabularyIndexException("Flat file too large: " + channel.size() + " bytes");
+            }
+            final ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // First pass, only look at the identifiers and parents
+            final TermGraph graph = new TermGraph();
+            readLines(contents, PARENTS_COLUMN, columns -> {
+                final int term = graph.addTerm(columns[IDENTIFIER_COLUMN]);
+                for (String parent : splitValues(columns[PARENTS_COLUMN])) {
+                    graph.addParent(term, parent);
+                }
+            });
+            graph.computeAncestors();
+
+            // Second pass, extract all other properties and create VocabularyTerm nodes based on them
+            readLines(contents, LABEL_COLUMN, columns -> {
+                final String identifier = columns[IDENTIFIER_COLUMN];
+                // Synonym entry is a String with terms separated by "|"
+                // If the label doesn't exist, the first synonym will be used. If there are no synonyms, a blank
+                // String will be used. This is handled in createNCITVocabularyTermNode.
+                createNCITVocabularyTermNode(vocabularyNode, identifier, columns[LABEL_COLUMN],
+                    columns[DESCRIPTION_COLUMN], columns[SYNONYMS_COLUMN].split("\\|"),
+                    splitValues(columns[PARENTS_COLUMN]), graph.getAncestors(identifier));
+            });
         } catch (IOException e) {
             String message = "Failed to read flat file: " + e.getMessage();
             throw new VocabularyIndexException(message, e);
@@ -100,119 +120,131 @@ protected void parseNCIT(final File source, final Node vocabularyNode) throws Vo
     }
 
     /**
-     * Extracts all <code>VocabularyTerm</code> node properties from the NCIT flat file zip and creates JCR nodes.
-     * Ancestors of terms are calculated recursively from the parents.
+     * Splits a column holding a list of values separated by "|".
      *
-     * @param parentsMap a map of (term, parents) pairs where "parents" is an array of parent terms
-     * @param vocabularyNode the <code>Vocabulary</code> node which represents the current NCIT instance to index
-     * @throws IOException thrown when file input cannot be read
-     * @throws RepositoryException thrown when JCR nodes cannot be created
-     * @throws VocabularyIndexException throw on failure to create appropriate JCR node
+     * @param column the column value, may be empty
+     * @return the values, an empty array if the column is empty
      */
-    private void createTermNodes(final File source, Map<String, String[]> parentsMap, Node vocabularyNode)
-        throws IOException, RepositoryException, VocabularyIndexException
+    private static String[] splitValues(final String column)
     {
-        // The NCIT source is an unquoted tab-delimited file
-        // We need withQuote(null) to keep all quotes as part of the text, and not interpreted as special chars
-        try (CSVParser csvParser = CSVParser.parse(source, DEFAULT_CHARSET,
-                CSVFormat.TDF.builder().setQuote(null).build())) {
-            Iterator<CSVRecord> csvIterator = csvParser.iterator();
-
-            while (csvIterator.hasNext()) {
-                CSVRecord row = csvIterator.next();
-
-                String identifier = row.get(IDENTIFIER_COLUMN);
-                String description = row.get(DESCRIPTION_COLUMN);
-                String synonymString = row.get(SYNONYMS_COLUMN);
-
-                // Synonym entry is a String with terms separated by "|" so split the String into a String[]
-                String[] synonymsArray = synonymString.split("\\|");
-
-                /*
-                 * If this doesn't exist, the first synonym will be used. If there are no synonyms, a blank String will
-                 * be used. This is handled in createNCITVocabularyTermNode.
-                 */
-                String label = row.get(LABEL_COLUMN);
-
-                String[] parentsArray = parentsMap.get(identifier);
-
-                /*
-                 * Ancestors are recursively calculated from parents. Since computeAncestors returns the ancestors as a
-                 * Set<String>, it must be converted to a String[] here.
-                 */
-                String[] ancestorsArray = computeAncestors(parentsMap, identifier).toArray(EMPTY_STRING_ARRAY);
-
-                // This method is a protected method in AbstractNCITIndexer for creating VocabularyTerm nodes
-                createNCITVocabularyTermNode(vocabularyNode, identifier, label, description, synonymsArray,
-                    parentsArray, ancestorsArray);
-            }
-        }
+        return column.isEmpty() ? ArrayUtils.EMPTY_STRING_ARRAY : column.split("\\|");
     }
 
     /**
-     * Returns a HashMap containing a (String, String[]) pair representing (term, parents). This is extracted from the
-     * temporary NCIT zip flat file.
+     * Reads the lines of the flat file, which is an unquoted tab-delimited file, and sends the decoded columns of each
+     * line to a handler. Only the needed columns are decoded, the rest of the line is only scanned for the line end.
+     * Empty lines are skipped.
      *
-     * @return a map which stores (term ID, parent IDs) pairs
-     * @throws IOException thrown when temporary NCIT file cannot be read
+     * @param contents the contents of the flat file
+     * @param lastColumn the last column that must be decoded
+     * @param handler will receive the columns of each line; missing columns are empty strings, and the handler must
+     *            not keep a reference to the array, since it is reused for the next lines
+     * @throws VocabularyIndexException if the handler fails
      */
-    private Map<String, String[]> returnParentMap(final File source)
-        throws IOException
+    private static void readLines(final ByteBuffer contents, final int lastColumn, final LineHandler handler)
+        throws VocabularyIndexException
     {
-        // The NCIT source is an unquoted tab-delimited file
-        // We need withQuote(null) to keep all quotes as part of the text, and not interpreted as special chars
-        try (CSVParser csvParser = CSVParser.parse(source, DEFAULT_CHARSET,
-                CSVFormat.TDF.builder().setQuote(null).build())) {
-            Iterator<CSVRecord> csvIterator = csvParser.iterator();
-
-            Map<String, String[]> parents = new HashMap<>();
-
-            while (csvIterator.hasNext()) {
-                CSVRecord row = csvIterator.next();
-
-                String identifier = row.get(IDENTIFIER_COLUMN);
-
-                String parentString = row.get(PARENTS_COLUMN);
-
-                // Parent entry is a String with terms separated by "|" so split the String into a String[]
-                String[] parentArray = parentString.split("\\|");
-
-                // Put a blank array if there are no parents
-                if (parentArray[0].contentEquals("")) {
-                    parents.put(identifier, EMPTY_STRING_ARRAY);
-                } else {
-                    parents.put(identifier, parentArray);
+        final ColumnDecoder decoder = new ColumnDecoder(contents);
+        final String[] columns = new String[lastColumn + 1];
+        final int end = contents.limit();
+        int lineStart = 0;
+        while (lineStart < end) {
+            Arrays.fill(columns, "");
+            int column = 0;
+            int columnStart = lineStart;
+            int position = lineStart;
+            for (; position < end; ++position) {
+                final byte b = contents.get(position);
+                if (b == '\n') {
+                    break;
+                } else if (b == '\t') {
+                    if (column <= lastColumn) {
+                        columns[column] = decoder.decode(columnStart, position);
+                    }
+                    ++column;
+                    columnStart = position + 1;
                 }
             }
-            return parents;
+            if (column <= lastColumn) {
+                columns[column] = decoder.decode(columnStart, stripCarriageReturn(contents, columnStart, position));
+            }
+            if (!columns[IDENTIFIER_COLUMN].isEmpty()) {
+                handler.handle(columns);
+            }
+            lineStart = position + 1;
         }
     }
 
     /**
-     * Recursively calculates the ancestors of a given term, using the map of parents to accumulate a list of ancestors.
-     * This is returned as a String set.
+     * Excludes the carriage return of Windows line endings from the last column of a line.
      *
-     * @param parentsMap a map of (term, parents) pairs where "parents" is an array of parent terms
-     * @param identifier identifier of the term
-     * @return a set which stores the ancestors of the given term
+     * @param contents the contents of the flat file
+     * @param columnStart the position where the last column starts, inclusive
+     * @param lineEnd the position where the line ends, exclusive
+     * @return the position where the last column ends, exclusive
      */
-    private Set<String> computeAncestors(Map<String, String[]> parentsMap, String identifier)
+    private static int stripCarriageReturn(final ByteBuffer contents, final int columnStart, final int lineEnd)
     {
-        // A set is used instead of an array so that the size need not be initially specified.
-        Set<String> termAncestorSet = new HashSet<>();
+        return lineEnd > columnStart && contents.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+    }
 
-        String[] parentArray = parentsMap.get(identifier);
+    /**
+     * Processes one line of the flat file.
+     *
+     * @version $Id$
+     */
+    @FunctionalInterface
+    private interface LineHandler
+    {
+        /**
+         * Processes the columns of a line.
+         *
+         * @param columns the decoded columns
+         * @throws VocabularyIndexException if processing the line fails
+         */
+        void handle(String[] columns) throws VocabularyIndexException;
+    }
+
+    /**
+     * Decodes columns from the raw contents of the flat file, reusing the same decoder and character buffer for all the
+     * columns.
+     *
+     * @version $Id$
+     */
+    private static final class ColumnDecoder
+    {
+        private final ByteBuffer view;
 
-        if (parentArray != null) {
-            for (String parentIdentifier : parentArray) {
-                // Add parent as an ancestor
-                termAncestorSet.add(parentIdentifier);
+        private final CharsetDecoder decoder = DEFAULT_CHARSET.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
 
-                // Add recursively calculated ancestors of parent
-                termAncestorSet.addAll(computeAncestors(parentsMap, parentIdentifier));
-            }
+        private CharBuffer chars = CharBuffer.allocate(1024);
+
+        ColumnDecoder(final ByteBuffer contents)
+        {
+            this.view = contents.duplicate();
         }
 
-        return termAncestorSet;
+        /**
+         * Decodes a column, trimming surrounding spaces, as the tab-delimited format of the flat file allows.
+         *
+         * @param start the position where the column starts, inclusive
+         * @param end the position where the column ends, exclusive
+         * @return the decoded column, may be empty
+         */
+        String decode(final int start, final int end)
+        {
+            // UTF-8 never decodes to more characters than there are bytes
+            if (end - start > this.chars.capacity()) {
+                this.chars = CharBuffer.allocate(Math.max(end - start, this.chars.capacity() * 2));
+            }
+            this.view.limit(end).position(start);
+            this.chars.clear();
+            this.decoder.reset();
+            this.decoder.decode(this.view, this.chars, true);
+            this.decoder.flush(this.chars);
+            return this.chars.flip().toString().trim();
+        }
     }
 }
@@ -58,7 +58,8 @@
 @Component(
     service = VocabularyIndexer.class,
     name = "VocabularyParser.ncit-owl",
-    reference = { @Reference(field = "utils", name = "utils", service = VocabularyParserUtils.class) })
+    reference = { @Reference(field = "utils", name = "utils", service = VocabularyParserUtils.class),
+        @Reference(field = "sourceCache", name = "sourceCache", service = VocabularySourceCache.class) })
 public class NCITOWLIndexer extends AbstractNCITIndexer
 {
     /** An empty String[] array to use for {@code Set.toArray}, we don't want to create a new array for each call. */
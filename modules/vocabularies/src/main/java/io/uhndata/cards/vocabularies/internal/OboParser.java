@@ -26,12 +26,11 @@
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import org.osgi.service.component.annotations.Component;
 import org.slf4j.Logger;
@@ -43,7 +42,9 @@
 import io.uhndata.cards.vocabularies.spi.VocabularyTermSource;
 
 /**
- * Parser for vocabulary sources in the OBO format.
+ * Parser for vocabulary sources in the OBO format. The source is read twice: a first pass only collects the term
+ * identifiers and parents into a compact graph, from which the ancestors of all terms are computed, and a second pass
+ * sends each term to the consumer as soon as it has been read, so that the full vocabulary is never held in memory.
  *
  * @version $Id$
  */
@@ -69,9 +70,12 @@ public class OboParser implements SourceParser
     /** Holds the term currently being . */
     private InheritableThreadLocal<TermData> crtTerm = new InheritableThreadLocal<>();
 
-    /** Holds all the terms parsed so far. */
+    /** Holds the terms described by more than one frame, until their last frame is read. */
     private InheritableThreadLocal<Map<String, TermData>> data = new InheritableThreadLocal<>();
 
+    /** Holds the parents and ancestors of all the terms. */
+    private InheritableThreadLocal<TermGraph> graph = new InheritableThreadLocal<>();
+
     /** Logger object used to handle thrown errors. */
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -88,23 +92,33 @@ public void parse(
         final Consumer<VocabularyTermSource> consumer) throws IOException, VocabularyIndexException
     {
         try {
-            this.data.set(new LinkedHashMap<>());
-            readLines(source);
-            propagateAncestors();
-            consumeData(consumer);
-            this.data.remove();
+            this.graph.set(new TermGraph());
+            this.data.set(new HashMap<>());
+            // First pass, only look at the identifiers and parents
+            readLines(source, field -> TermData.ID_FIELD_NAME.equals(field) || TermData.PARENT_FIELD_NAME.equals(field),
+                this::addFrame);
+            this.graph.get().computeAncestors();
+            // Second pass, read everything and send the terms to the consumer
+            readLines(source, field -> true, term -> consumeTerm(term, consumer));
         } catch (IOException ex) {
             this.logger.error("IOException: {}", ex.getMessage());
+        } finally {
+            this.graph.remove();
+            this.data.remove();
+            this.crtTerm.remove();
         }
     }
 
     /**
-     * Read the source file and populate the data variable.
+     * Read the source file and send each term frame to a handler.
      *
      * @param source the file containing the vocabulary source in OBO format
+     * @param fields which fields must be loaded, the other fields are ignored
+     * @param handler will receive each term frame, as soon as it is read
      * @throws IOException if reading the source file fails
      */
-    private void readLines(final File source) throws IOException
+    private void readLines(final File source, final Predicate<String> fields, final Consumer<TermData> handler)
+        throws IOException
     {
         // Start by examining a new term
         this.crtTerm.set(new TermData());
@@ -119,7 +133,7 @@ private void readLines(final File source) throws IOException
                     // We just encountered the start of a new frame
                     if (isTerm) {
                         // If the previous frame was a Term, store it
-                        storeCrtTerm();
+                        storeCrtTerm(handler);
                     }
                     // Non-Term frames must be ignored, only Terms are recorded
                     isTerm = line.trim().equalsIgnoreCase(TERM_MARKER);
@@ -131,33 +145,29 @@ private void readLines(final File source) throws IOException
                     if (pieces.length != 2) {
                         continue;
                     }
-                    loadField(pieces[0], pieces[1]);
+                    loadField(pieces[0], pieces[1], fields);
                 }
             }
             // Also store the last term parsed when the end of the file is encountered
             if (isTerm) {
-                storeCrtTerm();
+                storeCrtTerm(handler);
             }
         }
     }
 
     /**
-     * Store the current term data and set up a new TermData instance to record the next term.
+     * Send the current term data to the handler and set up a new TermData instance to record the next term.
+     *
+     * @param handler will receive the current term frame
      */
-    private void storeCrtTerm()
+    private void storeCrtTerm(final Consumer<TermData> handler)
     {
         // Only terms with a valid identifier can be stored
         TermData termToProcess = this.crtTerm.get();
+        this.crtTerm.set(new TermData());
         if (termToProcess.getId() != null) {
-            // Multiple frames can describe the same term, we must combine them into one
-            TermData existing = this.data.get().get(termToProcess.getId());
-            if (existing == null) {
-                this.data.get().put(termToProcess.getId(), termToProcess);
-            } else {
-                existing.getAllProperties().putAll(termToProcess.getAllProperties());
-            }
+            handler.accept(termToProcess);
         }
-        this.crtTerm.set(new TermData());
     }
 
     /**
@@ -167,10 +177,14 @@ private void storeCrtTerm()
      * @param name the name of the property
      * @param value the raw value, which may be a simple unquoted or quoted value, or a value with additional trailing
      *            modifiers, comments, and other tags
+     * @param fields which fields must be loaded, the other fields are ignored
      */
-    private void loadField(String name, String value)
+    private void loadField(String name, String value, Predicate<String> fields)
     {
-        this.crtTerm.get().addTo(process(name), process(value));
+        final String field = process(name);
+        if (fields.test(field)) {
+            this.crtTerm.get().addTo(field, process(value));
+        }
     }
 
     /**
@@ -275,73 +289,50 @@ private String process(final String rawValue)
     }
 
     /**
-     * Determine and return the ancestors of a vocabulary term. Initially, the ancestors are not available, since the
-     * vocabulary source only includes direct parents, but after the ancestors are recursively computed the first time,
-     * they will be stored in the TermData for quick subsequent retrieval.
+     * Records the identifier and parents of a term frame in the term graph.
      *
-     * @param termID the identifier of the term whose ancestors are to be retrieved
-     * @return identifiers of the ancestors of the given term, may be an empty collection if the term has no
-     *         parents/ancestors, or if the term doesn't exist
+     * @param term a term frame, with at least the identifier and parents loaded
      */
-    private Collection<String> findAncestors(String termID)
+    private void addFrame(final TermData term)
     {
-        TermData term = this.data.get().get(termID);
-
-        if (term == null) {
-            // Unknown parent
-            return Collections.emptySet();
-        }
-        // If the ancestors for this node have already been determined, return them as a list of IDs.
-        if (term.hasKey(TermData.TERM_CATEGORY_FIELD_NAME)) {
-            return term.getAllValues(TermData.TERM_CATEGORY_FIELD_NAME);
-        } else {
-            Collection<String> parents;
-            // If the node has Parents, it definitely has Ancestors but they have not yet been determined.
-            if (term.hasKey(TermData.PARENT_FIELD_NAME)) {
-                parents = term.getAllValues(TermData.PARENT_FIELD_NAME);
-            } else {
-                // Else we have reached the root node which has no parents.
-                parents = Collections.emptySet();
-            }
-            Collection<String> ancestors = new LinkedHashSet<>(parents);
-            // Take the Union of the ancestors IDs of all parent nodes and the IDs of parents.
-            for (String parent : parents) {
-                ancestors.addAll(findAncestors(parent));
-            }
-            // This Union is set as the current node's ancestors.
-            term.addTo(TermData.TERM_CATEGORY_FIELD_NAME, ancestors);
-            // Return Union
-            return ancestors;
-        }
-    }
-
-    /**
-     * Recursively computes ancestors from the parents for all terms.
-     */
-    private void propagateAncestors()
-    {
-        for (String id : this.data.get().keySet()) {
-            findAncestors(id);
+        final TermGraph termGraph = this.graph.get();
+        final int id = termGraph.addTerm(term.getId());
+        for (String parentId : term.getAllValues(TermData.PARENT_FIELD_NAME)) {
+            termGraph.addParent(id, parentId);
         }
     }
 
     /**
-     * Creates a new VocabularyTermSource object from the parsed Term and passes it to the consumer function.
+     * Combines the frames describing the same term, and once the last frame of a term has been read, creates a new
+     * VocabularyTermSource object from it and passes it to the consumer function.
      *
+     * @param term a term frame
      * @param consumer method that will store the parsed term
      */
-    private void consumeData(final Consumer<VocabularyTermSource> consumer)
+    private void consumeTerm(final TermData term, final Consumer<VocabularyTermSource> consumer)
     {
-        String[] typeString = {};
-        for (String id : this.data.get().keySet()) {
-            TermData term = this.data.get().get(id);
-            consumer.accept(new VocabularyTermSource(
-                term.getId(),
-                term.getLabel(),
-                term.getAllValues(TermData.PARENT_FIELD_NAME).toArray(typeString),
-                term.getAllValues(TermData.TERM_CATEGORY_FIELD_NAME).toArray(typeString),
-                term.getAllProperties()));
+        TermData fullTerm = term;
+        // Multiple frames can describe the same term, we must combine them into one
+        TermData existing = this.data.get().remove(term.getId());
+        if (existing != null) {
+            // Values are merged, not replaced, so the parents and other multi-valued fields of all frames are kept
+            term.getAllProperties().asMap().forEach(existing::addTo);
+            fullTerm = existing;
         }
+        if (!this.graph.get().markFrameRead(fullTerm.getId())) {
+            // More frames will follow for this term
+            this.data.get().put(fullTerm.getId(), fullTerm);
+            return;
+        }
+        String[] typeString = {};
+        String[] ancestors = this.graph.get().getAncestors(fullTerm.getId());
+        fullTerm.addTo(TermData.TERM_CATEGORY_FIELD_NAME, Arrays.asList(ancestors));
+        consumer.accept(new VocabularyTermSource(
+            fullTerm.getId(),
+            fullTerm.getLabel(),
+            fullTerm.getAllValues(TermData.PARENT_FIELD_NAME).toArray(typeString),
+            ancestors,
+            fullTerm.getAllProperties()));
     }
 
     /**
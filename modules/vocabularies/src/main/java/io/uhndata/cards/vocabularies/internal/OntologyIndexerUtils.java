@@ -24,12 +24,14 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import javax.jcr.ItemExistsException;
 import javax.jcr.Node;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.ValueFactory;
 import javax.jcr.version.VersionManager;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -45,11 +47,25 @@
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(OntologyIndexerUtils.class);
 
-    /** The list which holds all JCR vocabulary nodes associated with a vocabulary to be checked-in. */
-    private static final ThreadLocal<List<Node>> NODES_TO_CHECK_IN = ThreadLocal.withInitial(ArrayList::new);
+    /**
+     * How many terms are created before the session is saved. Saving in batches keeps the transient space, and thus the
+     * heap usage and the size of each repository commit, bounded regardless of the size of the vocabulary.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Suffix for the name of the node where a vocabulary is built. Terms are saved in batches, so the vocabulary is
+     * built next to the previous version of the vocabulary, which is only replaced once the new version is complete.
+     */
+    private static final String INSTALLING_SUFFIX = "_installing";
 
-    /** The list which holds all root terms. */
-    private static final ThreadLocal<List<Node>> ROOT_NODES = ThreadLocal.withInitial(ArrayList::new);
+    private static final String IDENTIFIER = "identifier";
+
+    /** The list which holds the identifiers of all root terms. */
+    private static final ThreadLocal<List<String>> ROOT_NODES = ThreadLocal.withInitial(ArrayList::new);
+
+    /** How many terms have been created so far for the vocabulary being installed. */
+    private static final ThreadLocal<int[]> TERMS_COUNT = ThreadLocal.withInitial(() -> new int[1]);
 
     //Hide the utility class constructor
     private OntologyIndexerUtils()
@@ -57,10 +73,12 @@ private OntologyIndexerUtils()
     }
 
     /**
-     * Creates a <code>VocabularyTerm</code> node representing an individual term of the vocabulary.
+     * Creates a <code>VocabularyTerm</code> node representing an individual term of the vocabulary. Every
+     * {@link #BATCH_SIZE} terms the session is saved, so that large vocabularies are not held entirely in memory.
      *
      * @param term the term data
      * @param vocabularyNode must be passed from the calling class
+     * @throws IllegalStateException if saving a batch of terms fails, which aborts the parsing
      */
     @SuppressWarnings({"checkstyle:CyclomaticComplexity"})
     public static void createVocabularyTermNode(VocabularyTermSource term, InheritableThreadLocal<Node> vocabularyNode)
@@ -76,8 +94,7 @@ public static void createVocabularyTermNode(VocabularyTermSource term, Inheritab
                 vocabularyTermNode = vocabularyNode.get().getNode(term.getId());
             }
 
-            NODES_TO_CHECK_IN.get().add(vocabularyTermNode);
-            vocabularyTermNode.setProperty("identifier", term.getId());
+            vocabularyTermNode.setProperty(IDENTIFIER, term.getId());
 
             vocabularyTermNode.setProperty("label", term.getLabel());
 
@@ -86,7 +103,7 @@ public static void createVocabularyTermNode(VocabularyTermSource term, Inheritab
                               || term.getLabel().toLowerCase().startsWith("obsolete");
             if ((parents.length == 0 || parents.length == 1 && "Thing".equals(parents[0])) && !isObsolete) {
                 vocabularyTermNode.setProperty("isRoot", true);
-                ROOT_NODES.get().add(vocabularyTermNode);
+                ROOT_NODES.get().add(vocabularyTermNode.getIdentifier());
             }
             vocabularyTermNode.setProperty("parents", parents);
             vocabularyTermNode.setProperty("ancestors", term.getAncestors());
@@ -111,11 +128,62 @@ public static void createVocabularyTermNode(VocabularyTermSource term, Inheritab
                 e.getMessage());
 
         }
+        countTerm(vocabularyNode.get());
+    }
+
+    /**
+     * Records a <code>VocabularyTerm</code> node created directly by an indexer instead of through
+     * {@link #createVocabularyTermNode}, so that it is saved in the same batches, and listed among the vocabulary roots
+     * if needed.
+     *
+     * @param termNode the term node that was just created
+     * @param isRoot whether the term is a root of the vocabulary
+     * @throws RepositoryException if marking the term as a root fails
+     * @throws IllegalStateException if saving a batch of terms fails
+     */
+    public static void termCreated(final Node termNode, final boolean isRoot) throws RepositoryException
+    {
+        if (isRoot) {
+            termNode.setProperty("isRoot", true);
+            ROOT_NODES.get().add(termNode.getIdentifier());
+        }
+        countTerm(termNode.getParent());
+    }
+
+    /**
+     * Counts one more term, saving the session every {@link #BATCH_SIZE} terms.
+     *
+     * @param vocabularyNode the vocabulary node that holds indexed data
+     * @throws IllegalStateException if saving a batch of terms fails
+     */
+    private static void countTerm(final Node vocabularyNode)
+    {
+        if (++TERMS_COUNT.get()[0] % BATCH_SIZE == 0) {
+            saveBatch(vocabularyNode);
+        }
+    }
+
+    /**
+     * Saves the terms created since the last batch was saved, and logs the installation progress.
+     *
+     * @param vocabularyNode the vocabulary node that holds indexed data
+     * @throws IllegalStateException if the session cannot be saved; the parser callbacks cannot throw checked
+     *             exceptions, and the whole installation must be aborted anyway
+     */
+    private static void saveBatch(final Node vocabularyNode)
+    {
+        try {
+            vocabularyNode.getSession().save();
+            LOGGER.info("Installed {} terms in vocabulary {}", TERMS_COUNT.get()[0], vocabularyNode.getName());
+        } catch (RepositoryException e) {
+            throw new IllegalStateException("Failed to save vocabulary terms: " + e.getMessage(), e);
+        }
     }
 
     /**
-     * Creates a <code>Vocabulary</code> node that represents the current vocabulary instance with the identifier as the
-     * name of the node.
+     * Creates a <code>Vocabulary</code> node that represents the current vocabulary instance. The node is created under
+     * a temporary name, and only gets the identifier as its name when {@link #finalizeInstall finalizing the install},
+     * so that any previous version of the vocabulary remains available until then.
      *
      * @param homepage <code>VocabulariesHomepage</code> node instance that will be parent of the new vocabulary node
      * @param description the vocabulary description, holding all the relevant information about the vocabulary
@@ -126,15 +194,21 @@ public static Node createVocabularyNode(final Node homepage, final VocabularyDes
         throws VocabularyIndexException
     {
         try {
-            Node result = homepage.addNode("./" + description.getIdentifier(), "cards:Vocabulary");
-            result.setProperty("identifier", description.getIdentifier());
+            final String name = description.getIdentifier() + INSTALLING_SUFFIX;
+            if (homepage.hasNode(name)) {
+                // Left behind by an install that was interrupted before it could clean up
+                homepage.getNode(name).remove();
+            }
+            Node result = homepage.addNode("./" + name, "cards:Vocabulary");
+            result.setProperty(IDENTIFIER, description.getIdentifier());
             result.setProperty("name", description.getName());
             result.setProperty("description", description.getDescription());
             result.setProperty("source", description.getSource());
             result.setProperty("version", description.getVersion());
             result.setProperty("website", description.getWebsite());
             result.setProperty("citation", description.getCitation());
-            NODES_TO_CHECK_IN.get().add(result);
+            TERMS_COUNT.remove();
+            ROOT_NODES.remove();
             return result;
         } catch (RepositoryException e) {
             String message = "Failed to create Vocabulary node: " + e.getMessage();
@@ -163,30 +237,26 @@ private static void saveSession(Node vocabulariesHomepage)
     }
 
     /**
-     * Checks into JCR the list of JCR Nodes associated with the installation of a vocabulary.
+     * Checks into JCR the vocabulary node. Terms are not versioned individually, since creating one version per term
+     * is prohibitively expensive for large vocabularies; the vocabulary node is the unit of versioning.
      *
-     * @param vocabulariesHomepage the <code>VocabulariesHomepage</code> node obtained from the request
-     * @throws VocabularyIndexException if the checking-in of a Node fails
+     * @param vocabularyNode the vocabulary node that holds indexed data
+     * @throws VocabularyIndexException if the checking-in of the vocabulary fails
      */
-    private static void checkInVocabulary(Node vocabulariesHomepage) throws VocabularyIndexException
+    private static void checkInVocabulary(Node vocabularyNode) throws VocabularyIndexException
     {
         try {
-            final VersionManager vm = vocabulariesHomepage.getSession().getWorkspace().getVersionManager();
-            for (int i = 0; i < NODES_TO_CHECK_IN.get().size(); i++) {
-                vm.checkin(NODES_TO_CHECK_IN.get().get(i).getPath());
-            }
+            final VersionManager vm = vocabularyNode.getSession().getWorkspace().getVersionManager();
+            vm.checkin(vocabularyNode.getPath());
         } catch (RepositoryException e) {
             String message = "Failed to check-in vocabulary: " + e.getMessage();
             throw new VocabularyIndexException(message, e);
-        } finally {
-            //Cleanup
-            NODES_TO_CHECK_IN.remove();
         }
     }
 
     /**
-     * Finalizes the vocabulary install by saving the JCR session and checking in all the newly installed
-     * Vocabulary nodes.
+     * Finalizes the vocabulary install by saving the last batch of terms, building the hierarchy index, replacing the
+     * previous version of the vocabulary, if any, and checking in the newly installed Vocabulary node.
      *
      * @param vocabulariesHomepage the <code>VocabulariesHomepage</code> node obtained from the request
      * @param vocabularyNode The vocabulary node that holds indexed data
@@ -195,9 +265,87 @@ private static void checkInVocabulary(Node vocabulariesHomepage) throws Vocabula
     public static void finalizeInstall(Node vocabulariesHomepage, InheritableThreadLocal<Node> vocabularyNode)
         throws VocabularyIndexException
     {
-        setRootNodes(vocabularyNode);
-        saveSession(vocabulariesHomepage);
-        checkInVocabulary(vocabulariesHomepage);
+        try {
+            setRootNodes(vocabularyNode);
+            saveSession(vocabulariesHomepage);
+            VocabularyHierarchyIndex.build(vocabularyNode.get());
+            final Node installed = replacePreviousVersion(vocabulariesHomepage, vocabularyNode.get());
+            // The vocabulary is now in place, and must no longer be removed if checking it in fails
+            vocabularyNode.remove();
+            checkInVocabulary(installed);
+            LOGGER.info("Finished installing vocabulary with {} terms", TERMS_COUNT.get()[0]);
+        } finally {
+            TERMS_COUNT.remove();
+        }
+    }
+
+    /**
+     * Moves a completely built vocabulary in place, replacing the previous version of the vocabulary in the same save,
+     * so users either see the previous version or the new one.
+     *
+     * @param vocabulariesHomepage the <code>VocabulariesHomepage</code> node obtained from the request
+     * @param vocabularyNode the vocabulary node that holds indexed data, under its temporary name
+     * @return the vocabulary node, under its final name
+     * @throws VocabularyIndexException if the vocabulary cannot be moved in place
+     */
+    private static Node replacePreviousVersion(final Node vocabulariesHomepage, final Node vocabularyNode)
+        throws VocabularyIndexException
+    {
+        try {
+            final Session session = vocabulariesHomepage.getSession();
+            final String name = vocabularyNode.getProperty(IDENTIFIER).getString();
+            if (vocabulariesHomepage.hasNode(name)) {
+                vocabulariesHomepage.getNode(name).remove();
+            }
+            final String path = vocabulariesHomepage.getPath() + "/" + name;
+            session.move(vocabularyNode.getPath(), path);
+            session.save();
+            return session.getNode(path);
+        } catch (RepositoryException e) {
+            String message = "Failed to replace the previous version of the vocabulary: " + e.getMessage();
+            throw new VocabularyIndexException(message, e);
+        }
+    }
+
+    /**
+     * Aborts a failed vocabulary install. Since terms are saved in batches, a failure leaves a partially installed
+     * vocabulary in the repository, which is removed. The previous version of the vocabulary, if any, is kept.
+     *
+     * @param vocabulariesHomepage the <code>VocabulariesHomepage</code> node obtained from the request
+     * @param vocabularyNode The vocabulary node that holds indexed data, may hold {@code null} if the vocabulary node
+     *            was not created yet
+     */
+    public static void abortInstall(Node vocabulariesHomepage, InheritableThreadLocal<Node> vocabularyNode)
+    {
+        TERMS_COUNT.remove();
+        ROOT_NODES.remove();
+        abortInstall(vocabulariesHomepage, vocabularyNode.get());
+    }
+
+    /**
+     * Removes a partially installed vocabulary, discarding any pending changes. The previous version of the
+     * vocabulary, if any, is kept.
+     *
+     * @param vocabulariesHomepage the <code>VocabulariesHomepage</code> node obtained from the request
+     * @param vocabularyNode the vocabulary node that holds indexed data, may be {@code null} if the vocabulary node was
+     *            not created yet
+     */
+    public static void abortInstall(Node vocabulariesHomepage, Node vocabularyNode)
+    {
+        if (vocabulariesHomepage == null || vocabularyNode == null) {
+            return;
+        }
+        try {
+            final String path = vocabularyNode.getPath();
+            final Session session = vocabulariesHomepage.getSession();
+            session.refresh(false);
+            if (session.nodeExists(path)) {
+                session.getNode(path).remove();
+                session.save();
+            }
+        } catch (RepositoryException e) {
+            LOGGER.error("Failed to remove partially installed vocabulary: {}", e.getMessage(), e);
+        }
     }
 
     /**
@@ -206,23 +354,18 @@ public static void finalizeInstall(Node vocabulariesHomepage, InheritableThreadL
      */
     private static void setRootNodes(InheritableThreadLocal<Node> vocabularyNode)
     {
-        Value[] roots = ROOT_NODES.get().stream()
-                                        .map(item ->
-                                        {
-                                            try {
-                                                return item.getSession().getValueFactory().createValue(item);
-                                            } catch (Exception e) {
-                                                // do nothing
-                                            }
-                                            return null;
-                                        })
-                                        .collect(Collectors.toList()).toArray(new Value[0]);
-        //Cleanup
-        ROOT_NODES.remove();
         try {
-            vocabularyNode.get().setProperty("roots", roots);
+            final ValueFactory valueFactory = vocabularyNode.get().getSession().getValueFactory();
+            final List<Value> roots = new ArrayList<>(ROOT_NODES.get().size());
+            for (String root : ROOT_NODES.get()) {
+                roots.add(valueFactory.createValue(root, PropertyType.REFERENCE));
+            }
+            vocabularyNode.get().setProperty("roots", roots.toArray(new Value[0]));
         } catch (Exception e) {
             LOGGER.error("Failed to set vocabulary roots: {}", e.getMessage(), e);
+        } finally {
+            //Cleanup
+            ROOT_NODES.remove();
         }
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+import javax.json.Json;
+import javax.json.JsonReader;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds which vocabulary terms have children, for a whole list of terms at once. Terms with a hierarchy index are
+ * answered from their own intervals, and the others with a single query listing the distinct parents of their
+ * children, so the cost doesn't grow with the number of terms listed.
+ *
+ * @version $Id$
+ */
+public final class TermChildrenFinder
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(TermChildrenFinder.class);
+
+    private static final String IDENTIFIER = "identifier";
+
+    private static final String PARENTS = "parents";
+
+    private static final String PARENTS_FACET = "rep:facet(parents)";
+
+    /** How many values a facet lists at most, must match {@code facets/topChildren} in the vocabularyTerms index. */
+    private static final int MAX_FACETS = 1000;
+
+    //Hide the utility class constructor
+    private TermChildrenFinder()
+    {
+    }
+
+    /**
+     * Determine which of the given terms have children. If the vocabulary has a hierarchy index, this is answered
+     * directly by the intervals stored in each term, otherwise the children of the remaining terms are queried.
+     *
+     * @param terms The terms to check
+     * @param session the session to query with
+     * @param parentPath the location of the vocabulary whose children we're searching
+     * @return the paths of the terms that have children
+     */
+    public static Set<String> findTermsWithChildren(Collection<Resource> terms, Session session, String parentPath)
+    {
+        Set<String> result = new HashSet<>();
+        // Terms not covered by the hierarchy index, by identifier
+        Map<String, String> unknown = new HashMap<>();
+        for (Resource term : terms) {
+            ValueMap properties = term.getValueMap();
+            long[] ranges = properties.get("hierarchyRanges", long[].class);
+            if (ranges != null && ranges.length >= 2) {
+                // The intervals cover the term itself and its descendants, so anything more means there are children
+                if (ranges.length > 2 || ranges[0] != ranges[1]) {
+                    result.add(term.getPath());
+                }
+            } else if (properties.containsKey(IDENTIFIER)) {
+                unknown.put(properties.get(IDENTIFIER, String.class), term.getPath());
+            }
+        }
+        if (!unknown.isEmpty()) {
+            findParents(unknown, session, parentPath, result);
+        }
+        return result;
+    }
+
+    /**
+     * Query which of the given terms have children. A single faceted query lists the distinct {@code parents} of all
+     * the children of the terms, so the children themselves are not read, and the number of queries doesn't depend on
+     * the number of terms or children. If the vocabulary index doesn't provide facets yet, for example until it is
+     * reindexed, or if more parents were found than a facet can list, the remaining terms are checked by
+     * {@link #findParentsOneByOne}.
+     *
+     * @param unknown the paths of the terms to check, by identifier; the terms found to have children are removed
+     * @param session the session to query with
+     * @param parentPath the location of the vocabulary whose children we're searching
+     * @param result where the paths of the terms that have children are added
+     */
+    private static void findParents(Map<String, String> unknown, Session session, String parentPath, Set<String> result)
+    {
+        try {
+            final QueryManager queryManager = session.getWorkspace().getQueryManager();
+            final Set<String> parents = queryParentFacets(queryManager, parentPath, unknown.keySet());
+            if (parents != null) {
+                parents.stream().map(unknown::remove).filter(Objects::nonNull).forEach(result::add);
+                if (parents.size() < MAX_FACETS) {
+                    // The facet lists all the parents, so none of the remaining terms have children
+                    return;
+                }
+            }
+            findParentsOneByOne(unknown, queryManager, parentPath, result);
+        } catch (RepositoryException e) {
+            LOGGER.warn("Failed to look for the children of vocabulary terms: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * List the distinct parents of the children of the given terms, using the {@code parents} facet of the vocabulary
+     * index.
+     *
+     * @param queryManager the query manager to use
+     * @param parentPath the location of the vocabulary whose children we're searching
+     * @param identifiers the identifiers of the terms whose children to look for
+     * @return the identifiers of the parents of the children found, at most {@link #MAX_FACETS}, including other
+     *         parents of these children, or {@code null} if the index doesn't provide facets
+     * @throws RepositoryException if the query fails
+     */
+    private static Set<String> queryParentFacets(QueryManager queryManager, String parentPath,
+        Collection<String> identifiers) throws RepositoryException
+    {
+        final Query query = queryManager.createQuery(String.format(
+            "SELECT [%s] FROM [cards:VocabularyTerm] AS a WHERE isdescendantnode(a, '%s') AND a.parents IN (%s)",
+            PARENTS_FACET, parentPath, toList(identifiers)), Query.JCR_SQL2);
+        final RowIterator rows = query.execute().getRows();
+        if (!rows.hasNext()) {
+            return Collections.emptySet();
+        }
+        final Value facet = rows.nextRow().getValue(PARENTS_FACET);
+        if (facet == null) {
+            return null;
+        }
+        try (JsonReader reader = Json.createReader(new StringReader(facet.getString()))) {
+            return reader.readObject().keySet();
+        }
+    }
+
+    /**
+     * Query which of the given terms have children, one term at a time. Each query only fetches one child of any of
+     * the terms not found so far, so terms with many children don't cause all their children to be read, but one
+     * query is needed for each term that has children. This is only used when facets are not available.
+     *
+     * @param unknown the paths of the terms to check, by identifier; the terms found to have children are removed
+     * @param queryManager the query manager to use
+     * @param parentPath the location of the vocabulary whose children we're searching
+     * @param result where the paths of the terms that have children are added
+     * @throws RepositoryException if a query fails
+     */
+    private static void findParentsOneByOne(Map<String, String> unknown, QueryManager queryManager, String parentPath,
+        Set<String> result) throws RepositoryException
+    {
+        while (!unknown.isEmpty()) {
+            final Query query = queryManager.createQuery(String.format(
+                "SELECT * FROM [cards:VocabularyTerm] AS a WHERE isdescendantnode(a, '%s') AND a.parents IN (%s)",
+                parentPath, toList(unknown.keySet())), Query.JCR_SQL2);
+            query.setLimit(1);
+            final NodeIterator children = query.execute().getNodes();
+            if (!children.hasNext()) {
+                // None of the remaining terms have children
+                return;
+            }
+            for (Value parent : children.nextNode().getProperty(PARENTS).getValues()) {
+                String parentTermPath = unknown.remove(parent.getString());
+                if (parentTermPath != null) {
+                    result.add(parentTermPath);
+                }
+            }
+        }
+    }
+
+    private static String toList(Collection<String> identifiers)
+    {
+        return identifiers.stream().map(id -> "'" + id.replace("'", "''") + "'").collect(Collectors.joining(","));
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+/**
+ * A compact representation of the term hierarchy, where terms are identified by consecutive integers, and parents
+ * and ancestors are stored as arrays of such integers. Ancestors are computed without recursion, in topological
+ * order, so that the ancestors of each parent are available when a term is processed.
+ *
+ * @version $Id$
+ */
+final class TermGraph
+{
+    private static final int[] NONE = {};
+
+    /** Maps term identifiers to their integer identifier. */
+    private final Map<String, Integer> index = new HashMap<>();
+
+    /** Maps integer identifiers back to term identifiers. */
+    private String[] names = new String[1024];
+
+    /** The direct parents of each term. */
+    private int[][] parents = new int[1024][];
+
+    /** How many frames describing each term have not been read yet. */
+    private int[] frames = new int[1024];
+
+    /** The ancestors of each term, available after {@link #computeAncestors()} is called. */
+    private int[][] ancestors;
+
+    /** The number of known terms, including parents that are referenced but never described. */
+    private int size;
+
+    /**
+     * Record a term, or one more frame describing a term already known.
+     *
+     * @param termId the term identifier
+     * @return the integer identifier of the term, to be used with {@link #addParent(int, String)}
+     */
+    int addTerm(final String termId)
+    {
+        final int id = getOrCreate(termId);
+        ++this.frames[id];
+        return id;
+    }
+
+    /**
+     * Record a direct parent of a term. Duplicate parents and self references are ignored.
+     *
+     * @param term the integer identifier of the term, as returned by {@link #addTerm(String)}
+     * @param parentId the identifier of the parent term
+     */
+    void addParent(final int term, final String parentId)
+    {
+        final int parent = getOrCreate(parentId);
+        if (parent != term && !ArrayUtils.contains(this.parents[term], parent)) {
+            this.parents[term] = ArrayUtils.add(this.parents[term], parent);
+        }
+    }
+
+    /**
+     * Mark that one of the frames of a term has been read again.
+     *
+     * @param termId the term identifier
+     * @return {@code true} if this was the last frame describing the term
+     */
+    boolean markFrameRead(final String termId)
+    {
+        final Integer id = this.index.get(termId);
+        return id == null || --this.frames[id] <= 0;
+    }
+
+    /**
+     * Retrieve the ancestors of a term. This can only be called once per term, since the ancestors are discarded
+     * afterwards to free memory.
+     *
+     * @param termId the term identifier
+     * @return the identifiers of the ancestors of the term, may be empty
+     */
+    String[] getAncestors(final String termId)
+    {
+        final Integer id = this.index.get(termId);
+        if (id == null || this.ancestors[id] == null) {
+            return ArrayUtils.EMPTY_STRING_ARRAY;
+        }
+        final int[] termAncestors = this.ancestors[id];
+        this.ancestors[id] = null;
+        final String[] result = new String[termAncestors.length];
+        for (int i = 0; i < termAncestors.length; ++i) {
+            result[i] = this.names[termAncestors[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Compute the ancestors of all the terms. Terms are processed in topological order, starting with the roots,
+     * and a term is processed only after all of its parents, so its ancestors are just the union of its parents
+     * and their ancestors. Terms that are part of a cycle never become ready this way, and are processed last by
+     * walking the hierarchy upwards.
+     */
+    void computeAncestors()
+    {
+        final int[] childrenStart = countChildren();
+        final int[] children = listChildren(childrenStart);
+        this.ancestors = new int[this.size][];
+        final int[] seen = new int[this.size];
+        computeInTopologicalOrder(childrenStart, children, seen);
+        for (int i = 0; i < this.size; ++i) {
+            if (this.ancestors[i] == null) {
+                this.ancestors[i] = collectAncestors(i, seen);
+            }
+        }
+        this.parents = null;
+    }
+
+    /**
+     * Count the children of each term, as the start of the children of each term in a shared array.
+     *
+     * @return for each term, where its children start in the array built by {@link #listChildren(int[])}; there is
+     *         one more element at the end, holding the total number of children
+     */
+    private int[] countChildren()
+    {
+        final int[] childrenStart = new int[this.size + 1];
+        for (int i = 0; i < this.size; ++i) {
+            for (int parent : this.parents[i]) {
+                ++childrenStart[parent + 1];
+            }
+        }
+        for (int i = 0; i < this.size; ++i) {
+            childrenStart[i + 1] += childrenStart[i];
+        }
+        return childrenStart;
+    }
+
+    /**
+     * List the children of all the terms in a shared array.
+     *
+     * @param childrenStart where the children of each term start, as returned by {@link #countChildren()}
+     * @return the children of all the terms, grouped by parent
+     */
+    private int[] listChildren(final int[] childrenStart)
+    {
+        final int[] children = new int[childrenStart[this.size]];
+        final int[] childrenEnd = Arrays.copyOf(childrenStart, this.size);
+        for (int i = 0; i < this.size; ++i) {
+            for (int parent : this.parents[i]) {
+                children[childrenEnd[parent]++] = i;
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Compute the ancestors of the terms that are not part of a cycle, starting with the roots, and processing each
+     * term once all its parents have been processed.
+     *
+     * @param childrenStart where the children of each term start, as returned by {@link #countChildren()}
+     * @param children the children of all the terms, as returned by {@link #listChildren(int[])}
+     * @param seen scratch array used by {@link #collectAncestors(int, int[])}
+     */
+    private void computeInTopologicalOrder(final int[] childrenStart, final int[] children, final int[] seen)
+    {
+        final int[] pendingParents = new int[this.size];
+        final int[] queue = new int[this.size];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < this.size; ++i) {
+            pendingParents[i] = this.parents[i].length;
+            if (pendingParents[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            final int term = queue[head++];
+            this.ancestors[term] = collectAncestors(term, seen);
+            for (int i = childrenStart[term]; i < childrenStart[term + 1]; ++i) {
+                if (--pendingParents[children[i]] == 0) {
+                    queue[tail++] = children[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Walk the hierarchy upwards from a term, stopping at terms whose ancestors are already known.
+     *
+     * @param term the term whose ancestors to collect
+     * @param seen scratch array used for marking the terms already collected, where the term itself is marked with
+     *            {@code term + 1}; since each term is processed only once, it doesn't need to be cleared
+     * @return the ancestors of the term
+     */
+    private int[] collectAncestors(final int term, final int[] seen)
+    {
+        final int mark = term + 1;
+        seen[term] = mark;
+        int[] result = new int[this.parents[term].length];
+        int resultSize = 0;
+        int[] stack = this.parents[term].clone();
+        int stackSize = stack.length;
+        while (stackSize > 0) {
+            final int crt = stack[--stackSize];
+            if (seen[crt] == mark) {
+                continue;
+            }
+            seen[crt] = mark;
+            result = ensureCapacity(result, resultSize + 1);
+            result[resultSize++] = crt;
+            if (this.ancestors[crt] != null) {
+                // Already computed, no need to go further up
+                for (int ancestor : this.ancestors[crt]) {
+                    if (seen[ancestor] != mark) {
+                        seen[ancestor] = mark;
+                        result = ensureCapacity(result, resultSize + 1);
+                        result[resultSize++] = ancestor;
+                    }
+                }
+            } else {
+                final int[] next = this.parents[crt];
+                stack = ensureCapacity(stack, stackSize + next.length);
+                System.arraycopy(next, 0, stack, stackSize, next.length);
+                stackSize += next.length;
+            }
+        }
+        return resultSize == 0 ? NONE : Arrays.copyOf(result, resultSize);
+    }
+
+    private int getOrCreate(final String termId)
+    {
+        final Integer existing = this.index.get(termId);
+        if (existing != null) {
+            return existing;
+        }
+        if (this.size == this.names.length) {
+            final int newLength = this.size * 2;
+            this.names = Arrays.copyOf(this.names, newLength);
+            this.parents = Arrays.copyOf(this.parents, newLength);
+            this.frames = Arrays.copyOf(this.frames, newLength);
+        }
+        this.names[this.size] = termId;
+        this.parents[this.size] = NONE;
+        this.index.put(termId, this.size);
+        return this.size++;
+    }
+
+    private static int[] ensureCapacity(final int[] array, final int capacity)
+    {
+        return array.length >= capacity ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+}
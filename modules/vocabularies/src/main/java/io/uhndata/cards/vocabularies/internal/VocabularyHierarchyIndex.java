@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.vocabularies.spi.VocabularyIndexException;
+
+/**
+ * Builds a compact hierarchy index for an installed vocabulary, so that "is descendant of X" can be answered with a
+ * range predicate instead of matching the full list of ancestors.
+ * <p>
+ * Terms are numbered in post-order during a depth-first traversal of a spanning tree of the hierarchy, so that the
+ * descendants of a term in the spanning tree have consecutive numbers. Since a term may have several parents, the
+ * descendants reached through other parents are added as extra intervals, merged whenever they are adjacent. Each term
+ * stores:
+ * </p>
+ * <ul>
+ * <li>{@code hierarchyIndex}: its own number</li>
+ * <li>{@code hierarchyRanges}: a flattened list of {@code [from, to]} inclusive intervals, covering the term itself
+ * and all of its descendants</li>
+ * </ul>
+ * For vocabularies that are mostly trees, almost all terms have a single interval.
+ *
+ * @version $Id$
+ */
+public final class VocabularyHierarchyIndex
+{
+    /** The property holding the number of a term. */
+    public static final String INDEX_PROPERTY = "hierarchyIndex";
+
+    /** The property holding the intervals of numbers of the term and its descendants. */
+    public static final String RANGES_PROPERTY = "hierarchyRanges";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VocabularyHierarchyIndex.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    /** Node names of the terms, in the order they were read. */
+    private final List<String> names = new ArrayList<>();
+
+    /** Parents of each term, only those present in the vocabulary. */
+    private int[][] parents;
+
+    /** Children of each term, in compressed form: the children of term i are between start[i] and start[i + 1]. */
+    private int[] childrenStart;
+
+    private int[] children;
+
+    /** The number of each term. */
+    private int[] post;
+
+    /** The lowest number in the spanning subtree of each term. */
+    private int[] low;
+
+    /** The merged intervals covering each term and its descendants. */
+    private int[][] ranges;
+
+    private VocabularyHierarchyIndex()
+    {
+    }
+
+    /**
+     * Compute and store the hierarchy index for all the terms of a vocabulary. The session is saved in batches.
+     *
+     * @param vocabularyNode the vocabulary node holding the already saved terms
+     * @throws VocabularyIndexException if reading or updating the terms fails
+     */
+    public static void build(final Node vocabularyNode) throws VocabularyIndexException
+    {
+        try {
+            final long start = System.currentTimeMillis();
+            final VocabularyHierarchyIndex index = new VocabularyHierarchyIndex();
+            index.load(vocabularyNode);
+            index.number();
+            index.computeRanges();
+            index.store(vocabularyNode);
+            LOGGER.info("Built the hierarchy index of vocabulary {} in {}ms", vocabularyNode.getName(),
+                System.currentTimeMillis() - start);
+        } catch (RepositoryException e) {
+            throw new VocabularyIndexException("Failed to build the hierarchy index: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the identifiers and parents of all terms, and build the children lists.
+     *
+     * @param vocabularyNode the vocabulary node holding the terms
+     * @throws RepositoryException if reading the terms fails
+     */
+    private void load(final Node vocabularyNode) throws RepositoryException
+    {
+        final Map<String, Integer> identifiers = new HashMap<>();
+        final List<String[]> parentIdentifiers = new ArrayList<>();
+        final NodeIterator terms = vocabularyNode.getNodes();
+        while (terms.hasNext()) {
+            final Node term = terms.nextNode();
+            if (!term.isNodeType("cards:VocabularyTerm")) {
+                continue;
+            }
+            identifiers.put(term.getProperty("identifier").getString(), this.names.size());
+            this.names.add(term.getName());
+            parentIdentifiers.add(term.hasProperty("parents") ? getStrings(term.getProperty("parents").getValues())
+                : new String[0]);
+        }
+
+        final int size = this.names.size();
+        this.parents = new int[size][];
+        this.childrenStart = new int[size + 1];
+        for (int i = 0; i < size; ++i) {
+            // Parents outside this vocabulary are ignored, terms without known parents are roots
+            this.parents[i] = Arrays.stream(parentIdentifiers.get(i)).map(identifiers::get)
+                .filter(p -> p != null).mapToInt(Integer::intValue).distinct().toArray();
+            for (int parent : this.parents[i]) {
+                ++this.childrenStart[parent + 1];
+            }
+        }
+        for (int i = 0; i < size; ++i) {
+            this.childrenStart[i + 1] += this.childrenStart[i];
+        }
+        this.children = new int[this.childrenStart[size]];
+        final int[] childrenEnd = Arrays.copyOf(this.childrenStart, size);
+        for (int i = 0; i < size; ++i) {
+            for (int parent : this.parents[i]) {
+                this.children[childrenEnd[parent]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Number all terms in post-order, using an iterative depth-first traversal starting from the terms with no
+     * parents. Terms only reachable through a cycle are visited afterwards.
+     */
+    private void number()
+    {
+        final int size = this.names.size();
+        this.post = new int[size];
+        this.low = new int[size];
+        final boolean[] visited = new boolean[size];
+        final int[] next = Arrays.copyOf(this.childrenStart, size);
+        final int[] stack = new int[size];
+        int counter = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int root = 0; root < size; ++root) {
+                if (visited[root] || pass == 0 && this.parents[root].length > 0) {
+                    continue;
+                }
+                int stackSize = 0;
+                stack[stackSize++] = root;
+                visited[root] = true;
+                this.low[root] = counter;
+                while (stackSize > 0) {
+                    final int crt = stack[stackSize - 1];
+                    if (next[crt] < this.childrenStart[crt + 1]) {
+                        final int child = this.children[next[crt]++];
+                        if (!visited[child]) {
+                            visited[child] = true;
+                            this.low[child] = counter;
+                            stack[stackSize++] = child;
+                        }
+                    } else {
+                        this.post[crt] = counter++;
+                        --stackSize;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the intervals of all terms, processing children before their parents, so that the intervals of a term
+     * are its own spanning subtree merged with the intervals of its children. Terms that are part of a cycle are
+     * processed last by walking the hierarchy downwards.
+     */
+    private void computeRanges()
+    {
+        final int size = this.names.size();
+        this.ranges = new int[size][];
+        final int[] pendingChildren = new int[size];
+        for (int i = 0; i < size; ++i) {
+            pendingChildren[i] = this.childrenStart[i + 1] - this.childrenStart[i];
+        }
+        final int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < size; ++i) {
+            if (pendingChildren[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        final int[] seen = new int[size];
+        while (head < tail) {
+            final int term = queue[head++];
+            this.ranges[term] = collectRanges(term, seen);
+            for (int parent : this.parents[term]) {
+                if (--pendingChildren[parent] == 0) {
+                    queue[tail++] = parent;
+                }
+            }
+        }
+        for (int i = 0; i < size; ++i) {
+            if (this.ranges[i] == null) {
+                this.ranges[i] = collectRanges(i, seen);
+            }
+        }
+    }
+
+    /**
+     * Gather and merge the intervals of a term and its descendants, stopping at terms whose intervals are already
+     * known.
+     *
+     * @param term the term to process
+     * @param seen scratch array used for marking the terms already visited, where the term itself is marked with
+     *            {@code term + 1}; since each term is processed only once, it doesn't need to be cleared
+     * @return a flattened list of merged intervals, sorted
+     */
+    private int[] collectRanges(final int term, final int[] seen)
+    {
+        final int mark = term + 1;
+        seen[term] = mark;
+        // Intervals are packed as from << 32 | to, so that sorting them sorts by their start
+        long[] collected = new long[] { pack(this.low[term], this.post[term]) };
+        int collectedSize = 1;
+        int[] stack = Arrays.copyOfRange(this.children, this.childrenStart[term], this.childrenStart[term + 1]);
+        int stackSize = stack.length;
+        while (stackSize > 0) {
+            final int crt = stack[--stackSize];
+            if (seen[crt] == mark) {
+                continue;
+            }
+            seen[crt] = mark;
+            final int[] known =
+                this.ranges[crt] != null ? this.ranges[crt] : new int[] { this.low[crt], this.post[crt] };
+            collected = ensureCapacity(collected, collectedSize + known.length / 2);
+            for (int i = 0; i < known.length; i += 2) {
+                collected[collectedSize++] = pack(known[i], known[i + 1]);
+            }
+            if (this.ranges[crt] == null) {
+                // Not computed yet, which only happens inside cycles, go further down
+                final int count = this.childrenStart[crt + 1] - this.childrenStart[crt];
+                if (stack.length < stackSize + count) {
+                    stack = Arrays.copyOf(stack, Math.max(stackSize + count, stack.length * 2));
+                }
+                System.arraycopy(this.children, this.childrenStart[crt], stack, stackSize, count);
+                stackSize += count;
+            }
+        }
+        return merge(collected, collectedSize);
+    }
+
+    /**
+     * Merge overlapping or adjacent intervals.
+     *
+     * @param intervals packed {@code [from, to]} intervals, in any order
+     * @param size how many intervals are in the array
+     * @return a flattened list of disjoint intervals, sorted
+     */
+    private static int[] merge(final long[] intervals, final int size)
+    {
+        Arrays.sort(intervals, 0, size);
+        final int[] result = new int[size * 2];
+        int resultSize = 0;
+        for (int i = 0; i < size; ++i) {
+            final int from = (int) (intervals[i] >>> 32);
+            final int to = (int) intervals[i];
+            if (resultSize > 0 && from <= result[resultSize - 1] + 1) {
+                result[resultSize - 1] = Math.max(result[resultSize - 1], to);
+            } else {
+                result[resultSize++] = from;
+                result[resultSize++] = to;
+            }
+        }
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    private static long pack(final int from, final int to)
+    {
+        return (long) from << 32 | to;
+    }
+
+    private static long[] ensureCapacity(final long[] array, final int capacity)
+    {
+        return array.length >= capacity ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    /**
+     * Store the computed numbers and intervals in the term nodes, saving the session every {@link #BATCH_SIZE} terms.
+     *
+     * @param vocabularyNode the vocabulary node holding the terms
+     * @throws RepositoryException if updating the terms fails
+     */
+    private void store(final Node vocabularyNode) throws RepositoryException
+    {
+        final ValueFactory valueFactory = vocabularyNode.getSession().getValueFactory();
+        for (int i = 0; i < this.names.size(); ++i) {
+            final Node term = vocabularyNode.getNode(this.names.get(i));
+            term.setProperty(INDEX_PROPERTY, this.post[i]);
+            final Value[] values = new Value[this.ranges[i].length];
+            for (int j = 0; j < values.length; ++j) {
+                values[j] = valueFactory.createValue(this.ranges[i][j]);
+            }
+            term.setProperty(RANGES_PROPERTY, values);
+            // Free memory as we go
+            this.ranges[i] = null;
+            if ((i + 1) % BATCH_SIZE == 0) {
+                vocabularyNode.getSession().save();
+            }
+        }
+        vocabularyNode.getSession().save();
+    }
+
+    private static String[] getStrings(final Value[] values) throws RepositoryException
+    {
+        final String[] result = new String[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            result[i] = values[i].getString();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.vocabularies.spi.VocabularyDescription;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescriptionBuilder;
+
+/**
+ * Local cache of downloaded vocabulary sources. Each source is stored in {@code <repository>/<identifier>/<version>/}
+ * under the cache directory, where characters other than letters, digits, {@code .}, {@code _} and {@code -} are
+ * replaced by {@code _}, so that installing the same vocabulary version again, for example after a failed install,
+ * doesn't download it again.
+ * <p>
+ * Downloads are first written to a {@code source.part} file, and the {@code ETag} or {@code Last-Modified} header of
+ * the remote file is stored next to it in {@code source.part.validator}. If a download is interrupted, the next attempt
+ * asks the server only for the missing bytes, provided that the remote file didn't change in the meantime; otherwise,
+ * the partial file is discarded and the whole file is downloaded again. Once complete, the SHA-256 checksum of the
+ * source is stored next to it in {@code source.sha256}, and it is verified each time the source is reused; a
+ * corrupted source is downloaded again. Since neither BioPortal nor the EBI Ontology Lookup Service publish digests of
+ * their sources, this checksum is computed from the downloaded bytes themselves: it detects a cached file that was
+ * damaged or truncated afterwards, but not a download that was already corrupted in transit, beyond what the length
+ * check catches.
+ * </p>
+ * <p>
+ * The description of the vocabulary is stored in {@code description.json}, so that it can be used instead of asking
+ * the remote repository. The cache directory can also be filled in advance by copying the {@code source} files, and
+ * optionally their checksums and descriptions, into the right folders. In offline mode, only such pre-seeded sources
+ * are used, and nothing is downloaded, not even the vocabulary descriptions.
+ * </p>
+ *
+ * @version $Id$
+ */
+@Designate(ocd = VocabularySourceCache.Config.class)
+@Component(service = VocabularySourceCache.class)
+public class VocabularySourceCache
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(VocabularySourceCache.class);
+
+    private static final String SOURCE_FILE = "source";
+
+    private static final String PARTIAL_FILE = "source.part";
+
+    private static final String CHECKSUM_FILE = "source.sha256";
+
+    private static final String DESCRIPTION_FILE = "description.json";
+
+    private static final String VALIDATOR_SUFFIX = ".validator";
+
+    private static final String ETAG = "ETag";
+
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    private static final String CHECKSUM_ALGORITHM = "SHA-256";
+
+    /** Locks used for preventing the same source from being downloaded in parallel, by cache folder. */
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled;
+
+    private volatile boolean offline;
+
+    private volatile int keptVersions;
+
+    private volatile File directory;
+
+    @ObjectClassDefinition(name = "Vocabulary source cache",
+        description = "Local cache of the vocabulary sources downloaded from remote repositories")
+    public @interface Config
+    {
+        @AttributeDefinition(name = "Enabled",
+            description = "Keep downloaded sources, instead of downloading them again on each install")
+        boolean enabled() default true;
+
+        @AttributeDefinition(name = "Directory",
+            description = "Where sources are stored, relative to the Sling home if not absolute")
+        String directory() default "vocabularies";
+
+        @AttributeDefinition(name = "Offline",
+            description = "Only use the sources already present in the cache directory, never download")
+        boolean offline() default false;
+
+        @AttributeDefinition(name = "Kept versions",
+            description = "How many versions of each vocabulary to keep, older ones are deleted after a download")
+        int keptVersions() default 2;
+    }
+
+    @Activate
+    @Modified
+    void activate(final Config config, final BundleContext bundleContext)
+    {
+        this.enabled = config.enabled();
+        this.offline = config.offline();
+        this.keptVersions = config.keptVersions();
+        File configuredDirectory = new File(config.directory());
+        if (!configuredDirectory.isAbsolute()) {
+            final String home = bundleContext.getProperty("sling.home");
+            configuredDirectory = new File(StringUtils.defaultIfBlank(home, "."), config.directory());
+        }
+        this.directory = configuredDirectory;
+    }
+
+    /**
+     * Retrieves the source of a vocabulary, from the cache if available, otherwise downloading it first. The returned
+     * file must be passed to {@link #release(File)} once it is no longer needed.
+     *
+     * @param repository the name of the repository the vocabulary comes from
+     * @param identifier the identifier of the vocabulary
+     * @param version the version of the vocabulary; sources without a version are never cached
+     * @param url where to download the source from
+     * @return the local file holding the vocabulary source
+     * @throws IllegalArgumentException if the server refuses to provide the source
+     * @throws IOException if the source is not available offline, or downloading or storing the source failed
+     */
+    public File getSource(final String repository, final String identifier, final String version, final String url)
+        throws IllegalArgumentException, IOException
+    {
+        if (!this.enabled || StringUtils.isBlank(version)) {
+            final File temporaryFile = File.createTempFile(repository + "-" + identifier, "");
+            try {
+                download(url, temporaryFile, false);
+            } catch (IOException | RuntimeException e) {
+                FileUtils.deleteQuietly(temporaryFile);
+                throw e;
+            }
+            return temporaryFile;
+        }
+
+        final File folder = getFolder(repository, identifier, version);
+        synchronized (this.locks.computeIfAbsent(folder.getAbsolutePath(), key -> new Object())) {
+            final File source = new File(folder, SOURCE_FILE);
+            if (source.isFile() && isValid(source)) {
+                // Mark the version as recently used, so that it isn't removed when other versions are downloaded
+                folder.setLastModified(System.currentTimeMillis());
+                LOGGER.info("Using cached source for vocabulary {} version {}", identifier, version);
+                return source;
+            }
+            if (this.offline) {
+                throw new IOException("Source for vocabulary [" + identifier + "] version [" + version
+                    + "] is not available offline in " + folder.getAbsolutePath());
+            }
+
+            Files.createDirectories(folder.toPath());
+            final File partial = new File(folder, PARTIAL_FILE);
+            try {
+                download(url, partial, true);
+            } catch (IllegalArgumentException e) {
+                // Nothing was downloaded, don't leave an empty folder behind
+                if (!partial.isFile()) {
+                    FileUtils.deleteQuietly(folder);
+                }
+                throw e;
+            }
+            Files.write(new File(folder, CHECKSUM_FILE).toPath(),
+                computeChecksum(partial).getBytes(StandardCharsets.US_ASCII));
+            Files.move(partial.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(getValidatorFile(partial).toPath());
+            removeOldVersions(folder);
+            return source;
+        }
+    }
+
+    /**
+     * Whether only the sources already present in the cache may be used. In offline mode, repositories must not be
+     * accessed at all, and vocabulary descriptions must be obtained from {@link #getDescription} instead.
+     *
+     * @return {@code true} if nothing may be downloaded
+     */
+    public boolean isOffline()
+    {
+        return this.offline;
+    }
+
+    /**
+     * Stores the description of a vocabulary next to its cached source, to be used offline. Nothing is stored if the
+     * source isn't cached, or in offline mode, where the cache may be read-only. Query parameters are removed from the
+     * source URL, since they may hold API keys.
+     *
+     * @param repository the name of the repository the vocabulary comes from
+     * @param description the description of the vocabulary, as obtained from the repository
+     */
+    public void storeDescription(final String repository, final VocabularyDescription description)
+    {
+        final File folder = getFolder(repository, description.getIdentifier(), description.getVersion());
+        if (this.offline || folder == null || !new File(folder, SOURCE_FILE).isFile()) {
+            return;
+        }
+        final JsonObjectBuilder json = Json.createObjectBuilder();
+        addIfNotNull(json, "identifier", description.getIdentifier());
+        addIfNotNull(json, "name", description.getName());
+        addIfNotNull(json, "description", description.getDescription());
+        addIfNotNull(json, "version", description.getVersion());
+        addIfNotNull(json, "source", StringUtils.substringBefore(description.getSource(), "?"));
+        addIfNotNull(json, "sourceFormat", description.getSourceFormat());
+        addIfNotNull(json, "website", description.getWebsite());
+        addIfNotNull(json, "citation", description.getCitation());
+        try (Writer writer = Files.newBufferedWriter(new File(folder, DESCRIPTION_FILE).toPath(),
+            StandardCharsets.UTF_8)) {
+            Json.createWriter(writer).writeObject(json.build());
+        } catch (IOException e) {
+            LOGGER.warn("Cannot store the description of vocabulary {}: {}", description.getIdentifier(),
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves the description of a cached vocabulary source. If no description was stored with a pre-seeded source,
+     * a minimal description is built from the cache folder, pointing to the cached source.
+     *
+     * @param repository the name of the repository the vocabulary comes from
+     * @param identifier the identifier of the vocabulary
+     * @param version an optional version; if missing, the most recently used cached version is described
+     * @return the description of the vocabulary
+     * @throws IOException if no source for this vocabulary is available in the cache, or its description is invalid
+     */
+    public VocabularyDescription getDescription(final String repository, final String identifier,
+        final String version) throws IOException
+    {
+        final File folder = StringUtils.isBlank(version) ? findLatestVersion(repository, identifier)
+            : getFolder(repository, identifier, version);
+        if (folder == null || !new File(folder, SOURCE_FILE).isFile()) {
+            throw new IOException("Vocabulary [" + identifier + "]"
+                + (StringUtils.isBlank(version) ? "" : " version [" + version + "]") + " is not available offline");
+        }
+        final File descriptionFile = new File(folder, DESCRIPTION_FILE);
+        if (!descriptionFile.isFile()) {
+            final File source = new File(folder, SOURCE_FILE);
+            return new VocabularyDescriptionBuilder().withIdentifier(identifier)
+                .withVersion(StringUtils.defaultIfBlank(version, folder.getName()))
+                .withSource(source.toURI().toString())
+                .withSourceFormat(OntologyFormatDetection.getSourceFormat(source.getName()))
+                .build();
+        }
+        try (Reader reader = Files.newBufferedReader(descriptionFile.toPath(), StandardCharsets.UTF_8)) {
+            final JsonObject json = Json.createReader(reader).readObject();
+            return new VocabularyDescriptionBuilder().withIdentifier(json.getString("identifier", identifier))
+                .withName(json.getString("name", null))
+                .withDescription(json.getString("description", null))
+                .withVersion(json.getString("version", folder.getName()))
+                .withSource(json.getString("source", null))
+                .withSourceFormat(json.getString("sourceFormat", null))
+                .withWebsite(json.getString("website", null))
+                .withCitation(json.getString("citation", null))
+                .build();
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid cached description for vocabulary [" + identifier + "]: " + e.getMessage(),
+                e);
+        }
+    }
+
+    /**
+     * Releases a source obtained from {@link #getSource}. Cached sources are kept, temporary downloads are deleted.
+     *
+     * @param source the source file, may be {@code null}
+     */
+    public void release(final File source)
+    {
+        if (source != null
+            && !source.getAbsoluteFile().toPath().startsWith(this.directory.getAbsoluteFile().toPath())) {
+            FileUtils.deleteQuietly(source);
+        }
+    }
+
+    /**
+     * Downloads a file. If resuming is allowed and part of the file was already downloaded, only the rest of the file
+     * is requested, if the remote file didn't change since. If the download fails midway, the partial file is kept, so
+     * that the next attempt can resume it.
+     *
+     * @param url where to download from
+     * @param target where to store the downloaded file
+     * @param resume whether an existing partial download can be continued
+     * @throws IllegalArgumentException if the server refuses to provide the file
+     * @throws IOException if the download fails or is incomplete
+     */
+    private void download(final String url, final File target, final boolean resume)
+        throws IllegalArgumentException, IOException
+    {
+        final String validator = resume ? getResumableValidator(target) : null;
+        final long existing = validator == null ? 0 : target.length();
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build();
+            CloseableHttpResponse httpResponse = httpClient.execute(createRequest(url, existing, validator))) {
+            final int status = httpResponse.getStatusLine().getStatusCode();
+            if (existing > 0 && !canResume(httpResponse, status, validator)) {
+                // The partial file doesn't match the remote file anymore, start over
+                discardPartial(target);
+                download(url, target, resume);
+                return;
+            } else if (status >= 400) {
+                throw new IllegalArgumentException(status + " http error");
+            }
+
+            // The server may ignore the range and send the whole file instead
+            final boolean append = existing > 0 && status == HttpStatus.SC_PARTIAL_CONTENT;
+            if (append) {
+                LOGGER.info("Resuming download of {} after {} bytes", StringUtils.substringBefore(url, "?"), existing);
+            } else if (resume) {
+                storeValidator(httpResponse, getValidatorFile(target));
+            }
+            save(url, httpResponse, target, append ? existing : 0);
+        }
+    }
+
+    /**
+     * Prepares the request for downloading a file, asking only for the missing bytes when resuming a download.
+     *
+     * @param url where to download from
+     * @param existing how many bytes were already downloaded
+     * @param validator the validator stored for the partial download, used if resuming
+     * @return the request to send
+     */
+    private static HttpGet createRequest(final String url, final long existing, final String validator)
+    {
+        final HttpGet httpget = new HttpGet(url);
+        if (existing > 0) {
+            httpget.setHeader("Range", "bytes=" + existing + "-");
+            // The server only sends the missing bytes if the remote file is still the same, otherwise the whole file
+            httpget.setHeader("If-Range", validator);
+        }
+        return httpget;
+    }
+
+    /**
+     * Writes the content of a download to the target file.
+     *
+     * @param url where the file is downloaded from
+     * @param httpResponse the server response
+     * @param target where to store the downloaded file
+     * @param offset where the response content starts in the full file; the content is appended to the target file if
+     *            this is not {@code 0}
+     * @throws IOException if the download fails or is incomplete
+     */
+    private void save(final String url, final CloseableHttpResponse httpResponse, final File target, final long offset)
+        throws IOException
+    {
+        final long expected = getExpectedLength(httpResponse, offset);
+        try (InputStream input = httpResponse.getEntity().getContent();
+            OutputStream output = new FileOutputStream(target, offset > 0)) {
+            IOUtils.copyLarge(input, output);
+        }
+        if (expected >= 0 && target.length() != expected) {
+            throw new IOException("Incomplete download of [" + StringUtils.substringBefore(url, "?")
+                + "]: received " + target.length() + " out of " + expected + " bytes");
+        }
+    }
+
+    /**
+     * Retrieves the validator stored for a partial download. A partial download without a validator cannot be safely
+     * resumed, since there's no way of knowing whether the remote file changed in the meantime, so it is discarded.
+     *
+     * @param target the partial download
+     * @return the {@code ETag} or {@code Last-Modified} value of the remote file when the download started, or
+     *         {@code null} if there is no partial download that can be resumed
+     * @throws IOException if reading the validator fails
+     */
+    private static String getResumableValidator(final File target) throws IOException
+    {
+        final File validatorFile = getValidatorFile(target);
+        if (target.length() > 0 && validatorFile.isFile()) {
+            final String validator = Files.readString(validatorFile.toPath(), StandardCharsets.UTF_8).trim();
+            if (!validator.isEmpty()) {
+                return validator;
+            }
+        }
+        discardPartial(target);
+        return null;
+    }
+
+    /**
+     * Stores the validator of the remote file next to a new partial download. Only strong {@code ETag}s can be used
+     * for resuming downloads, otherwise the {@code Last-Modified} date is used.
+     *
+     * @param httpResponse the server response
+     * @param validatorFile where to store the validator
+     * @throws IOException if storing the validator fails
+     */
+    private static void storeValidator(final CloseableHttpResponse httpResponse, final File validatorFile)
+        throws IOException
+    {
+        final Header etag = httpResponse.getFirstHeader(ETAG);
+        final Header lastModified = httpResponse.getFirstHeader(LAST_MODIFIED);
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            Files.writeString(validatorFile.toPath(), etag.getValue(), StandardCharsets.UTF_8);
+        } else if (lastModified != null) {
+            Files.writeString(validatorFile.toPath(), lastModified.getValue(), StandardCharsets.UTF_8);
+        } else {
+            Files.deleteIfExists(validatorFile.toPath());
+        }
+    }
+
+    /**
+     * Checks whether the server response to a resumed download continues the partial download. Servers send the whole
+     * file when the {@code If-Range} validator doesn't match, but the validator is checked again in case the server
+     * ignored it.
+     *
+     * @param httpResponse the server response
+     * @param status the status of the response
+     * @param validator the validator stored for the partial download
+     * @return {@code false} if the partial download must be discarded
+     */
+    private static boolean canResume(final CloseableHttpResponse httpResponse, final int status,
+        final String validator)
+    {
+        if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+            return false;
+        } else if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+            return true;
+        }
+        final Header current = httpResponse.getFirstHeader(validator.startsWith("\"") ? ETAG : LAST_MODIFIED);
+        return current == null || validator.equals(current.getValue());
+    }
+
+    private static void discardPartial(final File target)
+    {
+        FileUtils.deleteQuietly(target);
+        FileUtils.deleteQuietly(getValidatorFile(target));
+    }
+
+    private static File getValidatorFile(final File target)
+    {
+        return new File(target.getParentFile(), target.getName() + VALIDATOR_SUFFIX);
+    }
+
+    /**
+     * Computes the full length of the file being downloaded, as announced by the server.
+     *
+     * @param httpResponse the server response
+     * @param offset where the response content starts in the full file
+     * @return the length of the full file, or {@code -1} if unknown
+     */
+    private long getExpectedLength(final CloseableHttpResponse httpResponse, final long offset)
+    {
+        final long contentLength = httpResponse.getEntity().getContentLength();
+        return contentLength < 0 ? -1 : offset + contentLength;
+    }
+
+    /**
+     * Checks a cached source against its stored checksum. Pre-seeded sources without a checksum are trusted, and
+     * their checksum is stored for the next time they are used.
+     *
+     * @param source the cached source file
+     * @return {@code true} if the source can be used
+     * @throws IOException if reading the source fails
+     */
+    private boolean isValid(final File source) throws IOException
+    {
+        final File checksumFile = new File(source.getParentFile(), CHECKSUM_FILE);
+        final String checksum = computeChecksum(source);
+        if (!checksumFile.isFile()) {
+            try {
+                Files.write(checksumFile.toPath(), checksum.getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                // Pre-seeded directories may be read-only, this is not a problem
+                LOGGER.debug("Cannot store the checksum of {}: {}", source.getAbsolutePath(), e.getMessage());
+            }
+            return true;
+        }
+        final String expected =
+            StringUtils.substringBefore(Files.readString(checksumFile.toPath(), StandardCharsets.US_ASCII).trim(), " ");
+        if (checksum.equalsIgnoreCase(expected)) {
+            return true;
+        }
+        LOGGER.warn("Checksum mismatch for cached vocabulary source {}, discarding it", source.getAbsolutePath());
+        if (!this.offline) {
+            FileUtils.deleteQuietly(source);
+            FileUtils.deleteQuietly(checksumFile);
+        }
+        return false;
+    }
+
+    private static String computeChecksum(final File file) throws IOException
+    {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory in all Java implementations
+            throw new IllegalStateException(e);
+        }
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            IOUtils.consume(input);
+        }
+        final StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Deletes the oldest cached versions of a vocabulary, keeping only the configured number of versions.
+     *
+     * @param folder the folder of the version that was just downloaded, which is always kept
+     */
+    private void removeOldVersions(final File folder)
+    {
+        final File[] versions = folder.getParentFile().listFiles(File::isDirectory);
+        if (this.keptVersions <= 0 || versions == null || versions.length <= this.keptVersions) {
+            return;
+        }
+        Arrays.sort(versions, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = this.keptVersions; i < versions.length; ++i) {
+            if (!versions[i].equals(folder)) {
+                LOGGER.info("Removing old cached vocabulary source {}", versions[i].getAbsolutePath());
+                FileUtils.deleteQuietly(versions[i]);
+            }
+        }
+    }
+
+    /**
+     * Computes the cache folder of a vocabulary version.
+     *
+     * @param repository the name of the repository the vocabulary comes from
+     * @param identifier the identifier of the vocabulary
+     * @param version the version of the vocabulary
+     * @return the folder, which may not exist, or {@code null} if this version cannot be cached
+     */
+    private File getFolder(final String repository, final String identifier, final String version)
+    {
+        if (!this.enabled || StringUtils.isAnyBlank(identifier, version)) {
+            return null;
+        }
+        return new File(new File(new File(this.directory, toFileName(repository)), toFileName(identifier)),
+            toFileName(version));
+    }
+
+    /**
+     * Finds the most recently used cached version of a vocabulary.
+     *
+     * @param repository the name of the repository the vocabulary comes from
+     * @param identifier the identifier of the vocabulary
+     * @return the folder of the version, or {@code null} if no version is cached
+     */
+    private File findLatestVersion(final String repository, final String identifier)
+    {
+        final File vocabularyFolder =
+            new File(new File(this.directory, toFileName(repository)), toFileName(identifier));
+        final File[] versions = vocabularyFolder.listFiles(folder -> new File(folder, SOURCE_FILE).isFile());
+        if (!this.enabled || versions == null) {
+            return null;
+        }
+        return Arrays.stream(versions).max(Comparator.comparingLong(File::lastModified)).orElse(null);
+    }
+
+    private static void addIfNotNull(final JsonObjectBuilder json, final String key, final String value)
+    {
+        if (value != null) {
+            json.add(key, value);
+        }
+    }
+
+    private static String toFileName(final String name)
+    {
+        final String result = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        // Don't allow names such as "..", which would escape the cache directory
+        return result.matches("\\.*") ? "_" + result : result;
+    }
+}
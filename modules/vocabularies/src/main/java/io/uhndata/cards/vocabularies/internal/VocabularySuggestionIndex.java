@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory autocomplete index for vocabulary terms. For each vocabulary, the distinct words of all the searchable
+ * properties of its terms are kept in an array, each word listing the terms it appears in, so that the terms having
+ * words containing a given text are found with a scan over the distinct words instead of a repository query. Terms are
+ * numbered in their rank order, shorter labels first, so matching terms are collected already sorted.
+ * <p>
+ * The index of a vocabulary is built the first time it is needed, once per installed version of the vocabulary:
+ * vocabularies are checked in when their install completes, so an index is bound to the base version of the vocabulary
+ * node, and a vocabulary that is still checked out, i.e. still being installed, is not indexed.
+ * </p>
+ *
+ * @version $Id$
+ */
+@Designate(ocd = VocabularySuggestionIndex.Config.class)
+@Component(service = VocabularySuggestionIndex.class)
+public class VocabularySuggestionIndex
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(VocabularySuggestionIndex.class);
+
+    /**
+     * Properties whose words cannot be matched, other than the system properties. The label is indexed separately,
+     * and the hierarchy properties are not fulltext-indexed by the {@code vocabularyTerms} Oak index either.
+     */
+    private static final Set<String> NOT_SEARCHED_PROPERTIES = Set.of("label", "parents", "ancestors");
+
+    /** Splits text into words. */
+    private static final String WORD_SEPARATOR = "[^\\p{L}\\p{N}]+";
+
+    /** The indexes of the recently used vocabularies, by vocabulary path. */
+    private final Map<String, IndexHolder> indexes = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled;
+
+    private volatile int maxVocabularies;
+
+    @ObjectClassDefinition(name = "Vocabulary autocomplete",
+        description = "In-memory index used for answering vocabulary term suggestions")
+    public @interface Config
+    {
+        @AttributeDefinition(name = "Enabled",
+            description = "Answer suggestions from memory instead of running a query on each request")
+        boolean enabled() default true;
+
+        @AttributeDefinition(name = "Maximum vocabularies",
+            description = "How many vocabularies to keep in memory, other vocabularies are discarded")
+        int maxVocabularies() default 10;
+    }
+
+    @Activate
+    @Modified
+    void activate(final Config config)
+    {
+        this.enabled = config.enabled();
+        this.maxVocabularies = config.maxVocabularies();
+        this.indexes.clear();
+    }
+
+    /**
+     * Find the terms of a vocabulary matching a text typed by the user. A term matches if each word of the text is
+     * contained in a word of the label, synonyms, identifier, or any other searchable property of the term, as with a
+     * {@code contains(a.*, '*text*')} query. Terms whose label matches all the words are listed first, and within each
+     * group shorter labels are listed first.
+     *
+     * @param vocabulary the vocabulary to search
+     * @param text the text typed by the user
+     * @param max the maximum number of term paths to return
+     * @return the suggestions, or {@code null} if the index is disabled, the text has no words, or the vocabulary is
+     *         still being installed
+     */
+    public Suggestions suggest(final Resource vocabulary, final String text, final long max)
+    {
+        final String[] words = getWords(text);
+        final String version = getInstalledVersion(vocabulary);
+        if (!this.enabled || words.length == 0 || version == null) {
+            return null;
+        }
+        final String path = vocabulary.getPath();
+        final IndexHolder holder = this.indexes.compute(path,
+            (key, existing) -> existing != null && existing.version.equals(version) ? existing
+                : new IndexHolder(version));
+        evictOtherThan(path);
+        return holder.get(vocabulary).find(words, max);
+    }
+
+    /**
+     * Identify the installed version of a vocabulary.
+     *
+     * @param vocabulary the vocabulary to check
+     * @return the identifier of the base version of the vocabulary node, or {@code null} if the vocabulary is still
+     *         checked out, i.e. its install has not completed yet
+     */
+    private static String getInstalledVersion(final Resource vocabulary)
+    {
+        final ValueMap properties = vocabulary.getValueMap();
+        if (properties.get("jcr:isCheckedOut", true)) {
+            return null;
+        }
+        return properties.get("jcr:baseVersion", String.class);
+    }
+
+    /**
+     * Discard indexes other than the one just used while too many vocabularies are indexed.
+     *
+     * @param path the path of the vocabulary just used
+     */
+    private void evictOtherThan(final String path)
+    {
+        final Iterator<String> keys = this.indexes.keySet().iterator();
+        while (this.indexes.size() > this.maxVocabularies && keys.hasNext()) {
+            if (!path.equals(keys.next())) {
+                keys.remove();
+            }
+        }
+    }
+
+    private static String[] getWords(final String text)
+    {
+        if (text == null) {
+            return ArrayUtils.EMPTY_STRING_ARRAY;
+        }
+        return Arrays.stream(text.toLowerCase(Locale.ROOT).split(WORD_SEPARATOR))
+            .filter(StringUtils::isNotEmpty).toArray(String[]::new);
+    }
+
+    /**
+     * The result of a suggestion request.
+     *
+     * @version $Id$
+     */
+    public static final class Suggestions
+    {
+        private final List<String> paths;
+
+        private final int total;
+
+        Suggestions(final List<String> paths, final int total)
+        {
+            this.paths = paths;
+            this.total = total;
+        }
+
+        /**
+         * The paths of the best matching terms, in rank order.
+         *
+         * @return a list of term paths, may be empty
+         */
+        public List<String> getPaths()
+        {
+            return this.paths;
+        }
+
+        /**
+         * The total number of matching terms.
+         *
+         * @return a positive number, or {@code 0} if there are no matches
+         */
+        public int getTotal()
+        {
+            return this.total;
+        }
+    }
+
+    /**
+     * Holds the index of one version of a vocabulary, building it only once even if several requests need it at the
+     * same time.
+     *
+     * @version $Id$
+     */
+    private static final class IndexHolder
+    {
+        private final String version;
+
+        private TermIndex index;
+
+        IndexHolder(final String version)
+        {
+            this.version = version;
+        }
+
+        synchronized TermIndex get(final Resource vocabulary)
+        {
+            if (this.index == null) {
+                this.index = new TermIndex(vocabulary);
+            }
+            return this.index;
+        }
+    }
+
+    /**
+     * The index of one vocabulary.
+     *
+     * @version $Id$
+     */
+    private static final class TermIndex
+    {
+        private final String path;
+
+        /** The node names of the terms, sorted by rank. */
+        private final String[] names;
+
+        /** All the distinct words, sorted. */
+        private final String[] words;
+
+        /** For each word, where its terms start in {@link #wordTerms}; has one extra element marking the end. */
+        private final int[] wordStarts;
+
+        /** The terms of each word, times two, plus one if the word isn't in the label. */
+        private final int[] wordTerms;
+
+        TermIndex(final Resource vocabulary)
+        {
+            final long start = System.currentTimeMillis();
+            this.path = vocabulary.getPath();
+
+            // Read the terms, and number them by rank
+            final List<String[]> terms = new ArrayList<>();
+            for (Resource term : vocabulary.getChildren()) {
+                final ValueMap properties = term.getValueMap();
+                final String label = properties.get("label", String.class);
+                if (label != null) {
+                    terms.add(new String[] { term.getName(), label, getSearchableText(properties) });
+                }
+            }
+            terms.sort(Comparator.<String[]>comparingInt(term -> term[1].length())
+                .thenComparing(term -> term[1], String.CASE_INSENSITIVE_ORDER));
+
+            // Collect the words of each term
+            this.names = new String[terms.size()];
+            final List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+            for (int i = 0; i < terms.size(); ++i) {
+                this.names[i] = terms.get(i)[0];
+                final String[] labelWords = getWords(terms.get(i)[1]);
+                for (String word : new LinkedHashSet<>(Arrays.asList(labelWords))) {
+                    entries.add(Map.entry(word, i * 2));
+                }
+                for (String word : new LinkedHashSet<>(Arrays.asList(getWords(terms.get(i)[2])))) {
+                    if (!ArrayUtils.contains(labelWords, word)) {
+                        entries.add(Map.entry(word, i * 2 + 1));
+                    }
+                }
+            }
+
+            // Group the entries by word
+            entries.sort(Map.Entry.comparingByKey());
+            final List<String> distinctWords = new ArrayList<>();
+            final List<Integer> starts = new ArrayList<>();
+            this.wordTerms = new int[entries.size()];
+            for (int i = 0; i < entries.size(); ++i) {
+                if (i == 0 || !entries.get(i).getKey().equals(entries.get(i - 1).getKey())) {
+                    distinctWords.add(entries.get(i).getKey());
+                    starts.add(i);
+                }
+                this.wordTerms[i] = entries.get(i).getValue();
+            }
+            starts.add(entries.size());
+            this.words = distinctWords.toArray(ArrayUtils.EMPTY_STRING_ARRAY);
+            this.wordStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+            LOGGER.info("Built the autocomplete index of {} with {} terms and {} words in {}ms", this.path,
+                this.names.length, this.words.length, System.currentTimeMillis() - start);
+        }
+
+        /**
+         * Gather the text of all the searchable properties of a term, other than its label.
+         *
+         * @param properties the properties of the term
+         * @return the values of the searchable properties, separated by spaces
+         */
+        private static String getSearchableText(final ValueMap properties)
+        {
+            final StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                if (property.getKey().indexOf(':') < 0 && !NOT_SEARCHED_PROPERTIES.contains(property.getKey())) {
+                    for (String value : properties.get(property.getKey(), ArrayUtils.EMPTY_STRING_ARRAY)) {
+                        text.append(value).append(' ');
+                    }
+                }
+            }
+            return text.toString();
+        }
+
+        /**
+         * Find the terms matching all the given word fragments.
+         *
+         * @param fragments the words typed by the user, lowercase
+         * @param max the maximum number of term paths to return
+         * @return the matching terms
+         */
+        Suggestions find(final String[] fragments, final long max)
+        {
+            final BitSet inLabel = new BitSet(this.names.length);
+            final BitSet anywhere = new BitSet(this.names.length);
+            inLabel.set(0, this.names.length);
+            anywhere.set(0, this.names.length);
+            for (String fragment : fragments) {
+                final BitSet fragmentInLabel = new BitSet(this.names.length);
+                final BitSet fragmentAnywhere = new BitSet(this.names.length);
+                for (int i = 0; i < this.words.length; ++i) {
+                    if (this.words[i].contains(fragment)) {
+                        markTerms(i, fragmentInLabel, fragmentAnywhere);
+                    }
+                }
+                inLabel.and(fragmentInLabel);
+                anywhere.and(fragmentAnywhere);
+            }
+            // Terms matching in their label come first, then the other terms
+            anywhere.andNot(inLabel);
+            final List<String> paths = new ArrayList<>();
+            collect(inLabel, paths, max);
+            collect(anywhere, paths, max);
+            return new Suggestions(paths, inLabel.cardinality() + anywhere.cardinality());
+        }
+
+        private void markTerms(final int word, final BitSet inLabel, final BitSet anywhere)
+        {
+            for (int i = this.wordStarts[word]; i < this.wordStarts[word + 1]; ++i) {
+                final int term = this.wordTerms[i] >>> 1;
+                anywhere.set(term);
+                if ((this.wordTerms[i] & 1) == 0) {
+                    inLabel.set(term);
+                }
+            }
+        }
+
+        private void collect(final BitSet terms, final List<String> paths, final long max)
+        {
+            for (int term = terms.nextSetBit(0); term >= 0 && paths.size() < max; term = terms.nextSetBit(term + 1)) {
+                paths.add(this.path + "/" + this.names[term]);
+            }
+        }
+    }
+}
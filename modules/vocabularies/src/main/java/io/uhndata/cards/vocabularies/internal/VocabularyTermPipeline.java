@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.vocabularies.spi.SourceParser;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescription;
+import io.uhndata.cards.vocabularies.spi.VocabularyIndexException;
+import io.uhndata.cards.vocabularies.spi.VocabularyTermSource;
+
+/**
+ * Producer/consumer pipeline for indexing a vocabulary. The source is parsed on a separate thread, and the parsed terms
+ * are handed over through a bounded queue to the calling thread, which writes them in the repository. This way parsing
+ * and storing terms overlap, while the JCR session is still only used by the thread that owns it.
+ *
+ * @version $Id$
+ */
+public final class VocabularyTermPipeline
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(VocabularyTermPipeline.class);
+
+    /** How many parsed terms can wait to be written before the parser is paused. */
+    private static final int QUEUE_SIZE = 1000;
+
+    /** Marks the end of the parsed terms. */
+    private static final VocabularyTermSource END = new VocabularyTermSource("", "", null, null, null);
+
+    private final SourceParser parser;
+
+    private final File source;
+
+    private final VocabularyDescription description;
+
+    /** How many terms were written. */
+    private long termCount;
+
+    /** How long the indexing took, in milliseconds. */
+    private long duration;
+
+    /**
+     * Constructor specifying the vocabulary to index.
+     *
+     * @param parser the parser to use for reading the source
+     * @param source the vocabulary source file
+     * @param description the vocabulary description
+     */
+    public VocabularyTermPipeline(final SourceParser parser, final File source,
+        final VocabularyDescription description)
+    {
+        this.parser = parser;
+        this.source = source;
+        this.description = description;
+    }
+
+    /**
+     * Parse the vocabulary source and send each term to the writer. This method only returns after all the terms have
+     * been written, or an error occurred.
+     *
+     * @param writer method that will store the parsed terms, invoked on the calling thread
+     * @throws IOException if reading the source fails
+     * @throws VocabularyIndexException if parsing the source fails, or if indexing is interrupted
+     */
+    public void run(final Consumer<VocabularyTermSource> writer) throws IOException, VocabularyIndexException
+    {
+        final long start = System.currentTimeMillis();
+        final BlockingQueue<VocabularyTermSource> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final AtomicReference<Exception> parseError = new AtomicReference<>();
+        final Thread producer = new Thread(() -> {
+            try {
+                this.parser.parse(this.source, this.description, term -> enqueue(queue, term));
+            } catch (Exception e) {
+                parseError.set(e);
+            } finally {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    // The writer gave up, nobody is waiting for the end marker
+                }
+            }
+        }, "vocabulary-parser-" + this.description.getIdentifier());
+        producer.setDaemon(true);
+        producer.start();
+
+        try {
+            VocabularyTermSource term;
+            while ((term = queue.take()) != END) {
+                writer.accept(term);
+                ++this.termCount;
+            }
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VocabularyIndexException("Vocabulary indexing was interrupted", e);
+        } finally {
+            // If writing failed, the parser must be stopped as well
+            producer.interrupt();
+            this.duration = System.currentTimeMillis() - start;
+        }
+
+        final Exception error = parseError.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof VocabularyIndexException) {
+            throw (VocabularyIndexException) error;
+        } else if (error != null) {
+            throw new VocabularyIndexException("Failed to parse vocabulary: " + error.getMessage(), error);
+        }
+        LOGGER.info("Indexed {} terms of vocabulary {} in {}ms", this.termCount, this.description.getIdentifier(),
+            this.duration);
+    }
+
+    /**
+     * Statistics about the indexing, to be reported back to the user.
+     *
+     * @return the number of terms written, the duration in milliseconds, and the throughput in terms per second
+     */
+    public Map<String, Long> getStatistics()
+    {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        result.put("terms", this.termCount);
+        result.put("time", this.duration);
+        result.put("termsPerSecond", this.duration > 0 ? this.termCount * 1000 / this.duration : this.termCount);
+        return result;
+    }
+
+    private static void enqueue(final BlockingQueue<VocabularyTermSource> queue, final VocabularyTermSource term)
+    {
+        try {
+            queue.put(term);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // The parser callbacks cannot throw checked exceptions, this will abort parsing
+            throw new IllegalStateException("Vocabulary indexing was aborted", e);
+        }
+    }
+}
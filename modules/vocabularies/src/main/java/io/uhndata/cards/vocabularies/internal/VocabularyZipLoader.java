@@ -24,11 +24,6 @@
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 
 import io.uhndata.cards.vocabularies.spi.VocabularyIndexException;
 
@@ -39,46 +34,6 @@
  */
 public class VocabularyZipLoader
 {
-    /**
-     * Loads zip file from a url into a temporary zip file by making a http GET request.
-     *
-     * @param path url of the zip file
-     * @param temporaryFile file object representing the temporary file to be created from the response information
-     * @throws VocabularyIndexException thrown upon failure of zip file to load
-     */
-    public void loadZipHttp(String path, File temporaryFile)
-        throws VocabularyIndexException
-    {
-        // GET request
-        HttpGet httpget = new HttpGet(path);
-        httpget.setHeader("Content-Type", "application/json");
-
-        try (CloseableHttpClient httpclient = HttpClientBuilder.create().build();
-            CloseableHttpResponse httpresponse = httpclient.execute(httpget)) {
-
-            if (httpresponse.getStatusLine().getStatusCode() < 400) {
-                // If the http request is successful
-
-                // Write all of the contents of the request to the OutputStream
-                ZipInputStream input = new ZipInputStream(httpresponse.getEntity().getContent());
-                input.getNextEntry();
-                FileUtils.copyInputStreamToFile(input, temporaryFile);
-
-                input.close();
-            } else {
-                // If http request is not successful, close the client and response and throw an exception
-                String message = "Failed to load zip: " + httpresponse.getStatusLine().getStatusCode() + " http error";
-                throw new VocabularyIndexException(message);
-            }
-        } catch (ClientProtocolException e) {
-            String message = "Failed to load zip: " + e.getMessage();
-            throw new VocabularyIndexException(message, e);
-        } catch (IOException e) {
-            String message = "Failed to load zip: " + e.getMessage();
-            throw new VocabularyIndexException(message, e);
-        }
-    }
-
     /**
      * Loads a local zip file to a temporary zip file based on a path relative to the VocabularyZipLoader instance.
      *
@@ -58,9 +58,9 @@ VocabularyDescription getVocabularyDescription(String identifier, String version
         throws IllegalArgumentException, IOException;
 
     /**
-     * Downloads the source for the specified vocabulary into a temporary local file. Although the file is marked as
-     * temporary and will be deleted when the server closes, it is recommended that the file be manually deleted once
-     * the vocabulary is parsed.
+     * Downloads the source for the specified vocabulary into a local file. The file may be a temporary file, or a copy
+     * kept in a local cache, so it must not be deleted directly; instead, {@link #releaseVocabularySource(File)} must
+     * be called once the vocabulary is parsed.
      *
      * @param vocabulary a vocabulary description obtained from this handler by calling
      *            {@link #getVocabularyDescription}
@@ -70,4 +70,17 @@ VocabularyDescription getVocabularyDescription(String identifier, String version
      *             or when storing it locally
      */
     File downloadVocabularySource(VocabularyDescription vocabulary) throws IllegalArgumentException, IOException;
+
+    /**
+     * Releases a source obtained from {@link #downloadVocabularySource}. The default implementation deletes the file,
+     * handlers that keep sources in a cache should only delete temporary files.
+     *
+     * @param source the location of the vocabulary source, may be {@code null}
+     */
+    default void releaseVocabularySource(File source)
+    {
+        if (source != null) {
+            source.delete();
+        }
+    }
 }
@@ -20,6 +20,8 @@
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
@@ -70,6 +72,30 @@ public void clearVocabularyNode(final Node homepage, final String name, final St
         }
     }
 
+    /**
+     * Check that a vocabulary can be installed, without removing any previous instance of the vocabulary. An exception
+     * is thrown if the overwrite parameter is not enabled and a vocabulary of the given name already exists in the
+     * repository. The previous instance, if any, is only replaced once the new one is completely installed.
+     *
+     * @param homepage an instance of the VocabulariesHomepage node serving as the root of Vocabulary nodes
+     * @param name the identifier of the vocabulary which will become its node name
+     * @param overwrite signals whether a pre-existing vocabulary is to be overwritten by one with the same name
+     * @throws VocabularyIndexException thrown when the vocabulary already exists and must not be overwritten
+     */
+    public void checkCanInstall(final Node homepage, final String name, final String overwrite)
+        throws VocabularyIndexException
+    {
+        try {
+            if (homepage.hasNode(name) && !"true".equalsIgnoreCase(overwrite)) {
+                throw new VocabularyIndexException("The identifier you specified already exists in the"
+                    + " repository and you did not request to overwrite it");
+            }
+        } catch (RepositoryException e) {
+            String message = "Error: Failed to check for an existing Vocabulary node. " + e.getMessage();
+            throw new VocabularyIndexException(message, e);
+        }
+    }
+
     /**
      * Writes a json to the http response consisting of two entries.
      * <p>
@@ -87,6 +113,24 @@ public void clearVocabularyNode(final Node homepage, final String name, final St
      */
     public void writeStatusJson(final SlingHttpServletRequest request, final SlingHttpServletResponse response,
         final boolean isSuccessful, final String error) throws IOException
+    {
+        writeStatusJson(request, response, isSuccessful, error, Collections.emptyMap());
+    }
+
+    /**
+     * Writes a json to the http response consisting of the status entries described in
+     * {@link #writeStatusJson(SlingHttpServletRequest, SlingHttpServletResponse, boolean, String)}, followed by
+     * additional numeric statistics about the indexing, such as the number of terms indexed and the throughput.
+     *
+     * @param request http request from the VocabularyIndexerServlet
+     * @param response http response from the VocabularyIndexerServlet
+     * @param isSuccessful boolean variable which is true if parsing is successful and false otherwise
+     * @param error the error message caught from the exception which is null if there is no error
+     * @param statistics additional entries to write, may be empty
+     * @throws IOException thrown when json cannot be written
+     */
+    public void writeStatusJson(final SlingHttpServletRequest request, final SlingHttpServletResponse response,
+        final boolean isSuccessful, final String error, final Map<String, Long> statistics) throws IOException
     {
         response.setStatus(isSuccessful
             ? SlingHttpServletResponse.SC_OK : SlingHttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -95,6 +139,7 @@ public void writeStatusJson(final SlingHttpServletRequest request, final SlingHt
         generator.writeStartObject();
         generator.write("isSuccessful", isSuccessful);
         generator.write("error", error);
+        statistics.forEach((key, value) -> generator.write(key, value.longValue()));
         generator.writeEnd();
         generator.flush();
     }
@@ -28,10 +28,14 @@
 import java.util.Set;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.Workspace;
+import javax.jcr.version.VersionManager;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
@@ -53,6 +57,7 @@
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
 import org.mockito.InjectMocks;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -139,6 +144,61 @@ public Node apply(Resource resource)
             });
     }
 
+    /**
+     * Adds to a MockJcr session the operations needed for finalizing a vocabulary install, which MockJcr doesn't
+     * support: moving the vocabulary in place, discarding pending changes, and checking in the vocabulary.
+     *
+     * @param session - MockJcr session used in test
+     * @return a session supporting vocabulary installs
+     * @throws RepositoryException if the session cannot be wrapped
+     */
+    private Session supportInstall(Session session)
+        throws RepositoryException
+    {
+        final Session result = Mockito.spy(session);
+        Mockito.doAnswer(invocation -> {
+            final String source = (String) invocation.getArguments()[0];
+            final String destination = (String) invocation.getArguments()[1];
+            final int separator = destination.lastIndexOf('/');
+            copyNode(result.getNode(source), result.getNode(separator == 0 ? "/" : destination.substring(0, separator)),
+                destination.substring(separator + 1));
+            result.getNode(source).remove();
+            return null;
+        }).when(result).move(Matchers.anyString(), Matchers.anyString());
+        Mockito.doNothing().when(result).refresh(Matchers.anyBoolean());
+        final Workspace workspace = Mockito.mock(Workspace.class);
+        Mockito.when(workspace.getVersionManager()).thenReturn(Mockito.mock(VersionManager.class));
+        Mockito.doReturn(workspace).when(result).getWorkspace();
+        return result;
+    }
+
+    /**
+     * Recursively copies a node with its properties and descendants.
+     *
+     * @param source - the node to copy
+     * @param parent - the node where the copy is created
+     * @param name - the name of the copy
+     * @throws RepositoryException if copying fails
+     */
+    private void copyNode(Node source, Node parent, String name)
+        throws RepositoryException
+    {
+        final String primaryType = "jcr:primaryType";
+        final Node copy = parent.addNode(name, source.getProperty(primaryType).getString());
+        for (PropertyIterator properties = source.getProperties(); properties.hasNext();) {
+            final Property property = properties.nextProperty();
+            if (property.isMultiple()) {
+                copy.setProperty(property.getName(), property.getValues());
+            } else if (!primaryType.equals(property.getName())) {
+                copy.setProperty(property.getName(), property.getValue());
+            }
+        }
+        for (NodeIterator children = source.getNodes(); children.hasNext();) {
+            final Node child = children.nextNode();
+            copyNode(child, copy, child.getName());
+        }
+    }
+
     /**
      * Creates a mock <code>VocabulariesHomepage</code> node <code>/Vocabularies</code> to act as the resource of the
      * request sent to the {@link VocabularyIndexerServlet}.
@@ -352,7 +412,7 @@ public void testNCITFlatIndexing()
         // Set up mock repository
 
         // Instantiate a MockJcr session and register a Resource to Node adapter to it
-        final Session session = MockJcr.newSession();
+        final Session session = supportInstall(MockJcr.newSession());
         registerResourceToNodeAdapter(session);
 
         // Create a mock VocabulariesHomepage node /Vocabularies to act as the resource for the request
@@ -373,6 +433,10 @@ public void testNCITFlatIndexing()
             + getClass().getResource("/flat_NCIT_type_testcase.zip").getPath();
         makePost(request, response, requestParams);
 
+        // Make sure the vocabulary was completely installed
+        JsonReader reader = Json.createReader(new StringReader(response.getOutputAsString()));
+        Assert.assertTrue(reader.readObject().getBoolean("isSuccessful"));
+
         // Get the root and vocabulary nodes from the request
         Node rootNode = request.getResource().adaptTo(Node.class);
         Node vocabNode = rootNode.getNode("flatTestVocabulary");
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import io.uhndata.cards.vocabularies.BioPortalApiKeyManager;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescription;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescriptionBuilder;
+
+/**
+ * Unit tests for {@link BioOntologyRepositoryHandler}.
+ *
+ * @version $Id$
+ */
+public class BioOntologyRepositoryHandlerTest
+{
+    private static final String REPOSITORY = "BioOntology";
+
+    private static final String IDENTIFIER = "HP";
+
+    @InjectMocks
+    private BioOntologyRepositoryHandler handler;
+
+    @Mock
+    private VocabularySourceCache sourceCache;
+
+    @Mock
+    private BioPortalApiKeyManager apiKeyManager;
+
+    @Before
+    public void setup()
+    {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void offlineDescriptionsComeFromTheCache() throws IOException
+    {
+        final VocabularyDescription cached = new VocabularyDescriptionBuilder().withIdentifier(IDENTIFIER).build();
+        Mockito.when(this.sourceCache.isOffline()).thenReturn(true);
+        Mockito.when(this.sourceCache.getDescription(REPOSITORY, IDENTIFIER, null)).thenReturn(cached);
+
+        Assert.assertSame(cached, this.handler.getVocabularyDescription(IDENTIFIER, null));
+        // The repository is never contacted, so no API key is needed
+        Mockito.verifyZeroInteractions(this.apiKeyManager);
+    }
+
+    @Test
+    public void descriptionsAreCachedWithTheirSources() throws IOException
+    {
+        final VocabularyDescription description = new VocabularyDescriptionBuilder().withIdentifier(IDENTIFIER)
+            .withVersion("1.0").withSource("https://data.bioontology.org/ontologies/HP/submissions/1/download")
+            .build();
+        final File source = new File("source");
+        Mockito.when(this.sourceCache.getSource(REPOSITORY, IDENTIFIER, "1.0", description.getSource()))
+            .thenReturn(source);
+
+        Assert.assertSame(source, this.handler.downloadVocabularySource(description));
+        Mockito.verify(this.sourceCache).storeDescription(REPOSITORY, description);
+    }
+}
@@ -23,6 +23,7 @@
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Consumer;
@@ -133,6 +134,32 @@ public void accept(VocabularyTermSource t)
         Assert.assertNotNull(parsed.stream().filter(term -> "TEST:ROOT".equals(term.getId())).findFirst().orElse(null));
     }
 
+    @Test
+    public void parentsFromAllFramesAreMerged() throws IOException, VocabularyIndexException, URISyntaxException
+    {
+        final List<VocabularyTermSource> parsed = new ArrayList<>();
+        File f = new File(OboParserTest.class.getResource("/multiframe.obo").toURI());
+        new OboParser().parse(f, new VocabularyDescriptionBuilder().build(), parsed::add);
+
+        Assert.assertEquals(4, parsed.size());
+        VocabularyTermSource term =
+            parsed.stream().filter(t -> "TEST:MULTI".equals(t.getId())).findFirst().orElse(null);
+        Assert.assertNotNull(term);
+        Assert.assertEquals("Term with parents declared in several frames", term.getLabel());
+        Assert.assertEquals(2, term.getParents().length);
+        Assert.assertTrue(Arrays.asList(term.getParents()).containsAll(List.of("TEST:LEFT", "TEST:RIGHT")));
+        Assert.assertEquals(3, term.getAncestors().length);
+        Assert.assertTrue(
+            Arrays.asList(term.getAncestors()).containsAll(List.of("TEST:LEFT", "TEST:RIGHT", "TEST:ROOT")));
+        Assert.assertTrue(term.getAllProperties().get("synonym").contains("Second frame"));
+
+        // A parent described by several frames also gets the parents of all its frames
+        term = parsed.stream().filter(t -> "TEST:RIGHT".equals(t.getId())).findFirst().orElse(null);
+        Assert.assertNotNull(term);
+        Assert.assertEquals("Right branch", term.getLabel());
+        Assert.assertArrayEquals(new String[] { "TEST:ROOT" }, term.getParents());
+    }
+
     @Test
     public void parsedWithoutErrors()
     {
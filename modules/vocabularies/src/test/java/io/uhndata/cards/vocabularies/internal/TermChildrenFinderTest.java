@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit tests for {@link TermChildrenFinder}.
+ *
+ * @version $Id$
+ */
+public class TermChildrenFinderTest
+{
+    private static final String VOCABULARY = "/Vocabularies/HP";
+
+    private static final String FACET = "rep:facet(parents)";
+
+    private static final String FIRST = "HP:1";
+
+    private static final String SECOND = "HP:2";
+
+    private static final String THIRD = "HP:3";
+
+    private Session session;
+
+    private QueryManager queryManager;
+
+    private QueryResult facetResult;
+
+    @Before
+    public void setup() throws RepositoryException
+    {
+        this.session = Mockito.mock(Session.class);
+        final Workspace workspace = Mockito.mock(Workspace.class);
+        this.queryManager = Mockito.mock(QueryManager.class);
+        Mockito.when(this.session.getWorkspace()).thenReturn(workspace);
+        Mockito.when(workspace.getQueryManager()).thenReturn(this.queryManager);
+        final Query facetQuery = Mockito.mock(Query.class);
+        this.facetResult = Mockito.mock(QueryResult.class);
+        Mockito.when(facetQuery.execute()).thenReturn(this.facetResult);
+        Mockito.when(this.queryManager.createQuery(Matchers.startsWith("SELECT [" + FACET + "]"), Matchers.anyString()))
+            .thenReturn(facetQuery);
+    }
+
+    @Test
+    public void hierarchyRangesAnswerWithoutQueries() throws RepositoryException
+    {
+        final Set<String> result = TermChildrenFinder.findTermsWithChildren(
+            Arrays.asList(term(FIRST, new long[] { 1, 5 }), term(SECOND, new long[] { 6, 6 }),
+                term(THIRD, new long[] { 7, 7, 9, 9 })),
+            this.session, VOCABULARY);
+        Assert.assertEquals(Set.of(path(FIRST), path(THIRD)), result);
+        Mockito.verifyZeroInteractions(this.queryManager);
+    }
+
+    @Test
+    public void facetsListAllParentsInOneQuery() throws RepositoryException
+    {
+        mockFacet("{\"HP:1\": 4, \"HP:0\": 1, \"HP:3\": 2}");
+        final Set<String> result = TermChildrenFinder.findTermsWithChildren(
+            Arrays.asList(term(FIRST, null), term(SECOND, null), term(THIRD, null)), this.session, VOCABULARY);
+        Assert.assertEquals(Set.of(path(FIRST), path(THIRD)), result);
+        Mockito.verify(this.queryManager, Mockito.times(1)).createQuery(Matchers.anyString(), Matchers.anyString());
+    }
+
+    @Test
+    public void noChildrenFoundMeansNoParents() throws RepositoryException
+    {
+        final RowIterator rows = Mockito.mock(RowIterator.class);
+        Mockito.when(this.facetResult.getRows()).thenReturn(rows);
+        Assert.assertTrue(TermChildrenFinder.findTermsWithChildren(Arrays.asList(term(FIRST, null)), this.session,
+            VOCABULARY).isEmpty());
+        Mockito.verify(this.queryManager, Mockito.times(1)).createQuery(Matchers.anyString(), Matchers.anyString());
+    }
+
+    @Test
+    public void withoutFacetsChildrenAreQueriedOneByOne() throws RepositoryException
+    {
+        mockFacet(null);
+        final Query childQuery = Mockito.mock(Query.class);
+        Mockito.when(this.queryManager.createQuery(Matchers.startsWith("SELECT * "), Matchers.anyString()))
+            .thenReturn(childQuery);
+        final QueryResult childResult = Mockito.mock(QueryResult.class);
+        Mockito.when(childQuery.execute()).thenReturn(childResult);
+        final NodeIterator firstChild = children(FIRST);
+        final NodeIterator noChildren = Mockito.mock(NodeIterator.class);
+        Mockito.when(childResult.getNodes()).thenReturn(firstChild, noChildren);
+
+        final Set<String> result = TermChildrenFinder.findTermsWithChildren(
+            Arrays.asList(term(FIRST, null), term(SECOND, null)), this.session, VOCABULARY);
+        Assert.assertEquals(Set.of(path(FIRST)), result);
+        Mockito.verify(childQuery, Mockito.times(2)).setLimit(1);
+    }
+
+    private void mockFacet(final String facet) throws RepositoryException
+    {
+        final RowIterator rows = Mockito.mock(RowIterator.class);
+        final Row row = Mockito.mock(Row.class);
+        Mockito.when(rows.hasNext()).thenReturn(true);
+        Mockito.when(rows.nextRow()).thenReturn(row);
+        if (facet != null) {
+            final Value value = Mockito.mock(Value.class);
+            Mockito.when(value.getString()).thenReturn(facet);
+            Mockito.when(row.getValue(FACET)).thenReturn(value);
+        }
+        Mockito.when(this.facetResult.getRows()).thenReturn(rows);
+    }
+
+    private static NodeIterator children(final String parent) throws RepositoryException
+    {
+        final NodeIterator result = Mockito.mock(NodeIterator.class);
+        final Node child = Mockito.mock(Node.class);
+        final Property parents = Mockito.mock(Property.class);
+        final Value value = Mockito.mock(Value.class);
+        Mockito.when(value.getString()).thenReturn(parent);
+        Mockito.when(parents.getValues()).thenReturn(new Value[] { value });
+        Mockito.when(child.getProperty("parents")).thenReturn(parents);
+        Mockito.when(result.hasNext()).thenReturn(true);
+        Mockito.when(result.nextNode()).thenReturn(child);
+        return result;
+    }
+
+    private static Resource term(final String identifier, final long[] ranges)
+    {
+        final Map<String, Object> properties = ranges == null ? Map.of("identifier", identifier)
+            : Map.of("identifier", identifier, "hierarchyRanges", ranges);
+        final Answer<Object> answer = invocation -> {
+            final String name = (String) invocation.getArguments()[0];
+            if ("containsKey".equals(invocation.getMethod().getName())) {
+                return properties.containsKey(name);
+            }
+            return properties.get(name);
+        };
+        final ValueMap valueMap = Mockito.mock(ValueMap.class, answer);
+        final Resource result = Mockito.mock(Resource.class);
+        Mockito.when(result.getPath()).thenReturn(path(identifier));
+        Mockito.when(result.getValueMap()).thenReturn(valueMap);
+        return result;
+    }
+
+    private static String path(final String identifier)
+    {
+        return VOCABULARY + "/" + identifier.replace(":", "");
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TermGraph}.
+ *
+ * @version $Id$
+ */
+public class TermGraphTest
+{
+    private static final String ROOT = "ROOT";
+
+    private static final String LEFT = "LEFT";
+
+    private static final String RIGHT = "RIGHT";
+
+    private static final String CHILD = "CHILD";
+
+    private final TermGraph graph = new TermGraph();
+
+    @Test
+    public void ancestorsIncludeAllPathsToTheRoots()
+    {
+        addTerm(ROOT);
+        addTerm(LEFT, ROOT);
+        addTerm(RIGHT, ROOT);
+        addTerm(CHILD, LEFT, RIGHT);
+        addTerm("GRANDCHILD", CHILD);
+        this.graph.computeAncestors();
+
+        assertAncestors(ROOT);
+        assertAncestors(LEFT, ROOT);
+        assertAncestors(CHILD, LEFT, RIGHT, ROOT);
+        assertAncestors("GRANDCHILD", CHILD, LEFT, RIGHT, ROOT);
+    }
+
+    @Test
+    public void childrenCanBeListedBeforeTheirParents()
+    {
+        addTerm(CHILD, LEFT);
+        addTerm(LEFT, ROOT);
+        addTerm(ROOT);
+        this.graph.computeAncestors();
+
+        assertAncestors(CHILD, LEFT, ROOT);
+    }
+
+    @Test
+    public void parentsThatAreNeverDescribedAreStillAncestors()
+    {
+        addTerm(CHILD, LEFT);
+        this.graph.computeAncestors();
+
+        assertAncestors(CHILD, LEFT);
+        assertAncestors(LEFT);
+    }
+
+    @Test
+    public void duplicateParentsAndSelfReferencesAreIgnored()
+    {
+        addTerm(ROOT);
+        addTerm(CHILD, ROOT, ROOT, CHILD);
+        this.graph.computeAncestors();
+
+        Assert.assertArrayEquals(new String[] { ROOT }, this.graph.getAncestors(CHILD));
+    }
+
+    @Test
+    public void cyclesAreResolved()
+    {
+        addTerm(ROOT);
+        addTerm(LEFT, ROOT, RIGHT);
+        addTerm(RIGHT, LEFT);
+        addTerm(CHILD, RIGHT);
+        this.graph.computeAncestors();
+
+        assertAncestors(LEFT, ROOT, RIGHT);
+        assertAncestors(RIGHT, LEFT, ROOT);
+        assertAncestors(CHILD, LEFT, RIGHT, ROOT);
+    }
+
+    @Test
+    public void ancestorsCanOnlyBeRetrievedOnce()
+    {
+        addTerm(ROOT);
+        addTerm(CHILD, ROOT);
+        this.graph.computeAncestors();
+
+        assertAncestors(CHILD, ROOT);
+        assertAncestors(CHILD);
+        assertAncestors("UNKNOWN");
+    }
+
+    @Test
+    public void lastFrameIsDetected()
+    {
+        addTerm(CHILD, LEFT);
+        addTerm(CHILD, RIGHT);
+        this.graph.computeAncestors();
+
+        Assert.assertFalse(this.graph.markFrameRead(CHILD));
+        Assert.assertTrue(this.graph.markFrameRead(CHILD));
+        Assert.assertTrue(this.graph.markFrameRead("UNKNOWN"));
+        assertAncestors(CHILD, LEFT, RIGHT);
+    }
+
+    @Test
+    public void largeHierarchiesAreSupported()
+    {
+        addTerm("T0");
+        for (int i = 1; i < 5000; ++i) {
+            addTerm("T" + i, "T" + (i - 1));
+        }
+        this.graph.computeAncestors();
+
+        Assert.assertEquals(4999, this.graph.getAncestors("T4999").length);
+    }
+
+    private void addTerm(final String term, final String... parents)
+    {
+        final int id = this.graph.addTerm(term);
+        for (String parent : parents) {
+            this.graph.addParent(id, parent);
+        }
+    }
+
+    private void assertAncestors(final String term, final String... expected)
+    {
+        final Set<String> actual = new HashSet<>(Arrays.asList(this.graph.getAncestors(term)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(expected)), actual);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import io.uhndata.cards.vocabularies.spi.VocabularyIndexException;
+
+/**
+ * Unit tests for {@link VocabularyHierarchyIndex}.
+ *
+ * @version $Id$
+ */
+public class VocabularyHierarchyIndexTest
+{
+    private static final String ROOT = "ROOT";
+
+    private Node vocabulary;
+
+    private Session session;
+
+    private final List<Node> terms = new ArrayList<>();
+
+    private final Map<String, Long> indexes = new HashMap<>();
+
+    private final Map<String, long[]> ranges = new HashMap<>();
+
+    @Before
+    public void setup() throws RepositoryException
+    {
+        this.vocabulary = Mockito.mock(Node.class);
+        this.session = Mockito.mock(Session.class);
+        final ValueFactory valueFactory = Mockito.mock(ValueFactory.class);
+        Mockito.when(this.vocabulary.getSession()).thenReturn(this.session);
+        Mockito.when(this.session.getValueFactory()).thenReturn(valueFactory);
+        Mockito.when(valueFactory.createValue(Matchers.anyLong())).then(invocation -> {
+            final Value value = Mockito.mock(Value.class);
+            Mockito.when(value.getLong()).thenReturn((Long) invocation.getArguments()[0]);
+            return value;
+        });
+        Mockito.when(this.vocabulary.getNodes()).then(invocation -> mockIterator(this.terms.iterator()));
+    }
+
+    @Test
+    public void treeTermsHaveASingleRange() throws RepositoryException, VocabularyIndexException
+    {
+        addTerm(ROOT);
+        addTerm("A", ROOT);
+        addTerm("B", ROOT);
+        addTerm("A1", "A");
+        addTerm("A2", "A");
+        VocabularyHierarchyIndex.build(this.vocabulary);
+
+        for (String term : List.of(ROOT, "A", "B", "A1", "A2")) {
+            Assert.assertEquals(2, this.ranges.get(term).length);
+        }
+        Assert.assertEquals(Set.of("A", "B", "A1", "A2"), getDescendants(ROOT));
+        Assert.assertEquals(Set.of("A1", "A2"), getDescendants("A"));
+        Assert.assertEquals(Set.of(), getDescendants("B"));
+        Mockito.verify(this.session, Mockito.atLeastOnce()).save();
+    }
+
+    @Test
+    public void termsWithSeveralParentsAreDescendantsOfAll() throws RepositoryException, VocabularyIndexException
+    {
+        addTerm(ROOT);
+        addTerm("A", ROOT);
+        addTerm("B", ROOT);
+        addTerm("C", "A", "B");
+        addTerm("D", "C");
+        addTerm("E", "B");
+        VocabularyHierarchyIndex.build(this.vocabulary);
+
+        Assert.assertEquals(Set.of("A", "B", "C", "D", "E"), getDescendants(ROOT));
+        Assert.assertEquals(Set.of("C", "D"), getDescendants("A"));
+        Assert.assertEquals(Set.of("C", "D", "E"), getDescendants("B"));
+        Assert.assertEquals(Set.of("D"), getDescendants("C"));
+    }
+
+    @Test
+    public void unknownParentsAndCyclesAreSupported() throws RepositoryException, VocabularyIndexException
+    {
+        addTerm(ROOT, "OTHER:PARENT");
+        addTerm("X", ROOT, "Y");
+        addTerm("Y", "X");
+        addTerm("Z", "Y");
+        VocabularyHierarchyIndex.build(this.vocabulary);
+
+        Assert.assertEquals(Set.of("X", "Y", "Z"), getDescendants(ROOT));
+        Assert.assertTrue(getDescendants("X").containsAll(Set.of("Y", "Z")));
+        Assert.assertTrue(getDescendants("Y").containsAll(Set.of("X", "Z")));
+        Assert.assertEquals(Set.of(), getDescendants("Z"));
+    }
+
+    private Set<String> getDescendants(final String term)
+    {
+        final Set<String> result = new HashSet<>();
+        final long[] termRanges = this.ranges.get(term);
+        this.indexes.forEach((name, index) -> {
+            for (int i = 0; i < termRanges.length; i += 2) {
+                if (index >= termRanges[i] && index <= termRanges[i + 1] && !name.equals(term)) {
+                    result.add(name);
+                }
+            }
+        });
+        return result;
+    }
+
+    private void addTerm(final String identifier, final String... parents) throws RepositoryException
+    {
+        final Node term = Mockito.mock(Node.class);
+        final Property identifierProperty = Mockito.mock(Property.class);
+        Mockito.when(identifierProperty.getString()).thenReturn(identifier);
+        final Value[] parentValues = new Value[parents.length];
+        for (int i = 0; i < parents.length; ++i) {
+            parentValues[i] = Mockito.mock(Value.class);
+            Mockito.when(parentValues[i].getString()).thenReturn(parents[i]);
+        }
+        final Property parentsProperty = Mockito.mock(Property.class);
+        Mockito.when(parentsProperty.getValues()).thenReturn(parentValues);
+        Mockito.when(term.isNodeType("cards:VocabularyTerm")).thenReturn(true);
+        Mockito.when(term.getName()).thenReturn(identifier);
+        Mockito.when(term.getProperty("identifier")).thenReturn(identifierProperty);
+        Mockito.when(term.hasProperty("parents")).thenReturn(parents.length > 0);
+        Mockito.when(term.getProperty("parents")).thenReturn(parentsProperty);
+        Mockito.when(term.setProperty(Matchers.eq(VocabularyHierarchyIndex.INDEX_PROPERTY), Matchers.anyLong()))
+            .then(invocation -> {
+                this.indexes.put(identifier, (Long) invocation.getArguments()[1]);
+                return null;
+            });
+        Mockito.when(term.setProperty(Matchers.eq(VocabularyHierarchyIndex.RANGES_PROPERTY),
+            Matchers.any(Value[].class))).then(invocation -> {
+                final Value[] values = (Value[]) invocation.getArguments()[1];
+                final long[] result = new long[values.length];
+                for (int i = 0; i < values.length; ++i) {
+                    result[i] = values[i].getLong();
+                }
+                this.ranges.put(identifier, result);
+                return null;
+            });
+        Mockito.when(this.vocabulary.getNode(identifier)).thenReturn(term);
+        this.terms.add(term);
+    }
+
+    private static NodeIterator mockIterator(final Iterator<Node> nodes)
+    {
+        final NodeIterator result = Mockito.mock(NodeIterator.class);
+        Mockito.when(result.hasNext()).then(invocation -> nodes.hasNext());
+        Mockito.when(result.nextNode()).then(invocation -> nodes.next());
+        return result;
+    }
+}
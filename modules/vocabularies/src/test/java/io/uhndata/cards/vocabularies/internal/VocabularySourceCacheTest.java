@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.osgi.framework.BundleContext;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescription;
+import io.uhndata.cards.vocabularies.spi.VocabularyDescriptionBuilder;
+
+/**
+ * Unit tests for {@link VocabularySourceCache}.
+ *
+ * @version $Id$
+ */
+public class VocabularySourceCacheTest
+{
+    private static final String REPOSITORY = "bioontology";
+
+    private static final String IDENTIFIER = "HP";
+
+    private static final String VERSION = "1.0";
+
+    private static final String ETAG = "\"v1\"";
+
+    private static final String IF_RANGE = "If-Range";
+
+    private static final String RANGE = "Range";
+
+    private static final String SOURCE_PART = "source.part";
+
+    private static final String VALIDATOR = "source.part.validator";
+
+    private static final byte[] CONTENT = "format-version: 1.2\nontology: hp\n".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final VocabularySourceCache cache = new VocabularySourceCache();
+
+    /** The headers of the requests received by the server. */
+    private final List<Headers> requests = new ArrayList<>();
+
+    private HttpServer server;
+
+    private String url;
+
+    private String etag = ETAG;
+
+    private File cacheDirectory;
+
+    @Before
+    public void setup() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", this::serve);
+        this.server.start();
+        this.url = "http://localhost:" + this.server.getAddress().getPort() + "/hp.obo";
+        this.cacheDirectory = this.temporaryFolder.newFolder("cache");
+        activate(true, false);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void sourcesAreDownloadedOnlyOnce() throws IOException
+    {
+        final File source = this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+        Assert.assertFalse(new File(source.getParentFile(), SOURCE_PART).exists());
+        Assert.assertFalse(new File(source.getParentFile(), VALIDATOR).exists());
+
+        Assert.assertEquals(source, this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url));
+        Assert.assertEquals(1, this.requests.size());
+
+        // Cached sources are kept when released
+        this.cache.release(source);
+        Assert.assertTrue(source.isFile());
+    }
+
+    @Test
+    public void interruptedDownloadsAreResumed() throws IOException
+    {
+        final File folder = seedPartialDownload(ETAG);
+
+        final File source = this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+        Assert.assertEquals("bytes=10-", this.requests.get(0).getFirst(RANGE));
+        Assert.assertEquals(ETAG, this.requests.get(0).getFirst(IF_RANGE));
+        Assert.assertFalse(new File(folder, VALIDATOR).exists());
+    }
+
+    @Test
+    public void partialDownloadsOfAnOlderFileAreDiscarded() throws IOException
+    {
+        seedPartialDownload("\"v0\"");
+
+        final File source = this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+        Assert.assertEquals("\"v0\"", this.requests.get(0).getFirst(IF_RANGE));
+    }
+
+    @Test
+    public void partialDownloadsWithoutValidatorAreDiscarded() throws IOException
+    {
+        final File folder = seedPartialDownload(null);
+
+        final File source = this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+        Assert.assertNull(this.requests.get(0).getFirst(RANGE));
+        Assert.assertFalse(new File(folder, VALIDATOR).exists());
+    }
+
+    @Test
+    public void lastModifiedIsUsedWithoutStrongETag() throws IOException
+    {
+        this.server.stop(0);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", exchange -> {
+            // Only a weak ETag, and the download is interrupted midway
+            this.requests.add(exchange.getRequestHeaders());
+            exchange.getResponseHeaders().add("ETag", "W/\"weak\"");
+            exchange.getResponseHeaders().add("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT");
+            exchange.sendResponseHeaders(200, CONTENT.length);
+            exchange.getResponseBody().write(CONTENT, 0, 10);
+            exchange.close();
+        });
+        this.server.start();
+        this.url = "http://localhost:" + this.server.getAddress().getPort() + "/hp.obo";
+
+        try {
+            this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+            Assert.fail("Incomplete downloads must fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        final File folder = new File(new File(new File(this.cacheDirectory, REPOSITORY), IDENTIFIER), VERSION);
+        Assert.assertEquals("Wed, 21 Oct 2015 07:28:00 GMT",
+            Files.readString(new File(folder, VALIDATOR).toPath(), StandardCharsets.UTF_8));
+        Assert.assertTrue(new File(folder, SOURCE_PART).isFile());
+    }
+
+    @Test
+    public void corruptedSourcesAreDownloadedAgain() throws IOException
+    {
+        final File source = this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        Files.write(source.toPath(), Arrays.copyOf(CONTENT, 5));
+
+        Assert.assertEquals(source, this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url));
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+        Assert.assertEquals(2, this.requests.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void offlineModeDoesNotDownload() throws IOException
+    {
+        activate(true, true);
+        try {
+            this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        } finally {
+            Assert.assertTrue(this.requests.isEmpty());
+        }
+    }
+
+    @Test
+    public void descriptionsAreAvailableOffline() throws IOException
+    {
+        this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        this.cache.storeDescription(REPOSITORY, new VocabularyDescriptionBuilder().withIdentifier(IDENTIFIER)
+            .withName("Human Phenotype Ontology").withVersion(VERSION).withSource(this.url + "?apikey=secret")
+            .withSourceFormat("obo").build());
+        activate(true, true);
+
+        final VocabularyDescription description = this.cache.getDescription(REPOSITORY, IDENTIFIER, null);
+        Assert.assertEquals(IDENTIFIER, description.getIdentifier());
+        Assert.assertEquals("Human Phenotype Ontology", description.getName());
+        Assert.assertEquals(VERSION, description.getVersion());
+        Assert.assertEquals(this.url, description.getSource());
+        Assert.assertEquals("OBO", description.getSourceFormat());
+        Assert.assertNull(description.getCitation());
+        Assert.assertEquals(1, this.requests.size());
+    }
+
+    @Test
+    public void preSeededSourcesAreDescribedOffline() throws IOException
+    {
+        final File folder = new File(new File(new File(this.cacheDirectory, REPOSITORY), IDENTIFIER), VERSION);
+        Files.createDirectories(folder.toPath());
+        Files.write(new File(folder, "source").toPath(), CONTENT);
+        activate(true, true);
+
+        final VocabularyDescription description = this.cache.getDescription(REPOSITORY, IDENTIFIER, VERSION);
+        Assert.assertEquals(IDENTIFIER, description.getIdentifier());
+        Assert.assertEquals(VERSION, description.getVersion());
+        final File source = this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, description.getSource());
+        Assert.assertEquals(new File(folder, "source").toURI().toString(), description.getSource());
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+        Assert.assertTrue(this.requests.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void missingVocabulariesCannotBeDescribedOffline() throws IOException
+    {
+        activate(true, true);
+        this.cache.getDescription(REPOSITORY, IDENTIFIER, null);
+    }
+
+    @Test
+    public void disabledCacheUsesTemporaryFiles() throws IOException
+    {
+        activate(false, false);
+        final File source = this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url);
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+        this.cache.release(source);
+        Assert.assertFalse(source.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void serverErrorsAreReported() throws IOException
+    {
+        this.cache.getSource(REPOSITORY, IDENTIFIER, VERSION, this.url.replace("hp.obo", "missing"));
+    }
+
+    private void activate(final boolean enabled, final boolean offline)
+    {
+        final VocabularySourceCache.Config config = Mockito.mock(VocabularySourceCache.Config.class);
+        Mockito.when(config.enabled()).thenReturn(enabled);
+        Mockito.when(config.offline()).thenReturn(offline);
+        Mockito.when(config.keptVersions()).thenReturn(2);
+        Mockito.when(config.directory()).thenReturn(this.cacheDirectory.getAbsolutePath());
+        this.cache.activate(config, Mockito.mock(BundleContext.class));
+    }
+
+    private File seedPartialDownload(final String validator) throws IOException
+    {
+        final File folder = new File(new File(new File(this.cacheDirectory, REPOSITORY), IDENTIFIER), VERSION);
+        Files.createDirectories(folder.toPath());
+        Files.write(new File(folder, SOURCE_PART).toPath(), Arrays.copyOf(CONTENT, 10));
+        if (validator != null) {
+            Files.writeString(new File(folder, VALIDATOR).toPath(), validator, StandardCharsets.UTF_8);
+        }
+        return folder;
+    }
+
+    /**
+     * Serves {@link #CONTENT}, honoring ranges only if the {@code If-Range} header matches the current ETag.
+     *
+     * @param exchange the request to answer
+     * @throws IOException if writing the response fails
+     */
+    private void serve(final HttpExchange exchange) throws IOException
+    {
+        this.requests.add(exchange.getRequestHeaders());
+        if (!exchange.getRequestURI().getPath().endsWith("hp.obo")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        final String range = exchange.getRequestHeaders().getFirst(RANGE);
+        final String ifRange = exchange.getRequestHeaders().getFirst(IF_RANGE);
+        int start = 0;
+        if (range != null && (ifRange == null || ifRange.equals(this.etag))) {
+            start = Integer.parseInt(range.replaceAll("[^0-9]", ""));
+        }
+        exchange.getResponseHeaders().add("ETag", this.etag);
+        if (start > 0) {
+            exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + start + "-" + (CONTENT.length - 1) + "/" + CONTENT.length);
+        }
+        exchange.sendResponseHeaders(start > 0 ? 206 : 200, CONTENT.length - start);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(CONTENT, start, CONTENT.length - start);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.uhndata.cards.vocabularies.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit tests for {@link VocabularySuggestionIndex}.
+ *
+ * @version $Id$
+ */
+public class VocabularySuggestionIndexTest
+{
+    private static final String PATH = "/Vocabularies/TEST";
+
+    private static final String LABEL = "label";
+
+    private static final String BASE_VERSION = "jcr:baseVersion";
+
+    private static final String CHECKED_OUT = "jcr:isCheckedOut";
+
+    private static final String MYOPATHY = "myopathy";
+
+    private final VocabularySuggestionIndex index = new VocabularySuggestionIndex();
+
+    private final List<Resource> terms = new ArrayList<>();
+
+    private final Map<String, Object> vocabularyProperties = new HashMap<>();
+
+    private Resource vocabulary;
+
+    @Before
+    public void setup()
+    {
+        activate(true, 10);
+        this.vocabularyProperties.put(CHECKED_OUT, false);
+        this.vocabularyProperties.put(BASE_VERSION, "version-1");
+        this.vocabulary = mockVocabulary(PATH);
+        addTerm("T1", "Cardiomyopathy", "synonym", new String[] { "Heart muscle disease" });
+        addTerm("T2", "Myopathy", "identifier", "T2");
+        addTerm("T3", "Muscle weakness", "def", "A sign of a myopathy");
+        addTerm("T4", "Arrhythmia", "parents", new String[] { "T2" });
+    }
+
+    @Test
+    public void wordsAreMatchedAnywhereInTheirText()
+    {
+        final VocabularySuggestionIndex.Suggestions result = this.index.suggest(this.vocabulary, MYOPATHY, 10);
+        Assert.assertEquals(3, result.getTotal());
+        Assert.assertEquals(Arrays.asList(PATH + "/T2", PATH + "/T1", PATH + "/T3"), result.getPaths());
+    }
+
+    @Test
+    public void allWordsMustMatch()
+    {
+        final VocabularySuggestionIndex.Suggestions result = this.index.suggest(this.vocabulary, "heart MYO", 10);
+        Assert.assertEquals(Arrays.asList(PATH + "/T1"), result.getPaths());
+        Assert.assertEquals(0, this.index.suggest(this.vocabulary, "heart weakness", 10).getTotal());
+    }
+
+    @Test
+    public void hierarchyPropertiesAreNotSearched()
+    {
+        Assert.assertEquals(Arrays.asList(PATH + "/T2"), this.index.suggest(this.vocabulary, "t2", 10).getPaths());
+    }
+
+    @Test
+    public void resultsAreLimitedButAllMatchesAreCounted()
+    {
+        final VocabularySuggestionIndex.Suggestions result = this.index.suggest(this.vocabulary, MYOPATHY, 1);
+        Assert.assertEquals(3, result.getTotal());
+        Assert.assertEquals(Arrays.asList(PATH + "/T2"), result.getPaths());
+    }
+
+    @Test
+    public void indexIsReusedUntilANewVersionIsInstalled()
+    {
+        this.index.suggest(this.vocabulary, MYOPATHY, 10);
+        this.index.suggest(this.vocabulary, "heart", 10);
+        Mockito.verify(this.vocabulary, Mockito.times(1)).getChildren();
+
+        addTerm("T5", "Dystrophic myopathy", LABEL, "Dystrophic myopathy");
+        this.vocabularyProperties.put(BASE_VERSION, "version-2");
+        Assert.assertEquals(4, this.index.suggest(this.vocabulary, MYOPATHY, 10).getTotal());
+        Mockito.verify(this.vocabulary, Mockito.times(2)).getChildren();
+    }
+
+    @Test
+    public void vocabulariesBeingInstalledAreNotIndexed()
+    {
+        this.vocabularyProperties.put(CHECKED_OUT, true);
+        Assert.assertNull(this.index.suggest(this.vocabulary, MYOPATHY, 10));
+        Mockito.verify(this.vocabulary, Mockito.never()).getChildren();
+    }
+
+    @Test
+    public void disabledIndexAndEmptyTextAreNotAnswered()
+    {
+        Assert.assertNull(this.index.suggest(this.vocabulary, " - ", 10));
+        activate(false, 10);
+        Assert.assertNull(this.index.suggest(this.vocabulary, MYOPATHY, 10));
+    }
+
+    @Test
+    public void leastRecentVocabulariesAreDiscarded()
+    {
+        activate(true, 1);
+        final Resource other = mockVocabulary("/Vocabularies/OTHER");
+        this.index.suggest(this.vocabulary, MYOPATHY, 10);
+        this.index.suggest(other, MYOPATHY, 10);
+        this.index.suggest(this.vocabulary, MYOPATHY, 10);
+        Mockito.verify(this.vocabulary, Mockito.times(2)).getChildren();
+    }
+
+    @Test
+    public void concurrentRequestsBuildTheIndexOnce() throws Exception
+    {
+        final CountDownLatch ready = new CountDownLatch(4);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<VocabularySuggestionIndex.Suggestions>> results = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                results.add(executor.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    return this.index.suggest(this.vocabulary, MYOPATHY, 10);
+                }));
+            }
+            for (Future<VocabularySuggestionIndex.Suggestions> result : results) {
+                Assert.assertEquals(3, result.get().getTotal());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Mockito.verify(this.vocabulary, Mockito.times(1)).getChildren();
+    }
+
+    private void activate(final boolean enabled, final int maxVocabularies)
+    {
+        final VocabularySuggestionIndex.Config config = Mockito.mock(VocabularySuggestionIndex.Config.class);
+        Mockito.when(config.enabled()).thenReturn(enabled);
+        Mockito.when(config.maxVocabularies()).thenReturn(maxVocabularies);
+        this.index.activate(config);
+    }
+
+    private Resource mockVocabulary(final String path)
+    {
+        final Resource result = Mockito.mock(Resource.class);
+        Mockito.when(result.getPath()).thenReturn(path);
+        Mockito.when(result.getValueMap()).then(invocation -> mockValueMap(this.vocabularyProperties));
+        Mockito.when(result.getChildren()).then(invocation -> new ArrayList<>(this.terms));
+        return result;
+    }
+
+    private void addTerm(final String name, final String label, final String property, final Object value)
+    {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("jcr:primaryType", "cards:VocabularyTerm");
+        properties.put(LABEL, label);
+        properties.put(property, value);
+        final ValueMap valueMap = mockValueMap(properties);
+        final Resource term = Mockito.mock(Resource.class);
+        Mockito.when(term.getName()).thenReturn(name);
+        Mockito.when(term.getValueMap()).thenReturn(valueMap);
+        this.terms.add(term);
+    }
+
+    private static ValueMap mockValueMap(final Map<String, Object> properties)
+    {
+        final Answer<Object> answer = invocation -> {
+            final Object[] arguments = invocation.getArguments();
+            if ("entrySet".equals(invocation.getMethod().getName())) {
+                return properties.entrySet();
+            } else if (arguments.length != 2) {
+                return null;
+            } else if (arguments[1] instanceof Class) {
+                return convert(properties.get(arguments[0]), (Class<?>) arguments[1]);
+            }
+            final Object value = convert(properties.get(arguments[0]), arguments[1].getClass());
+            return value == null ? arguments[1] : value;
+        };
+        return Mockito.mock(ValueMap.class, answer);
+    }
+
+    private static Object convert(final Object value, final Class<?> type)
+    {
+        if (value == null || type.isInstance(value)) {
+            return value;
+        } else if (type == String[].class) {
+            return value instanceof Object[] ? Arrays.stream((Object[]) value).map(String::valueOf)
+                .toArray(String[]::new) : new String[] { String.valueOf(value) };
+        }
+        return String.valueOf(value);
+    }
+}
@@ -21,15 +21,9 @@
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
-import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.osgi.service.component.annotations.Component;
-import org.osgi.service.component.annotations.FieldOption;
 import org.osgi.service.component.annotations.Reference;
-import org.osgi.service.component.annotations.ReferenceCardinality;
-import org.osgi.service.component.annotations.ReferencePolicyOption;
 
-import io.uhndata.cards.forms.api.FormUtils;
-import io.uhndata.cards.forms.api.QuestionnaireUtils;
 import io.uhndata.cards.permissions.spi.RestrictionFactory;
 
 /**
@@ -44,23 +38,15 @@ public class UnsubmittedFormsRestrictionFactory implements RestrictionFactory
     public static final String NAME = "cards:unsubmittedForms";
 
     /**
-     * This is needed to get access to the current session, which knows if there is a subject bound to it.
+     * Holds the submission status of visits, so that it doesn't have to be looked up each time a form is accessed.
      */
-    @Reference(fieldOption = FieldOption.REPLACE,
-        cardinality = ReferenceCardinality.OPTIONAL,
-        policyOption = ReferencePolicyOption.GREEDY)
-    private ResourceResolverFactory rrf;
-
-    @Reference
-    private FormUtils formUtils;
-
     @Reference
-    private QuestionnaireUtils questionnaireUtils;
+    private VisitSubmissionStatusCache statusCache;
 
     @Override
     public RestrictionPattern forValue(final PropertyState value)
     {
-        return new UnsubmittedFormsRestrictionPattern(this.rrf, this.formUtils, this.questionnaireUtils);
+        return new UnsubmittedFormsRestrictionPattern(this.statusCache);
     }
 
     @Override
@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.uhndata.cards.proms.permissions;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.FieldOption;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.uhndata.cards.forms.api.FormUtils;
+import io.uhndata.cards.forms.api.QuestionnaireUtils;
+
+/**
+ * Caches whether the surveys of a visit have been submitted or not, as recorded in the Visit Information form of each
+ * visit, so that {@link UnsubmittedFormsRestrictionPattern} doesn't need to query the repository each time a form is
+ * accessed. At most {@value #MAX_CACHED_STATUSES} statuses are kept.
+ * <p>
+ * This is an Oak {@link Observer}, notified synchronously after each commit, so that access rights never lag behind
+ * the submission status. The cached status of a visit is discarded whenever its Visit Information form changes, or
+ * when a Visit Information form is created for it. If the Visit Information questionnaire is replaced, everything is
+ * discarded.
+ * </p>
+ *
+ * @version $Id$
+ */
+@Component(service = { VisitSubmissionStatusCache.class, Observer.class })
+public class VisitSubmissionStatusCache implements Observer
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(VisitSubmissionStatusCache.class);
+
+    private static final String QUESTIONNAIRES = "Questionnaires";
+
+    private static final String VISIT_INFORMATION = "Visit information";
+
+    private static final String VISIT_INFORMATION_PATH = "/" + QUESTIONNAIRES + "/" + VISIT_INFORMATION;
+
+    private static final String FORMS = "Forms";
+
+    /** The maximum number of visits whose status is cached at any time. */
+    private static final int MAX_CACHED_STATUSES = 10_000;
+
+    /** Cached statuses, by visit subject UUID. */
+    private final Map<String, VisitStatus> statuses = new ConcurrentHashMap<>();
+
+    /** The visit subject UUIDs, by the path of their Visit Information form. */
+    private final Map<String, String> visitsByForm = new ConcurrentHashMap<>();
+
+    /** Incremented on every change, to avoid caching a status computed before a change. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The UUID of the Visit Information questionnaire, looked up once, until the questionnaire is replaced. */
+    private volatile String visitInformationUUID;
+
+    /** The root state from the previous notification. */
+    private NodeState previousRoot;
+
+    /**
+     * A service session is needed to look up Visit Information forms. This reference is optional, since the resource
+     * resolver factory depends on the repository, which in turn depends on the restriction patterns.
+     */
+    @Reference(fieldOption = FieldOption.REPLACE,
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policyOption = ReferencePolicyOption.GREEDY)
+    private volatile ResourceResolverFactory rrf;
+
+    @Reference
+    private FormUtils formUtils;
+
+    @Reference
+    private QuestionnaireUtils questionnaireUtils;
+
+    /**
+     * Retrieve the UUID of the Visit Information questionnaire.
+     *
+     * @return a UUID, or {@code null} if the questionnaire cannot be accessed
+     */
+    public String getVisitInformationUUID()
+    {
+        if (this.visitInformationUUID == null) {
+            try (ResourceResolver rr = getServiceResolver()) {
+                if (rr != null) {
+                    this.visitInformationUUID =
+                        rr.adaptTo(Session.class).getNode(VISIT_INFORMATION_PATH).getIdentifier();
+                }
+            } catch (final RepositoryException e) {
+                LOGGER.debug("Visit Information questionnaire not available: {}", e.getMessage());
+            }
+        }
+        return this.visitInformationUUID;
+    }
+
+    /**
+     * Check if the surveys of a visit are not submitted yet.
+     *
+     * @param visitUUID the UUID of a visit subject
+     * @return {@code true} if the visit has a Visit Information form with an answer to the {@code surveys_submitted}
+     *         question other than "yes", {@code false} otherwise
+     */
+    public boolean isUnsubmitted(final String visitUUID)
+    {
+        if (visitUUID == null) {
+            return false;
+        }
+        final VisitStatus cached = this.statuses.get(visitUUID);
+        if (cached != null) {
+            return cached.unsubmitted;
+        }
+
+        final long startGeneration = this.generation.get();
+        final VisitStatus status = computeStatus(visitUUID);
+        if (status == null) {
+            return false;
+        }
+        if (this.generation.get() == startGeneration) {
+            cacheStatus(visitUUID, status);
+        }
+        return status.unsubmitted;
+    }
+
+    @Override
+    public synchronized void contentChanged(final NodeState root, final CommitInfo info)
+    {
+        this.generation.incrementAndGet();
+        if (this.previousRoot == null || !Objects.equals(getVisitInformationUUID(this.previousRoot),
+            getVisitInformationUUID(root))) {
+            // The questionnaire was (re)installed, the cached UUID and statuses may be outdated
+            this.visitInformationUUID = null;
+            this.statuses.clear();
+            this.visitsByForm.clear();
+        } else {
+            root.getChildNode(FORMS).compareAgainstBaseState(this.previousRoot.getChildNode(FORMS),
+                new FormChangeDetector(getVisitInformationUUID(root)));
+        }
+        this.previousRoot = root;
+    }
+
+    private static String getVisitInformationUUID(final NodeState root)
+    {
+        return getString(root.getChildNode(QUESTIONNAIRES).getChildNode(VISIT_INFORMATION), "jcr:uuid");
+    }
+
+    /**
+     * Discard the cached status of the visit a form belongs to, if the form is a Visit Information form or the cached
+     * status was computed from it.
+     *
+     * @param name the name of the form node
+     * @param form the form node, {@code null} if it was removed
+     * @param questionnaireUUID the current UUID of the Visit Information questionnaire
+     */
+    private void formChanged(final String name, final NodeState form, final String questionnaireUUID)
+    {
+        final String visit = this.visitsByForm.remove("/" + FORMS + "/" + name);
+        if (visit != null) {
+            this.statuses.remove(visit);
+        }
+        final String questionnaire = form == null ? null : getString(form, "questionnaire");
+        if (questionnaire != null && questionnaire.equals(questionnaireUUID)) {
+            // Possibly a new Visit Information form for a visit that didn't have one before
+            final String subject = getString(form, "subject");
+            if (subject != null) {
+                this.statuses.remove(subject);
+            }
+        }
+    }
+
+    private static String getString(final NodeState node, final String property)
+    {
+        final PropertyState value = node.getProperty(property);
+        return value == null || value.isArray() ? null : value.getValue(Type.STRING);
+    }
+
+    /**
+     * Store a computed status, evicting other visits once the cache is full.
+     *
+     * @param visitUUID the UUID of a visit subject
+     * @param status the status of the visit
+     */
+    private void cacheStatus(final String visitUUID, final VisitStatus status)
+    {
+        this.statuses.put(visitUUID, status);
+        if (status.formPath != null) {
+            this.visitsByForm.put(status.formPath, visitUUID);
+        }
+        final Iterator<Map.Entry<String, VisitStatus>> entries = this.statuses.entrySet().iterator();
+        while (this.statuses.size() > MAX_CACHED_STATUSES && entries.hasNext()) {
+            final Map.Entry<String, VisitStatus> entry = entries.next();
+            if (!visitUUID.equals(entry.getKey())) {
+                entries.remove();
+                if (entry.getValue().formPath != null) {
+                    this.visitsByForm.remove(entry.getValue().formPath, entry.getKey());
+                }
+            }
+        }
+    }
+
+    private VisitStatus computeStatus(final String visitUUID)
+    {
+        try (ResourceResolver rr = getServiceResolver()) {
+            if (rr == null) {
+                return null;
+            }
+            final Session session = rr.adaptTo(Session.class);
+            final Node visitInformation = findVisitInformationForm(visitUUID, session);
+            if (visitInformation == null) {
+                return new VisitStatus(null, false);
+            }
+            final Node visitInformationQuestionnaire = this.formUtils.getQuestionnaire(visitInformation);
+            final Node submittedQuestion =
+                this.questionnaireUtils.getQuestion(visitInformationQuestionnaire, "surveys_submitted");
+            final Object submitted =
+                this.formUtils.getValue(this.formUtils.getAnswer(visitInformation, submittedQuestion));
+            return new VisitStatus(visitInformation.getPath(), submitted != null && !Long.valueOf(1).equals(submitted));
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Failed to determine if visit {} is unsubmitted: {}", visitUUID, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private Node findVisitInformationForm(final String subjectUUID, final Session session) throws RepositoryException
+    {
+        final NodeIterator results = session.getWorkspace().getQueryManager()
+            .createQuery("select vi.* from [cards:Form] as vi where vi.questionnaire = '"
+                + session.getNode(VISIT_INFORMATION_PATH).getIdentifier()
+                + "' and vi.subject = '" + subjectUUID + "'", Query.JCR_SQL2)
+            .execute().getNodes();
+        if (results.hasNext()) {
+            return results.nextNode();
+        }
+        return null;
+    }
+
+    private ResourceResolver getServiceResolver()
+    {
+        final ResourceResolverFactory factory = this.rrf;
+        if (factory == null) {
+            return null;
+        }
+        try {
+            return factory.getServiceResourceResolver(
+                Map.of(ResourceResolverFactory.SUBSERVICE, "UnsubmittedFormsRestriction"));
+        } catch (final LoginException e) {
+            LOGGER.warn("Failed to get service session: {}", e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Looks for changed forms. Only the forms themselves are compared, not their answers, since any change inside a
+     * form may change the status it records.
+     */
+    private final class FormChangeDetector extends DefaultNodeStateDiff
+    {
+        private final String questionnaireUUID;
+
+        FormChangeDetector(final String questionnaireUUID)
+        {
+            this.questionnaireUUID = questionnaireUUID;
+        }
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after)
+        {
+            formChanged(name, after, this.questionnaireUUID);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after)
+        {
+            formChanged(name, after, this.questionnaireUUID);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before)
+        {
+            formChanged(name, null, this.questionnaireUUID);
+            return true;
+        }
+    }
+
+    /**
+     * The cached status of a visit.
+     */
+    private static final class VisitStatus
+    {
+        /** The path of the Visit Information form, {@code null} if the visit doesn't have one. */
+        private final String formPath;
+
+        private final boolean unsubmitted;
+
+        VisitStatus(final String formPath, final boolean unsubmitted)
+        {
+            this.formPath = formPath;
+            this.unsubmitted = unsubmitted;
+        }
+    }
+}